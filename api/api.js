@@ -199,6 +199,15 @@ const blockDefinition = [];
     // Write the Block Manipulator's data into the map.
     blockManipulator.writeData = ChunkStorage.writeManipulatorWriteData;
 
+    // Undo the last Block Manipulator write. Only Block Manipulator writes are undoable.
+    // Nothing is written unless the whole write can be undone.
+    // Returns: [BlockEditResult] APPLIED, NOTHING, CHUNK_NOT_LOADED or CHANGED_SINCE (blocks were changed since, the write is dropped from the history).
+    blockManipulator.undo = ChunkStorage.undoBlockManipulator;
+
+    // Redo the last undone Block Manipulator write.
+    // Returns: [BlockEditResult] Same as undo.
+    blockManipulator.redo = ChunkStorage.redoBlockManipulator;
+
     //fixme ----- BEGIN BLOCK DATA MANIPULATOR API -----
 
     // Get the Block ID from raw Block data.
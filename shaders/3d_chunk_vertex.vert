@@ -0,0 +1,56 @@
+#version 410 core
+
+// Vert for packed chunk meshes, 8 bytes a vertex. Pairs with 3d_fragment.frag.
+// The layout is in PackedChunkVertex, keep the two in sync!
+
+// x: x (5) | y (8) | z (5) | face (3) | shade (3) | high x, y, z (1 each)
+// y: u tiles (5) | v tiles (5) | atlas region (16)
+layout (location = 0) in uvec2 packedVertex;
+
+out vec2 outputTextureCoordinate;
+out vec4 newColoring;
+flat out vec4 outputAtlasRegion;
+
+uniform mat4 cameraMatrix;
+uniform mat4 objectMatrix;
+// x, y, width, height of every block texture in the atlas, see AtlasRegionTable. Length is PackedChunkVertex.MAX_ATLAS_REGIONS
+uniform vec4 atlasRegions[128];
+
+// Same light levels as ChunkFaceGenerator: bright top, bright side x, bright side z, dark top, dark side
+const float shades[5] = float[](1.0, 0.925, 0.905, 0.8, 0.75);
+
+// Pushes the corners out a hair so neighbors overlap, same as the float meshes
+const float OVER_PROVISION = 0.00001;
+
+void main() {
+    uint packedPosition = packedVertex.x;
+    uint packedTexture = packedVertex.y;
+
+    vec3 position = vec3(packedPosition & 31u, (packedPosition >> 5u) & 255u, (packedPosition >> 13u) & 31u);
+    uint face = (packedPosition >> 18u) & 7u;
+    uint shade = (packedPosition >> 21u) & 7u;
+    vec3 high = vec3((packedPosition >> 24u) & 1u, (packedPosition >> 25u) & 1u, (packedPosition >> 26u) & 1u);
+
+    // Only along the two axes the face spans. Front & back face Z, left & right face X, bottom & top face Y
+    vec3 grow = (high * 2.0 - 1.0) * OVER_PROVISION;
+    if (face < 2u) {
+        grow.z = 0.0;
+    } else if (face < 4u) {
+        grow.x = 0.0;
+    } else {
+        grow.y = 0.0;
+    }
+
+    // Position in world relative to camera
+    vec4 cameraPosition = objectMatrix * vec4(position + grow, 1.0);
+
+    // Output real coordinates into gpu
+    gl_Position = cameraMatrix * cameraPosition;
+
+    outputTextureCoordinate = vec2(packedTexture & 31u, (packedTexture >> 5u) & 31u);
+
+    float light = shades[shade];
+    newColoring = vec4(light, light, light, 1.0);
+
+    outputAtlasRegion = atlasRegions[(packedTexture >> 10u) & 65535u];
+}
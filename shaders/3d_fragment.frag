@@ -5,13 +5,21 @@
 
 in vec2 outputTextureCoordinate;
 in vec4 newColoring;
+flat in vec4 outputAtlasRegion;
 
 out vec4 fragColor;
 
 uniform sampler2D textureSampler;
 
 void main() {
-    vec4 textureColor = texture(textureSampler, outputTextureCoordinate);
+    vec2 textureCoordinate = outputTextureCoordinate;
+
+    // Greedy quads count in tiles, wrap back into the block's spot in the atlas so it repeats once per block
+    if (outputAtlasRegion.z > 0.0) {
+        textureCoordinate = outputAtlasRegion.xy + fract(outputTextureCoordinate) * outputAtlasRegion.zw;
+    }
+
+    vec4 textureColor = texture(textureSampler, textureCoordinate);
 
     fragColor = textureColor * newColoring;
 }
@@ -6,9 +6,12 @@
 layout (location = 0) in vec3 position;
 layout (location = 1) in vec2 textureCoordinate;
 layout (location = 2) in vec4 color;
+// Greedy chunk meshes only. Unset it reads (0,0,0,1), a width of 0 means the texture coordinate is used as is
+layout (location = 4) in vec4 atlasRegion;
 
 out vec2 outputTextureCoordinate;
 out vec4 newColoring;
+flat out vec4 outputAtlasRegion;
 
 uniform mat4 cameraMatrix;
 uniform mat4 objectMatrix;
@@ -27,4 +30,6 @@ void main() {
     outputTextureCoordinate = textureCoordinate;
 
     newColoring = color;
+
+    outputAtlasRegion = atlasRegion;
 }
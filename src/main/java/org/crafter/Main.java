@@ -28,15 +28,25 @@ import org.crafter.engine.mesh.MeshStorage;
 import org.crafter.engine.shader.ShaderStorage;
 import org.crafter.engine.texture.TextureStorage;
 import org.crafter.engine.window.Window;
+import org.crafter.engine.world.block.BlockDefinitionContainer;
+import org.crafter.engine.world.chunk.Chunk;
+import org.crafter.engine.world.chunk.ChunkLifecycle;
 import org.crafter.engine.world.chunk.ChunkStorage;
+import org.crafter.engine.world.region.RegionStorage;
+import org.crafter.engine.world.region.WorldSaver;
+import org.crafter.engine.world_generation.ChunkStreamer;
 import org.crafter.engine.world_generation.ChunkThreadDirector;
 import org.crafter.engine.world_generation.chunk_generation.ChunkGenerator;
+import org.crafter.engine.world_generation.chunk_mesh_generation.AtlasRegionTable;
 import org.crafter.engine.world_generation.chunk_mesh_generation.ChunkMeshGenerator;
 import org.crafter.game.entity.player.Player;
 import org.crafter.game.entity.player.PlayerStorage;
 import org.joml.Vector2i;
 import org.joml.Vector3f;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import static org.crafter.engine.collision_detection.world_collision.Physics.entityPhysics;
 import static org.crafter.engine.utility.GameMath.getHorizontalDirection;
 import static org.crafter.engine.utility.GameMath.yawToLeft;
@@ -63,6 +73,11 @@ public class Main {
     // Fixme: this is for Classic only :D (V This thing V)
     private static final int classicMapSize = 16;
 
+    // FIXME: This also needs to be moved into a settings class!
+    // False is the classic fixed map, true streams chunks around the players with no map edge
+    private static final boolean infiniteWorld = false;
+    private static final int viewDistance = 8;
+
     public static void main(String[] args) {
 
         initialize();
@@ -75,6 +90,7 @@ public class Main {
             // Game must shut down external threads or it WILL hang
             ChunkMeshGenerator.stop();
             ChunkGenerator.stop();
+            WorldSaver.stop();
             throw new RuntimeException(e);
         }
 
@@ -93,10 +109,18 @@ public class Main {
 
         ChunkGenerator.start();
         ChunkMeshGenerator.start();
+        WorldSaver.start();
 
         ShaderStorage.createShader("3d", "shaders/3d_vertex.vert", "shaders/3d_fragment.frag");
         ShaderStorage.createUniform("3d", new String[]{"cameraMatrix", "objectMatrix"});
 
+        // Packed chunk meshes, see PackedChunkVertex
+        ShaderStorage.createShader("3d_chunk", "shaders/3d_chunk_vertex.vert", "shaders/3d_fragment.frag");
+        ShaderStorage.createUniform("3d_chunk", new String[]{"cameraMatrix", "objectMatrix", "atlasRegions"});
+        // Block textures never move in the atlas, so the regions only go in once
+        ShaderStorage.start("3d_chunk");
+        ShaderStorage.setUniform("atlasRegions", new AtlasRegionTable(BlockDefinitionContainer.getMainInstance()).getRegions());
+
         ShaderStorage.createShader("2d", "shaders/2d_vertex.vert", "shaders/2d_fragment.frag");
         ShaderStorage.createUniform("2d", new String[]{"cameraMatrix", "objectMatrix"});
 
@@ -110,7 +134,12 @@ public class Main {
 //            Window.maximize();
 //        }
 
-        classicChunkPayload();
+        if (infiniteWorld) {
+            ChunkStreamer.setViewDistance(viewDistance);
+            ChunkStreamer.setEnabled(true);
+        } else {
+            classicChunkPayload();
+        }
 
         addNewPlayer("singleplayer", true);
         getPlayer("singleplayer").setPosition(0,74,0);
@@ -146,6 +175,15 @@ public class Main {
         ShaderStorage.start("3d");
         ChunkThreadDirector.runLogic();
 
+        // Only does anything in an infinite world, when a player crosses into another chunk
+        ChunkStreamer.tick();
+
+        // Only does anything when an autosave is due, the writing happens off thread
+        WorldSaver.tick();
+
+        // Only does anything once a second, unloads far away chunks if over budget
+        ChunkLifecycle.tick();
+
         // Implement first person camera movement
         Camera.firstPersonCamera();
 
@@ -163,16 +201,15 @@ public class Main {
             getClientPlayer().renderCollisionBox();
         }
 
-        // Render all chunks
-        for (int x = -classicMapSize; x <= classicMapSize; x++) {
-            for (int z = -classicMapSize; z <= classicMapSize; z++) {
-                final Vector2i requestingPosition = new Vector2i(x,z);
-                if (ChunkStorage.hasChunk(requestingPosition)) {
-                    ChunkStorage.getChunk(requestingPosition).render();
-                }
-            }
+        // Packed chunk meshes have their own shader, which needs the camera matrix too
+        if (ChunkMeshGenerator.isPackedVertices()) {
+            ShaderStorage.start("3d_chunk");
+            Camera.updateCameraMatrix();
         }
 
+        // Render all chunks, whatever is loaded. Classic or streamed
+        ChunkStorage.forEachChunk(Chunk::render);
+
 
 
         Window.swapBuffers();
@@ -253,16 +290,21 @@ public class Main {
      * In subsequent versions, this probably shouldn't be used and should use an initial circular generation or something.
      */
     private static void classicChunkPayload() {
+        final List<Vector2i> payload = new ArrayList<>();
         for (int x = -classicMapSize; x < classicMapSize; x++) {
             for (int z = -classicMapSize; z < classicMapSize; z++) {
-                ChunkGenerator.pushRequest(new Vector2i(x, z));
+                payload.add(new Vector2i(x, z));
             }
         }
+        // In one go, so the generator sorts the whole map before it starts on it
+        ChunkGenerator.pushRequests(payload);
     }
 
     private static void destroy() {
         ChunkMeshGenerator.stop();
         ChunkGenerator.stop();
+        WorldSaver.flush();
+        RegionStorage.closeAll();
         TextureStorage.destroyAll();
         MeshStorage.destroyAll();
         ShaderStorage.destroyAll();
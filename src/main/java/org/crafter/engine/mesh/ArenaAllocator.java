@@ -0,0 +1,317 @@
+/*
+ Crafter - A blocky game (engine) written in Java with LWJGL.
+ Copyright (C) 2023  jordan4ibanez
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.crafter.engine.mesh;
+
+import java.util.Arrays;
+
+/**
+ * Hands out ranges of one big buffer, in whatever unit the owner counts in. Nothing in here touches OpenGL.
+ * Free ranges are kept sorted & merged with their neighbors, allocate() takes the one that fits best.
+ * compact() slides everything down to the start, leaving one free range at the end, and remembers where everything went.
+ * Not thread safe.
+ */
+public class ArenaAllocator {
+
+    // allocate() couldn't find a free range big enough
+    public static final int NONE = -1;
+
+    private int capacity;
+    private int used = 0;
+
+    // Free ranges, sorted by start, never touching each other
+    private int[] freeStarts = new int[64];
+    private int[] freeLengths = new int[64];
+    private int freeCount = 0;
+
+    // Every run of allocations as of the last compact(), sorted by where they were
+    private int[] moveFrom = new int[64];
+    private int[] moveTo = new int[64];
+    private int[] moveLength = new int[64];
+    private int moveCount = 0;
+
+    /**
+     * @param capacity How many units there are to hand out, above 0.
+     */
+    public ArenaAllocator(final int capacity) {
+        if (capacity <= 0) {
+            throw new RuntimeException("ArenaAllocator: Capacity (" + capacity + ") must be above 0!");
+        }
+        this.capacity = capacity;
+        insertFree(0, 0, capacity);
+    }
+
+    /**
+     * @param size Units wanted, above 0.
+     * @return Where the range starts, or NONE if no free range is big enough. compact() or grow() may make room.
+     */
+    public int allocate(final int size) {
+        checkSize(size);
+        int best = -1;
+        for (int i = 0; i < freeCount; i++) {
+            if (freeLengths[i] >= size && (best == -1 || freeLengths[i] < freeLengths[best])) {
+                best = i;
+                if (freeLengths[i] == size) {
+                    break;
+                }
+            }
+        }
+        if (best == -1) {
+            return NONE;
+        }
+        final int start = freeStarts[best];
+        if (freeLengths[best] == size) {
+            removeFree(best);
+        } else {
+            freeStarts[best] += size;
+            freeLengths[best] -= size;
+        }
+        used += size;
+        return start;
+    }
+
+    /**
+     * @param start Where the range starts, from allocate().
+     * @param size The size it was allocated at.
+     */
+    public void free(final int start, final int size) {
+        checkSize(size);
+        if (start < 0 || start + size > capacity) {
+            throw new RuntimeException("ArenaAllocator: Tried to free (" + start + ", " + size + ") outside of the capacity (" + capacity + ")!");
+        }
+        final int index = findInsert(start);
+        // Overlapping a free range means this was freed already, or never allocated
+        if ((index > 0 && freeStarts[index - 1] + freeLengths[index - 1] > start) || (index < freeCount && start + size > freeStarts[index])) {
+            throw new RuntimeException("ArenaAllocator: Tried to free (" + start + ", " + size + ") which is already free!");
+        }
+        used -= size;
+        final boolean mergeBefore = index > 0 && freeStarts[index - 1] + freeLengths[index - 1] == start;
+        final boolean mergeAfter = index < freeCount && start + size == freeStarts[index];
+        if (mergeBefore && mergeAfter) {
+            freeLengths[index - 1] += size + freeLengths[index];
+            removeFree(index);
+        } else if (mergeBefore) {
+            freeLengths[index - 1] += size;
+        } else if (mergeAfter) {
+            freeStarts[index] = start;
+            freeLengths[index] += size;
+        } else {
+            insertFree(index, start, size);
+        }
+    }
+
+    /**
+     * Change the size of a range without moving it. Shrinking always works, growing only if the units right after it are free.
+     * @param start Where the range starts.
+     * @param oldSize The size it has now.
+     * @param newSize The size it should have, above 0.
+     * @return True if it was resized, false if it has to move instead.
+     */
+    public boolean resize(final int start, final int oldSize, final int newSize) {
+        checkSize(newSize);
+        if (newSize < oldSize) {
+            free(start + newSize, oldSize - newSize);
+            return true;
+        }
+        if (newSize == oldSize) {
+            return true;
+        }
+        final int end = start + oldSize;
+        // The free range starting right at the end, if there is one
+        final int index = findInsert(end - 1);
+        final int extra = newSize - oldSize;
+        if (index == freeCount || freeStarts[index] != end || freeLengths[index] < extra) {
+            return false;
+        }
+        if (freeLengths[index] == extra) {
+            removeFree(index);
+        } else {
+            freeStarts[index] += extra;
+            freeLengths[index] -= extra;
+        }
+        used += extra;
+        return true;
+    }
+
+    /**
+     * Make the arena bigger. The new units go on the end.
+     * @param newCapacity Above the current capacity.
+     */
+    public void grow(final int newCapacity) {
+        if (newCapacity <= capacity) {
+            throw new RuntimeException("ArenaAllocator: Tried to grow from (" + capacity + ") to (" + newCapacity + ")!");
+        }
+        final int extra = newCapacity - capacity;
+        if (freeCount > 0 && freeStarts[freeCount - 1] + freeLengths[freeCount - 1] == capacity) {
+            freeLengths[freeCount - 1] += extra;
+        } else {
+            insertFree(freeCount, capacity, extra);
+        }
+        capacity = newCapacity;
+    }
+
+    /**
+     * Slide every allocation down to the start, in order, leaving one free range at the end.
+     * The owner has to copy the data over, getMove*() has every run of allocations that has to go, relocate() finds a new start.
+     * @return How many runs of allocations there are. Runs that didn't move are in there too, with the same from & to.
+     */
+    public int compact() {
+        moveCount = 0;
+        int position = 0;
+        int cursor = 0;
+        for (int i = 0; i <= freeCount; i++) {
+            // The live run before each free range, then the one after the last
+            final int runEnd = i < freeCount ? freeStarts[i] : capacity;
+            if (runEnd > position) {
+                addMove(position, cursor, runEnd - position);
+                cursor += runEnd - position;
+            }
+            if (i < freeCount) {
+                position = freeStarts[i] + freeLengths[i];
+            }
+        }
+        freeCount = 0;
+        if (cursor < capacity) {
+            insertFree(0, cursor, capacity - cursor);
+        }
+        return moveCount;
+    }
+
+    /**
+     * @param start Where an allocation started before the last compact().
+     * @return Where it starts now.
+     */
+    public int relocate(final int start) {
+        int low = 0;
+        int high = moveCount - 1;
+        while (low <= high) {
+            final int middle = (low + high) >>> 1;
+            if (moveFrom[middle] + moveLength[middle] <= start) {
+                low = middle + 1;
+            } else if (moveFrom[middle] > start) {
+                high = middle - 1;
+            } else {
+                return start - moveFrom[middle] + moveTo[middle];
+            }
+        }
+        throw new RuntimeException("ArenaAllocator: (" + start + ") was not allocated when compact() ran!");
+    }
+
+    public int getMoveFrom(final int move) {
+        return moveFrom[move];
+    }
+
+    public int getMoveTo(final int move) {
+        return moveTo[move];
+    }
+
+    public int getMoveLength(final int move) {
+        return moveLength[move];
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * @return Units allocated.
+     */
+    public int getUsed() {
+        return used;
+    }
+
+    /**
+     * @return Units free, all ranges together.
+     */
+    public int getFree() {
+        return capacity - used;
+    }
+
+    /**
+     * @return The biggest allocation that would fit right now.
+     */
+    public int getLargestFree() {
+        int largest = 0;
+        for (int i = 0; i < freeCount; i++) {
+            largest = Math.max(largest, freeLengths[i]);
+        }
+        return largest;
+    }
+
+    public int getFreeRangeCount() {
+        return freeCount;
+    }
+
+    /**
+     * @return 0 when all the free units are in one range, towards 1 the more they're scattered.
+     */
+    public double getFragmentation() {
+        final int free = getFree();
+        return free == 0 ? 0 : 1.0 - (double) getLargestFree() / free;
+    }
+
+    private void checkSize(final int size) {
+        if (size <= 0) {
+            throw new RuntimeException("ArenaAllocator: Size (" + size + ") must be above 0!");
+        }
+    }
+
+    // Index of the first free range starting after start
+    private int findInsert(final int start) {
+        int low = 0;
+        int high = freeCount;
+        while (low < high) {
+            final int middle = (low + high) >>> 1;
+            if (freeStarts[middle] <= start) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    private void insertFree(final int index, final int start, final int length) {
+        if (freeCount == freeStarts.length) {
+            freeStarts = Arrays.copyOf(freeStarts, freeCount * 2);
+            freeLengths = Arrays.copyOf(freeLengths, freeCount * 2);
+        }
+        System.arraycopy(freeStarts, index, freeStarts, index + 1, freeCount - index);
+        System.arraycopy(freeLengths, index, freeLengths, index + 1, freeCount - index);
+        freeStarts[index] = start;
+        freeLengths[index] = length;
+        freeCount++;
+    }
+
+    private void removeFree(final int index) {
+        System.arraycopy(freeStarts, index + 1, freeStarts, index, freeCount - index - 1);
+        System.arraycopy(freeLengths, index + 1, freeLengths, index, freeCount - index - 1);
+        freeCount--;
+    }
+
+    private void addMove(final int from, final int to, final int length) {
+        if (moveCount == moveFrom.length) {
+            moveFrom = Arrays.copyOf(moveFrom, moveCount * 2);
+            moveTo = Arrays.copyOf(moveTo, moveCount * 2);
+            moveLength = Arrays.copyOf(moveLength, moveCount * 2);
+        }
+        moveFrom[moveCount] = from;
+        moveTo[moveCount] = to;
+        moveLength[moveCount] = length;
+        moveCount++;
+    }
+}
@@ -0,0 +1,31 @@
+/*
+ Crafter - A blocky game (engine) written in Java with LWJGL.
+ Copyright (C) 2023  jordan4ibanez
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.crafter.engine.mesh;
+
+/**
+ * Where one mesh lives in the ChunkGeometryArena, in quads.
+ */
+final class ArenaSlot {
+
+    // ArenaAllocator.NONE while it holds no quads
+    int start = ArenaAllocator.NONE;
+    // Quads reserved, room to grow into on a remesh
+    int capacity = 0;
+    // Quads drawn
+    int quads = 0;
+}
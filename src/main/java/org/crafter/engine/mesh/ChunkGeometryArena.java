@@ -0,0 +1,339 @@
+/*
+ Crafter - A blocky game (engine) written in Java with LWJGL.
+ Copyright (C) 2023  jordan4ibanez
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.crafter.engine.mesh;
+
+import org.crafter.engine.texture.TextureStorage;
+import org.crafter.engine.utility.HandleTable;
+import org.lwjgl.PointerBuffer;
+import org.lwjgl.system.MemoryUtil;
+
+import java.nio.IntBuffer;
+
+import static org.lwjgl.opengl.GL15.*;
+import static org.lwjgl.opengl.GL30.*;
+import static org.lwjgl.opengl.GL31.GL_COPY_READ_BUFFER;
+import static org.lwjgl.opengl.GL31.GL_COPY_WRITE_BUFFER;
+import static org.lwjgl.opengl.GL31.glCopyBufferSubData;
+import static org.lwjgl.opengl.GL32.glDrawElementsBaseVertex;
+import static org.lwjgl.opengl.GL32.glMultiDrawElementsBaseVertex;
+
+/**
+ * Every packed chunk mesh in one big vertex buffer & one VAO, instead of a VAO & VBO each.
+ * Space is handed out in quads by an ArenaAllocator. A remesh that still fits its slot is written over the old one,
+ * nothing is created or deleted. A chunk's visible stacks go out in one multi draw, each at its own base vertex.
+ * When nothing fits, the buffer is compacted into a new one, grown if it's getting full.
+ * Indices come out of the short QuadIndexBuffer, so a mesh has to fit it. See fits().
+ * Main thread only, like Mesh.
+ */
+public final class ChunkGeometryArena {
+
+    private static final int INVALID = 0;
+    private static final int VERTICES_PER_QUAD = 4;
+    private static final int INDICES_PER_QUAD = 6;
+    // 64K quads to start with, 2 MB of 8 byte vertices
+    private static final int MIN_QUADS = 1 << 16;
+    // Slots are reserved in steps of this many quads, so a remesh that grows a little still fits in place
+    private static final int SLOT_STEP = 32;
+
+    private static final HandleTable<ArenaSlot> slots = new HandleTable<>("arena mesh");
+    private static ArenaAllocator allocator = null;
+
+    private static int vaoID = INVALID;
+    private static int vboID = INVALID;
+    private static int textureID = INVALID;
+    private static String textureFileLocation = null;
+    private static int componentsInStructure = 0;
+    private static int quadBytes = 0;
+
+    // Multi draw parameters, grown to the biggest batch
+    private static IntBuffer drawCounts = null;
+    private static IntBuffer drawBaseVertices = null;
+    private static PointerBuffer drawOffsets = null;
+
+    private static long inPlaceUpdates = 0;
+    private static long movedUpdates = 0;
+    private static int compactions = 0;
+
+    private ChunkGeometryArena() {}
+
+    /**
+     * @param vertexCount Vertices in the mesh, 4 a quad.
+     * @return True if the mesh can go in the arena. Past QuadIndexBuffer.MAX_SHORT_VERTICES it needs a Mesh of its own.
+     */
+    public static boolean fits(final int vertexCount) {
+        return QuadIndexBuffer.isShort(vertexCount);
+    }
+
+    /**
+     * @param packedVertices componentsInStructure ints a vertex, always quads. See PackedChunkVertex.
+     * @param componentsInStructure Ints a vertex. The same for every mesh in the arena.
+     * @param textureFileLocation The texture. The same for every mesh in the arena.
+     * @return The handle of the new mesh, above 0.
+     */
+    public static int add(final int[] packedVertices, final int componentsInStructure, final String textureFileLocation) {
+        initialize(componentsInStructure, textureFileLocation);
+        final ArenaSlot slot = new ArenaSlot();
+        write(slot, packedVertices);
+        return slots.add(slot);
+    }
+
+    /**
+     * Swap the mesh out for a new one. Written over the old one if it fits, the handle stays the same either way.
+     * @param handle A handle from add().
+     * @param packedVertices Same layout as add().
+     */
+    public static void replace(final int handle, final int[] packedVertices) {
+        write(slots.get(handle), packedVertices);
+    }
+
+    /**
+     * @param handle A handle from add(). It is stale from here on.
+     */
+    public static void remove(final int handle) {
+        final ArenaSlot slot = slots.remove(handle);
+        if (slot.capacity > 0) {
+            allocator.free(slot.start, slot.capacity);
+        }
+    }
+
+    /**
+     * Draw a batch of meshes that share the object matrix that's set, like the stacks of one chunk.
+     * @param handles Handles from add().
+     * @param count How many of them to draw.
+     */
+    public static void draw(final int[] handles, final int count) {
+        if (count == 0) {
+            return;
+        }
+        if (count > drawCounts.capacity()) {
+            growDrawBuffers(count);
+        }
+        drawCounts.clear();
+        drawBaseVertices.clear();
+        int draws = 0;
+        for (int i = 0; i < count; i++) {
+            final ArenaSlot slot = slots.get(handles[i]);
+            if (slot.quads == 0) {
+                continue;
+            }
+            drawCounts.put(slot.quads * INDICES_PER_QUAD);
+            drawBaseVertices.put(slot.start * VERTICES_PER_QUAD);
+            draws++;
+        }
+        if (draws == 0) {
+            return;
+        }
+
+        glBindTexture(GL_TEXTURE_2D, textureID);
+        glBindVertexArray(vaoID);
+        if (draws == 1) {
+            glDrawElementsBaseVertex(GL_TRIANGLES, drawCounts.get(0), GL_UNSIGNED_SHORT, 0, drawBaseVertices.get(0));
+        } else {
+            drawCounts.flip();
+            drawBaseVertices.flip();
+            // Every draw starts at index 0 of the shared quad indices
+            drawOffsets.clear().limit(draws);
+            glMultiDrawElementsBaseVertex(GL_TRIANGLES, drawCounts, GL_UNSIGNED_SHORT, drawOffsets, drawBaseVertices);
+        }
+        glBindVertexArray(0);
+    }
+
+    /**
+     * @return How the arena is doing, one line.
+     */
+    public static String report() {
+        if (allocator == null) {
+            return "ChunkGeometryArena: Empty";
+        }
+        return "ChunkGeometryArena: (" + slots.size() + ") meshes | (" + ((long) allocator.getUsed() * quadBytes / 1024) + "/" + ((long) allocator.getCapacity() * quadBytes / 1024) +
+                ") KB used | (" + inPlaceUpdates + ") remeshes in place | (" + movedUpdates + ") moved | (" + compactions + ") compactions | fragmentation (" +
+                (int) (allocator.getFragmentation() * 100) + "%)";
+    }
+
+    /**
+     * Delete the buffers. Every handle is stale after this. Only run this AFTER the main loop has run.
+     */
+    static void destroy() {
+        slots.clear();
+        allocator = null;
+        if (vaoID != INVALID) {
+            glDeleteVertexArrays(vaoID);
+            glDeleteBuffers(vboID);
+            vaoID = INVALID;
+            vboID = INVALID;
+        }
+        if (drawCounts != null) {
+            MemoryUtil.memFree(drawCounts);
+            MemoryUtil.memFree(drawBaseVertices);
+            MemoryUtil.memFree(drawOffsets);
+            drawCounts = null;
+            drawBaseVertices = null;
+            drawOffsets = null;
+        }
+    }
+
+    private static void initialize(final int componentsInStructure, final String textureFileLocation) {
+        if (allocator != null) {
+            if (componentsInStructure != ChunkGeometryArena.componentsInStructure || !textureFileLocation.equals(ChunkGeometryArena.textureFileLocation)) {
+                throw new RuntimeException("ChunkGeometryArena: Every mesh has to have (" + ChunkGeometryArena.componentsInStructure + ") ints a vertex & the texture (" +
+                        ChunkGeometryArena.textureFileLocation + ")! Got (" + componentsInStructure + ") & (" + textureFileLocation + ")!");
+            }
+            return;
+        }
+        try {
+            textureID = TextureStorage.getID(textureFileLocation);
+        } catch (RuntimeException e) {
+            throw new RuntimeException("ChunkGeometryArena: Tried to use a nonexistent texture (" + textureFileLocation + ")! Did you add it to the TextureStorage?");
+        }
+        ChunkGeometryArena.textureFileLocation = textureFileLocation;
+        ChunkGeometryArena.componentsInStructure = componentsInStructure;
+        quadBytes = componentsInStructure * Integer.BYTES * VERTICES_PER_QUAD;
+        allocator = new ArenaAllocator(MIN_QUADS);
+
+        vaoID = glGenVertexArrays();
+        glBindVertexArray(vaoID);
+        vboID = createBuffer(MIN_QUADS);
+        bindVertexBuffer();
+        // The biggest mesh that fits the arena, so the short buffer never has to grow again
+        QuadIndexBuffer.bind(QuadIndexBuffer.MAX_SHORT_VERTICES);
+        glBindVertexArray(0);
+
+        growDrawBuffers(8);
+    }
+
+    // Put the new vertices into the slot, in place if they fit
+    private static void write(final ArenaSlot slot, final int[] packedVertices) {
+        final int vertexCount = packedVertices.length / componentsInStructure;
+        if (!fits(vertexCount)) {
+            throw new RuntimeException("ChunkGeometryArena: Mesh of (" + vertexCount + ") vertices is too big! Check fits() first");
+        }
+        final int quads = QuadIndexBuffer.getIndexCount(vertexCount) / INDICES_PER_QUAD;
+        final int capacity = quads == 0 ? 0 : (quads + SLOT_STEP - 1) / SLOT_STEP * SLOT_STEP;
+
+        if (capacity == 0) {
+            if (slot.capacity > 0) {
+                allocator.free(slot.start, slot.capacity);
+                slot.start = ArenaAllocator.NONE;
+                slot.capacity = 0;
+            }
+        } else if (slot.capacity == 0) {
+            slot.start = allocate(capacity);
+            slot.capacity = capacity;
+        } else if (quads <= slot.capacity) {
+            // Give back the end of a slot that's far too big now, but never move for it
+            if (capacity < slot.capacity / 2) {
+                allocator.resize(slot.start, slot.capacity, capacity);
+                slot.capacity = capacity;
+            }
+            inPlaceUpdates++;
+        } else if (allocator.resize(slot.start, slot.capacity, capacity)) {
+            slot.capacity = capacity;
+            inPlaceUpdates++;
+        } else {
+            allocator.free(slot.start, slot.capacity);
+            // Out of the way of a compaction in allocate()
+            slot.capacity = 0;
+            slot.start = allocate(capacity);
+            slot.capacity = capacity;
+            movedUpdates++;
+        }
+        slot.quads = quads;
+
+        if (quads > 0) {
+            final IntBuffer buffer = Mesh.getUploadBuffer(packedVertices.length).asIntBuffer();
+            buffer.put(packedVertices).flip();
+            glBindBuffer(GL_ARRAY_BUFFER, vboID);
+            glBufferSubData(GL_ARRAY_BUFFER, (long) slot.start * quadBytes, buffer);
+            glBindBuffer(GL_ARRAY_BUFFER, 0);
+        }
+    }
+
+    private static int allocate(final int quads) {
+        final int start = allocator.allocate(quads);
+        if (start != ArenaAllocator.NONE) {
+            return start;
+        }
+        // Compact into a new buffer. Grown by half again if it would be over 3/4 full, so this doesn't come around every remesh
+        final long needed = (long) allocator.getUsed() + quads;
+        final int capacity = needed * 4 <= (long) allocator.getCapacity() * 3 ? allocator.getCapacity() :
+                (int) Math.max(needed + (needed >> 1), allocator.getCapacity() + (allocator.getCapacity() >> 1));
+        rebuild(capacity);
+        return allocator.allocate(quads);
+    }
+
+    // Copy every slot down into a new buffer of this many quads, closing the gaps between them
+    private static void rebuild(final int capacity) {
+        final int newVboID = createBuffer(capacity);
+        glBindBuffer(GL_COPY_READ_BUFFER, vboID);
+        glBindBuffer(GL_COPY_WRITE_BUFFER, newVboID);
+        final int moves = allocator.compact();
+        for (int move = 0; move < moves; move++) {
+            glCopyBufferSubData(GL_COPY_READ_BUFFER, GL_COPY_WRITE_BUFFER, (long) allocator.getMoveFrom(move) * quadBytes,
+                    (long) allocator.getMoveTo(move) * quadBytes, (long) allocator.getMoveLength(move) * quadBytes);
+        }
+        glBindBuffer(GL_COPY_READ_BUFFER, 0);
+        glBindBuffer(GL_COPY_WRITE_BUFFER, 0);
+        if (capacity > allocator.getCapacity()) {
+            allocator.grow(capacity);
+        }
+
+        for (int i = 0; i < slots.getSlotCount(); i++) {
+            final ArenaSlot slot = slots.getSlot(i);
+            if (slot != null && slot.capacity > 0) {
+                slot.start = allocator.relocate(slot.start);
+            }
+        }
+
+        glDeleteBuffers(vboID);
+        vboID = newVboID;
+        glBindVertexArray(vaoID);
+        bindVertexBuffer();
+        glBindVertexArray(0);
+        compactions++;
+    }
+
+    private static int createBuffer(final int quads) {
+        final int bufferID = glGenBuffers();
+        glBindBuffer(GL_ARRAY_BUFFER, bufferID);
+        glBufferData(GL_ARRAY_BUFFER, (long) quads * quadBytes, GL_DYNAMIC_DRAW);
+        glBindBuffer(GL_ARRAY_BUFFER, 0);
+        return bufferID;
+    }
+
+    // Point the VAO at the vertex buffer, it has to be bound
+    private static void bindVertexBuffer() {
+        glBindBuffer(GL_ARRAY_BUFFER, vboID);
+        glVertexAttribIPointer(0, componentsInStructure, GL_UNSIGNED_INT, 0, 0);
+        glEnableVertexAttribArray(0);
+        glBindBuffer(GL_ARRAY_BUFFER, 0);
+    }
+
+    private static void growDrawBuffers(final int draws) {
+        if (drawCounts != null) {
+            MemoryUtil.memFree(drawCounts);
+            MemoryUtil.memFree(drawBaseVertices);
+            MemoryUtil.memFree(drawOffsets);
+        }
+        drawCounts = MemoryUtil.memAllocInt(draws);
+        drawBaseVertices = MemoryUtil.memAllocInt(draws);
+        drawOffsets = MemoryUtil.memAllocPointer(draws);
+        for (int i = 0; i < draws; i++) {
+            drawOffsets.put(i, 0);
+        }
+    }
+}
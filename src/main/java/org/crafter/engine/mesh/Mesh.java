@@ -20,6 +20,7 @@ package org.crafter.engine.mesh;
 import org.crafter.engine.texture.TextureStorage;
 import org.lwjgl.system.MemoryUtil;
 
+import java.nio.ByteBuffer;
 import java.nio.FloatBuffer;
 import java.nio.IntBuffer;
 
@@ -39,6 +40,10 @@ public class Mesh {
     // Reserved invalidation token
     private static final int INVALID = Integer.MAX_VALUE;
 
+    // Every upload is copied through this instead of a fresh malloc & free per VBO. Grows to the biggest upload & stays.
+    // Main thread only, like everything else in here
+    private static ByteBuffer uploadBuffer = null;
+
     // Reserved mesh name for internal debugging
     private final String name;
 
@@ -55,6 +60,9 @@ public class Mesh {
     // Used for render method
     private final int indicesCount;
 
+    // GL_UNSIGNED_INT, or GL_UNSIGNED_SHORT for small quad meshes
+    private final int indexType;
+
     private int textureID;
 
 
@@ -63,8 +71,16 @@ public class Mesh {
 
     private int colorsVboID = INVALID;
 
+    private int atlasRegionsVboID = INVALID;
+
     // Not using builder pattern in Java because I'm trying out a new structure implementation
     public Mesh(String name, float[] positions, float[] textureCoordinates, int[] indices, int[] bones, float[] colors, String textureFileLocation, boolean is2d) {
+        this(name, positions, textureCoordinates, indices, bones, colors, null, textureFileLocation, is2d);
+    }
+
+    // Atlas regions are optional, with them the texture coordinates count tiles that repeat inside the region (see 3d shader)
+    // Indices are optional for meshes made of nothing but quads, null draws them out of the QuadIndexBuffer
+    public Mesh(String name, float[] positions, float[] textureCoordinates, int[] indices, int[] bones, float[] colors, float[] atlasRegions, String textureFileLocation, boolean is2d) {
 
         // Before anything is sent to the GPU, let's check that texture
         try {
@@ -79,9 +95,11 @@ public class Mesh {
 
         // Begin OpenGL contextual creation
 
-        checkRequired(positions, textureCoordinates, indices);
+        checkRequired(positions, textureCoordinates);
 
-        indicesCount = indices.length;
+        final int vertexCount = positions.length / (is2d ? 2 : 3);
+        indicesCount = indices == null ? QuadIndexBuffer.getIndexCount(vertexCount) : indices.length;
+        indexType = indices == null ? QuadIndexBuffer.getIndexType(vertexCount) : GL_UNSIGNED_INT;
 
         vaoID = glGenVertexArrays();
 
@@ -92,7 +110,7 @@ public class Mesh {
         // Assign REQUIRED Vertex buffer Objects
         positionsVboID = uploadFloatArray(positions, 0, is2d ? 2 : 3);
         textureCoordinatesVboID = uploadFloatArray(textureCoordinates, 1, 2);
-        indicesVboID = uploadIndices(indices);
+        indicesVboID = indices == null ? bindQuadIndices(vertexCount) : uploadIndices(indices);
 
         // Assign OPTIONAL Vertex Buffer Objects
         if (bones != null) {
@@ -103,10 +121,46 @@ public class Mesh {
             colorsVboID = uploadFloatArray(colors, 2, 4);
         }
 
+        if (atlasRegions != null) {
+            atlasRegionsVboID = uploadFloatArray(atlasRegions, 4, 4);
+        }
+
         // Now unbind the Vertex Array Object context
         glBindVertexArray(0);
     }
 
+    // Packed chunk vertices (see PackedChunkVertex), PackedChunkVertex.SIZE ints a vertex in one VBO at location 0. Draw these with the 3d_chunk shader
+    // These are always quads, drawn out of the QuadIndexBuffer
+    public Mesh(String name, int[] packedVertices, int componentsInStructure, String textureFileLocation) {
+
+        try {
+            textureID = TextureStorage.getID(textureFileLocation);
+        } catch (RuntimeException e) {
+            throw new RuntimeException("Mesh: Tried to use a nonexistent texture for a mesh! (" + textureFileLocation + ") does not exist! Did you add it to the TextureStorage?");
+        }
+
+        this.name = name;
+
+        if (packedVertices == null) {
+            throw new RuntimeException("Mesh: Packed vertices parameter CANNOT be null!");
+        }
+
+        final int vertexCount = packedVertices.length / componentsInStructure;
+        indicesCount = QuadIndexBuffer.getIndexCount(vertexCount);
+        indexType = QuadIndexBuffer.getIndexType(vertexCount);
+
+        vaoID = glGenVertexArrays();
+
+        glBindVertexArray(vaoID);
+
+        // Everything is in the one VBO, it takes the positions slot
+        positionsVboID = uploadPackedArray(packedVertices, 0, componentsInStructure);
+        textureCoordinatesVboID = INVALID;
+        indicesVboID = bindQuadIndices(vertexCount);
+
+        glBindVertexArray(0);
+    }
+
     // Allows hot swapping texture for Mesh
     void swapTexture(String newTextureLocation) {
         int newTextureID;
@@ -143,7 +197,7 @@ public class Mesh {
         // glDrawArrays(GL_LINES, 0, this.indexCount)
 
         // Draw it - Indices Array starts at 0 (tightly packed)
-        glDrawElements(GL_TRIANGLES, indicesCount, GL_UNSIGNED_INT, 0);
+        glDrawElements(GL_TRIANGLES, indicesCount, indexType, 0);
 
         // Optional safety precaution
         // Unbind Vertex Array Object context
@@ -155,111 +209,129 @@ public class Mesh {
         glBindTexture(GL_TEXTURE_2D, textureID);
         glBindVertexArray(vaoID);
 //        glDrawArrays(GL_TRIANGLES, 0, indicesCount);
-         glDrawElements(GL_LINES, indicesCount, GL_UNSIGNED_INT, 0);
+         glDrawElements(GL_LINES, indicesCount, indexType, 0);
         glBindVertexArray(0);
     }
 
     // float[] automator method
     private int uploadFloatArray(float[] floatArray, int glslPosition, int componentsInStructure) {
-        // Starts off as: float* var = nullptr;
-        FloatBuffer buffer = null;
 
-        final int returningID;
+        final FloatBuffer buffer = getUploadBuffer(floatArray.length).asFloatBuffer();
+        buffer.put(floatArray).flip();
 
-        try {
-
-            buffer = MemoryUtil.memAllocFloat(floatArray.length);
-            buffer.put(floatArray).flip();
+        final int returningID = glGenBuffers();
 
-            returningID = glGenBuffers();
+        // Bind into the Vertex Buffer Object context
+        glBindBuffer(GL_ARRAY_BUFFER, returningID);
 
-            // Bind into the Vertex Buffer Object context
-            glBindBuffer(GL_ARRAY_BUFFER, returningID);
+        glBufferData(GL_ARRAY_BUFFER, buffer, GL_STATIC_DRAW);
+        // Not normalized (false), no stride (0), array starts at index 0 (0)
+        glVertexAttribPointer(glslPosition, componentsInStructure, GL_FLOAT, false, 0, 0);
 
-            glBufferData(GL_ARRAY_BUFFER, buffer, GL_STATIC_DRAW);
-            // Not normalized (false), no stride (0), array starts at index 0 (0)
-            glVertexAttribPointer(glslPosition, componentsInStructure, GL_FLOAT, false, 0, 0);
+        // Now enable memory address pointer
+        glEnableVertexAttribArray(glslPosition);
 
-            // Now enable memory address pointer
-            glEnableVertexAttribArray(glslPosition);
+        // Now unbind the Vertex Buffer Object context
+        glBindBuffer(GL_ARRAY_BUFFER, 0);
 
-            // Now unbind the Vertex Buffer Object context
-            glBindBuffer(GL_ARRAY_BUFFER, 0);
-
-        } finally {
-            // Free the C float*
-            if (buffer != null) {
-                MemoryUtil.memFree(buffer);
-            }
-        }
         return returningID;
     }
 
     // int[] automator method
     private int uploadIntArray(int[] intArray, int glslPosition, int componentsInStructure) {
-        // Starts off as: int* var = nullptr;
-        IntBuffer buffer = null;
 
-        final int returningID;
+        final IntBuffer buffer = getUploadBuffer(intArray.length).asIntBuffer();
+        buffer.put(intArray).flip();
 
-        try {
+        final int returningID = glGenBuffers();
+
+        // Bind into the Vertex Buffer Object context
+        glBindBuffer(GL_ARRAY_BUFFER, returningID);
+
+        glBufferData(GL_ARRAY_BUFFER, buffer, GL_STATIC_DRAW);
+        // Not normalized (false), no stride (0), array starts at index 0 (0)
+        glVertexAttribIPointer(glslPosition, componentsInStructure, GL_INT, 0, 0);
 
-            buffer = MemoryUtil.memAllocInt(intArray.length);
-            buffer.put(intArray).flip();
+        // Now enable memory address pointer
+        glEnableVertexAttribArray(glslPosition);
 
-            returningID = glGenBuffers();
+        // Now unbind the Vertex Buffer Object context
+        glBindBuffer(GL_ARRAY_BUFFER, 0);
 
-            // Bind into the Vertex Buffer Object context
-            glBindBuffer(GL_ARRAY_BUFFER, returningID);
+        return returningID;
+    }
 
-            glBufferData(GL_ARRAY_BUFFER, buffer, GL_STATIC_DRAW);
-            // Not normalized (false), no stride (0), array starts at index 0 (0)
-            glVertexAttribIPointer(glslPosition, componentsInStructure, GL_INT, 0, 0);
 
-            // Now enable memory address pointer
-            glEnableVertexAttribArray(glslPosition);
+    // Packed int[] automator method, read as unsigned ints in the shader
+    private int uploadPackedArray(int[] intArray, int glslPosition, int componentsInStructure) {
 
-            // Now unbind the Vertex Buffer Object context
-            glBindBuffer(GL_ARRAY_BUFFER, 0);
+        final IntBuffer buffer = getUploadBuffer(intArray.length).asIntBuffer();
+        buffer.put(intArray).flip();
+
+        final int returningID = glGenBuffers();
+
+        glBindBuffer(GL_ARRAY_BUFFER, returningID);
+
+        glBufferData(GL_ARRAY_BUFFER, buffer, GL_STATIC_DRAW);
+        // Tightly packed (0), the components of a vertex sit next to each other
+        glVertexAttribIPointer(glslPosition, componentsInStructure, GL_UNSIGNED_INT, 0, 0);
+
+        glEnableVertexAttribArray(glslPosition);
+
+        glBindBuffer(GL_ARRAY_BUFFER, 0);
 
-        } finally {
-            // Free the C int*
-            if (buffer != null) {
-                MemoryUtil.memFree(buffer);
-            }
-        }
         return returningID;
     }
 
-
     // This method is specialized, uploads the indices from an int[]
     private int uploadIndices(int[] indicesArray) {
 
-        // Starts off as: int* var = nullptr;
-        IntBuffer buffer = null;
+        final int returningID = glGenBuffers();
 
-        final int returningID;
+        final IntBuffer buffer = getUploadBuffer(indicesArray.length).asIntBuffer();
+        buffer.put(indicesArray).flip();
 
-        try {
+        // Bind into the Vertex Buffer Object context
+        glBindBuffer(GL_ELEMENT_ARRAY_BUFFER, returningID);
 
-            returningID = glGenBuffers();
+        glBufferData(GL_ELEMENT_ARRAY_BUFFER, buffer, GL_STATIC_DRAW);
 
-            buffer = MemoryUtil.memAllocInt(indicesArray.length);
-            buffer.put(indicesArray).flip();
+        // Note: Do note unbind GL_ELEMENT_ARRAY_BUFFER
 
-            // Bind into the Vertex Buffer Object context
-            glBindBuffer(GL_ELEMENT_ARRAY_BUFFER, returningID);
+        return returningID;
+    }
 
-            glBufferData(GL_ELEMENT_ARRAY_BUFFER, buffer, GL_STATIC_DRAW);
+    // Quad meshes don't own an index buffer, the shared one gets bound into the VAO instead
+    private int bindQuadIndices(int vertexCount) {
+        QuadIndexBuffer.bind(vertexCount);
+        // Nothing of this mesh's own to delete
+        return INVALID;
+    }
 
-            // Note: Do note unbind GL_ELEMENT_ARRAY_BUFFER
+    /**
+     * Get the shared upload buffer, big enough for this upload. glBufferData copies out of it before returning.
+     * @param elements How many 4 byte elements (floats or ints) are going in.
+     * @return The buffer, position 0, limit at exactly the size asked for.
+     */
+    static ByteBuffer getUploadBuffer(final int elements) {
+        final int bytes = elements * 4;
+        if (uploadBuffer == null || uploadBuffer.capacity() < bytes) {
+            // Grows by half again, so a run of slightly bigger stacks doesn't realloc every time. Never 0, malloc(0) may give null
+            final int capacity = Math.max(bytes + (bytes >> 1), 4096);
+            uploadBuffer = uploadBuffer == null ? MemoryUtil.memAlloc(capacity) : MemoryUtil.memRealloc(uploadBuffer, capacity);
+        }
+        uploadBuffer.clear().limit(bytes);
+        return uploadBuffer;
+    }
 
-        } finally {
-            if (buffer != null) {
-                MemoryUtil.memFree(buffer);
-            }
+    /**
+     * Free the shared upload buffer. It comes back if anything is uploaded after this.
+     */
+    static void freeUploadBuffer() {
+        if (uploadBuffer != null) {
+            MemoryUtil.memFree(uploadBuffer);
+            uploadBuffer = null;
         }
-        return returningID;
     }
 
     // Completely obliterates this VAO and all VBOs associated with it
@@ -270,8 +342,14 @@ public class Mesh {
 
         // Destroy REQUIRED Vertex Buffer Objects
         destroyVBO(positionsVboID, 0, "positions");
-        destroyVBO(textureCoordinatesVboID, 1, "texture coordinates");
-        destroyVBO(indicesVboID, -1, "indices");
+        // Packed meshes don't have this one
+        if (textureCoordinatesVboID != INVALID) {
+            destroyVBO(textureCoordinatesVboID, 1, "texture coordinates");
+        }
+        // Quad meshes share theirs
+        if (indicesVboID != INVALID) {
+            destroyVBO(indicesVboID, -1, "indices");
+        }
 
         // Destroy OPTIONAL Vertex Buffer Objects
         if (bonesVboID != INVALID) {
@@ -282,6 +360,10 @@ public class Mesh {
             destroyVBO(colorsVboID, 2, "colors");
         }
 
+        if (atlasRegionsVboID != INVALID) {
+            destroyVBO(atlasRegionsVboID, 4, "atlas regions");
+        }
+
         // Unbind Vertex Array Object context
         glBindVertexArray(0);
 
@@ -308,14 +390,12 @@ public class Mesh {
     }
 
     // This is a separate method to improve the constructor readability
-    private void checkRequired(float[] positions, float[] textureCoordinates, int[] indices) {
+    private void checkRequired(float[] positions, float[] textureCoordinates) {
         // Null check
         if (positions == null) {
             throw new RuntimeException("Mesh: Positions parameter CANNOT be null!");
         } else if (textureCoordinates == null) {
             throw new RuntimeException("Mesh: Texture coordinates parameter CANNOT be null!");
-        } else if (indices == null) {
-            throw new RuntimeException("Mesh: Indices parameter CANNOT be null!");
         // Empty array check - This can cause issues with blank chunk stacks
         } /*else if (positions.length == 0) {
             throw new RuntimeException("Mesh: Positions parameter CANNOT be an empty array!");
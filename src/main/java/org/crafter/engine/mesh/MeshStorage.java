@@ -17,15 +17,19 @@
  */
 package org.crafter.engine.mesh;
 
+import org.crafter.engine.utility.HandleTable;
+
 import java.util.HashMap;
 
 /**
  * This class holds all the meshes in game!
  * To create a mesh, you have to talk to this class.
+ * Meshes are either named, for GUI & debug meshes, or have an int handle. Chunk meshes use handles, they're drawn every frame.
  */
 public class MeshStorage {
 
     private static final HashMap<String,Mesh> container = new HashMap<>();
+    private static final HandleTable<Mesh> handles = new HandleTable<>("mesh");
 
     private MeshStorage(){};
 
@@ -37,6 +41,34 @@ public class MeshStorage {
         container.put(meshName, new Mesh(meshName, positions, textureCoordinates, indices, bones, colors, textureFileLocation, is2d));
     }
 
+    // Create a new mesh with texture coordinates that repeat inside atlas regions (x, y, width, height per vertex)
+    // Indices can be null if the mesh is nothing but quads, it then draws out of the shared QuadIndexBuffer
+    public static void newMesh(String meshName, float[] positions, float[] textureCoordinates, int[] indices, int[] bones, float[] colors, float[] atlasRegions, String textureFileLocation, boolean is2d) {
+        if (container.containsKey(meshName)) {
+            throw new RuntimeException("MeshStorage: Tried to create mesh (" + meshName + ") more than once!");
+        }
+        container.put(meshName, new Mesh(meshName, positions, textureCoordinates, indices, bones, colors, atlasRegions, textureFileLocation, is2d));
+    }
+
+    // Create a new mesh out of packed chunk vertices, componentsInStructure ints a vertex. Render it with the 3d_chunk shader
+    // Always quads, so no indices. It draws out of the shared QuadIndexBuffer
+    public static void newPackedMesh(String meshName, int[] packedVertices, int componentsInStructure, String textureFileLocation) {
+        if (container.containsKey(meshName)) {
+            throw new RuntimeException("MeshStorage: Tried to create mesh (" + meshName + ") more than once!");
+        }
+        container.put(meshName, new Mesh(meshName, packedVertices, componentsInStructure, textureFileLocation));
+    }
+
+    // Create a new handle mesh with texture coordinates that repeat inside atlas regions, see above. Returns the handle
+    public static int newMesh(float[] positions, float[] textureCoordinates, int[] indices, int[] bones, float[] colors, float[] atlasRegions, String textureFileLocation, boolean is2d) {
+        return handles.add(new Mesh("handle mesh", positions, textureCoordinates, indices, bones, colors, atlasRegions, textureFileLocation, is2d));
+    }
+
+    // Create a new handle mesh out of packed chunk vertices, see above. Returns the handle
+    public static int newPackedMesh(int[] packedVertices, int componentsInStructure, String textureFileLocation) {
+        return handles.add(new Mesh("handle mesh", packedVertices, componentsInStructure, textureFileLocation));
+    }
+
     // Swap a mesh's texture
     public static void swapTexture(String meshName, String newTextureLocation) {
         checkExistence(meshName);
@@ -49,6 +81,16 @@ public class MeshStorage {
         container.get(meshName).render();
     }
 
+    // Render a handle mesh
+    public static void render(int meshHandle) {
+        handles.get(meshHandle).render();
+    }
+
+    // True if the handle points to a mesh that hasn't been destroyed
+    public static boolean exists(int meshHandle) {
+        return handles.isValid(meshHandle);
+    }
+
     // Render a mesh in line mode
     public static void renderLineMode(String meshName) {
         checkExistence(meshName);
@@ -62,12 +104,26 @@ public class MeshStorage {
         container.remove(meshName);
     }
 
+    // Destroy a SINGLE handle mesh. The handle is stale from here on
+    public static void destroy(int meshHandle) {
+        handles.remove(meshHandle).destroy();
+    }
+
     // Destroys ALL meshes in the container - Only run this AFTER the main loop has run
     public static void destroyAll() {
         for (Mesh mesh : container.values()) {
             mesh.destroy();
         }
         container.clear();
+        for (int slot = 0; slot < handles.getSlotCount(); slot++) {
+            if (handles.getSlot(slot) != null) {
+                handles.getSlot(slot).destroy();
+            }
+        }
+        handles.clear();
+        ChunkGeometryArena.destroy();
+        Mesh.freeUploadBuffer();
+        QuadIndexBuffer.destroy();
     }
 
     // Helper method for preventing undefined behavior
@@ -0,0 +1,164 @@
+/*
+ Crafter - A blocky game (engine) written in Java with LWJGL.
+ Copyright (C) 2023  jordan4ibanez
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.crafter.engine.mesh;
+
+import org.lwjgl.system.MemoryUtil;
+
+import java.nio.IntBuffer;
+import java.nio.ShortBuffer;
+
+import static org.lwjgl.opengl.GL11.GL_UNSIGNED_INT;
+import static org.lwjgl.opengl.GL11.GL_UNSIGNED_SHORT;
+import static org.lwjgl.opengl.GL15.*;
+
+/**
+ * One index buffer shared by every mesh made of nothing but quads (4 vertices each, drawn 0,1,2,2,3,0).
+ * Those meshes don't build, copy or upload indices of their own, they bind this.
+ * Unsigned shorts cover any mesh up to MAX_SHORT_VERTICES, past that an unsigned int version takes over.
+ * Both grow to fit the biggest mesh bound to them.
+ * Main thread only, like Mesh.
+ */
+public final class QuadIndexBuffer {
+
+    // The two triangles of a quad
+    private static final int[] QUAD_ORDER = new int[]{0, 1, 2, 2, 3, 0};
+
+    // Unsigned shorts reach vertex 65535
+    public static final int MAX_SHORT_VERTICES = 65536;
+    private static final int MAX_SHORT_QUADS = MAX_SHORT_VERTICES / 4;
+    // Smallest a buffer starts out at, 6 KB of shorts
+    private static final int MIN_QUADS = 512;
+
+    private static final int INVALID = 0;
+
+    private static int shortBufferID = INVALID;
+    private static int shortBufferQuads = 0;
+    private static int intBufferID = INVALID;
+    private static int intBufferQuads = 0;
+
+    private QuadIndexBuffer() {}
+
+    /**
+     * @param index Position in the index buffer.
+     * @return The vertex this index points at.
+     */
+    public static int getIndex(final int index) {
+        return (index / 6) * 4 + QUAD_ORDER[index % 6];
+    }
+
+    /**
+     * @param vertexCount Vertices in the mesh, 4 a quad.
+     * @return How many indices drawing the whole mesh takes.
+     */
+    public static int getIndexCount(final int vertexCount) {
+        if (vertexCount % 4 != 0) {
+            throw new RuntimeException("QuadIndexBuffer: Vertex count (" + vertexCount + ") is not made of quads!");
+        }
+        return vertexCount / 4 * 6;
+    }
+
+    /**
+     * @param vertexCount Vertices in the mesh, 4 a quad.
+     * @return True if the mesh is drawn out of the unsigned short buffer.
+     */
+    public static boolean isShort(final int vertexCount) {
+        return vertexCount <= MAX_SHORT_VERTICES;
+    }
+
+    /**
+     * @param vertexCount Vertices in the mesh, 4 a quad.
+     * @return GL_UNSIGNED_SHORT or GL_UNSIGNED_INT, for glDrawElements.
+     */
+    static int getIndexType(final int vertexCount) {
+        return isShort(vertexCount) ? GL_UNSIGNED_SHORT : GL_UNSIGNED_INT;
+    }
+
+    /**
+     * How many quads a shared buffer grows to when a mesh needs more than it holds.
+     * Half again, so a run of slightly bigger meshes doesn't rebuild it every time.
+     * @param quads Quads the mesh needs.
+     * @param isShort Which of the two buffers.
+     * @return Quads the buffer will hold.
+     */
+    public static int getGrownQuads(final int quads, final boolean isShort) {
+        final int grown = Math.max(quads + (quads >> 1), MIN_QUADS);
+        return isShort ? Math.min(grown, MAX_SHORT_QUADS) : grown;
+    }
+
+    /**
+     * Bind the right shared buffer into the VAO that is currently bound. The VAO remembers it.
+     * @param vertexCount Vertices in the mesh, 4 a quad.
+     */
+    static void bind(final int vertexCount) {
+        final int quads = getIndexCount(vertexCount) / 6;
+        if (isShort(vertexCount)) {
+            if (shortBufferID == INVALID || quads > shortBufferQuads) {
+                shortBufferQuads = getGrownQuads(quads, true);
+                shortBufferID = upload(shortBufferID, shortBufferQuads, true);
+            }
+            glBindBuffer(GL_ELEMENT_ARRAY_BUFFER, shortBufferID);
+        } else {
+            if (intBufferID == INVALID || quads > intBufferQuads) {
+                intBufferQuads = getGrownQuads(quads, false);
+                intBufferID = upload(intBufferID, intBufferQuads, false);
+            }
+            glBindBuffer(GL_ELEMENT_ARRAY_BUFFER, intBufferID);
+        }
+    }
+
+    // Growing keeps the same buffer object, so the meshes already bound to it still work
+    private static int upload(final int bufferID, final int quads, final boolean isShort) {
+        final int returningID = bufferID == INVALID ? glGenBuffers() : bufferID;
+        glBindBuffer(GL_ELEMENT_ARRAY_BUFFER, returningID);
+        if (isShort) {
+            final ShortBuffer buffer = MemoryUtil.memAllocShort(quads * 6);
+            for (int i = 0; i < quads * 6; i++) {
+                // Past 32767 this wraps negative, the GPU reads it back unsigned
+                buffer.put((short) getIndex(i));
+            }
+            buffer.flip();
+            glBufferData(GL_ELEMENT_ARRAY_BUFFER, buffer, GL_STATIC_DRAW);
+            MemoryUtil.memFree(buffer);
+        } else {
+            final IntBuffer buffer = MemoryUtil.memAllocInt(quads * 6);
+            for (int i = 0; i < quads * 6; i++) {
+                buffer.put(getIndex(i));
+            }
+            buffer.flip();
+            glBufferData(GL_ELEMENT_ARRAY_BUFFER, buffer, GL_STATIC_DRAW);
+            MemoryUtil.memFree(buffer);
+        }
+        return returningID;
+    }
+
+    /**
+     * Delete the shared buffers. Only run this after every mesh using them is gone.
+     */
+    static void destroy() {
+        if (shortBufferID != INVALID) {
+            glDeleteBuffers(shortBufferID);
+            shortBufferID = INVALID;
+            shortBufferQuads = 0;
+        }
+        if (intBufferID != INVALID) {
+            glDeleteBuffers(intBufferID);
+            intBufferID = INVALID;
+            intBufferQuads = 0;
+        }
+    }
+}
@@ -115,6 +115,16 @@ class Shader {
         }
     }
 
+    // vec4[] version of uniform setter, 4 floats per element
+    void setUniform(String name, float[] vec4Array) {
+        // Turn this into C float* (float[4 * elements])
+        try (MemoryStack stack = MemoryStack.stackPush()) {
+            FloatBuffer buffer = stack.mallocFloat(vec4Array.length);
+            buffer.put(vec4Array).flip();
+            glUniform4fv(uniforms.get(name), buffer);
+        }
+    }
+
     void createUniform(String name) {
         int location = glGetUniformLocation(programID, name);
         if (location < 0) {
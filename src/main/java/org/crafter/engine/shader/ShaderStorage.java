@@ -86,6 +86,11 @@ public final class ShaderStorage {
         currentShader.setUniform(uniformName, value);
     }
 
+    // vec4[] uniform setter - contextual
+    public static void setUniform(String uniformName, float[] vec4Array) {
+        currentShader.setUniform(uniformName, vec4Array);
+    }
+
 
 
     // Start a shader
@@ -0,0 +1,85 @@
+/*
+ Crafter - A blocky game (engine) written in Java with LWJGL.
+ Copyright (C) 2023  jordan4ibanez
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.crafter.engine.utility;
+
+import java.util.Arrays;
+
+/**
+ * A growable float[], like an ArrayList<Float> without boxing every element.
+ * Meant to be cleared & reused, once it has grown big enough adding never allocates.
+ * Not thread safe, give every thread its own.
+ */
+public class FloatArrayBuilder {
+
+    private float[] data;
+    private int size = 0;
+
+    public FloatArrayBuilder() {
+        this(256);
+    }
+
+    /**
+     * @param initialCapacity How many elements fit before it has to grow.
+     */
+    public FloatArrayBuilder(final int initialCapacity) {
+        if (initialCapacity < 1) {
+            throw new RuntimeException("FloatArrayBuilder: Initial capacity must be at least 1! Got (" + initialCapacity + ")!");
+        }
+        data = new float[initialCapacity];
+    }
+
+    public void add(final float value) {
+        if (size == data.length) {
+            data = Arrays.copyOf(data, size * 2);
+        }
+        data[size] = value;
+        size++;
+    }
+
+    public float get(final int index) {
+        if (index < 0 || index >= size) {
+            throw new RuntimeException("FloatArrayBuilder: Index (" + index + ") is out of bounds! Size: (" + size + ")");
+        }
+        return data[index];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Empty it out. The memory is kept for the next use.
+     */
+    public void clear() {
+        size = 0;
+    }
+
+    /**
+     * @return A new array of exactly what was added.
+     */
+    public float[] toArray() {
+        return Arrays.copyOf(data, size);
+    }
+
+    /**
+     * @return How many elements fit before it has to grow.
+     */
+    public int getCapacity() {
+        return data.length;
+    }
+}
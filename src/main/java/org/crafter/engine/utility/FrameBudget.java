@@ -0,0 +1,94 @@
+/*
+ Crafter - A blocky game (engine) written in Java with LWJGL.
+ Copyright (C) 2023  jordan4ibanez
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.crafter.engine.utility;
+
+import java.util.function.LongSupplier;
+
+/**
+ * A slice of main thread time per frame, for work that can just as well finish next frame.
+ * Call begin() when the frame's work starts, then keep taking work while hasTimeLeft().
+ * Main thread only.
+ */
+public class FrameBudget {
+
+    private final LongSupplier clock;
+    private long budget;
+    private long started = 0;
+
+    /**
+     * @param milliseconds How long the work may take each frame.
+     */
+    public FrameBudget(final double milliseconds) {
+        this(milliseconds, System::nanoTime);
+    }
+
+    /**
+     * @param milliseconds How long the work may take each frame.
+     * @param clock Nanoseconds. Tests pass in one they move by hand.
+     */
+    public FrameBudget(final double milliseconds, final LongSupplier clock) {
+        this.clock = clock;
+        setBudget(milliseconds);
+    }
+
+    /**
+     * @param milliseconds How long the work may take each frame. Above 0.
+     */
+    public void setBudget(final double milliseconds) {
+        if (milliseconds <= 0) {
+            throw new RuntimeException("FrameBudget: Budget (" + milliseconds + ") must be above 0 milliseconds!");
+        }
+        budget = (long) (milliseconds * 1_000_000);
+    }
+
+    /**
+     * @return How long the work may take each frame, in milliseconds.
+     */
+    public double getBudget() {
+        return budget / 1_000_000.0;
+    }
+
+    /**
+     * Start the clock for this frame.
+     */
+    public void begin() {
+        started = clock.getAsLong();
+    }
+
+    /**
+     * @return True if this frame's work is still under budget.
+     */
+    public boolean hasTimeLeft() {
+        return getElapsed() < budget;
+    }
+
+    /**
+     * @param share 0 to 1, how much of the budget this part of the work gets.
+     * @return True if this frame's work is still under that share of the budget.
+     */
+    public boolean hasTimeLeft(final double share) {
+        return getElapsed() < budget * share;
+    }
+
+    /**
+     * @return Nanoseconds since begin().
+     */
+    public long getElapsed() {
+        return clock.getAsLong() - started;
+    }
+}
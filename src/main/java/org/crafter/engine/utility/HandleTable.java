@@ -0,0 +1,156 @@
+/*
+ Crafter - A blocky game (engine) written in Java with LWJGL.
+ Copyright (C) 2023  jordan4ibanez
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.crafter.engine.utility;
+
+import java.util.Arrays;
+
+/**
+ * Hands out int handles to objects, backed by a dense slot array. Looking one up is an array read, no hashing.
+ * A handle is the slot in the low bits and that slot's generation above it. Removing bumps the generation,
+ * so a handle kept after its object was removed is caught instead of reaching whatever took the slot next.
+ * Handles are always above 0, so 0 can mean nothing.
+ * Not thread safe.
+ */
+public class HandleTable<T> {
+
+    private static final int SLOT_BITS = 20;
+    private static final int SLOT_MASK = (1 << SLOT_BITS) - 1;
+    private static final int MAX_SLOTS = 1 << SLOT_BITS;
+    // 11 bits of generation, the sign bit stays clear. Wraps around after 2047 reuses of one slot, skipping 0
+    private static final int GENERATION_MASK = (1 << (31 - SLOT_BITS)) - 1;
+
+    private final String name;
+    private Object[] objects = new Object[256];
+    private int[] generations = new int[256];
+    // Slots that were removed, taken again before growing
+    private int[] freeSlots = new int[256];
+    private int freeCount = 0;
+    private int used = 0;
+    private int size = 0;
+
+    /**
+     * @param name What the handles point to, for errors.
+     */
+    public HandleTable(final String name) {
+        this.name = name;
+        Arrays.fill(generations, 1);
+    }
+
+    /**
+     * @param object Not null.
+     * @return The new handle, above 0.
+     */
+    public int add(final T object) {
+        if (object == null) {
+            throw new RuntimeException("HandleTable: Tried to add a null " + name + "!");
+        }
+        final int slot;
+        if (freeCount > 0) {
+            slot = freeSlots[--freeCount];
+        } else {
+            if (used == MAX_SLOTS) {
+                throw new RuntimeException("HandleTable: Ran out of " + name + " handles! (" + MAX_SLOTS + ") max!");
+            }
+            if (used == objects.length) {
+                objects = Arrays.copyOf(objects, used * 2);
+                generations = Arrays.copyOf(generations, used * 2);
+                Arrays.fill(generations, used, used * 2, 1);
+            }
+            slot = used++;
+        }
+        objects[slot] = object;
+        size++;
+        return (generations[slot] << SLOT_BITS) | slot;
+    }
+
+    /**
+     * @param handle A handle from add().
+     * @return The object.
+     */
+    @SuppressWarnings("unchecked")
+    public T get(final int handle) {
+        check(handle);
+        return (T) objects[handle & SLOT_MASK];
+    }
+
+    /**
+     * @param handle Any int.
+     * @return True if the handle points to an object that hasn't been removed.
+     */
+    public boolean isValid(final int handle) {
+        final int slot = handle & SLOT_MASK;
+        return handle > 0 && slot < used && generations[slot] == handle >>> SLOT_BITS && objects[slot] != null;
+    }
+
+    /**
+     * @param handle A handle from add(). It is stale from here on.
+     * @return The object that was removed.
+     */
+    public T remove(final int handle) {
+        final T object = get(handle);
+        final int slot = handle & SLOT_MASK;
+        objects[slot] = null;
+        generations[slot] = generations[slot] == GENERATION_MASK ? 1 : generations[slot] + 1;
+        if (freeCount == freeSlots.length) {
+            freeSlots = Arrays.copyOf(freeSlots, freeCount * 2);
+        }
+        freeSlots[freeCount++] = slot;
+        size--;
+        return object;
+    }
+
+    /**
+     * @return How many objects are in it.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Remove everything. Every handle handed out so far is stale.
+     */
+    public void clear() {
+        for (int slot = 0; slot < used; slot++) {
+            if (objects[slot] != null) {
+                remove((generations[slot] << SLOT_BITS) | slot);
+            }
+        }
+    }
+
+    /**
+     * @param index 0 to getSlotCount() - 1.
+     * @return The object in the slot, or null if it's empty. For going over everything, like destroying it all.
+     */
+    @SuppressWarnings("unchecked")
+    public T getSlot(final int index) {
+        return (T) objects[index];
+    }
+
+    /**
+     * @return How many slots have ever been used.
+     */
+    public int getSlotCount() {
+        return used;
+    }
+
+    private void check(final int handle) {
+        if (!isValid(handle)) {
+            throw new RuntimeException("HandleTable: Tried to access nonexistent or removed " + name + " (" + handle + ")! Slot (" + (handle & SLOT_MASK) + ") generation (" + (handle >>> SLOT_BITS) + ")");
+        }
+    }
+}
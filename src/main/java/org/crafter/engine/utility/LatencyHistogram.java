@@ -0,0 +1,131 @@
+/*
+ Crafter - A blocky game (engine) written in Java with LWJGL.
+ Copyright (C) 2023  jordan4ibanez
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.crafter.engine.utility;
+
+import java.util.Arrays;
+
+/**
+ * Counts latencies into power of two buckets of microseconds: under 1, 1, 2-3, 4-7, 8-15 and so on.
+ * Latencies go in and the mean & max come out in nanoseconds, the percentiles & bucket limits in microseconds.
+ * Recording never allocates, so it can sit on hot paths.
+ * Thread safe.
+ */
+public class LatencyHistogram {
+
+    // Bucket 0 is under 1 microsecond, bucket i is [2^(i-1), 2^i) microseconds. The last one catches everything longer
+    private static final int BUCKETS = 32;
+
+    private final long[] buckets = new long[BUCKETS];
+    private long count = 0;
+    private long total = 0;
+    private long max = 0;
+
+    /**
+     * @param nanoseconds The latency.
+     */
+    public synchronized void record(final long nanoseconds) {
+        final long microseconds = Math.max(0, nanoseconds / 1_000);
+        final int bucket = Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(microseconds));
+        buckets[bucket]++;
+        count++;
+        total += nanoseconds;
+        max = Math.max(max, nanoseconds);
+    }
+
+    public synchronized long getCount() {
+        return count;
+    }
+
+    /**
+     * @return Mean latency in nanoseconds, 0 if nothing was recorded.
+     */
+    public synchronized long getMeanNanos() {
+        return count == 0 ? 0 : total / count;
+    }
+
+    /**
+     * @return Longest latency in nanoseconds.
+     */
+    public synchronized long getMaxNanos() {
+        return max;
+    }
+
+    /**
+     * @param percentile 0 to 100.
+     * @return The upper bound of the bucket the percentile falls in, in microseconds. 0 if nothing was recorded.
+     */
+    public synchronized long getPercentileMicros(final double percentile) {
+        if (count == 0) {
+            return 0;
+        }
+        final long target = Math.max(1, (long) Math.ceil(count * percentile / 100.0));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += buckets[i];
+            if (seen >= target) {
+                return getBucketLimitMicros(i);
+            }
+        }
+        return getBucketLimitMicros(BUCKETS - 1);
+    }
+
+    /**
+     * @param bucket The bucket.
+     * @return How many latencies fell in it.
+     */
+    public synchronized long getBucketCount(final int bucket) {
+        return buckets[bucket];
+    }
+
+    /**
+     * @param bucket The bucket.
+     * @return Everything in the bucket is under this many microseconds.
+     */
+    public static long getBucketLimitMicros(final int bucket) {
+        return 1L << bucket;
+    }
+
+    public static int getBucketAmount() {
+        return BUCKETS;
+    }
+
+    public synchronized void clear() {
+        Arrays.fill(buckets, 0);
+        count = 0;
+        total = 0;
+        max = 0;
+    }
+
+    /**
+     * @param name What was measured.
+     * @return A one line summary plus one line per non-empty bucket.
+     */
+    public synchronized String report(final String name) {
+        final StringBuilder builder = new StringBuilder();
+        builder.append(name).append(": (").append(count).append(") samples | mean (").append(getMeanNanos() / 1_000)
+                .append(") us | p50 < (").append(getPercentileMicros(50)).append(") us | p99 < (").append(getPercentileMicros(99))
+                .append(") us | max (").append(max / 1_000).append(") us");
+        for (int i = 0; i < BUCKETS; i++) {
+            if (buckets[i] == 0) {
+                continue;
+            }
+            builder.append('\n').append("  < ").append(getBucketLimitMicros(i)).append(" us: ").append(buckets[i]);
+        }
+        return builder.toString();
+    }
+}
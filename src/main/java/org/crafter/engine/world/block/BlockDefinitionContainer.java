@@ -108,6 +108,22 @@ public class BlockDefinitionContainer implements Serializable {
         return nameMap.get(name);
     }
 
+    /**
+     * Which blocks hide the faces touching them. This is what the mesher culls against.
+     * @return A new array indexed by block ID, true for BLOCK draw type.
+     */
+    public boolean[] getOpaqueTable() {
+        int highestID = 0;
+        for (BlockDefinition definition : idMap.values()) {
+            highestID = Math.max(highestID, definition.getID());
+        }
+        final boolean[] opaque = new boolean[highestID + 1];
+        for (BlockDefinition definition : idMap.values()) {
+            opaque[definition.getID()] = definition.getDrawType().equals(DrawType.BLOCK);
+        }
+        return opaque;
+    }
+
     private int getThisID() {
         final int thisID = nextID;
         nextID++;
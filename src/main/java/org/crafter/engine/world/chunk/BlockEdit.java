@@ -0,0 +1,121 @@
+/*
+ Crafter - A blocky game (engine) written in Java with LWJGL.
+ Copyright (C) 2023  jordan4ibanez
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.crafter.engine.world.chunk;
+
+/**
+ * One Block Manipulator write, as undo & redo see it. Holds only the changed blocks of each chunk it touched, never chunk copies.
+ */
+public final class BlockEdit {
+
+    private final long[] chunkPositions;
+    private final ChunkJournal[] journals;
+    private final int entries;
+
+    /**
+     * @param chunkPositions Chunk positions, packed with ChunkMap.packPosition().
+     * @param journals What each chunk recorded (stopRecording()), in the same order.
+     */
+    public BlockEdit(final long[] chunkPositions, final ChunkJournal[] journals) {
+        this.chunkPositions = chunkPositions;
+        this.journals = journals;
+        int total = 0;
+        for (ChunkJournal journal : journals) {
+            total += journal.size();
+        }
+        this.entries = total;
+    }
+
+    public int getChunkCount() {
+        return chunkPositions.length;
+    }
+
+    public int getChunkX(final int chunk) {
+        return ChunkMap.unpackX(chunkPositions[chunk]);
+    }
+
+    public int getChunkZ(final int chunk) {
+        return ChunkMap.unpackZ(chunkPositions[chunk]);
+    }
+
+    /**
+     * @return How many blocks this edit changed.
+     */
+    public int getEntries() {
+        return entries;
+    }
+
+    /**
+     * @param chunk Which chunk of this edit.
+     * @return What that chunk recorded. Read only!
+     */
+    public ChunkJournal getJournal(final int chunk) {
+        return journals[chunk];
+    }
+
+    /**
+     * @param chunk Which chunk of this edit.
+     * @return Bit mask of the mesh stacks that have changed blocks, bit 0 is stack 0.
+     */
+    public int getStacksTouched(final int chunk) {
+        final ChunkJournal journal = journals[chunk];
+        int mask = 0;
+        for (int i = 0; i < journal.size(); i++) {
+            mask |= 1 << (journal.getIndex(i) / (Chunk.getWidth() * Chunk.getDepth() * Chunk.getStackHeight()));
+        }
+        return mask;
+    }
+
+    /**
+     * Write the old (undo) or new (redo) values back into the map, all or nothing.
+     * Every chunk has to be loaded and every block has to still hold what this edit left (undo) or found (redo),
+     * otherwise nothing is written.
+     * @param undo True to undo, false to redo.
+     * @return APPLIED, CHUNK_NOT_LOADED or CHANGED_SINCE.
+     */
+    BlockEditResult apply(final boolean undo) {
+        final Chunk[] targets = new Chunk[chunkPositions.length];
+        for (int chunk = 0; chunk < chunkPositions.length; chunk++) {
+            final int x = getChunkX(chunk);
+            final int z = getChunkZ(chunk);
+            if (!ChunkStorage.hasChunk(x, z)) {
+                return BlockEditResult.CHUNK_NOT_LOADED;
+            }
+            targets[chunk] = ChunkStorage.getChunk(x, z);
+        }
+
+        for (int chunk = 0; chunk < chunkPositions.length; chunk++) {
+            final ChunkJournal journal = journals[chunk];
+            // One entry per block, so each block's current value can be checked against a single entry
+            journal.compact();
+            for (int i = 0; i < journal.size(); i++) {
+                final int expected = undo ? journal.getNewValue(i) : journal.getOldValue(i);
+                if (targets[chunk].getBlockData(journal.getIndex(i)) != expected) {
+                    return BlockEditResult.CHANGED_SINCE;
+                }
+            }
+        }
+
+        for (int chunk = 0; chunk < chunkPositions.length; chunk++) {
+            final ChunkJournal journal = journals[chunk];
+            for (int i = 0; i < journal.size(); i++) {
+                targets[chunk].setBlockData(journal.getIndex(i), undo ? journal.getOldValue(i) : journal.getNewValue(i));
+            }
+        }
+        return BlockEditResult.APPLIED;
+    }
+}
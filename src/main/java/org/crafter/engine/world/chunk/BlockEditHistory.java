@@ -0,0 +1,148 @@
+/*
+ Crafter - A blocky game (engine) written in Java with LWJGL.
+ Copyright (C) 2023  jordan4ibanez
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.crafter.engine.world.chunk;
+
+import java.util.ArrayDeque;
+import java.util.function.Consumer;
+
+/**
+ * Undo & redo history of Block Manipulator writes.
+ * Bounded by edit count and by total changed blocks, the oldest edits fall off first.
+ * Single block setters are not recorded, only writeManipulatorWriteData().
+ * An edit is only undone or redone whole, and only if none of its blocks were changed by anything else since.
+ */
+public final class BlockEditHistory {
+
+    private static final int MAX_EDITS = 32;
+    // 12 bytes each, about 24 MB
+    private static final int MAX_ENTRIES = 1 << 21;
+
+    private static final ArrayDeque<BlockEdit> undoEdits = new ArrayDeque<>();
+    private static final ArrayDeque<BlockEdit> redoEdits = new ArrayDeque<>();
+    private static int storedEntries = 0;
+
+    private BlockEditHistory(){}
+
+    /**
+     * Add an edit on top of the history. This throws away anything that could be redone.
+     * @param edit The edit, already written into the map.
+     */
+    public static synchronized void push(final BlockEdit edit) {
+        clearRedo();
+        if (edit.getEntries() == 0) {
+            return;
+        }
+        if (edit.getEntries() > MAX_ENTRIES) {
+            // Undoing past this edit would be wrong, so there is nothing left to undo
+            System.out.println("BlockEditHistory: Edit of (" + edit.getEntries() + ") blocks is too big to undo! Clearing history.");
+            clear();
+            return;
+        }
+        undoEdits.addLast(edit);
+        storedEntries += edit.getEntries();
+        while (undoEdits.size() > MAX_EDITS || storedEntries > MAX_ENTRIES) {
+            storedEntries -= undoEdits.removeFirst().getEntries();
+        }
+    }
+
+    /**
+     * Undo the most recent edit.
+     * Note: Does not push out mesh updates, use ChunkStorage.undoBlockManipulator() in game.
+     * @return What happened, see BlockEditResult.
+     */
+    public static BlockEditResult undo() {
+        return undo(edit -> {});
+    }
+
+    /**
+     * Undo the most recent edit.
+     * @param applied Gets the edit if it was undone, before anything else can touch the history.
+     * @return What happened, see BlockEditResult.
+     */
+    public static synchronized BlockEditResult undo(final Consumer<BlockEdit> applied) {
+        return step(undoEdits, redoEdits, true, applied);
+    }
+
+    /**
+     * Redo the most recently undone edit.
+     * Note: Does not push out mesh updates, use ChunkStorage.redoBlockManipulator() in game.
+     * @return What happened, see BlockEditResult.
+     */
+    public static BlockEditResult redo() {
+        return redo(edit -> {});
+    }
+
+    /**
+     * Redo the most recently undone edit.
+     * @param applied Gets the edit if it was redone, before anything else can touch the history.
+     * @return What happened, see BlockEditResult.
+     */
+    public static synchronized BlockEditResult redo(final Consumer<BlockEdit> applied) {
+        return step(redoEdits, undoEdits, false, applied);
+    }
+
+    public static synchronized void clear() {
+        undoEdits.clear();
+        redoEdits.clear();
+        storedEntries = 0;
+    }
+
+    public static synchronized int getUndoCount() {
+        return undoEdits.size();
+    }
+
+    public static synchronized int getRedoCount() {
+        return redoEdits.size();
+    }
+
+    /**
+     * @return How many changed blocks the history is holding, undo & redo together.
+     */
+    public static synchronized int getStoredEntries() {
+        return storedEntries;
+    }
+
+    private static BlockEditResult step(final ArrayDeque<BlockEdit> from, final ArrayDeque<BlockEdit> to, final boolean undo, final Consumer<BlockEdit> applied) {
+        final BlockEdit edit = from.peekLast();
+        if (edit == null) {
+            return BlockEditResult.NOTHING;
+        }
+        final BlockEditResult result = edit.apply(undo);
+        switch (result) {
+            case APPLIED -> {
+                to.addLast(from.removeLast());
+                applied.accept(edit);
+            }
+            case CHANGED_SINCE -> {
+                // It can never apply again, and what was changed since is kept
+                from.removeLast();
+                storedEntries -= edit.getEntries();
+                System.out.println("BlockEditHistory: Blocks were changed since, can't " + (undo ? "undo" : "redo") + "! Dropped from the history.");
+            }
+            case CHUNK_NOT_LOADED -> System.out.println("BlockEditHistory: A chunk of the edit is not loaded, can't " + (undo ? "undo" : "redo") + "!");
+        }
+        return result;
+    }
+
+    private static void clearRedo() {
+        for (BlockEdit edit : redoEdits) {
+            storedEntries -= edit.getEntries();
+        }
+        redoEdits.clear();
+    }
+}
@@ -0,0 +1,32 @@
+/*
+ Crafter - A blocky game (engine) written in Java with LWJGL.
+ Copyright (C) 2023  jordan4ibanez
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.crafter.engine.world.chunk;
+
+/**
+ * What came of an undo or redo. Nothing is written unless it is APPLIED, an edit is never half undone.
+ */
+public enum BlockEditResult {
+    // Every changed block was written back
+    APPLIED,
+    // The history is empty that way
+    NOTHING,
+    // A chunk of the edit is not loaded. The edit stays in the history, load the chunk and try again
+    CHUNK_NOT_LOADED,
+    // A block of the edit was changed since by something else. Writing over it would lose that, so the edit is dropped
+    CHANGED_SINCE
+}
@@ -18,6 +18,7 @@
 package org.crafter.engine.world.chunk;
 
 import org.crafter.engine.camera.Camera;
+import org.crafter.engine.mesh.ChunkGeometryArena;
 import org.crafter.engine.mesh.MeshStorage;
 import org.joml.*;
 
@@ -37,6 +38,8 @@ public class Chunk extends ChunkMeshHandling {
     private static final Vector3f positionWorker = new Vector3f(0,0,0);
     private static final Vector3fc rotation = new Vector3f(0,0,0);
     private static final Vector3fc scale = new Vector3f(1,1,1);
+    // The visible stacks of the chunk being rendered that live in the ChunkGeometryArena
+    private static final int[] arenaDrawWorker = new int[getStacks()];
 
     public Chunk(int x, int y) {
         this(new Vector2i(x,y));
@@ -72,27 +75,65 @@ public class Chunk extends ChunkMeshHandling {
 
         Camera.setObjectMatrix(positionWorker.set(positionX,0, positionZ), rotation, scale);
 
+        int arenaDraws = 0;
+
         for (int i = 0; i < getStacks(); i++) {
 
             final float positionY = i * getStackHeight();
 
-            String gottenMeshUUID = getMesh(i);
+            final int meshHandle = getMesh(i);
+            final int arenaHandle = getArenaMesh(i);
 
-            if (gottenMeshUUID != null && chunkStackWithinFrustum(positionX, positionY, positionZ)) {
-                MeshStorage.render(gottenMeshUUID);
+            if ((meshHandle != 0 || arenaHandle != 0) && chunkStackWithinFrustum(positionX, positionY, positionZ)) {
+                if (arenaHandle != 0) {
+                    arenaDrawWorker[arenaDraws++] = arenaHandle;
+                } else {
+                    MeshStorage.render(meshHandle);
+                }
             }
         }
+
+        // All of them in one draw call
+        ChunkGeometryArena.draw(arenaDrawWorker, arenaDraws);
     }
 
     /**
      * Create a deep copy of a chunk.
+     * Block data is copy-on-write, so this is cheap. It only gets copied section by section as either chunk is written to.
      * @return Deep copy of chunk.
      */
     public Chunk deepCopy() {
         Chunk copy = new Chunk(new Vector2i(this.position));
-        copy.setData(getDataDIRECT());
+        copy.copyDataFrom(this);
         return copy;
     }
 
+    /**
+     * Take an immutable, consistent view of this chunk's block data. Nothing is copied.
+     * This is what other threads (the mesher) should read from instead of the live chunk.
+     * @return A snapshot chunk. It keeps the version of this chunk at the moment it was taken.
+     */
+    public Chunk snapshot() {
+        Chunk snapshot = new Chunk(new Vector2i(this.position));
+        snapshot.snapshotDataFrom(this);
+        return snapshot;
+    }
+
+    /**
+     * Take a snapshot only if this chunk has unsaved block data, and mark it as saved in the same step.
+     * This is what the WorldSaver captures on the main thread.
+     * @return A snapshot, or null if this chunk is already saved.
+     */
+    public synchronized Chunk snapshotIfDirty() {
+        if (!isDirty()) {
+            return null;
+        }
+        Chunk snapshot = snapshot();
+        // The snapshot carries the changes since the last save, so the save can be just those
+        snapshot.takeJournalFrom(this);
+        markSaved(snapshot.getVersion());
+        return snapshot;
+    }
+
 
 }
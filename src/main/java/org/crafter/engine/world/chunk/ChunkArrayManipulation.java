@@ -20,9 +20,6 @@ package org.crafter.engine.world.chunk;
 import org.joml.Vector3i;
 import org.joml.Vector3ic;
 
-import java.io.Serializable;
-import java.util.Arrays;
-
 /**
  * The Basis for working with Chunk's internal Array.
  * Chunks are basically fancy arrays of data.
@@ -42,11 +39,40 @@ public abstract class ChunkArrayManipulation extends ChunkBitManipulation {
     private static final int yStride = WIDTH * DEPTH;
     private static final int arraySize = WIDTH * HEIGHT * DEPTH;
 
-    // Consists of bit shifted integral values
-    private final int[] data;
+    // Block data is stored in 16 high sections, which line up with the mesh stacks in ChunkMeshHandling
+    private static final int SECTION_HEIGHT = 16;
+    private static final int SECTIONS = HEIGHT / SECTION_HEIGHT;
+    // log2(16 * 16 * 16), chunk index >>> this is the section, chunk index & the mask is the index inside the section
+    private static final int SECTION_SHIFT = 12;
+    private static final int SECTION_MASK = (1 << SECTION_SHIFT) - 1;
+
+    // Palette compressed, consists of bit shifted integral values
+    // Writes & snapshots synchronize on this chunk. Reads do not lock.
+    private final ChunkSection[] sections;
+
+    // Bumped on every write, a snapshot carries the version it was taken at
+    private long version = 0;
+
+    // The version that was last handed off to disk, anything newer is unsaved
+    private long savedVersion = -1;
+
+    // Past this many changes since the last save, just write the whole chunk
+    private static final int SAVE_JOURNAL_LIMIT = 4096;
+    // Twice the chunk size, compacting always gets a full chunk edit under the overflow mark
+    private static final int RECORDING_JOURNAL_LIMIT = arraySize * 2;
+
+    // Everything written since savedVersion
+    private ChunkJournal journal = new ChunkJournal(SAVE_JOURNAL_LIMIT);
+    // Only exists while the Block Manipulator is writing into this chunk
+    private ChunkJournal recording = null;
 
     public ChunkArrayManipulation() {
-        this.data = new int[arraySize];
+        this.sections = new ChunkSection[SECTIONS];
+        for (int i = 0; i < SECTIONS; i++) {
+            sections[i] = new ChunkSection();
+        }
+        // Never saved, there is nothing the changes could be applied on top of
+        journal.overflow();
     }
 
     /**
@@ -55,23 +81,256 @@ public abstract class ChunkArrayManipulation extends ChunkBitManipulation {
      */
     public void setData(int[] newData) {
         check(newData);
-        System.arraycopy(newData, 0, data, 0, newData.length);
+        final ChunkSection[] newSections = new ChunkSection[SECTIONS];
+        for (int i = 0; i < SECTIONS; i++) {
+            newSections[i] = ChunkSection.fromArray(newData, i << SECTION_SHIFT);
+        }
+        synchronized (this) {
+            System.arraycopy(newSections, 0, sections, 0, SECTIONS);
+            version++;
+            journal.overflow();
+        }
+    }
+
+    /**
+     * Copy another chunk's block data into this chunk. Cheaper than setData(other.getData()).
+     * This is copy-on-write, the sections are shared until either chunk writes into one.
+     * @param other The chunk to copy from.
+     */
+    public void copyDataFrom(ChunkArrayManipulation other) {
+        final ChunkSection[] shared = other.freezeSections();
+        synchronized (this) {
+            System.arraycopy(shared, 0, sections, 0, SECTIONS);
+            version++;
+            journal.overflow();
+        }
+    }
+
+    /**
+     * Turn this (brand-new) chunk into an immutable view of another chunk's current block data.
+     * No block data is copied. See Chunk.snapshot().
+     * @param other The chunk to take a snapshot of.
+     */
+    protected void snapshotDataFrom(ChunkArrayManipulation other) {
+        synchronized (other) {
+            for (int i = 0; i < SECTIONS; i++) {
+                other.sections[i].freeze();
+                sections[i] = other.sections[i];
+            }
+            version = other.version;
+        }
+    }
+
+    /**
+     * The write version of this chunk's block data. Every block write bumps this.
+     * A snapshot keeps the version of the chunk it was taken from, so a reader can tell if it is out of date.
+     * @return The version.
+     */
+    public synchronized long getVersion() {
+        return version;
+    }
+
+    /**
+     * @return True if this chunk has block data that has not been handed off to disk yet.
+     */
+    public synchronized boolean isDirty() {
+        return version != savedVersion;
+    }
+
+    /**
+     * Mark the block data as saved up to a version. Later writes make the chunk dirty again.
+     * @param savedVersion The version that was written (or queued to be written) to disk.
+     */
+    public synchronized void markSaved(final long savedVersion) {
+        this.savedVersion = Math.max(this.savedVersion, savedVersion);
+        if (this.savedVersion == version) {
+            journal.clear();
+        } else {
+            // Can't tell which changes came after that version, the next save has to write everything
+            journal.overflow();
+        }
+    }
+
+    /**
+     * Move the save journal from another chunk into this one, the other chunk starts a fresh journal.
+     * This is how a snapshot takes the changes it is saving. See Chunk.snapshotIfDirty().
+     * @param other The chunk to take the journal from.
+     */
+    protected void takeJournalFrom(ChunkArrayManipulation other) {
+        synchronized (other) {
+            journal = other.journal;
+            other.journal = new ChunkJournal(SAVE_JOURNAL_LIMIT);
+        }
+    }
+
+    /**
+     * Everything written since the last save. Only read this on a snapshot, the live one keeps changing!
+     * @return The save journal.
+     */
+    public synchronized ChunkJournal getJournal() {
+        return journal;
+    }
+
+    /**
+     * Start recording every block write into a separate journal. Used for Block Manipulator undo.
+     */
+    public synchronized void startRecording() {
+        // A recording left behind by a write that crashed part way is thrown away
+        recording = new ChunkJournal(RECORDING_JOURNAL_LIMIT);
+    }
+
+    /**
+     * Stop recording block writes.
+     * @return The compacted recording, one entry per changed block.
+     */
+    public synchronized ChunkJournal stopRecording() {
+        if (recording == null) {
+            throw new RuntimeException("ChunkArrayManipulation: Tried to stop recording without starting!");
+        }
+        final ChunkJournal finished = recording;
+        recording = null;
+        finished.compact();
+        return finished;
     }
 
     /**
      * Get a copy of the data array.
+     * Note: This unpacks the whole chunk into a new flat array, don't call this in a hot loop.
      * @return is a copy of the internal array of block data.
      */
     public int[] getData() {
-        return Arrays.copyOf(data, data.length);
+        final int[] data = new int[arraySize];
+        for (int i = 0; i < SECTIONS; i++) {
+            sections[i].copyTo(data, i << SECTION_SHIFT);
+        }
+        return data;
     }
 
     /**
-     * Get the DIRECT data. This needs to be used very carefully!!! This is the MUTABLE internal pointer!!!
-     * @return The MUTABLE DIRECT INTERNAL POINTER!!!
+     * Approximate heap usage of this chunk's block data in bytes.
+     * A flat int array of the same chunk would be 131_072 bytes.
      */
-    public int[] getDataDIRECT() {
-        return data;
+    public int getMemoryUsage() {
+        int total = 0;
+        for (ChunkSection section : sections) {
+            total += section.getMemoryUsage();
+        }
+        return total;
+    }
+
+    /**
+     * Check if a 16 high section is filled with one single block data value.
+     * Sections line up with the mesh stacks, so this is the same as asking about a stack.
+     * @param section 0-7, bottom to top.
+     * @return True if the whole section is one value.
+     */
+    public boolean isSectionUniform(int section) {
+        checkSection(section);
+        return sections[section].isUniform();
+    }
+
+    /**
+     * Get the block data that fills a uniform section. Check isSectionUniform() first!
+     * @param section 0-7, bottom to top.
+     * @return The raw block data filling the section.
+     */
+    public int getSectionUniformBlockData(int section) {
+        checkSection(section);
+        if (!sections[section].isUniform()) {
+            throw new RuntimeException("ChunkArrayManipulation: Section (" + section + ") is not uniform! Check isSectionUniform() first!");
+        }
+        return sections[section].getUniformValue();
+    }
+
+    /**
+     * Get the visible face masks of a section, one byte per block indexed [x + z * 16 + localY * 256].
+     * Bit n is face n in GreedyMesher order: front (-Z), back (+Z), left (-X), right (+X), bottom (-Y), top (+Y).
+     * It's set if the block is opaque and the block that face looks at is not.
+     * Faces looking out of the section are set on every opaque block, the reader checks what's on the other side.
+     * Built the first time it's asked for, every write keeps it up to date after that. Read it, never write into it.
+     * Ask a snapshot, or the thread writing into this chunk.
+     * @param section 0-7, bottom to top.
+     * @param opaque Indexed by block ID, true for BLOCK draw type. See BlockDefinitionContainer.getOpaqueTable().
+     * @return The masks.
+     */
+    public synchronized byte[] getFaceMasks(final int section, final boolean[] opaque) {
+        checkSection(section);
+        return sections[section].getFaceMasks(opaque).getMasks();
+    }
+
+    /**
+     * Which faces of a block are exposed, as far as this chunk knows. Cheap once the section's masks are built.
+     * Faces on the outer walls of the chunk are set on every opaque block, the neighbor chunk decides those.
+     * Same rules as getFaceMasks().
+     * @param x Internal X position.
+     * @param y Internal Y position.
+     * @param z Internal Z position.
+     * @param opaque Indexed by block ID, true for BLOCK draw type.
+     * @return 6 bit face mask, 0 if the block isn't opaque or is buried.
+     */
+    public synchronized int getExposedFaces(final int x, final int y, final int z, final boolean[] opaque) {
+        check(x, y, z);
+        final int index = positionToIndex(x, y, z);
+        int faces = sections[index >>> SECTION_SHIFT].getFaceMasks(opaque).get(index & SECTION_MASK);
+        // The sections above & below are in this chunk too
+        final int localY = y % SECTION_HEIGHT;
+        if (localY == 0 && y > 0 && isOpaqueBlock(opaque, internalGetBlockData(index - yStride))) {
+            faces &= ~(1 << 4);
+        } else if (localY == SECTION_HEIGHT - 1 && y < HEIGHT - 1 && isOpaqueBlock(opaque, internalGetBlockData(index + yStride))) {
+            faces &= ~(1 << 5);
+        }
+        return faces;
+    }
+
+    private static boolean isOpaqueBlock(final boolean[] opaque, final int blockData) {
+        final int ID = getBlockID(blockData);
+        return ID > 0 && ID < opaque.length && opaque[ID];
+    }
+
+    /**
+     * Copy one X wall of a section out, so a neighbor can be meshed without snapshotting this whole chunk.
+     * Nothing gets frozen, so writes into this chunk never pay a copy on write for it.
+     * @param x The wall, 0 to 15.
+     * @param section 0-7, bottom to top.
+     * @param output 256 long, filled as output[z + localY * 16].
+     */
+    public synchronized void copyBorderPlaneX(final int x, final int section, final int[] output) {
+        checkSection(section);
+        checkPlane(x, WIDTH, output);
+        // The whole wall lives in the one section, section local y is the same as local y
+        final ChunkSection source = sections[section];
+        for (int y = 0; y < SECTION_HEIGHT; y++) {
+            for (int z = 0; z < DEPTH; z++) {
+                output[z + y * DEPTH] = source.get(positionToIndex(x, y, z));
+            }
+        }
+    }
+
+    /**
+     * Copy one Z wall of a section out, so a neighbor can be meshed without snapshotting this whole chunk.
+     * Nothing gets frozen, so writes into this chunk never pay a copy on write for it.
+     * @param z The wall, 0 to 15.
+     * @param section 0-7, bottom to top.
+     * @param output 256 long, filled as output[x + localY * 16].
+     */
+    public synchronized void copyBorderPlaneZ(final int z, final int section, final int[] output) {
+        checkSection(section);
+        checkPlane(z, DEPTH, output);
+        final ChunkSection source = sections[section];
+        for (int y = 0; y < SECTION_HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                output[x + y * WIDTH] = source.get(positionToIndex(x, y, z));
+            }
+        }
+    }
+
+    private void checkPlane(final int wall, final int limit, final int[] output) {
+        if (wall < 0 || wall >= limit) {
+            throw new RuntimeException("ChunkArrayManipulation: Border plane (" + wall + ") is out of bounds!");
+        }
+        if (output.length < limit * SECTION_HEIGHT) {
+            throw new RuntimeException("ChunkArrayManipulation: Border plane output is too small! (" + output.length + ")");
+        }
     }
 
     /**
@@ -82,7 +341,7 @@ public abstract class ChunkArrayManipulation extends ChunkBitManipulation {
      */
     public void setBlockData(Vector3ic position, int blockData) {
         check(position);
-        data[positionToIndex(position)] = blockData;
+        internalSetBlockData(positionToIndex(position), blockData);
     }
 
     /**
@@ -93,7 +352,7 @@ public abstract class ChunkArrayManipulation extends ChunkBitManipulation {
      */
     public void setBlockData(int index, int blockData) {
         check(index);
-        data[index] = blockData;
+        internalSetBlockData(index, blockData);
     }
 
     /**
@@ -105,7 +364,7 @@ public abstract class ChunkArrayManipulation extends ChunkBitManipulation {
      */
     public void setBlockData(final int x, final int y, final int z, int blockData) {
         check(x,y,z);
-        data[positionToIndex(x,y,z)] = blockData;
+        internalSetBlockData(positionToIndex(x,y,z), blockData);
     }
 
     /**
@@ -116,7 +375,7 @@ public abstract class ChunkArrayManipulation extends ChunkBitManipulation {
      */
     public int getBlockData(int index) {
         check(index);
-        return data[index];
+        return internalGetBlockData(index);
     }
 
     /**
@@ -127,7 +386,7 @@ public abstract class ChunkArrayManipulation extends ChunkBitManipulation {
      */
     public int getBlockData(Vector3ic position) {
         check(position);
-        return data[positionToIndex(position)];
+        return internalGetBlockData(positionToIndex(position));
     }
 
     /**
@@ -139,7 +398,38 @@ public abstract class ChunkArrayManipulation extends ChunkBitManipulation {
      */
     public int getBlockData(final int x, final int y, final int z) {
         check(x,y,z);
-        return data[positionToIndex(x,y,z)];
+        return internalGetBlockData(positionToIndex(x,y,z));
+    }
+
+    private int internalGetBlockData(final int index) {
+        return sections[index >>> SECTION_SHIFT].get(index & SECTION_MASK);
+    }
+
+    private synchronized void internalSetBlockData(final int index, final int blockData) {
+        final int sectionIndex = index >>> SECTION_SHIFT;
+        ChunkSection section = sections[sectionIndex];
+        // A snapshot is holding onto this section, leave it alone and write into a private copy
+        if (section.isFrozen()) {
+            section = section.copy();
+        }
+        final int oldBlockData = section.get(index & SECTION_MASK);
+        // The section may hand back a wider replacement of itself
+        sections[sectionIndex] = section.set(index & SECTION_MASK, blockData);
+        version++;
+        if (oldBlockData != blockData) {
+            sections[sectionIndex].updateFaceMasks(index & SECTION_MASK, oldBlockData, blockData);
+            journal.record(index, oldBlockData, blockData);
+            if (recording != null) {
+                recording.record(index, oldBlockData, blockData);
+            }
+        }
+    }
+
+    private synchronized ChunkSection[] freezeSections() {
+        for (ChunkSection section : sections) {
+            section.freeze();
+        }
+        return sections.clone();
     }
 
     public static int positionToIndex(Vector3ic position) {
@@ -167,6 +457,11 @@ public abstract class ChunkArrayManipulation extends ChunkBitManipulation {
             throw new RuntimeException("ChunkArrayManipulation: Index (" + index + ") is out of bounds!");
         }
     }
+    private void checkSection(int section) {
+        if (section < 0 || section >= SECTIONS) {
+            throw new RuntimeException("ChunkArrayManipulation: Section (" + section + ") is out of bounds!");
+        }
+    }
     private void check(Vector3ic position) {
         if (!boundsCheck(position)) {
             throw new RuntimeException("ChunkArrayManipulation: Position (" + position.x() + ", " + position.y() + ", " + position.z() + ") is out of bounds!");
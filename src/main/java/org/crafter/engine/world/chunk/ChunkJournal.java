@@ -0,0 +1,160 @@
+/*
+ Crafter - A blocky game (engine) written in Java with LWJGL.
+ Copyright (C) 2023  jordan4ibanez
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.crafter.engine.world.chunk;
+
+import java.util.Arrays;
+
+/**
+ * An append only list of block changes in one chunk: (index, old raw data, new raw data).
+ * Every chunk keeps one of these for everything written since it was last saved, so a save can write only the changes.
+ * The Block Manipulator records into a second one, which is what undo & redo replay.
+ *
+ * When the journal hits its limit it compacts itself: one entry per index, first old value & last new value,
+ * entries that ended up back where they started are dropped.
+ * If it is still mostly full after that, it overflows. An overflowed journal holds nothing and means "too much changed, save it all".
+ *
+ * Not thread safe by itself, the owning chunk locks around it. Once handed off (to a snapshot, or into the undo history) it is never written again.
+ */
+public final class ChunkJournal {
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    private final int limit;
+
+    private int[] indices;
+    private int[] oldValues;
+    private int[] newValues;
+    private int size = 0;
+    private boolean overflowed = false;
+
+    ChunkJournal(final int limit) {
+        this.limit = limit;
+    }
+
+    void record(final int index, final int oldValue, final int newValue) {
+        if (overflowed) {
+            return;
+        }
+        if (size == limit) {
+            compact();
+            // Compacting barely helped, this chunk is getting rewritten wholesale
+            if (size > limit - (limit >> 2)) {
+                overflow();
+                return;
+            }
+        }
+        if (indices == null || size == indices.length) {
+            grow();
+        }
+        indices[size] = index;
+        oldValues[size] = oldValue;
+        newValues[size] = newValue;
+        size++;
+    }
+
+    /**
+     * Squash down to one entry per index, sorted by index.
+     */
+    void compact() {
+        if (size < 2) {
+            return;
+        }
+        // Index in the high bits, entry order in the low bits. Sorting keeps the original order within an index
+        final long[] order = new long[size];
+        for (int i = 0; i < size; i++) {
+            order[i] = ((long) indices[i] << 32) | i;
+        }
+        Arrays.sort(order);
+
+        final int[] compactIndices = new int[size];
+        final int[] compactOldValues = new int[size];
+        final int[] compactNewValues = new int[size];
+        int compactSize = 0;
+
+        int i = 0;
+        while (i < size) {
+            final int index = (int) (order[i] >>> 32);
+            final int first = (int) order[i];
+            int last = first;
+            i++;
+            while (i < size && (int) (order[i] >>> 32) == index) {
+                last = (int) order[i];
+                i++;
+            }
+            if (oldValues[first] == newValues[last]) {
+                continue;
+            }
+            compactIndices[compactSize] = index;
+            compactOldValues[compactSize] = oldValues[first];
+            compactNewValues[compactSize] = newValues[last];
+            compactSize++;
+        }
+
+        indices = compactIndices;
+        oldValues = compactOldValues;
+        newValues = compactNewValues;
+        size = compactSize;
+    }
+
+    void clear() {
+        indices = null;
+        oldValues = null;
+        newValues = null;
+        size = 0;
+        overflowed = false;
+    }
+
+    void overflow() {
+        clear();
+        overflowed = true;
+    }
+
+    /**
+     * @return True if this journal gave up recording. The changes are unknown, treat the whole chunk as changed.
+     */
+    public boolean isOverflowed() {
+        return overflowed;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int getIndex(final int entry) {
+        return indices[entry];
+    }
+
+    public int getOldValue(final int entry) {
+        return oldValues[entry];
+    }
+
+    public int getNewValue(final int entry) {
+        return newValues[entry];
+    }
+
+    private void grow() {
+        final int capacity = indices == null ? INITIAL_CAPACITY : Math.min(limit, indices.length * 2);
+        indices = indices == null ? new int[capacity] : Arrays.copyOf(indices, capacity);
+        oldValues = oldValues == null ? new int[capacity] : Arrays.copyOf(oldValues, capacity);
+        newValues = newValues == null ? new int[capacity] : Arrays.copyOf(newValues, capacity);
+    }
+}
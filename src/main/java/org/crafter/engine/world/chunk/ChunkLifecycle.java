@@ -0,0 +1,303 @@
+/*
+ Crafter - A blocky game (engine) written in Java with LWJGL.
+ Copyright (C) 2023  jordan4ibanez
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.crafter.engine.world.chunk;
+
+import org.crafter.engine.world.block.BlockDefinitionContainer;
+import org.crafter.engine.world.region.WorldSaver;
+import org.crafter.engine.world_generation.chunk_mesh_generation.ChunkMeshGenerator;
+import org.crafter.engine.world_generation.chunk_mesh_generation.GreedyMesher;
+import org.crafter.engine.world_generation.chunk_mesh_generation.NeighborMeshUpdates;
+import org.crafter.game.entity.player.Player;
+import org.crafter.game.entity.player.PlayerStorage;
+import org.joml.Vector3fc;
+import org.joml.Vector3i;
+import org.joml.Vector3ic;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Keeps loaded chunks under a heap & VRAM budget.
+ * Once a second it adds up what the loaded chunks use. If either budget is blown, chunks are unloaded farthest from
+ * every player first until both are back under 90% of their budget.
+ * Chunks within the keep radius of a player are never unloaded.
+ * Unloading destroys the chunk's stack meshes and, if save on unload is on, hands the chunk to the WorldSaver first.
+ * The loaded neighbors get the stacks remeshed whose wall faces were hidden by the chunk and are now open to air.
+ * Main thread only! Meshes live in the GPU.
+ */
+public final class ChunkLifecycle {
+
+    private static final long CHECK_INTERVAL = 1_000_000_000L;
+
+    private static long heapBudget = 256L * 1024 * 1024;
+    private static long vramBudget = 512L * 1024 * 1024;
+    // In chunks, on both axes (a square)
+    private static int keepRadius = 8;
+    private static boolean saveOnUnload = true;
+
+    private static long nextCheck = 0;
+    private static long heapUsage = 0;
+    private static long vramUsage = 0;
+
+    private static final List<Vector3fc> playerPositions = new ArrayList<>();
+
+    // Where neighbor remeshes go, (chunk X, stack, chunk Z). The Chunk Mesh Generator, unless nothing is meshing (headless tests)
+    private static Consumer<Vector3ic> remeshHandler = ChunkLifecycle::pushRemesh;
+    private static final Vector3i remeshWorker = new Vector3i();
+    // Fetched on the first unload, the blocks are all registered by then
+    private static boolean[] opaque = null;
+    // What an unloaded chunk leaves behind
+    private static final Chunk air = new Chunk(0, 0);
+
+    // Reused between passes, grown as needed
+    private static Chunk[] candidates = new Chunk[0];
+    private static long[] order = new long[0];
+    private static int candidateCount = 0;
+
+    private ChunkLifecycle(){}
+
+    /**
+     * Call this once per frame on the main thread. It only does work once a second.
+     */
+    public static void tick() {
+        final long time = System.nanoTime();
+        if (time < nextCheck) {
+            return;
+        }
+        nextCheck = time + CHECK_INTERVAL;
+
+        playerPositions.clear();
+        for (Player player : PlayerStorage.getConnectedPlayers()) {
+            playerPositions.add(player.getPosition());
+        }
+        enforceBudgets(playerPositions);
+    }
+
+    /**
+     * Unload chunks until the heap & VRAM budgets are met.
+     * @param anchors In world positions to keep chunks around, usually the players.
+     * @return How many chunks were unloaded.
+     */
+    public static int enforceBudgets(final List<? extends Vector3fc> anchors) {
+        measure();
+        if (heapUsage <= heapBudget && vramUsage <= vramBudget) {
+            return 0;
+        }
+
+        final long heapTarget = heapBudget - heapBudget / 10;
+        final long vramTarget = vramBudget - vramBudget / 10;
+
+        gatherCandidates(anchors);
+
+        // Farthest first, order is sorted ascending so walk it backwards
+        int unloaded = 0;
+        for (int i = candidateCount - 1; i >= 0; i--) {
+            if (heapUsage <= heapTarget && vramUsage <= vramTarget) {
+                break;
+            }
+            final Chunk chunk = candidates[(int) order[i]];
+            final long heap = chunk.getMemoryUsage();
+            final long vram = chunk.getMeshMemoryUsage();
+            if (unload(chunk)) {
+                heapUsage -= heap;
+                vramUsage -= vram;
+                unloaded++;
+            }
+        }
+
+        // Don't hold onto unloaded chunks
+        Arrays.fill(candidates, 0, candidateCount, null);
+        candidateCount = 0;
+
+        if (unloaded > 0) {
+            System.out.println("ChunkLifecycle: Unloaded (" + unloaded + ") chunks! Heap: (" + (heapUsage / 1024) + " KB) | VRAM: (" + (vramUsage / 1024) + " KB)");
+        }
+        return unloaded;
+    }
+
+    /**
+     * Unload a chunk right now, no matter the budget.
+     * @param chunk The chunk.
+     * @return False if it has to be saved first but the WorldSaver is backed up. It stays loaded.
+     */
+    public static boolean unload(final Chunk chunk) {
+        if (saveOnUnload && !WorldSaver.capture(chunk)) {
+            return false;
+        }
+        chunk.destroyMeshes();
+        ChunkStorage.removeChunk(chunk.getX(), chunk.getZ());
+        remeshNeighbors(chunk);
+        return true;
+    }
+
+    /**
+     * @param handler Where neighbor remeshes go, as (chunk X, stack, chunk Z). Defaults to the Chunk Mesh Generator.
+     */
+    public static void setRemeshHandler(final Consumer<Vector3ic> handler) {
+        if (handler == null) {
+            throw new RuntimeException("ChunkLifecycle: Remesh handler can't be null!");
+        }
+        remeshHandler = handler;
+    }
+
+    public static void resetRemeshHandler() {
+        remeshHandler = ChunkLifecycle::pushRemesh;
+    }
+
+    /**
+     * @param table Indexed by block ID, true for BLOCK draw type. Null goes back to BlockDefinitionContainer.getOpaqueTable().
+     */
+    public static void setOpaqueTable(final boolean[] table) {
+        opaque = table;
+    }
+
+    public static void setHeapBudget(final long bytes) {
+        heapBudget = bytes;
+    }
+
+    public static long getHeapBudget() {
+        return heapBudget;
+    }
+
+    public static void setVRAMBudget(final long bytes) {
+        vramBudget = bytes;
+    }
+
+    public static long getVRAMBudget() {
+        return vramBudget;
+    }
+
+    /**
+     * @param chunks Chunks this close (or closer) to a player on both axes are never unloaded.
+     */
+    public static void setKeepRadius(final int chunks) {
+        if (chunks < 0) {
+            throw new RuntimeException("ChunkLifecycle: Keep radius can't be negative! (" + chunks + ")");
+        }
+        keepRadius = chunks;
+    }
+
+    public static int getKeepRadius() {
+        return keepRadius;
+    }
+
+    /**
+     * @param enabled If true, dirty chunks are handed to the WorldSaver before they are dropped. If false, their changes are lost!
+     */
+    public static void setSaveOnUnload(final boolean enabled) {
+        saveOnUnload = enabled;
+    }
+
+    public static boolean getSaveOnUnload() {
+        return saveOnUnload;
+    }
+
+    /**
+     * @return Heap used by loaded chunks at the last check, in bytes.
+     */
+    public static long getHeapUsage() {
+        return heapUsage;
+    }
+
+    /**
+     * @return VRAM used by loaded chunk meshes at the last check, in bytes.
+     */
+    public static long getVRAMUsage() {
+        return vramUsage;
+    }
+
+    private static void remeshNeighbors(final Chunk removed) {
+        if (opaque == null) {
+            opaque = BlockDefinitionContainer.getMainInstance().getOpaqueTable();
+        }
+        final int x = removed.getX();
+        final int z = removed.getZ();
+        // Right-handed coordinate system, -Z is front
+        remeshNeighbor(x, z - 1, GreedyMesher.FRONT, removed);
+        remeshNeighbor(x, z + 1, GreedyMesher.BACK, removed);
+        remeshNeighbor(x - 1, z, GreedyMesher.LEFT, removed);
+        remeshNeighbor(x + 1, z, GreedyMesher.RIGHT, removed);
+    }
+
+    private static void remeshNeighbor(final int x, final int z, final int side, final Chunk removed) {
+        if (!ChunkStorage.hasChunk(x, z)) {
+            return;
+        }
+        final int stacks = NeighborMeshUpdates.getChangedStacks(ChunkStorage.getChunk(x, z), removed, air, side, opaque);
+        for (int stack = 0; stack < Chunk.getStacks(); stack++) {
+            if ((stacks & (1 << stack)) != 0) {
+                remeshHandler.accept(remeshWorker.set(x, stack, z));
+            }
+        }
+    }
+
+    private static void pushRemesh(final Vector3ic stack) {
+        ChunkMeshGenerator.pushRequest(stack.x(), stack.y(), stack.z());
+    }
+
+    private static void measure() {
+        heapUsage = 0;
+        vramUsage = 0;
+        ChunkStorage.forEachChunk(ChunkLifecycle::measureChunk);
+    }
+
+    private static void measureChunk(final Chunk chunk) {
+        heapUsage += chunk.getMemoryUsage();
+        vramUsage += chunk.getMeshMemoryUsage();
+    }
+
+    private static void gatherCandidates(final List<? extends Vector3fc> anchors) {
+        final int[] anchorX = new int[anchors.size()];
+        final int[] anchorZ = new int[anchors.size()];
+        for (int i = 0; i < anchors.size(); i++) {
+            anchorX[i] = (int) Math.floor(anchors.get(i).x() / Chunk.getWidth());
+            anchorZ[i] = (int) Math.floor(anchors.get(i).z() / Chunk.getDepth());
+        }
+
+        final int loaded = ChunkStorage.getChunkCount();
+        if (candidates.length < loaded) {
+            candidates = new Chunk[loaded + (loaded >> 1)];
+            order = new long[candidates.length];
+        }
+        candidateCount = 0;
+
+        ChunkStorage.forEachChunk(chunk -> {
+            // Chebyshev distance for the keep radius, squared distance to sort by
+            int nearestSquared = Integer.MAX_VALUE;
+            int nearestSquare = Integer.MAX_VALUE;
+            for (int i = 0; i < anchorX.length; i++) {
+                final int distanceX = Math.abs(chunk.getX() - anchorX[i]);
+                final int distanceZ = Math.abs(chunk.getZ() - anchorZ[i]);
+                nearestSquare = Math.min(nearestSquare, Math.max(distanceX, distanceZ));
+                nearestSquared = (int) Math.min(nearestSquared, Math.min((long) distanceX * distanceX + (long) distanceZ * distanceZ, Integer.MAX_VALUE));
+            }
+            // Added while iterating, no room. It's new anyway
+            if (nearestSquare <= keepRadius || candidateCount == candidates.length) {
+                return;
+            }
+            candidates[candidateCount] = chunk;
+            // Distance in the high bits, candidate index in the low bits
+            order[candidateCount] = ((long) nearestSquared << 32) | candidateCount;
+            candidateCount++;
+        });
+
+        Arrays.sort(order, 0, candidateCount);
+    }
+}
@@ -0,0 +1,142 @@
+/*
+ Crafter - A blocky game (engine) written in Java with LWJGL.
+ Copyright (C) 2023  jordan4ibanez
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.crafter.engine.world.chunk;
+
+import java.util.function.Consumer;
+
+/**
+ * The concurrent chunk index that ChunkStorage lives on top of.
+ * Keys are (chunkX, chunkZ) packed into a single long, so a lookup never needs a Vector2i.
+ *
+ * Reads are wait-free, they never lock and never allocate.
+ * Writes are striped over SEGMENTS locks, picked by the top bits of the hash.
+ * The render thread, the ChunkMeshGenerator thread and the scripting API can all read while the main thread writes.
+ */
+public final class ChunkMap {
+
+    // Must be a power of 2
+    private static final int SEGMENT_BITS = 4;
+    private static final int SEGMENTS = 1 << SEGMENT_BITS;
+
+    private final ChunkMapSegment[] segments;
+
+    public ChunkMap() {
+        segments = new ChunkMapSegment[SEGMENTS];
+        for (int i = 0; i < SEGMENTS; i++) {
+            segments[i] = new ChunkMapSegment();
+        }
+    }
+
+    /**
+     * Pack a chunk position into a key. X is the high 32 bits, Z is the low 32 bits.
+     * @param x Chunk X.
+     * @param z Chunk Z.
+     * @return The packed key.
+     */
+    public static long packPosition(final int x, final int z) {
+        return ((long) x << 32) | (z & 0xFFFF_FFFFL);
+    }
+
+    public static int unpackX(final long key) {
+        return (int) (key >> 32);
+    }
+
+    public static int unpackZ(final long key) {
+        return (int) key;
+    }
+
+    public Chunk get(final int x, final int z) {
+        return get(packPosition(x, z));
+    }
+
+    public Chunk get(final long key) {
+        final int hash = hash(key);
+        return segmentFor(hash).get(key, hash);
+    }
+
+    public boolean contains(final int x, final int z) {
+        return get(x, z) != null;
+    }
+
+    public boolean contains(final long key) {
+        return get(key) != null;
+    }
+
+    /**
+     * Store a chunk at its own position.
+     * @param chunk The chunk.
+     * @return The chunk that was replaced, or null.
+     */
+    public Chunk put(final Chunk chunk) {
+        final long key = packPosition(chunk.getX(), chunk.getZ());
+        final int hash = hash(key);
+        return segmentFor(hash).put(key, hash, chunk);
+    }
+
+    /**
+     * Store a chunk at its own position only if that position is empty.
+     * @param chunk The chunk.
+     * @return The chunk that already existed, or null if the new chunk was stored.
+     */
+    public Chunk putIfAbsent(final Chunk chunk) {
+        final long key = packPosition(chunk.getX(), chunk.getZ());
+        final int hash = hash(key);
+        return segmentFor(hash).putIfAbsent(key, hash, chunk);
+    }
+
+    public Chunk remove(final int x, final int z) {
+        final long key = packPosition(x, z);
+        final int hash = hash(key);
+        return segmentFor(hash).remove(key, hash);
+    }
+
+    public int size() {
+        int total = 0;
+        for (ChunkMapSegment segment : segments) {
+            total += segment.size();
+        }
+        return total;
+    }
+
+    /**
+     * Weakly consistent iteration over every stored chunk. Never locks.
+     * @param action What to do with each chunk.
+     */
+    public void forEach(final Consumer<Chunk> action) {
+        for (ChunkMapSegment segment : segments) {
+            segment.forEach(action);
+        }
+    }
+
+    private ChunkMapSegment segmentFor(final int hash) {
+        return segments[hash >>> (32 - SEGMENT_BITS)];
+    }
+
+    /**
+     * Murmur3 finalizer. Neighboring chunks differ by 1 in X or Z, this spreads them over the whole table.
+     */
+    static int hash(final long key) {
+        long h = key;
+        h ^= h >>> 33;
+        h *= 0xFF51AFD7ED558CCDL;
+        h ^= h >>> 33;
+        h *= 0xC4CEB9FE1A85EC53L;
+        h ^= h >>> 33;
+        return (int) h;
+    }
+}
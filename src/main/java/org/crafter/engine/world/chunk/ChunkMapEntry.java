@@ -0,0 +1,29 @@
+/*
+ Crafter - A blocky game (engine) written in Java with LWJGL.
+ Copyright (C) 2023  jordan4ibanez
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.crafter.engine.world.chunk;
+
+/**
+ * One immutable slot inside a ChunkMapSegment table.
+ * Entries are never mutated after they are published, so a reader that sees one sees the whole thing.
+ * @param key The packed (chunkX, chunkZ) position. See ChunkMap.packPosition().
+ * @param chunk The chunk living at that position.
+ */
+record ChunkMapEntry(long key, Chunk chunk) {
+    // Marks a removed slot so probing continues past it. Compared by identity only!
+    static final ChunkMapEntry TOMBSTONE = new ChunkMapEntry(0, null);
+}
@@ -0,0 +1,191 @@
+/*
+ Crafter - A blocky game (engine) written in Java with LWJGL.
+ Copyright (C) 2023  jordan4ibanez
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.crafter.engine.world.chunk;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Consumer;
+
+import static org.crafter.engine.world.chunk.ChunkMapEntry.TOMBSTONE;
+
+/**
+ * One stripe of the ChunkMap.
+ * This is an open addressing (linear probing) table of immutable ChunkMapEntry slots.
+ * Readers never lock: they grab the current table and probe it. The table is never more than half full,
+ * so there is always a null slot to stop on and the probe is bounded.
+ * Writers lock the segment, so a writer only ever blocks another writer that hashed into the same stripe.
+ * Growing the table builds a brand-new one and publishes it, old readers just finish on the old table.
+ */
+final class ChunkMapSegment {
+
+    private static final int INITIAL_CAPACITY = 64;
+
+    private volatile AtomicReferenceArray<ChunkMapEntry> table;
+
+    // These are only touched while holding the segment lock
+    private int size = 0;
+    private int tombstones = 0;
+
+    ChunkMapSegment() {
+        table = new AtomicReferenceArray<>(INITIAL_CAPACITY);
+    }
+
+    /**
+     * Wait-free lookup.
+     * @param key Packed chunk position.
+     * @param hash Mixed hash of the key.
+     * @return The chunk, or null if it does not exist.
+     */
+    Chunk get(final long key, final int hash) {
+        final AtomicReferenceArray<ChunkMapEntry> slots = table;
+        final int mask = slots.length() - 1;
+        int index = hash & mask;
+        while (true) {
+            final ChunkMapEntry entry = slots.get(index);
+            if (entry == null) {
+                return null;
+            }
+            if (entry != TOMBSTONE && entry.key() == key) {
+                return entry.chunk();
+            }
+            index = (index + 1) & mask;
+        }
+    }
+
+    /**
+     * Insert or replace.
+     * @return The chunk that was replaced, or null if this is a new position.
+     */
+    synchronized Chunk put(final long key, final int hash, final Chunk chunk) {
+        return insert(key, hash, chunk, true);
+    }
+
+    /**
+     * Insert only if nothing is stored at this position.
+     * @return The chunk that already existed, or null if the new chunk was inserted.
+     */
+    synchronized Chunk putIfAbsent(final long key, final int hash, final Chunk chunk) {
+        return insert(key, hash, chunk, false);
+    }
+
+    synchronized Chunk remove(final long key, final int hash) {
+        final AtomicReferenceArray<ChunkMapEntry> slots = table;
+        final int mask = slots.length() - 1;
+        int index = hash & mask;
+        while (true) {
+            final ChunkMapEntry entry = slots.get(index);
+            if (entry == null) {
+                return null;
+            }
+            if (entry != TOMBSTONE && entry.key() == key) {
+                slots.set(index, TOMBSTONE);
+                size--;
+                tombstones++;
+                return entry.chunk();
+            }
+            index = (index + 1) & mask;
+        }
+    }
+
+    synchronized int size() {
+        return size;
+    }
+
+    /**
+     * Weakly consistent iteration. Sees every chunk that was stored before the call began.
+     */
+    void forEach(final Consumer<Chunk> action) {
+        final AtomicReferenceArray<ChunkMapEntry> slots = table;
+        for (int i = 0; i < slots.length(); i++) {
+            final ChunkMapEntry entry = slots.get(i);
+            if (entry != null && entry != TOMBSTONE) {
+                action.accept(entry.chunk());
+            }
+        }
+    }
+
+    private Chunk insert(final long key, final int hash, final Chunk chunk, final boolean replace) {
+        final AtomicReferenceArray<ChunkMapEntry> slots = table;
+        final int mask = slots.length() - 1;
+        int index = hash & mask;
+        int firstFreed = -1;
+        while (true) {
+            final ChunkMapEntry entry = slots.get(index);
+            if (entry == null) {
+                break;
+            }
+            if (entry == TOMBSTONE) {
+                if (firstFreed == -1) {
+                    firstFreed = index;
+                }
+            } else if (entry.key() == key) {
+                if (replace) {
+                    slots.set(index, new ChunkMapEntry(key, chunk));
+                }
+                return entry.chunk();
+            }
+            index = (index + 1) & mask;
+        }
+
+        // Position is not stored, reuse a freed slot if the probe walked over one
+        if (firstFreed != -1) {
+            slots.set(firstFreed, new ChunkMapEntry(key, chunk));
+            tombstones--;
+            size++;
+            return null;
+        }
+
+        slots.set(index, new ChunkMapEntry(key, chunk));
+        size++;
+
+        // Keep at least half the table null so reads always terminate quickly
+        if ((size + tombstones) * 2 > slots.length()) {
+            rebuild();
+        }
+        return null;
+    }
+
+    /**
+     * Rehash into a fresh table, dropping the tombstones. The new table is published in one volatile write.
+     */
+    private void rebuild() {
+        final AtomicReferenceArray<ChunkMapEntry> oldSlots = table;
+
+        int capacity = INITIAL_CAPACITY;
+        while (capacity < size * 4) {
+            capacity <<= 1;
+        }
+
+        final AtomicReferenceArray<ChunkMapEntry> newSlots = new AtomicReferenceArray<>(capacity);
+        final int mask = capacity - 1;
+
+        for (int i = 0; i < oldSlots.length(); i++) {
+            final ChunkMapEntry entry = oldSlots.get(i);
+            if (entry == null || entry == TOMBSTONE) {
+                continue;
+            }
+            int index = ChunkMap.hash(entry.key()) & mask;
+            while (newSlots.get(index) != null) {
+                index = (index + 1) & mask;
+            }
+            newSlots.set(index, entry);
+        }
+
+        tombstones = 0;
+        table = newSlots;
+    }
+}
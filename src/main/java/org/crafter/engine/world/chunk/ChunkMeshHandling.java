@@ -17,8 +17,10 @@
  */
 package org.crafter.engine.world.chunk;
 
+import org.crafter.engine.mesh.ChunkGeometryArena;
 import org.crafter.engine.mesh.MeshStorage;
 import org.crafter.engine.world_generation.chunk_mesh_generation.ChunkMeshRecord;
+import org.crafter.engine.world_generation.chunk_mesh_generation.PackedChunkVertex;
 
 import java.io.Serializable;
 
@@ -26,11 +28,18 @@ public class ChunkMeshHandling extends ChunkArrayManipulation {
     private static final int STACK_HEIGHT = 16;
     private static final int STACKS = getHeight() / STACK_HEIGHT;
 
-    private final String[] meshes;
+    // MeshStorage handles, 0 for no mesh
+    private final int[] meshes;
+    // ChunkGeometryArena handles, 0 for no mesh. Packed meshes go here, a stack only ever has one of the two
+    private final int[] arenaMeshes;
+    // Bytes uploaded to the GPU for each stack mesh
+    private final int[] meshBytes;
 
     public ChunkMeshHandling() {
 //        System.out.println("ChunkMeshHandling: Stacks: " + STACKS);
-        meshes = new String[8];
+        meshes = new int[8];
+        arenaMeshes = new int[8];
+        meshBytes = new int[8];
     }
 
     /**
@@ -40,24 +49,87 @@ public class ChunkMeshHandling extends ChunkArrayManipulation {
      */
     public void setMesh(int stack, ChunkMeshRecord newMesh) {
 
-        if (meshes[stack] != null) {
+        if (newMesh.packedVertices() != null && ChunkGeometryArena.fits(newMesh.quadCount() * 4)) {
+            if (meshes[stack] != 0) {
+                MeshStorage.destroy(meshes[stack]);
+                meshes[stack] = 0;
+            }
+            if (arenaMeshes[stack] != 0) {
+                // Written over the old one when it fits, nothing is created or deleted
+                ChunkGeometryArena.replace(arenaMeshes[stack], newMesh.packedVertices());
+            } else {
+                arenaMeshes[stack] = ChunkGeometryArena.add(newMesh.packedVertices(), PackedChunkVertex.SIZE, "worldAtlas");
+            }
+            meshBytes[stack] = newMesh.packedVertices().length * Integer.BYTES;
+            return;
+        }
+
+        if (arenaMeshes[stack] != 0) {
+            ChunkGeometryArena.remove(arenaMeshes[stack]);
+            arenaMeshes[stack] = 0;
+        }
+        if (meshes[stack] != 0) {
             MeshStorage.destroy(meshes[stack]);
         }
 
-        MeshStorage.newMesh(
-                newMesh.uuid(),
+        // Too big for the arena
+        if (newMesh.packedVertices() != null) {
+            meshes[stack] = MeshStorage.newPackedMesh(
+                    newMesh.packedVertices(),
+                    PackedChunkVertex.SIZE,
+                    "worldAtlas"
+            );
+            meshBytes[stack] = newMesh.packedVertices().length * Integer.BYTES;
+            return;
+        }
+
+        meshes[stack] = MeshStorage.newMesh(
                 newMesh.positions(),
                 newMesh.textureCoordinates(),
-                newMesh.indices(),
+                // Quads, drawn out of the shared QuadIndexBuffer
+                null,
                 null,
                 newMesh.colors(),
+                newMesh.atlasRegions(),
                 "worldAtlas",
                 false
         );
 
-//        System.out.println("ChunkMeshHandling: Chunk (" + newMesh.destinationChunkPosition().x() + ", " + newMesh.destinationChunkPosition().y() + ") stack (" + stack + ") has uuid (" + newMesh.uuid() + ")");
+//        System.out.println("ChunkMeshHandling: Chunk (" + newMesh.destinationChunkPosition().x() + ", " + newMesh.destinationChunkPosition().y() + ") stack (" + stack + ") has handle (" + meshes[stack] + ")");
 
-        meshes[stack] = newMesh.uuid();
+        meshBytes[stack] = (newMesh.positions().length + newMesh.textureCoordinates().length + newMesh.colors().length) * Float.BYTES;
+        if (newMesh.atlasRegions() != null) {
+            meshBytes[stack] += newMesh.atlasRegions().length * Float.BYTES;
+        }
+    }
+
+    /**
+     * Destroy all the stack meshes of this chunk in the GPU. Call this when unloading the chunk!
+     */
+    public void destroyMeshes() {
+        for (int stack = 0; stack < STACKS; stack++) {
+            if (meshes[stack] != 0) {
+                MeshStorage.destroy(meshes[stack]);
+                meshes[stack] = 0;
+                meshBytes[stack] = 0;
+            }
+            if (arenaMeshes[stack] != 0) {
+                ChunkGeometryArena.remove(arenaMeshes[stack]);
+                arenaMeshes[stack] = 0;
+                meshBytes[stack] = 0;
+            }
+        }
+    }
+
+    /**
+     * @return Roughly how many bytes of VRAM the stack meshes of this chunk take.
+     */
+    public long getMeshMemoryUsage() {
+        long total = 0;
+        for (int bytes : meshBytes) {
+            total += bytes;
+        }
+        return total;
     }
 
     /**
@@ -69,10 +141,22 @@ public class ChunkMeshHandling extends ChunkArrayManipulation {
         return STACKS;
     }
 
-    protected String getMesh(int stack) {
+    /**
+     * @param stack 0-7.
+     * @return The MeshStorage handle of the stack mesh, 0 if it has none.
+     */
+    protected int getMesh(int stack) {
         return meshes[stack];
     }
 
+    /**
+     * @param stack 0-7.
+     * @return The ChunkGeometryArena handle of the stack mesh, 0 if it has none there.
+     */
+    protected int getArenaMesh(int stack) {
+        return arenaMeshes[stack];
+    }
+
     public static int getStackHeight() {
         return STACK_HEIGHT;
     }
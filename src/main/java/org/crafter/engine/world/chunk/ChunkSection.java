@@ -0,0 +1,336 @@
+/*
+ Crafter - A blocky game (engine) written in Java with LWJGL.
+ Copyright (C) 2023  jordan4ibanez
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.crafter.engine.world.chunk;
+
+import java.util.Arrays;
+
+/**
+ * One 16x16x16 section of a chunk's block data. A chunk is a stack of these, one per mesh stack.
+ *
+ * Instead of storing 4096 raw ints, a section stores a palette of the distinct raw block values it contains,
+ * and 4096 small indices into that palette packed into longs.
+ * Index width is 1, 2, 4 or 8 bits. Past 256 distinct values the palette is dropped and the raw
+ * values are packed 2 per long (direct mode), which costs the same as the old flat array.
+ *
+ * A section holding only one value (all air above the terrain, all stone below it) is uniform:
+ * it has a 0 bit index width and no packed array at all. It only inflates on the first write of a different value.
+ *
+ * The layout (bits, palette capacity, packed array size) of a section never changes.
+ * When a write needs a wider index, set() returns a brand-new wider section which the caller swaps in.
+ * This way a thread reading a section never sees a half resized one.
+ *
+ * Sections are also the unit of copy-on-write. A chunk snapshot freezes its sections and shares them by reference.
+ * A frozen section is never written again, the owning chunk copies it before its next write.
+ */
+final class ChunkSection {
+
+    private static final int VOLUME = 16 * 16 * 16;
+    private static final int MAX_PALETTE_BITS = 8;
+    private static final int DIRECT_BITS = 32;
+
+    // 0 (uniform), 1, 2, 4, 8 or 32
+    private final int bits;
+    // log2(bits)
+    private final int bitsShift;
+    // log2(values per long)
+    private final int perLongShift;
+    private final long valueMask;
+
+    // null in direct mode
+    private final int[] palette;
+    private int paletteSize;
+
+    // null when uniform
+    private final long[] packed;
+
+    // Shared with at least one snapshot. Only touched while holding the owning chunk's lock
+    private boolean frozen = false;
+
+    // Built the first time the mesher asks, kept up to date by every write after that. See SectionFaceMasks
+    private volatile SectionFaceMasks faceMasks = null;
+
+    private ChunkSection(final int bits, final int[] palette, final int paletteSize) {
+        this.bits = bits;
+        this.palette = palette;
+        this.paletteSize = paletteSize;
+        if (bits == 0) {
+            this.bitsShift = 0;
+            this.perLongShift = 0;
+            this.valueMask = 0;
+            this.packed = null;
+        } else {
+            this.bitsShift = Integer.numberOfTrailingZeros(bits);
+            this.perLongShift = 6 - bitsShift;
+            this.valueMask = bits == DIRECT_BITS ? 0xFFFF_FFFFL : (1L << bits) - 1;
+            this.packed = new long[VOLUME >>> perLongShift];
+        }
+    }
+
+    /**
+     * A new uniform section, entirely filled with block data 0 (air).
+     */
+    ChunkSection() {
+        this(0, new int[1], 1);
+    }
+
+    /**
+     * Build a section out of a slice of a flat chunk array. The palette is sized to fit exactly.
+     * @param data Flat chunk data.
+     * @param offset Where this section begins in the flat array.
+     * @return A new section.
+     */
+    static ChunkSection fromArray(final int[] data, final int offset) {
+
+        // Sorted distinct values, so each value can be binary searched into its palette index
+        final int[] distinct = Arrays.copyOfRange(data, offset, offset + VOLUME);
+        Arrays.sort(distinct);
+        int distinctCount = 0;
+        for (int i = 0; i < VOLUME; i++) {
+            if (i == 0 || distinct[i] != distinct[i - 1]) {
+                distinct[distinctCount++] = distinct[i];
+            }
+        }
+
+        final int bits = bitsFor(distinctCount);
+
+        if (bits == DIRECT_BITS) {
+            final ChunkSection section = new ChunkSection(DIRECT_BITS, null, 0);
+            for (int i = 0; i < VOLUME; i++) {
+                section.write(i, data[offset + i]);
+            }
+            return section;
+        }
+
+        final int[] palette = new int[1 << bits];
+        System.arraycopy(distinct, 0, palette, 0, distinctCount);
+        final ChunkSection section = new ChunkSection(bits, palette, distinctCount);
+        if (bits == 0) {
+            return section;
+        }
+        for (int i = 0; i < VOLUME; i++) {
+            section.write(i, Arrays.binarySearch(palette, 0, distinctCount, data[offset + i]));
+        }
+        return section;
+    }
+
+    /**
+     * Get the raw block data at an index.
+     * @param index 0 - 4095. This is the chunk index minus the section's offset.
+     * @return Raw block data.
+     */
+    int get(final int index) {
+        if (packed == null) {
+            return palette[0];
+        }
+        final int value = read(index);
+        return palette == null ? value : palette[value];
+    }
+
+    /**
+     * Set the raw block data at an index.
+     * @param index 0 - 4095. This is the chunk index minus the section's offset.
+     * @param blockData Raw block data.
+     * @return This section, or a new wider section if the palette had to grow. Always store the result!
+     */
+    ChunkSection set(final int index, final int blockData) {
+        if (palette == null) {
+            write(index, blockData);
+            return this;
+        }
+
+        int paletteIndex = indexOf(blockData);
+
+        if (paletteIndex == -1) {
+            if (paletteSize == palette.length) {
+                return grow().set(index, blockData);
+            }
+            paletteIndex = paletteSize;
+            palette[paletteSize++] = blockData;
+        } else if (packed == null) {
+            // Uniform & writing the value it's already filled with
+            return this;
+        }
+
+        write(index, paletteIndex);
+        return this;
+    }
+
+    /**
+     * Get the visible face masks of this section, building them if they don't exist yet.
+     * A frozen section can be asked from any thread, racing builds work out the same masks.
+     * @param opaque Indexed by block ID, true for BLOCK draw type.
+     * @return The masks.
+     */
+    SectionFaceMasks getFaceMasks(final boolean[] opaque) {
+        SectionFaceMasks masks = faceMasks;
+        if (masks == null || !masks.builtWith(opaque)) {
+            masks = SectionFaceMasks.build(this, opaque);
+            faceMasks = masks;
+        }
+        return masks;
+    }
+
+    /**
+     * Keep the face masks up to date after a write, if they've been built. Call on the section set() returned.
+     * @param index 0 - 4095. This is the chunk index minus the section's offset.
+     * @param oldBlockData What was there before.
+     * @param newBlockData What is there now.
+     */
+    void updateFaceMasks(final int index, final int oldBlockData, final int newBlockData) {
+        final SectionFaceMasks masks = faceMasks;
+        if (masks != null) {
+            masks.update(this, index, oldBlockData, newBlockData);
+        }
+    }
+
+    /**
+     * Unpack this section into a flat chunk array.
+     * @param destination Flat chunk data.
+     * @param offset Where this section begins in the flat array.
+     */
+    void copyTo(final int[] destination, final int offset) {
+        if (packed == null) {
+            Arrays.fill(destination, offset, offset + VOLUME, palette[0]);
+            return;
+        }
+        for (int i = 0; i < VOLUME; i++) {
+            destination[offset + i] = get(i);
+        }
+    }
+
+    /**
+     * Mark this section as shared. From now on the owner must copy() before writing.
+     */
+    void freeze() {
+        frozen = true;
+    }
+
+    boolean isFrozen() {
+        return frozen;
+    }
+
+    /**
+     * @return An unfrozen, independent copy of this section.
+     */
+    ChunkSection copy() {
+        final ChunkSection copy = new ChunkSection(bits, palette == null ? null : Arrays.copyOf(palette, palette.length), paletteSize);
+        if (packed != null) {
+            System.arraycopy(packed, 0, copy.packed, 0, packed.length);
+        }
+        // The copy gets written next, it can't share masks with a frozen section
+        final SectionFaceMasks masks = faceMasks;
+        if (masks != null) {
+            copy.faceMasks = masks.copy();
+        }
+        return copy;
+    }
+
+    /**
+     * Approximate heap size of this section's arrays in bytes. Used for memory reporting.
+     */
+    int getMemoryUsage() {
+        // 16 byte array header on a 64-bit JVM with compressed oops
+        int total = packed == null ? 0 : 16 + (packed.length * Long.BYTES);
+        if (palette != null) {
+            total += 16 + (palette.length * Integer.BYTES);
+        }
+        final SectionFaceMasks masks = faceMasks;
+        if (masks != null) {
+            total += masks.getMemoryUsage();
+        }
+        return total;
+    }
+
+    /**
+     * @return True if every block in this section holds the same raw data.
+     */
+    boolean isUniform() {
+        return packed == null;
+    }
+
+    /**
+     * Only meaningful when isUniform() is true.
+     * @return The raw block data filling this whole section.
+     */
+    int getUniformValue() {
+        return palette[0];
+    }
+
+    private int read(final int index) {
+        final int offset = (index & ((1 << perLongShift) - 1)) << bitsShift;
+        return (int) ((packed[index >>> perLongShift] >>> offset) & valueMask);
+    }
+
+    private void write(final int index, final int value) {
+        final int slot = index >>> perLongShift;
+        final int offset = (index & ((1 << perLongShift) - 1)) << bitsShift;
+        packed[slot] = (packed[slot] & ~(valueMask << offset)) | ((value & valueMask) << offset);
+    }
+
+    private int indexOf(final int blockData) {
+        for (int i = 0; i < paletteSize; i++) {
+            if (palette[i] == blockData) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Re-pack into the next index width up. Uniform inflates to 1 bit, past 8 bits this drops into direct mode.
+     */
+    private ChunkSection grow() {
+        if (bits == 0) {
+            // Every packed index is already 0, which is the old uniform value
+            final ChunkSection grown = new ChunkSection(1, Arrays.copyOf(palette, 2), paletteSize);
+            // Never frozen, this section is thrown away, so the masks just move over
+            grown.faceMasks = faceMasks;
+            return grown;
+        }
+        final int newBits = bits << 1 > MAX_PALETTE_BITS ? DIRECT_BITS : bits << 1;
+        final ChunkSection grown;
+
+        if (newBits == DIRECT_BITS) {
+            grown = new ChunkSection(DIRECT_BITS, null, 0);
+            for (int i = 0; i < VOLUME; i++) {
+                grown.write(i, get(i));
+            }
+        } else {
+            grown = new ChunkSection(newBits, Arrays.copyOf(palette, 1 << newBits), paletteSize);
+            for (int i = 0; i < VOLUME; i++) {
+                grown.write(i, read(i));
+            }
+        }
+        grown.faceMasks = faceMasks;
+        return grown;
+    }
+
+    private static int bitsFor(final int distinctValues) {
+        if (distinctValues == 1) {
+            return 0;
+        }
+        int bits = 1;
+        while ((1 << bits) < distinctValues) {
+            bits <<= 1;
+            if (bits > MAX_PALETTE_BITS) {
+                return DIRECT_BITS;
+            }
+        }
+        return bits;
+    }
+}
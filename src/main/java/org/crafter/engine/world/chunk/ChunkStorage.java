@@ -18,12 +18,13 @@
 package org.crafter.engine.world.chunk;
 
 import org.crafter.engine.world.block.BlockDefinitionContainer;
-import org.crafter.engine.world_generation.chunk_mesh_generation.ChunkMeshGenerator;
+import org.crafter.engine.world_generation.ChunkStreamer;
+import org.crafter.engine.world_generation.chunk_mesh_generation.NeighborMeshUpdates;
 import org.joml.*;
 import org.joml.Math;
 
 import java.util.Arrays;
-import java.util.HashMap;
+import java.util.function.Consumer;
 
 import static org.crafter.Main.getClassicMapSize;
 
@@ -33,10 +34,12 @@ import static org.crafter.Main.getClassicMapSize;
  * The API consists of 2 parts:
  * 1.) Single blocks. Ideal for querying/updating 1 position.
  * 2.) Bulk blocks. Ideal for a bulk query/update.
+ * Note: Getters do NOT lock. The chunks live in a ChunkMap, so any thread can read while the main thread writes.
+ * Setters and the Block Manipulator are still synchronized because they share the static worker objects.
  */
 public final class ChunkStorage {
 
-    private static final HashMap<Vector2ic, Chunk> container = new HashMap<>();
+    private static final ChunkMap container = new ChunkMap();
     private static final Vector2i workerVector2i = new Vector2i();
     private static final Vector3i workerVector3i = new Vector3i();
     private static final Vector3f positionWorker = new Vector3f();
@@ -56,41 +59,147 @@ public final class ChunkStorage {
 
     private ChunkStorage(){}
 
-    public static synchronized Chunk getChunk(final Vector2ic position) {
-        positionCheck(position, "getChunk");
-        return container.get(position);
+    public static Chunk getChunk(final Vector2ic position) {
+        return getChunk(position.x(), position.y(), "getChunk");
+    }
+
+    /**
+     * Get a chunk without building a Vector2i.
+     * @param x Chunk X.
+     * @param z Chunk Z.
+     * @return The chunk.
+     */
+    public static Chunk getChunk(final int x, final int z) {
+        return getChunk(x, z, "getChunk");
     }
 
     public static synchronized void addOrUpdate(final Chunk chunk) {
-        Vector2ic position = chunk.getPosition();
-        if (hasChunk(position)) {
+        final Chunk existing = container.putIfAbsent(chunk);
+        if (existing != null) {
+            Vector2ic position = chunk.getPosition();
             System.out.println("ChunkStorage: Updated chunk (" + position.x() + ", " + position.y() + ")");
-            container.get(position).setData(chunk.getData());
-            return;
+            existing.copyDataFrom(chunk);
+            // Replacing data with an already saved (or pristine) chunk does not make it dirty
+            if (!chunk.isDirty()) {
+                existing.markSaved(existing.getVersion());
+            }
         }
-        container.put(position, chunk);
 //        System.out.println("ChunkStorage: Stored chunk (" + position.x() + ", " + position.y() + ")");
     }
 
-    public static synchronized Chunk getThreadSafeChunkClone(final Vector2ic position) {
-        positionCheck(position, "getThreadSafeChunkClone");
-        // Create a deep clone of the chunk
-        return container.get(position).deepCopy();
+    /**
+     * Run an action on every loaded chunk. This does not lock, chunks added while iterating may or may not be seen.
+     * @param action The action.
+     */
+    public static void forEachChunk(final Consumer<Chunk> action) {
+        container.forEach(action);
+    }
+
+    /**
+     * Take a chunk out of storage. This does not destroy its meshes or save it, see ChunkLifecycle.
+     * @param x Chunk X.
+     * @param z Chunk Z.
+     * @return The chunk that was removed, or null if it wasn't loaded.
+     */
+    public static synchronized Chunk removeChunk(final int x, final int z) {
+        return container.remove(x, z);
     }
 
-    private static synchronized void positionCheck(final Vector2ic position, final String methodName) {
+    /**
+     * @return How many chunks are loaded.
+     */
+    public static int getChunkCount() {
+        return container.size();
+    }
+
+    /**
+     * Snapshot a chunk, if it's loaded.
+     * Unlike hasChunk() followed by getThreadSafeChunkClone(), this can't lose a race with the chunk being unloaded.
+     * @param x Chunk X.
+     * @param z Chunk Z.
+     * @return A snapshot, or null if the chunk is not loaded.
+     */
+    public static Chunk getThreadSafeChunkCloneIfLoaded(final int x, final int z) {
+        final Chunk chunk = container.get(x, z);
+        return chunk == null ? null : chunk.snapshot();
+    }
+
+    /**
+     * Copy one X wall of a loaded chunk's section, without snapshotting the chunk.
+     * @param x Chunk X.
+     * @param z Chunk Z.
+     * @param wall Internal X of the wall, 0 to 15.
+     * @param section 0-7, bottom to top.
+     * @param output 256 long, filled as output[z + localY * 16].
+     * @return False if the chunk is not loaded, output is left alone.
+     */
+    public static boolean copyBorderPlaneX(final int x, final int z, final int wall, final int section, final int[] output) {
+        final Chunk chunk = container.get(x, z);
+        if (chunk == null) {
+            return false;
+        }
+        chunk.copyBorderPlaneX(wall, section, output);
+        return true;
+    }
+
+    /**
+     * Copy one Z wall of a loaded chunk's section, without snapshotting the chunk.
+     * @param x Chunk X.
+     * @param z Chunk Z.
+     * @param wall Internal Z of the wall, 0 to 15.
+     * @param section 0-7, bottom to top.
+     * @param output 256 long, filled as output[x + localY * 16].
+     * @return False if the chunk is not loaded, output is left alone.
+     */
+    public static boolean copyBorderPlaneZ(final int x, final int z, final int wall, final int section, final int[] output) {
+        final Chunk chunk = container.get(x, z);
+        if (chunk == null) {
+            return false;
+        }
+        chunk.copyBorderPlaneZ(wall, section, output);
+        return true;
+    }
+
+    public static Chunk getThreadSafeChunkClone(final Vector2ic position) {
+        // Copy-on-write snapshot, no block data is copied
+        return getChunk(position.x(), position.y(), "getThreadSafeChunkClone").snapshot();
+    }
+
+    private static Chunk getChunk(final int x, final int z, final String methodName) {
+        final Chunk chunk = container.get(x, z);
+        if (chunk == null) {
+            throwNonExistentChunk(x, z, methodName);
+        }
+        return chunk;
+    }
+
+    private static void positionCheck(final Vector2ic position, final String methodName) {
         if (!hasChunk(position)) {
-            throw new RuntimeException("ChunkStorage: Tried to get a non-existent chunk with method(" + methodName + ")! (" + position.x() + ", " + position.y() + ") does not exist! Did you check it's existence with (hasPosition)?");
+            throwNonExistentChunk(position.x(), position.y(), methodName);
         }
     }
 
+    private static void throwNonExistentChunk(final int x, final int z, final String methodName) {
+        throw new RuntimeException("ChunkStorage: Tried to get a non-existent chunk with method(" + methodName + ")! (" + x + ", " + z + ") does not exist! Did you check it's existence with (hasPosition)?");
+    }
+
     /**
      * Check if a chunk exists.
      * @param position Integral chunk position.
      * @return True or false. True if it exists.
      */
-    public static synchronized boolean hasChunk(final Vector2ic position) {
-        return container.containsKey(position);
+    public static boolean hasChunk(final Vector2ic position) {
+        return container.contains(position.x(), position.y());
+    }
+
+    /**
+     * Check if a chunk exists without building a Vector2i.
+     * @param x Chunk X.
+     * @param z Chunk Z.
+     * @return True or false. True if it exists.
+     */
+    public static boolean hasChunk(final int x, final int z) {
+        return container.contains(x, z);
     }
 
     //TODO note: the (GETTER) API methods start here!
@@ -105,9 +214,8 @@ public final class ChunkStorage {
      * @param position The raw in world position.
      * @return True or false. True if the chunk is loaded.
      */
-    public static synchronized boolean isChunkLoaded(final Vector3fc position) {
-        calculateChunkPosition(position);
-        return container.containsKey(workerVector2i);
+    public static boolean isChunkLoaded(final Vector3fc position) {
+        return isChunkLoaded(position.x(), position.y(), position.z());
     }
 
     /**
@@ -118,9 +226,8 @@ public final class ChunkStorage {
      * @param z The raw in world Z position.
      * @return True or false. True if the chunk is loaded.
      */
-    public static synchronized boolean isChunkLoaded(final float x, final float y, final float z) {
-        calculateChunkPosition(positionWorker.set(x,y,z));
-        return container.containsKey(workerVector2i);
+    public static boolean isChunkLoaded(final float x, final float y, final float z) {
+        return container.contains(toChunkX(Math.floor(x)), toChunkZ(Math.floor(z)));
     }
 
     /**
@@ -128,9 +235,8 @@ public final class ChunkStorage {
      * @param position The raw in world position.
      * @return The RAW block data.
      */
-    public static synchronized int getBlockRAW(final Vector3fc position) {
-        calculatePositionalData(position, "getBlockID");
-        return internalGetRawBlockData();
+    public static int getBlockRAW(final Vector3fc position) {
+        return internalGetRawBlockData(position.x(), position.y(), position.z(), "getBlockID");
     }
 
     /**
@@ -140,9 +246,8 @@ public final class ChunkStorage {
      * @param z The raw in world Z position.
      * @return The RAW block data.
      */
-    public static synchronized int getBlockRAW(final float x, final float y, final float z) {
-        calculatePositionalData(positionWorker.set(x,y,z), "getBlockID");
-        return internalGetRawBlockData();
+    public static int getBlockRAW(final float x, final float y, final float z) {
+        return internalGetRawBlockData(x, y, z, "getBlockID");
     }
 
     /**
@@ -150,9 +255,8 @@ public final class ChunkStorage {
      * @param position The raw in world position.
      * @return The block internal name.
      */
-    public static synchronized String getBlockName(final Vector3fc position) {
-        calculatePositionalData(position, "getBlockName");
-        return internalGetBlockName();
+    public static String getBlockName(final Vector3fc position) {
+        return internalGetBlockName(position.x(), position.y(), position.z(), "getBlockName");
     }
 
     /**
@@ -162,9 +266,8 @@ public final class ChunkStorage {
      * @param z The raw in world Z position.
      * @return The block internal name.
      */
-    public static synchronized String getBlockName(final float x, final float y, final float z) {
-        calculatePositionalData(positionWorker.set(x,y,z), "getBlockName");
-        return internalGetBlockName();
+    public static String getBlockName(final float x, final float y, final float z) {
+        return internalGetBlockName(x, y, z, "getBlockName");
     }
 
     /**
@@ -172,9 +275,8 @@ public final class ChunkStorage {
      * @param position The raw in world position.
      * @return The block ID.
      */
-    public static synchronized int getBlockID(final Vector3fc position) {
-        calculatePositionalData(position, "getBlockID");
-        return Chunk.getBlockID(internalGetRawBlockData());
+    public static int getBlockID(final Vector3fc position) {
+        return Chunk.getBlockID(internalGetRawBlockData(position.x(), position.y(), position.z(), "getBlockID"));
     }
 
     /**
@@ -184,9 +286,8 @@ public final class ChunkStorage {
      * @param z The raw in world Z position.
      * @return The block ID.
      */
-    public static synchronized int getBlockID(final float x, final float y, final float z) {
-        calculatePositionalData(positionWorker.set(x,y,z), "getBlockID");
-        return Chunk.getBlockID(internalGetRawBlockData());
+    public static int getBlockID(final float x, final float y, final float z) {
+        return Chunk.getBlockID(internalGetRawBlockData(x, y, z, "getBlockID"));
     }
 
     /**
@@ -194,9 +295,8 @@ public final class ChunkStorage {
      * @param position The raw in world position.
      * @return The block light level.
      */
-    public static synchronized int getBlockLightLevel(final Vector3fc position) {
-        calculatePositionalData(position, "getBlockLight");
-        return Chunk.getBlockLightLevel(internalGetRawBlockData());
+    public static int getBlockLightLevel(final Vector3fc position) {
+        return Chunk.getBlockLightLevel(internalGetRawBlockData(position.x(), position.y(), position.z(), "getBlockLight"));
     }
 
     /**
@@ -206,9 +306,8 @@ public final class ChunkStorage {
      * @param z The raw in world Z position.
      * @return The block light level.
      */
-    public static synchronized int getBlockLightLevel(final float x, final float y, final float z) {
-        calculatePositionalData(positionWorker.set(x,y,z), "getBlockLight");
-        return Chunk.getBlockLightLevel(internalGetRawBlockData());
+    public static int getBlockLightLevel(final float x, final float y, final float z) {
+        return Chunk.getBlockLightLevel(internalGetRawBlockData(x, y, z, "getBlockLight"));
     }
 
     /**
@@ -216,9 +315,8 @@ public final class ChunkStorage {
      * @param position The raw in world position.
      * @return The block state.
      */
-    public static synchronized int getBlockState(final Vector3fc position) {
-        calculatePositionalData(position, "getBlockState");
-        return Chunk.getBlockState(internalGetRawBlockData());
+    public static int getBlockState(final Vector3fc position) {
+        return Chunk.getBlockState(internalGetRawBlockData(position.x(), position.y(), position.z(), "getBlockState"));
     }
 
     /**
@@ -228,9 +326,8 @@ public final class ChunkStorage {
      * @param z The raw in world Z position.
      * @return The block state.
      */
-    public static synchronized int getBlockState(final float x, final float y, final float z) {
-        calculatePositionalData(positionWorker.set(x,y,z), "getBlockState");
-        return Chunk.getBlockState(internalGetRawBlockData());
+    public static int getBlockState(final float x, final float y, final float z) {
+        return Chunk.getBlockState(internalGetRawBlockData(x, y, z, "getBlockState"));
     }
 
     //TODO note: The (SETTER) API methods begin here!
@@ -373,7 +470,10 @@ public final class ChunkStorage {
         checkBlockManipulatorMinMaxValidity(min,max);
         checkBlockManipulatorSizeValidity(min,max);
         checkBlockManipulatorYAxisValidity(min,max);
-        checkClassicOnlyBlockManipulatorMapBoundaries(min,max);
+        // A streamed world has no edge
+        if (!ChunkStreamer.isEnabled()) {
+            checkClassicOnlyBlockManipulatorMapBoundaries(min,max);
+        }
 
         // All safety checks have passed, now set the required data
         blockManipulatorMin.set(min);
@@ -410,12 +510,11 @@ public final class ChunkStorage {
         //TODO: FORCE LOAD UP MAP CHUNKS!
 
         // fixme: this is a highly unoptimized prototype procedure to ensure this works
-        final Vector2i tempPosition = new Vector2i();
         for (int chunkX = chunkXMin; chunkX <= chunkXMax; chunkX++) {
             for (int chunkZ = chunkZMin; chunkZ <= chunkZMax; chunkZ++) {
 
                 // fixme: this will crash if the chunk isn't loaded!
-                final Chunk tempWorker = container.get(tempPosition.set(chunkX,chunkZ));
+                final Chunk tempWorker = container.get(chunkX, chunkZ);
 
                 // todo: this needs some sort of automated internal positioning within the Block Manipulator array
 
@@ -504,13 +603,20 @@ public final class ChunkStorage {
 
         //TODO: FORCE LOAD UP MAP CHUNKS!
 
+        // Every chunk records what it changed, that becomes one undo step
+        final int chunkCount = (chunkXMax - chunkXMin + 1) * (chunkZMax - chunkZMin + 1);
+        final long[] editPositions = new long[chunkCount];
+        final ChunkJournal[] editJournals = new ChunkJournal[chunkCount];
+        int editChunk = 0;
+
         // fixme: this is a highly unoptimized prototype procedure to ensure this works
-        final Vector2i tempPosition = new Vector2i();
         for (int chunkX = chunkXMin; chunkX <= chunkXMax; chunkX++) {
             for (int chunkZ = chunkZMin; chunkZ <= chunkZMax; chunkZ++) {
 
                 // fixme: this will crash if the chunk isn't loaded!
-                final Chunk tempWorker = container.get(tempPosition.set(chunkX,chunkZ));
+                final Chunk tempWorker = container.get(chunkX, chunkZ);
+
+                tempWorker.startRecording();
 
                 // todo: this needs some sort of automated internal positioning within the Block Manipulator array
 
@@ -530,24 +636,36 @@ public final class ChunkStorage {
                     }
                 }
 
+                editPositions[editChunk] = ChunkMap.packPosition(chunkX, chunkZ);
+                editJournals[editChunk] = tempWorker.stopRecording();
+
                 // This debug can get really REALLY verbose!
 //                System.out.println("BlockManipulator: Writing chunk (" + chunkX + " " + chunkZ + ")");
 
-                // Impossible starting point, nothing will equal this.
-                int oldY = -15;
-
-                for (int y = blockManipulatorMin.y(); y <= blockManipulatorMax.y(); y ++) {
-                    final int yStack = y / Chunk.getStackHeight();
-                    if (y != oldY) {
-                        oldY = yStack;
-                    } else {
-                        continue;
-                    }
-                    internalBlockManipulatorPushMeshUpdate(chunkX, yStack, chunkZ);
-                }
+                // Only the stacks that actually changed, plus whatever they uncovered in the stack or chunk next door
+                NeighborMeshUpdates.pushJournalUpdates(chunkX, chunkZ, editJournals[editChunk]);
+                editChunk++;
 
             }
         }
+
+        BlockEditHistory.push(new BlockEdit(editPositions, editJournals));
+    }
+
+    /**
+     * Undo the last Block Manipulator write. Nothing is written unless the whole edit can be undone.
+     * @return APPLIED, NOTHING if there is nothing to undo, CHUNK_NOT_LOADED or CHANGED_SINCE (the edit is dropped).
+     */
+    public static synchronized BlockEditResult undoBlockManipulator() {
+        return BlockEditHistory.undo(ChunkStorage::internalPushBlockEditMeshUpdates);
+    }
+
+    /**
+     * Redo the last undone Block Manipulator write. Nothing is written unless the whole edit can be redone.
+     * @return APPLIED, NOTHING if there is nothing to redo, CHUNK_NOT_LOADED or CHANGED_SINCE (the edit is dropped).
+     */
+    public static synchronized BlockEditResult redoBlockManipulator() {
+        return BlockEditHistory.redo(ChunkStorage::internalPushBlockEditMeshUpdates);
     }
 
 
@@ -718,20 +836,32 @@ public final class ChunkStorage {
 
     /**
      * INTERNAL ONLY usage of getting block INTERNAL NAME. Used to clean up API methods above.
+     * @param x The raw in world X position.
+     * @param y The raw in world Y position.
+     * @param z The raw in world Z position.
+     * @param methodName The method which this method was called from.
      * @return The INTERNAL NAME of the block.
      */
-    private static String internalGetBlockName() {
-        final int blockID = Chunk.getBlockID(internalGetRawBlockData());
+    private static String internalGetBlockName(final float x, final float y, final float z, final String methodName) {
+        final int blockID = Chunk.getBlockID(internalGetRawBlockData(x, y, z, methodName));
         // Todo: optimize this - Can get a main instance once, then talk to the internal pointer automatically without having to get it every time
         return BlockDefinitionContainer.getMainInstance().getDefinition(blockID).getInternalName();
     }
 
     /**
-     * INTERNAL ONLY usage of getting the RAW block data (integer) from the raw in world coordinate provided to calculatePositionalData.
+     * INTERNAL ONLY usage of getting the RAW block data (integer) from a raw in world coordinate.
+     * This does not touch the static workers, so it does not need to lock. Throws an error if the chunk does not exist.
+     * @param x The raw in world X position.
+     * @param y The raw in world Y position.
+     * @param z The raw in world Z position.
+     * @param methodName The method which this method was called from.
      * @return The RAW block data. Will need to work with ChunkBitManipulation to use it!
      */
-    private static int internalGetRawBlockData() {
-        return container.get(workerVector2i).getBlockData(workerVector3i);
+    private static int internalGetRawBlockData(final float x, final float y, final float z, final String methodName) {
+        final float floorX = Math.floor(x);
+        final float floorZ = Math.floor(z);
+        final Chunk chunk = getChunk(toChunkX(floorX), toChunkZ(floorZ), methodName);
+        return chunk.getBlockData(internalX(floorX), (int) Math.floor(y), internalZ(floorZ));
     }
 
     /**
@@ -742,7 +872,7 @@ public final class ChunkStorage {
         final int newID = Chunk.getBlockID(rawData);
         BlockDefinitionContainer.getMainInstance().checkExistence(newID);
         internalCheckLightLevelForRAW(Chunk.getBlockLightLevel(rawData));
-        container.get(workerVector2i).setBlockData(workerVector3i, rawData);
+        getWorkerChunk().setBlockData(workerVector3i, rawData);
         internalPushChunkMeshUpdate();
     }
 
@@ -754,7 +884,7 @@ public final class ChunkStorage {
         if (checkID) {
             BlockDefinitionContainer.getMainInstance().checkExistence(newID);
         }
-        final Chunk currentChunk = container.get(workerVector2i);
+        final Chunk currentChunk = getWorkerChunk();
         final int workerData = Chunk.setBlockID(currentChunk.getBlockData(workerVector3i), newID);
         currentChunk.setBlockData(workerVector3i, workerData);
         internalPushChunkMeshUpdate();
@@ -786,7 +916,6 @@ public final class ChunkStorage {
         // Todo: optimize this - Can get a main instance once, then talk to the internal pointer automatically without having to get it every time
         final int newID = BlockDefinitionContainer.getMainInstance().getDefinition(newName).getID();
         internalSetBlockIDUnchecked(newID);
-        internalPushChunkMeshUpdate();
     }
 
     /**
@@ -794,7 +923,7 @@ public final class ChunkStorage {
      * @param newLightLevel The new block light level.
      */
     private static void internalSetBlockLightLevel(final int newLightLevel) {
-        final Chunk currentChunk = container.get(workerVector2i);
+        final Chunk currentChunk = getWorkerChunk();
         final int workerData = Chunk.setBlockLightLevel(currentChunk.getBlockData(workerVector3i), newLightLevel);
         currentChunk.setBlockData(workerVector3i, workerData);
         internalPushChunkMeshUpdate();
@@ -805,29 +934,39 @@ public final class ChunkStorage {
      * @param newState The new block state.
      */
     private static void internalSetBlockState(final int newState) {
-        final Chunk currentChunk = container.get(workerVector2i);
+        final Chunk currentChunk = getWorkerChunk();
         final int workerData = Chunk.setBlockState(currentChunk.getBlockData(workerVector3i), newState);
         currentChunk.setBlockData(workerVector3i, workerData);
         internalPushChunkMeshUpdate();
     }
 
     /**
-     * INTERNAL ONLY. BULK API ONLY!
-     * @param x Chunk X.
-     * @param y Chunk stack position.
-     * @param z Chunk Z.
+     * INTERNAL ONLY.
+     * Get the chunk that calculatePositionalData() pointed the static workers at.
+     * @return The chunk.
      */
-    private static void internalBlockManipulatorPushMeshUpdate(final int x, final int y, final int z) {
-        ChunkMeshGenerator.pushRequest(x, y, z);
+    private static Chunk getWorkerChunk() {
+        return container.get(workerVector2i.x(), workerVector2i.y());
+    }
+
+    /**
+     * INTERNAL ONLY. Pushes out mesh updates for the stacks an undo/redo touched, and the neighbor stacks it reaches.
+     * @param edit The edit.
+     */
+    private static void internalPushBlockEditMeshUpdates(final BlockEdit edit) {
+        for (int i = 0; i < edit.getChunkCount(); i++) {
+            NeighborMeshUpdates.pushJournalUpdates(edit.getChunkX(i), edit.getChunkZ(i), edit.getJournal(i));
+        }
     }
 
     /**
      * INTERNAL ONLY. SINGLE POINT API ONLY!
      * Automatically pushes out chunk mesh update requests.
+     * A block on the edge of its stack or chunk also updates the stack on the other side of that edge.
      */
     private static void internalPushChunkMeshUpdate() {
-        // System.out.println("Y is: " + workerVector3i.y() / Chunk.getStackHeight());
-        ChunkMeshGenerator.pushRequest(workerVector2i.x(), workerVector3i.y() / Chunk.getStackHeight(), workerVector2i.y());
+        // Timed, these are what a player sees lag behind when placing or digging
+        NeighborMeshUpdates.pushEditUpdates(workerVector2i.x(), workerVector2i.y(), workerVector3i.x(), workerVector3i.y(), workerVector3i.z());
     }
 
     /**
@@ -0,0 +1,204 @@
+/*
+ Crafter - A blocky game (engine) written in Java with LWJGL.
+ Copyright (C) 2023  jordan4ibanez
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.crafter.engine.world.chunk;
+
+import java.util.Arrays;
+
+/**
+ * The visible faces of every block in one ChunkSection, one byte per block in section index order.
+ * Bit n is face n in GreedyMesher order: front (-Z), back (+Z), left (-X), right (+X), bottom (-Y), top (+Y).
+ * A face is visible if its block is opaque and the block it looks at is not.
+ *
+ * Only the section itself is looked at. A face looking out of the section is always set on an opaque block,
+ * whoever reads it checks the block on the other side. That way a write only ever touches its own section's masks.
+ *
+ * The masks belong to their section. A frozen section's masks are never written, same as its block data.
+ */
+final class SectionFaceMasks {
+
+    private static final int VOLUME = 16 * 16 * 16;
+    // Section index steps
+    private static final int X_STEP = 1;
+    private static final int Z_STEP = 16;
+    private static final int Y_STEP = 16 * 16;
+
+    private final byte[] masks;
+    // Indexed by block ID, what these masks were worked out with
+    private final boolean[] opaque;
+
+    private SectionFaceMasks(final byte[] masks, final boolean[] opaque) {
+        this.masks = masks;
+        this.opaque = opaque;
+    }
+
+    /**
+     * Work out the masks of a whole section.
+     * @param section The section.
+     * @param opaque Indexed by block ID, true for BLOCK draw type. IDs past the end count as not opaque.
+     * @return New masks.
+     */
+    static SectionFaceMasks build(final ChunkSection section, final boolean[] opaque) {
+        final byte[] masks = new byte[VOLUME];
+
+        if (section.isUniform()) {
+            // Nothing but one block, only the outside of the section can show
+            if (isOpaque(opaque, section.getUniformValue())) {
+                for (int i = 0; i < VOLUME; i++) {
+                    masks[i] = (byte) outwardFaces(i);
+                }
+            }
+            return new SectionFaceMasks(masks, opaque);
+        }
+
+        // Every block read exactly once
+        final boolean[] solid = new boolean[VOLUME];
+        for (int i = 0; i < VOLUME; i++) {
+            solid[i] = isOpaque(opaque, section.get(i));
+        }
+        for (int i = 0; i < VOLUME; i++) {
+            if (!solid[i]) {
+                continue;
+            }
+            final int outward = outwardFaces(i);
+            int mask = outward;
+            for (int face = 0; face < 6; face++) {
+                if ((outward & (1 << face)) == 0 && !solid[i + step(face)]) {
+                    mask |= 1 << face;
+                }
+            }
+            masks[i] = (byte) mask;
+        }
+        return new SectionFaceMasks(masks, opaque);
+    }
+
+    /**
+     * Bring the masks back up to date after a write. Only the written block and its neighbors inside the section can change.
+     * @param section The section, already holding the new block data.
+     * @param index 0 - 4095, where the write happened.
+     * @param oldBlockData What was there before.
+     * @param newBlockData What is there now.
+     */
+    void update(final ChunkSection section, final int index, final int oldBlockData, final int newBlockData) {
+        if (isOpaque(opaque, oldBlockData) == isOpaque(opaque, newBlockData)) {
+            return;
+        }
+        masks[index] = (byte) compute(section, index);
+        final int outward = outwardFaces(index);
+        for (int face = 0; face < 6; face++) {
+            if ((outward & (1 << face)) == 0) {
+                final int neighbor = index + step(face);
+                masks[neighbor] = (byte) compute(section, neighbor);
+            }
+        }
+    }
+
+    /**
+     * @param index 0 - 4095.
+     * @return The 6 bit face mask of that block.
+     */
+    int get(final int index) {
+        return masks[index];
+    }
+
+    /**
+     * The mask array itself, for reading a lot of masks in a row. Never write into it.
+     */
+    byte[] getMasks() {
+        return masks;
+    }
+
+    /**
+     * @param opaque An opaque table.
+     * @return True if these masks were worked out with the same table.
+     */
+    boolean builtWith(final boolean[] opaque) {
+        return this.opaque == opaque || Arrays.equals(this.opaque, opaque);
+    }
+
+    /**
+     * @return An independent copy, for a section copy to keep up to date on its own.
+     */
+    SectionFaceMasks copy() {
+        return new SectionFaceMasks(Arrays.copyOf(masks, VOLUME), opaque);
+    }
+
+    /**
+     * Approximate heap size in bytes. Used for memory reporting.
+     */
+    int getMemoryUsage() {
+        // 16 byte array header on a 64-bit JVM with compressed oops
+        return 16 + VOLUME;
+    }
+
+    private int compute(final ChunkSection section, final int index) {
+        if (!isOpaque(opaque, section.get(index))) {
+            return 0;
+        }
+        final int outward = outwardFaces(index);
+        int mask = outward;
+        for (int face = 0; face < 6; face++) {
+            if ((outward & (1 << face)) == 0 && !isOpaque(opaque, section.get(index + step(face)))) {
+                mask |= 1 << face;
+            }
+        }
+        return mask;
+    }
+
+    /**
+     * @return The faces of this block that look out of the section.
+     */
+    private static int outwardFaces(final int index) {
+        final int x = index & 15;
+        final int z = (index >>> 4) & 15;
+        final int y = index >>> 8;
+        int faces = 0;
+        if (z == 0) {
+            faces |= 1;
+        } else if (z == 15) {
+            faces |= 1 << 1;
+        }
+        if (x == 0) {
+            faces |= 1 << 2;
+        } else if (x == 15) {
+            faces |= 1 << 3;
+        }
+        if (y == 0) {
+            faces |= 1 << 4;
+        } else if (y == 15) {
+            faces |= 1 << 5;
+        }
+        return faces;
+    }
+
+    // Front, back, left, right, bottom, top
+    private static int step(final int face) {
+        return switch (face) {
+            case 0 -> -Z_STEP;
+            case 1 -> Z_STEP;
+            case 2 -> -X_STEP;
+            case 3 -> X_STEP;
+            case 4 -> -Y_STEP;
+            default -> Y_STEP;
+        };
+    }
+
+    private static boolean isOpaque(final boolean[] opaque, final int blockData) {
+        final int ID = ChunkBitManipulation.getBlockID(blockData);
+        return ID > 0 && ID < opaque.length && opaque[ID];
+    }
+}
@@ -0,0 +1,199 @@
+/*
+ Crafter - A blocky game (engine) written in Java with LWJGL.
+ Copyright (C) 2023  jordan4ibanez
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.crafter.engine.world.region;
+
+import org.crafter.engine.world.chunk.Chunk;
+import org.crafter.engine.world.chunk.ChunkJournal;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Utility class.
+ * Turns a chunk's block data into compact bytes and back.
+ *
+ * Layout, everything is an unsigned LEB128 varint unless noted:
+ * [byte] format version
+ * Then for each of the 8 stacks, bottom to top:
+ *   palette size, then every raw block data value in the palette
+ *   if the palette size is more than 1: (run length, palette index) pairs until all 4096 blocks are covered
+ * A uniform stack (all air, all stone) is 2 - 6 bytes.
+ * Then any number of change blocks, appended in place by incremental saves:
+ *   entry count, then (index, raw block data) pairs. Applied in order on top of the stacks.
+ */
+public final class ChunkCodec {
+
+    private static final byte FORMAT_VERSION = 1;
+
+    private static final int SECTION_VOLUME = Chunk.getWidth() * Chunk.getDepth() * Chunk.getStackHeight();
+
+    private ChunkCodec(){}
+
+    /**
+     * Encode a chunk's block data. Give this a snapshot if the chunk can be written to while encoding.
+     * @param chunk The chunk.
+     * @return The encoded bytes.
+     */
+    public static byte[] encode(final Chunk chunk) {
+        final ByteWriter writer = new ByteWriter(1024);
+        writer.writeByte(FORMAT_VERSION);
+
+        final int[] data = chunk.getData();
+        final int[] palette = new int[SECTION_VOLUME];
+
+        for (int stack = 0; stack < Chunk.getStacks(); stack++) {
+
+            if (chunk.isSectionUniform(stack)) {
+                writer.writeVarInt(1);
+                writer.writeVarInt(chunk.getSectionUniformBlockData(stack));
+                continue;
+            }
+
+            final int offset = stack * SECTION_VOLUME;
+
+            // Sorted distinct values, binary searched back into palette indices
+            System.arraycopy(data, offset, palette, 0, SECTION_VOLUME);
+            Arrays.sort(palette);
+            int paletteSize = 0;
+            for (int i = 0; i < SECTION_VOLUME; i++) {
+                if (i == 0 || palette[i] != palette[i - 1]) {
+                    palette[paletteSize++] = palette[i];
+                }
+            }
+
+            writer.writeVarInt(paletteSize);
+            for (int i = 0; i < paletteSize; i++) {
+                writer.writeVarInt(palette[i]);
+            }
+
+            if (paletteSize == 1) {
+                continue;
+            }
+
+            int runValue = data[offset];
+            int runLength = 1;
+            for (int i = 1; i < SECTION_VOLUME; i++) {
+                final int value = data[offset + i];
+                if (value == runValue) {
+                    runLength++;
+                    continue;
+                }
+                writer.writeVarInt(runLength);
+                writer.writeVarInt(Arrays.binarySearch(palette, 0, paletteSize, runValue));
+                runValue = value;
+                runLength = 1;
+            }
+            writer.writeVarInt(runLength);
+            writer.writeVarInt(Arrays.binarySearch(palette, 0, paletteSize, runValue));
+        }
+
+        return writer.toByteArray();
+    }
+
+    /**
+     * Encode the changes in a journal as a change block, to be appended after an encoded chunk.
+     * @param journal The journal. Must not be overflowed.
+     * @return The encoded bytes.
+     */
+    public static byte[] encodeChanges(final ChunkJournal journal) {
+        if (journal.isOverflowed()) {
+            throw new RuntimeException("ChunkCodec: Tried to encode the changes of an overflowed journal!");
+        }
+        final ByteWriter writer = new ByteWriter(8 + journal.size() * 4);
+        writer.writeVarInt(journal.size());
+        for (int i = 0; i < journal.size(); i++) {
+            writer.writeVarInt(journal.getIndex(i));
+            writer.writeVarInt(journal.getNewValue(i));
+        }
+        return writer.toByteArray();
+    }
+
+    /**
+     * Decode bytes made by encode() into a chunk.
+     * @param x Chunk X.
+     * @param z Chunk Z.
+     * @param buffer The encoded bytes, read from its current position.
+     * @return A brand-new chunk.
+     */
+    public static Chunk decode(final int x, final int z, final ByteBuffer buffer) {
+        final byte version = buffer.get();
+        if (version != FORMAT_VERSION) {
+            throw new RuntimeException("ChunkCodec: Chunk (" + x + ", " + z + ") has unknown format version (" + version + ")!");
+        }
+
+        final int[] data = new int[Chunk.getArraySize()];
+        final int[] palette = new int[SECTION_VOLUME];
+
+        for (int stack = 0; stack < Chunk.getStacks(); stack++) {
+            final int offset = stack * SECTION_VOLUME;
+            final int paletteSize = readVarInt(buffer);
+
+            if (paletteSize < 1 || paletteSize > SECTION_VOLUME) {
+                throw new RuntimeException("ChunkCodec: Chunk (" + x + ", " + z + ") stack (" + stack + ") has a corrupted palette size (" + paletteSize + ")!");
+            }
+
+            for (int i = 0; i < paletteSize; i++) {
+                palette[i] = readVarInt(buffer);
+            }
+
+            if (paletteSize == 1) {
+                Arrays.fill(data, offset, offset + SECTION_VOLUME, palette[0]);
+                continue;
+            }
+
+            int filled = 0;
+            while (filled < SECTION_VOLUME) {
+                final int runLength = readVarInt(buffer);
+                final int paletteIndex = readVarInt(buffer);
+                if (runLength < 1 || filled + runLength > SECTION_VOLUME || paletteIndex < 0 || paletteIndex >= paletteSize) {
+                    throw new RuntimeException("ChunkCodec: Chunk (" + x + ", " + z + ") stack (" + stack + ") has a corrupted run!");
+                }
+                Arrays.fill(data, offset + filled, offset + filled + runLength, palette[paletteIndex]);
+                filled += runLength;
+            }
+        }
+
+        // Change blocks from incremental saves
+        while (buffer.hasRemaining()) {
+            final int count = readVarInt(buffer);
+            for (int i = 0; i < count; i++) {
+                final int index = readVarInt(buffer);
+                if (index < 0 || index >= data.length) {
+                    throw new RuntimeException("ChunkCodec: Chunk (" + x + ", " + z + ") has a corrupted change index (" + index + ")!");
+                }
+                data[index] = readVarInt(buffer);
+            }
+        }
+
+        Chunk chunk = new Chunk(x, z);
+        chunk.setData(data);
+        return chunk;
+    }
+
+    static int readVarInt(final ByteBuffer buffer) {
+        int result = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            final byte current = buffer.get();
+            result |= (current & 0x7F) << shift;
+            if ((current & 0x80) == 0) {
+                return result;
+            }
+        }
+        throw new RuntimeException("ChunkCodec: VarInt is too long!");
+    }
+}
@@ -0,0 +1,254 @@
+/*
+ Crafter - A blocky game (engine) written in Java with LWJGL.
+ Copyright (C) 2023  jordan4ibanez
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.crafter.engine.world.region;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.BitSet;
+
+/**
+ * One region file on disk, holding up to 32x32 encoded chunks.
+ *
+ * The file is split into 4 KB sectors.
+ * Sector 0 is the sector table: 1024 ints, one per chunk, memory mapped so updating it is just a put.
+ * Each int is (first sector << 8) | sector count. 0 means the chunk is not stored.
+ * A stored chunk is [int byte length][encoded bytes] starting at its first sector.
+ *
+ * Chunk payloads are read & written with positional FileChannel calls.
+ * A write always goes to the first free run that fits, never over the chunk's current copy.
+ * The old sectors are only freed once the table points at the new ones, so a crash mid write leaves the old copy readable.
+ */
+public class RegionFile {
+
+    private static final int REGION_WIDTH = 32;
+    private static final int CHUNKS = REGION_WIDTH * REGION_WIDTH;
+    private static final int SECTOR_BYTES = 4096;
+    private static final int HEADER_SECTORS = 1;
+    private static final int MAX_SECTORS_PER_CHUNK = 255;
+
+    private final File file;
+    private final FileChannel channel;
+    private final MappedByteBuffer sectorTable;
+
+    // Sectors currently in use, including the header
+    private final BitSet usedSectors;
+    private int totalSectors;
+
+    public RegionFile(final File file) {
+        this.file = file;
+        try {
+            channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            if (channel.size() < (long) HEADER_SECTORS * SECTOR_BYTES) {
+                // Brand-new region, an all zero sector table means nothing is stored
+                channel.write(ByteBuffer.allocate(HEADER_SECTORS * SECTOR_BYTES), 0);
+            }
+            sectorTable = channel.map(FileChannel.MapMode.READ_WRITE, 0, (long) HEADER_SECTORS * SECTOR_BYTES);
+        } catch (IOException e) {
+            throw new RuntimeException("RegionFile: Failed to open (" + file + ")! Error: " + e);
+        }
+
+        usedSectors = new BitSet();
+        usedSectors.set(0, HEADER_SECTORS);
+        totalSectors = HEADER_SECTORS;
+
+        for (int i = 0; i < CHUNKS; i++) {
+            final int entry = sectorTable.getInt(i * Integer.BYTES);
+            if (entry == 0) {
+                continue;
+            }
+            final int firstSector = entry >>> 8;
+            final int sectorCount = entry & 0xFF;
+            usedSectors.set(firstSector, firstSector + sectorCount);
+            totalSectors = Math.max(totalSectors, firstSector + sectorCount);
+        }
+    }
+
+    /**
+     * @param x Chunk X, world chunk coordinates are fine, only the low 5 bits are used.
+     * @param z Chunk Z, same as X.
+     */
+    public synchronized boolean hasChunk(final int x, final int z) {
+        return sectorTable.getInt(tableOffset(x, z)) != 0;
+    }
+
+    /**
+     * Read a chunk's encoded bytes.
+     * @return A buffer positioned at the start of the encoded bytes, or null if this chunk is not stored.
+     */
+    public synchronized ByteBuffer read(final int x, final int z) {
+        final int entry = sectorTable.getInt(tableOffset(x, z));
+        if (entry == 0) {
+            return null;
+        }
+        final long position = (long) (entry >>> 8) * SECTOR_BYTES;
+        try {
+            final ByteBuffer lengthBuffer = ByteBuffer.allocate(Integer.BYTES);
+            readFully(lengthBuffer, position);
+            final int length = lengthBuffer.flip().getInt();
+            if (length <= 0 || length > (entry & 0xFF) * SECTOR_BYTES - Integer.BYTES) {
+                throw new RuntimeException("RegionFile: Chunk (" + x + ", " + z + ") in (" + file + ") has a corrupted length (" + length + ")!");
+            }
+            final ByteBuffer data = ByteBuffer.allocate(length);
+            readFully(data, position + Integer.BYTES);
+            return data.flip();
+        } catch (IOException e) {
+            throw new RuntimeException("RegionFile: Failed to read chunk (" + x + ", " + z + ") from (" + file + ")! Error: " + e);
+        }
+    }
+
+    /**
+     * Store a chunk's encoded bytes, replacing whatever was there.
+     */
+    public synchronized void write(final int x, final int z, final byte[] data) {
+        final int sectorsNeeded = (data.length + Integer.BYTES + SECTOR_BYTES - 1) / SECTOR_BYTES;
+        if (sectorsNeeded > MAX_SECTORS_PER_CHUNK) {
+            throw new RuntimeException("RegionFile: Chunk (" + x + ", " + z + ") is too big to store! (" + data.length + " bytes)");
+        }
+
+        final int offset = tableOffset(x, z);
+        final int oldEntry = sectorTable.getInt(offset);
+        final int oldFirst = oldEntry >>> 8;
+        final int oldCount = oldEntry & 0xFF;
+
+        // Even if it would fit where it is. The old copy stays marked used, so the new run can't land on it
+        final int firstSector = findFreeRun(sectorsNeeded);
+        usedSectors.set(firstSector, firstSector + sectorsNeeded);
+
+        final ByteBuffer buffer = ByteBuffer.allocate(sectorsNeeded * SECTOR_BYTES);
+        buffer.putInt(data.length);
+        buffer.put(data);
+        buffer.rewind();
+
+        try {
+            final long position = (long) firstSector * SECTOR_BYTES;
+            while (buffer.hasRemaining()) {
+                channel.write(buffer, position + buffer.position());
+            }
+        } catch (IOException e) {
+            // The table still points at the old copy
+            usedSectors.clear(firstSector, firstSector + sectorsNeeded);
+            throw new RuntimeException("RegionFile: Failed to write chunk (" + x + ", " + z + ") to (" + file + ")! Error: " + e);
+        }
+        totalSectors = Math.max(totalSectors, firstSector + sectorsNeeded);
+
+        // The table entry is only updated once the data is down, then the old copy can go
+        sectorTable.putInt(offset, (firstSector << 8) | sectorsNeeded);
+        if (oldEntry != 0) {
+            usedSectors.clear(oldFirst, oldFirst + oldCount);
+        }
+    }
+
+    /**
+     * Add bytes onto the end of a stored chunk, in place. Only the new bytes & the length are written.
+     * @return False if the chunk isn't stored, or the bytes don't fit in its sectors. Write the whole chunk instead.
+     */
+    public synchronized boolean append(final int x, final int z, final byte[] data) {
+        final int entry = sectorTable.getInt(tableOffset(x, z));
+        if (entry == 0) {
+            return false;
+        }
+        final long position = (long) (entry >>> 8) * SECTOR_BYTES;
+        try {
+            final ByteBuffer lengthBuffer = ByteBuffer.allocate(Integer.BYTES);
+            readFully(lengthBuffer, position);
+            final int length = lengthBuffer.flip().getInt();
+            if (Integer.BYTES + length + data.length > (entry & 0xFF) * SECTOR_BYTES) {
+                return false;
+            }
+            final ByteBuffer buffer = ByteBuffer.wrap(data);
+            while (buffer.hasRemaining()) {
+                channel.write(buffer, position + Integer.BYTES + length + buffer.position());
+            }
+            // The length is only updated once the data is down
+            lengthBuffer.clear();
+            lengthBuffer.putInt(length + data.length).flip();
+            while (lengthBuffer.hasRemaining()) {
+                channel.write(lengthBuffer, position + lengthBuffer.position());
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("RegionFile: Failed to append to chunk (" + x + ", " + z + ") in (" + file + ")! Error: " + e);
+        }
+        return true;
+    }
+
+    /**
+     * Remove a chunk from this region. Its sectors become free.
+     */
+    public synchronized void delete(final int x, final int z) {
+        final int offset = tableOffset(x, z);
+        final int entry = sectorTable.getInt(offset);
+        if (entry == 0) {
+            return;
+        }
+        usedSectors.clear(entry >>> 8, (entry >>> 8) + (entry & 0xFF));
+        sectorTable.putInt(offset, 0);
+    }
+
+    /**
+     * @return How many bytes of the file are actually holding chunks. The file itself may be bigger.
+     */
+    public synchronized long getUsedBytes() {
+        return (long) usedSectors.cardinality() * SECTOR_BYTES;
+    }
+
+    /**
+     * Push everything to disk and close the file.
+     */
+    public synchronized void close() {
+        try {
+            sectorTable.force();
+            channel.force(true);
+            channel.close();
+        } catch (IOException e) {
+            throw new RuntimeException("RegionFile: Failed to close (" + file + ")! Error: " + e);
+        }
+    }
+
+    public static int getRegionWidth() {
+        return REGION_WIDTH;
+    }
+
+    private int findFreeRun(final int sectors) {
+        int start = usedSectors.nextClearBit(HEADER_SECTORS);
+        while (start < totalSectors) {
+            final int end = usedSectors.nextSetBit(start);
+            if (end == -1 || end - start >= sectors) {
+                return start;
+            }
+            start = usedSectors.nextClearBit(end);
+        }
+        // Append to the end of the file
+        return start;
+    }
+
+    private void readFully(final ByteBuffer buffer, final long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("Unexpected end of file");
+            }
+        }
+    }
+
+    private static int tableOffset(final int x, final int z) {
+        return ((x & (REGION_WIDTH - 1)) + (z & (REGION_WIDTH - 1)) * REGION_WIDTH) * Integer.BYTES;
+    }
+}
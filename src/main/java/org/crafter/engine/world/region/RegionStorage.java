@@ -0,0 +1,225 @@
+/*
+ Crafter - A blocky game (engine) written in Java with LWJGL.
+ Copyright (C) 2023  jordan4ibanez
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.crafter.engine.world.region;
+
+import org.crafter.engine.world.chunk.Chunk;
+import org.crafter.engine.world.chunk.ChunkJournal;
+import org.crafter.engine.world.chunk.ChunkMap;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.HashMap;
+
+/**
+ * This is where chunks live on disk!
+ * Chunks are grouped 32x32 into RegionFiles inside the world folder. Region files are opened lazily and kept open.
+ * By default only edited chunks are stored. Untouched chunks are regenerated, the generation fingerprint says if that is still exact.
+ * Any thread can load & save, each RegionFile locks itself.
+ */
+public final class RegionStorage {
+
+    private static final String REGION_FILE_EXTENSION = ".region";
+    private static final String FINGERPRINT_FILE = "generation.fingerprint";
+
+    private static final HashMap<Long, RegionFile> regions = new HashMap<>();
+
+    private static String worldFolder = "worlds/world";
+
+    // Off: only edited chunks are stored, untouched ones are regenerated from the generation fingerprint
+    private static boolean saveGeneratedChunks = false;
+
+    private RegionStorage(){}
+
+    /**
+     * Point the storage at a world folder. Closes any regions from the previous folder.
+     * @param folder The folder to keep region files in. Created if missing.
+     */
+    public static synchronized void setWorldFolder(final String folder) {
+        closeAll();
+        worldFolder = folder;
+    }
+
+    public static synchronized String getWorldFolder() {
+        return worldFolder;
+    }
+
+    /**
+     * Store every freshly generated chunk, instead of only the ones that were edited.
+     * Only useful if the generator can't reproduce chunks (the fingerprint keeps changing).
+     * @param enabled True to store everything.
+     */
+    public static synchronized void setSaveGeneratedChunks(final boolean enabled) {
+        saveGeneratedChunks = enabled;
+    }
+
+    public static synchronized boolean getSaveGeneratedChunks() {
+        return saveGeneratedChunks;
+    }
+
+    /**
+     * Compare the chunk generator's fingerprint (seed, biomes, generator version) with the one this world was created with.
+     * A world without one (brand-new) stores it.
+     * @param fingerprint The current generation fingerprint.
+     * @return True if untouched chunks will regenerate exactly as they were.
+     */
+    public static synchronized boolean checkGenerationFingerprint(final long fingerprint) {
+        final File file = new File(worldFolder, FINGERPRINT_FILE);
+        try {
+            if (file.isFile()) {
+                return ByteBuffer.wrap(Files.readAllBytes(file.toPath())).getLong() == fingerprint;
+            }
+            createWorldFolder();
+            Files.write(file.toPath(), ByteBuffer.allocate(Long.BYTES).putLong(fingerprint).array());
+            return true;
+        } catch (IOException | BufferUnderflowException e) {
+            throw new RuntimeException("RegionStorage: Failed to check generation fingerprint (" + file + ")! Error: " + e);
+        }
+    }
+
+    /**
+     * Check if a chunk is stored on disk.
+     * @param x Chunk X.
+     * @param z Chunk Z.
+     */
+    public static boolean hasChunk(final int x, final int z) {
+        final RegionFile region = getRegion(x, z, false);
+        return region != null && region.hasChunk(x, z);
+    }
+
+    /**
+     * Load a chunk from disk.
+     * @param x Chunk X.
+     * @param z Chunk Z.
+     * @return The chunk, or null if it was never saved.
+     */
+    public static Chunk loadChunk(final int x, final int z) {
+        final RegionFile region = getRegion(x, z, false);
+        if (region == null) {
+            return null;
+        }
+        final ByteBuffer data = region.read(x, z);
+        if (data == null) {
+            return null;
+        }
+        final Chunk chunk = ChunkCodec.decode(x, z, data);
+        // Matches what is on disk
+        chunk.markSaved(chunk.getVersion());
+        return chunk;
+    }
+
+    /**
+     * Save a chunk to disk, replacing any older copy.
+     * Note: This encodes & writes right now, on the calling thread. Use the WorldSaver to save from the main thread.
+     * @param chunk The chunk. Pass a snapshot if another thread may write to it. It is marked as saved.
+     */
+    public static void saveChunk(final Chunk chunk) {
+        final long version = chunk.getVersion();
+        final byte[] data = ChunkCodec.encode(chunk);
+        getRegion(chunk.getX(), chunk.getZ(), true).write(chunk.getX(), chunk.getZ(), data);
+        chunk.markSaved(version);
+    }
+
+    /**
+     * Save a snapshot taken by Chunk.snapshotIfDirty(). If the chunk is already on disk, only its journal (the changes
+     * since the last save) is appended. Falls back to a full save when the journal overflowed or the changes don't fit.
+     * Note: This only works in the save chain of one live chunk, use saveChunk() for anything else.
+     * @param snapshot The snapshot.
+     */
+    public static void saveChanges(final Chunk snapshot) {
+        final ChunkJournal journal = snapshot.getJournal();
+
+        if (!journal.isOverflowed()) {
+            // Only written back to what was saved (or what the generator makes), nothing to do
+            if (journal.isEmpty()) {
+                return;
+            }
+            final RegionFile region = getRegion(snapshot.getX(), snapshot.getZ(), false);
+            if (region != null && region.append(snapshot.getX(), snapshot.getZ(), ChunkCodec.encodeChanges(journal))) {
+                return;
+            }
+        }
+        // Rewriting the whole chunk also squashes all the appended changes
+        saveChunk(snapshot);
+    }
+
+    /**
+     * Remove a chunk from disk.
+     * @param x Chunk X.
+     * @param z Chunk Z.
+     */
+    public static void deleteChunk(final int x, final int z) {
+        final RegionFile region = getRegion(x, z, false);
+        if (region != null) {
+            region.delete(x, z);
+        }
+    }
+
+    /**
+     * Flush & close every open region file. Call this on shutdown!
+     */
+    public static synchronized void closeAll() {
+        for (RegionFile region : regions.values()) {
+            region.close();
+        }
+        regions.clear();
+    }
+
+    /**
+     * @return Bytes of region files in use by stored chunks, over every open region.
+     */
+    public static synchronized long getUsedBytes() {
+        long total = 0;
+        for (RegionFile region : regions.values()) {
+            total += region.getUsedBytes();
+        }
+        return total;
+    }
+
+    private static synchronized RegionFile getRegion(final int chunkX, final int chunkZ, final boolean create) {
+        final int regionX = Math.floorDiv(chunkX, RegionFile.getRegionWidth());
+        final int regionZ = Math.floorDiv(chunkZ, RegionFile.getRegionWidth());
+        final long key = ChunkMap.packPosition(regionX, regionZ);
+
+        RegionFile region = regions.get(key);
+        if (region != null) {
+            return region;
+        }
+
+        final File file = new File(worldFolder, "r." + regionX + "." + regionZ + REGION_FILE_EXTENSION);
+        if (!file.isFile()) {
+            if (!create) {
+                return null;
+            }
+            createWorldFolder();
+        }
+
+        region = new RegionFile(file);
+        regions.put(key, region);
+        return region;
+    }
+
+    private static void createWorldFolder() {
+        final File folder = new File(worldFolder);
+        if (!folder.isDirectory() && !folder.mkdirs()) {
+            throw new RuntimeException("RegionStorage: Failed to create world folder (" + worldFolder + ")!");
+        }
+    }
+}
@@ -0,0 +1,249 @@
+/*
+ Crafter - A blocky game (engine) written in Java with LWJGL.
+ Copyright (C) 2023  jordan4ibanez
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.crafter.engine.world.region;
+
+import org.crafter.engine.world.chunk.Chunk;
+import org.crafter.engine.world.chunk.ChunkMap;
+import org.crafter.engine.world.chunk.ChunkStorage;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * The World Saver is basically a thread facade, like the Chunk Generator.
+ * The main thread only captures snapshots of dirty chunks (no block data is copied), this thread encodes & writes them.
+ * The queue is bounded. If it fills up, the leftover chunks simply stay dirty and get captured on the next tick.
+ * Until a snapshot is written it is the newest copy of its chunk, so a chunk loaded again in the meantime starts from it.
+ */
+public class WorldSaver implements Runnable {
+
+    // Snapshots share sections with the live chunk, one in flight only pins the sections the live chunk writes to after capture.
+    // A whole classic map (32x32) fits, so a full save is one capture.
+    private static final int QUEUE_CAPACITY = 1024;
+    private static final long DEFAULT_AUTOSAVE_INTERVAL = 60_000_000_000L;
+
+    // Class local
+    private static WorldSaver instance;
+    private static Thread thread;
+
+    private static long autosaveInterval = DEFAULT_AUTOSAVE_INTERVAL;
+    private static long nextAutosave = 0;
+    // The last capture ran out of queue room, keep capturing every tick until everything is handed off
+    private static boolean backlog = false;
+    private static long lastCaptureTime = 0;
+
+    // Newest captured snapshot per packed position (see ChunkMap.packPosition), until it is on disk
+    private static final ConcurrentHashMap<Long, Chunk> pending = new ConcurrentHashMap<>();
+
+    // Instance local
+    private final BlockingQueue<Chunk> saveQueue;
+    private final AtomicBoolean shouldRun;
+    // Pushed in when stopping, so the thread doesn't sit out the poll timeout
+    private final Chunk wakeUpSignal;
+
+    // Main thread only, used while capturing
+    private boolean blockWhenFull = false;
+    private int captured = 0;
+
+    private WorldSaver() {
+        saveQueue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+        shouldRun = new AtomicBoolean(true);
+        wakeUpSignal = new Chunk(0, 0);
+    }
+
+    @Override
+    public void run() {
+        System.out.println("WorldSaver: Started!");
+        // Keeps going after being told to stop until every captured chunk is on disk
+        while (shouldRun.get() || !saveQueue.isEmpty()) {
+            final Chunk snapshot;
+            try {
+                snapshot = saveQueue.poll(200, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                throw new RuntimeException("WorldSaver: Thread was interrupted! " + e);
+            }
+            if (snapshot != null && snapshot != wakeUpSignal) {
+                RegionStorage.saveChanges(snapshot);
+                // Only if nothing newer was captured since
+                pending.remove(ChunkMap.packPosition(snapshot.getX(), snapshot.getZ()), snapshot);
+            }
+        }
+        System.out.println("WorldSaver: Stopped!");
+    }
+
+    private int captureDirtyChunks(final boolean blockWhenFull) {
+        this.blockWhenFull = blockWhenFull;
+        captured = 0;
+        backlog = false;
+        ChunkStorage.forEachChunk(this::captureChunk);
+        return captured;
+    }
+
+    private void captureChunk(final Chunk chunk) {
+        if (!blockWhenFull && saveQueue.remainingCapacity() == 0) {
+            // Stays dirty, picked up next tick
+            backlog = true;
+            return;
+        }
+        final Chunk snapshot = chunk.snapshotIfDirty();
+        if (snapshot == null) {
+            return;
+        }
+        pending.put(ChunkMap.packPosition(snapshot.getX(), snapshot.getZ()), snapshot);
+        try {
+            saveQueue.put(snapshot);
+        } catch (InterruptedException e) {
+            throw new RuntimeException("WorldSaver: Interrupted while queueing chunk (" + chunk.getPositionString() + ")! " + e);
+        }
+        captured++;
+    }
+
+    private void stopThread() {
+        shouldRun.set(false);
+        // If the queue is full the thread is busy anyway
+        saveQueue.offer(wakeUpSignal);
+    }
+
+    // External statics from here below
+
+    public static void start() {
+        if (thread != null) {
+            throw new RuntimeException("WorldSaver: Cannot start thread! It's already running!");
+        }
+        // Package the instance into the thread, so it can be talked to
+        instance = new WorldSaver();
+        thread = new Thread(instance);
+        thread.start();
+        nextAutosave = System.nanoTime() + autosaveInterval;
+        backlog = false;
+    }
+
+    /**
+     * Stop the thread without waiting on it. Anything already captured still gets written.
+     */
+    public static void stop() {
+        nullCheck("stop");
+        instance.stopThread();
+    }
+
+    /**
+     * Call this once per frame on the main thread. It only does work when an autosave is due.
+     */
+    public static void tick() {
+        if (backlog || System.nanoTime() >= nextAutosave) {
+            save();
+        }
+    }
+
+    /**
+     * Capture every dirty chunk right now, they are written in the background.
+     * This never blocks the main thread. If the queue fills up the rest are captured on the following ticks.
+     * @return How many chunks were captured.
+     */
+    public static int save() {
+        nullCheck("save");
+        final long startTime = System.nanoTime();
+        final int count = instance.captureDirtyChunks(false);
+        lastCaptureTime = System.nanoTime() - startTime;
+        nextAutosave = System.nanoTime() + autosaveInterval;
+        if (count > 0) {
+            System.out.println("WorldSaver: Captured (" + count + ") chunks in (" + (lastCaptureTime / 1_000) + ") microseconds!");
+        }
+        return count;
+    }
+
+    /**
+     * Capture one chunk, if it is dirty. Used when unloading, the chunk is gone after this.
+     * Never blocks the main thread.
+     * @param chunk The live chunk.
+     * @return False if the queue is full and the chunk is still dirty. Keep it loaded and try again later.
+     */
+    public static boolean capture(final Chunk chunk) {
+        nullCheck("capture");
+        if (!chunk.isDirty()) {
+            return true;
+        }
+        if (instance.saveQueue.remainingCapacity() == 0) {
+            return false;
+        }
+        instance.captureChunk(chunk);
+        return true;
+    }
+
+    /**
+     * The newest snapshot of a chunk that is captured but not on disk yet. Thread safe.
+     * Load from this instead of the disk, what is on disk is older or missing. Never write into it, take a snapshot().
+     * @param x Chunk X.
+     * @param z Chunk Z.
+     * @return The snapshot, or null if everything captured for that position is written.
+     */
+    public static Chunk getPendingSave(final int x, final int z) {
+        return pending.get(ChunkMap.packPosition(x, z));
+    }
+
+    /**
+     * Capture everything that is dirty, wait for it all to be written, then stop the thread.
+     * This BLOCKS. Call this on shutdown, before RegionStorage.closeAll().
+     */
+    public static void flush() {
+        nullCheck("flush");
+        final long startTime = System.nanoTime();
+        instance.captureDirtyChunks(true);
+        lastCaptureTime = System.nanoTime() - startTime;
+        instance.stopThread();
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            throw new RuntimeException("WorldSaver: Interrupted while flushing! " + e);
+        }
+        thread = null;
+        instance = null;
+    }
+
+    /**
+     * @param seconds How often tick() autosaves.
+     */
+    public static void setAutosaveInterval(final float seconds) {
+        if (seconds <= 0) {
+            throw new RuntimeException("WorldSaver: Autosave interval must be positive! (" + seconds + ")");
+        }
+        autosaveInterval = (long) (seconds * 1_000_000_000.0);
+        nextAutosave = System.nanoTime() + autosaveInterval;
+    }
+
+    /**
+     * @return How long the last capture held up the calling thread, in nanoseconds.
+     */
+    public static long getLastCaptureTime() {
+        return lastCaptureTime;
+    }
+
+    private static void nullCheck(String methodName) {
+        if (thread == null) {
+            throw new RuntimeException("WorldSaver: Cannot utilize method (" + methodName + ")! The THREAD has not been instantiated!");
+        } if (instance == null) {
+            throw new RuntimeException("WorldSaver: Cannot utilize method (" + methodName + ")! The INSTANCE has not been instantiated!");
+        }
+        if (!thread.isAlive()) {
+            throw new RuntimeException("WorldSaver: Thread has crashed! Cannot utilize (" + methodName + ")!");
+        }
+    }
+}
@@ -0,0 +1,289 @@
+/*
+ Crafter - A blocky game (engine) written in Java with LWJGL.
+ Copyright (C) 2023  jordan4ibanez
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.crafter.engine.world_generation;
+
+import org.crafter.engine.world.chunk.Chunk;
+import org.crafter.engine.world.chunk.ChunkLifecycle;
+import org.crafter.engine.world.chunk.ChunkMap;
+import org.crafter.engine.world.chunk.ChunkStorage;
+import org.crafter.engine.world_generation.chunk_generation.ChunkGenerator;
+import org.crafter.game.entity.player.Player;
+import org.crafter.game.entity.player.PlayerStorage;
+import org.joml.Vector2i;
+import org.joml.Vector2ic;
+import org.joml.Vector3fc;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Utility class.
+ * The Chunk Streamer keeps a square of chunks loaded around every player, for worlds without the classic map edge.
+ * When a player crosses into another chunk, missing chunks in view are requested (nearest ring first),
+ * and chunks that are now past the view distance plus a small margin are unloaded through the ChunkLifecycle.
+ * The margin stops a player walking back and forth over a chunk border from loading & unloading the same row over and over.
+ * It only does work when a player changes chunk, plus one sweep a second to catch chunks that arrived after the player left.
+ * Main thread only!
+ */
+public final class ChunkStreamer {
+
+    private static final int UNLOAD_MARGIN = 2;
+    private static final long SWEEP_INTERVAL = 1_000_000_000L;
+
+    private static boolean enabled = false;
+    // In chunks, on both axes (a square)
+    private static int viewDistance = 8;
+
+    // Where requests go. The Chunk Generator, unless something else is generating (headless tests)
+    private static Consumer<Vector2ic> requestHandler = ChunkGenerator::pushRequest;
+
+    // Requested and not here yet, so they're not requested twice
+    private static final HashSet<Long> pending = new HashSet<>();
+
+    private static final List<Vector3fc> playerPositions = new ArrayList<>();
+    private static final Vector2i requestWorker = new Vector2i();
+
+    // The chunk every anchor was in last update. If none moved, there's nothing to do
+    private static long[] anchorChunks = new long[0];
+    private static long nextSweep = 0;
+
+    // Reused between sweeps, grown as needed
+    private static Chunk[] unloadQueue = new Chunk[0];
+    private static int unloadCount = 0;
+
+    private static int requestedTotal = 0;
+    private static int unloadedTotal = 0;
+
+    private ChunkStreamer(){}
+
+    /**
+     * Call this once per frame on the main thread. Does nothing unless streaming is enabled.
+     */
+    public static void tick() {
+        if (!enabled) {
+            return;
+        }
+        playerPositions.clear();
+        for (Player player : PlayerStorage.getConnectedPlayers()) {
+            playerPositions.add(player.getPosition());
+        }
+        update(playerPositions);
+    }
+
+    /**
+     * Request & unload chunks around the anchors. Only does work if an anchor changed chunk, or a sweep is due.
+     * @param anchors In world positions to stream chunks around, usually the players.
+     * @return True if anything was checked this call.
+     */
+    public static boolean update(final List<? extends Vector3fc> anchors) {
+        // Nobody to stream around, don't unload the whole world
+        if (anchors.isEmpty()) {
+            return false;
+        }
+        final long time = System.nanoTime();
+        if (!anchorsMoved(anchors) && time < nextSweep) {
+            return false;
+        }
+        nextSweep = time + SWEEP_INTERVAL;
+
+        requestMissing();
+        unloadOutOfRange();
+        return true;
+    }
+
+    /**
+     * Tell the streamer a chunk made it into ChunkStorage. The Chunk Thread Director calls this.
+     * @param x Chunk X.
+     * @param z Chunk Z.
+     */
+    public static void chunkReceived(final int x, final int z) {
+        pending.remove(ChunkMap.packPosition(x, z));
+    }
+
+    /**
+     * Tell the streamer a request was dropped before it was generated. It gets requested again if it's still needed.
+     * @param x Chunk X.
+     * @param z Chunk Z.
+     */
+    public static void chunkDropped(final int x, final int z) {
+        pending.remove(ChunkMap.packPosition(x, z));
+    }
+
+    /**
+     * @return Chunks farther than this from every player are unloaded, and aren't worth generating.
+     */
+    public static int getUnloadDistance() {
+        return viewDistance + UNLOAD_MARGIN;
+    }
+
+    /**
+     * Turn streaming on or off. Turning it off leaves whatever is loaded where it is.
+     * @param streaming True to stream chunks around players.
+     */
+    public static void setEnabled(final boolean streaming) {
+        enabled = streaming;
+        // Start fresh, the next update checks everything
+        anchorChunks = new long[0];
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * @param chunks How many chunks out from a player are kept loaded, on both axes.
+     */
+    public static void setViewDistance(final int chunks) {
+        if (chunks < 1) {
+            throw new RuntimeException("ChunkStreamer: View distance must be at least 1! (" + chunks + ")");
+        }
+        viewDistance = chunks;
+        anchorChunks = new long[0];
+    }
+
+    public static int getViewDistance() {
+        return viewDistance;
+    }
+
+    /**
+     * @param handler Where chunk requests go. Defaults to the Chunk Generator.
+     */
+    public static void setRequestHandler(final Consumer<Vector2ic> handler) {
+        if (handler == null) {
+            throw new RuntimeException("ChunkStreamer: Request handler can't be null!");
+        }
+        requestHandler = handler;
+    }
+
+    public static void resetRequestHandler() {
+        requestHandler = ChunkGenerator::pushRequest;
+    }
+
+    /**
+     * @return How many requested chunks haven't arrived yet.
+     */
+    public static int getPendingCount() {
+        return pending.size();
+    }
+
+    /**
+     * @return How many chunks were requested since startup.
+     */
+    public static int getRequestedTotal() {
+        return requestedTotal;
+    }
+
+    /**
+     * @return How many chunks were unloaded by streaming since startup.
+     */
+    public static int getUnloadedTotal() {
+        return unloadedTotal;
+    }
+
+    private static boolean anchorsMoved(final List<? extends Vector3fc> anchors) {
+        boolean moved = anchorChunks.length != anchors.size();
+        if (moved) {
+            anchorChunks = new long[anchors.size()];
+        }
+        for (int i = 0; i < anchors.size(); i++) {
+            final long chunk = ChunkMap.packPosition(toChunkX(anchors.get(i)), toChunkZ(anchors.get(i)));
+            if (anchorChunks[i] != chunk) {
+                anchorChunks[i] = chunk;
+                moved = true;
+            }
+        }
+        return moved;
+    }
+
+    private static void requestMissing() {
+        // Ring by ring, so what's under the player's feet goes out first
+        for (int ring = 0; ring <= viewDistance; ring++) {
+            for (long anchor : anchorChunks) {
+                final int centerX = ChunkMap.unpackX(anchor);
+                final int centerZ = ChunkMap.unpackZ(anchor);
+                for (int x = centerX - ring; x <= centerX + ring; x++) {
+                    for (int z = centerZ - ring; z <= centerZ + ring; z++) {
+                        // Only the edge of the square, the inside was the previous rings
+                        if (x == centerX - ring || x == centerX + ring || z == centerZ - ring || z == centerZ + ring) {
+                            request(x, z);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    private static void request(final int x, final int z) {
+        if (ChunkStorage.hasChunk(x, z) || !pending.add(ChunkMap.packPosition(x, z))) {
+            return;
+        }
+        requestHandler.accept(requestWorker.set(x, z));
+        requestedTotal++;
+    }
+
+    private static void unloadOutOfRange() {
+        final int unloadDistance = getUnloadDistance();
+
+        final int loaded = ChunkStorage.getChunkCount();
+        if (unloadQueue.length < loaded) {
+            unloadQueue = new Chunk[loaded + (loaded >> 1)];
+        }
+        unloadCount = 0;
+
+        ChunkStorage.forEachChunk(chunk -> {
+            if (unloadCount == unloadQueue.length || withinDistance(chunk.getX(), chunk.getZ(), unloadDistance)) {
+                return;
+            }
+            unloadQueue[unloadCount] = chunk;
+            unloadCount++;
+        });
+
+        for (int i = 0; i < unloadCount; i++) {
+            // If the World Saver is backed up it stays, the next sweep tries again
+            if (ChunkLifecycle.unload(unloadQueue[i])) {
+                unloadedTotal++;
+            }
+        }
+
+        Arrays.fill(unloadQueue, 0, unloadCount, null);
+        unloadCount = 0;
+
+        // Requests that are out of range now. Whatever still arrives gets swept next time
+        pending.removeIf(key -> !withinDistance(ChunkMap.unpackX(key), ChunkMap.unpackZ(key), unloadDistance));
+    }
+
+    private static boolean withinDistance(final int x, final int z, final int distance) {
+        for (long anchor : anchorChunks) {
+            if (Math.abs(x - ChunkMap.unpackX(anchor)) <= distance && Math.abs(z - ChunkMap.unpackZ(anchor)) <= distance) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static int toChunkX(final Vector3fc position) {
+        return (int) Math.floor(position.x() / Chunk.getWidth());
+    }
+
+    private static int toChunkZ(final Vector3fc position) {
+        return (int) Math.floor(position.z() / Chunk.getDepth());
+    }
+}
@@ -17,13 +17,30 @@
  */
 package org.crafter.engine.world_generation;
 
+import org.crafter.engine.camera.Camera;
+import org.crafter.engine.mesh.ChunkGeometryArena;
+import org.crafter.engine.utility.FrameBudget;
+import org.crafter.engine.utility.LatencyHistogram;
+import org.crafter.engine.world.block.BlockDefinitionContainer;
 import org.crafter.engine.world.chunk.Chunk;
+import org.crafter.engine.world.chunk.ChunkMap;
 import org.crafter.engine.world.chunk.ChunkStorage;
 import org.crafter.engine.world_generation.chunk_generation.ChunkGenerator;
 import org.crafter.engine.world_generation.chunk_mesh_generation.ChunkMeshGenerator;
 import org.crafter.engine.world_generation.chunk_mesh_generation.ChunkMeshRecord;
-import org.joml.Vector2i;
+import org.crafter.engine.world_generation.chunk_mesh_generation.GreedyMesher;
+import org.crafter.engine.world_generation.chunk_mesh_generation.NeighborMeshUpdates;
+import org.crafter.game.entity.player.Player;
+import org.crafter.game.entity.player.PlayerStorage;
 import org.joml.Vector2ic;
+import org.joml.Vector3f;
+import org.joml.Vector3fc;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.crafter.engine.collision_detection.camera_collision.FrustumCulling.chunkStackWithinFrustum;
+import static org.crafter.engine.utility.GameMath.getHorizontalDirection;
 
 /**
  * Utility class.
@@ -34,92 +51,225 @@ import org.joml.Vector2ic;
  * This is basically an inter-thread communication utility class.
  */
 public final class ChunkThreadDirector {
+
+    private static final List<Vector3fc> playerPositions = new ArrayList<>();
+    private static final List<Vector3fc> playerDirections = new ArrayList<>();
+    private static final Vector3f clientDirection = new Vector3f();
+
+    // Time to first visible terrain at spawn, -1 until the chunk the client player is in gets its first mesh
+    private static long firstVisibleTime = -1;
+    // Time until everything requested at startup is generated & meshed, -1 until both threads go idle the first time
+    private static long allVisibleTime = -1;
+    private static int staleMeshes = 0;
+    // Neighbor stacks a new chunk could have dirtied, and how many of them actually were
+    private static long neighborStacksChecked = 0;
+    private static long neighborStacksRemeshed = 0;
+
+    // How long the main thread may spend taking in chunks & uploading meshes each frame. The rest waits for the next frame
+    private static final FrameBudget integrationBudget = new FrameBudget(4);
+    // Chunks get at most this share of the budget, so meshes keep landing while the generator floods in
+    private static final double CHUNK_BUDGET_SHARE = 0.5;
+    private static final MeshUploadQueue uploadQueue = new MeshUploadQueue();
+
+    // Frame to frame times & the director's own share of them, until all terrain is visible
+    private static final LatencyHistogram loadFrameTimes = new LatencyHistogram();
+    private static final LatencyHistogram loadIntegrationTimes = new LatencyHistogram();
+    private static long lastFrame = -1;
+
+    // Indexed by block ID, true for BLOCK draw type. Built the first time a chunk comes in, the blocks are all registered by then
+    private static boolean[] opaque = null;
+
     private ChunkThreadDirector(){}
 
     public static void runLogic() {
+        recordFrameTime();
+        updateGeneratorFocus();
+        integrationBudget.begin();
         parseChunkGenerator();
         parseChunkMeshGenerator();
+        if (allVisibleTime == -1) {
+            loadIntegrationTimes.record(integrationBudget.getElapsed());
+        }
+        checkAllVisible();
+    }
+
+    /**
+     * How long the main thread may spend each frame taking in generated chunks & uploading their meshes.
+     * Whatever doesn't fit waits for the next frame. At least one chunk & one mesh always go in, so nothing stalls.
+     * @param milliseconds The budget, above 0. Defaults to 4.
+     */
+    public static void setIntegrationBudget(final double milliseconds) {
+        integrationBudget.setBudget(milliseconds);
+    }
+
+    /**
+     * How long it took from the Chunk Generator starting to the client player's chunk having a mesh to look at.
+     * @return Nanoseconds, or -1 if that hasn't happened yet.
+     */
+    public static long getFirstVisibleTime() {
+        return firstVisibleTime;
+    }
+
+    /**
+     * How long it took from the Chunk Generator starting to every chunk requested at startup being meshed.
+     * In classic that's the whole map.
+     * @return Nanoseconds, or -1 if that hasn't happened yet.
+     */
+    public static long getAllVisibleTime() {
+        return allVisibleTime;
+    }
+
+    /**
+     * Tell the generator where the players are & look, so the chunks in front of them come first.
+     * Only the client player has a view direction, the camera's.
+     */
+    private static void updateGeneratorFocus() {
+        playerPositions.clear();
+        playerDirections.clear();
+        for (Player player : PlayerStorage.getConnectedPlayers()) {
+            playerPositions.add(player.getPosition());
+            if (player.isClientPlayer()) {
+                // Forward is negative, same as the movement code
+                playerDirections.add(clientDirection.set(getHorizontalDirection(Camera.getYaw())).negate());
+            } else {
+                playerDirections.add(null);
+            }
+        }
+        // Nothing out of range in classic, the whole map is wanted
+        final int dropRadius = ChunkStreamer.isEnabled() ? ChunkStreamer.getUnloadDistance() : -1;
+        ChunkGenerator.setFocus(playerPositions, playerDirections, dropRadius);
+
+        for (long dropped : ChunkGenerator.getDropped()) {
+            ChunkStreamer.chunkDropped(ChunkMap.unpackX(dropped), ChunkMap.unpackZ(dropped));
+        }
+    }
+
+    private static void recordFrameTime() {
+        final long now = System.nanoTime();
+        if (lastFrame != -1 && allVisibleTime == -1) {
+            loadFrameTimes.record(now - lastFrame);
+        }
+        lastFrame = now;
     }
 
     private static void parseChunkGenerator() {
-        while (ChunkGenerator.hasUpdate()) {
+        boolean first = true;
+        while (ChunkGenerator.hasUpdate() && (first || integrationBudget.hasTimeLeft(CHUNK_BUDGET_SHARE))) {
+            first = false;
 
             Chunk generatedChunk = ChunkGenerator.getUpdate();
 
 //            System.out.println("Main: Received chunk (" + generatedChunk.getPositionString() + ")!");
 
+            Vector2ic position = generatedChunk.getPosition();
+
+            // What the neighbors were meshed against, if this is replacing a loaded chunk
+            final Chunk previous = ChunkStorage.getThreadSafeChunkCloneIfLoaded(position.x(), position.y());
+
             ChunkStorage.addOrUpdate(generatedChunk);
 
-            Vector2ic position = generatedChunk.getPosition();
+            ChunkStreamer.chunkReceived(position.x(), position.y());
 
-            //fixme: needs to iterate 0-7
-            // Render stack 0 (y coordinate 0 to 15)
+            // Render stacks 0-7
             generateFullChunkMesh(position.x(), position.y());
 
             // Now we update neighbors.
             // Right handed coordinate system.
-            // Basic if branch because why not.
-            // ChunkMeshGenerator automatically !NOW! REJECTS duplicates - this might cause horrible performance.
-            // FIXME: this is the cause if performance is brutal.
-            // So now we blindly shovel in requests.
-            // This is scoped to auto GC if hit fails. It also allows to be more explicit.
+            // Only the neighbor stacks whose wall faces this chunk covered or uncovered get remeshed.
 
-            checkAndUpdateNeighbors(position);
+            checkAndUpdateNeighbors(generatedChunk, previous);
         }
     }
 
-    private static void checkAndUpdateNeighbors(Vector2ic position) {
-        updateNeighborFront(position);
-        updateNeighborBack(position);
-        updateNeighborLeft(position);
-        updateNeighborRight(position);
-    }
-
-    private static void updateNeighborFront(Vector2ic position) {
-        // Front
-        Vector2ic neighborFront = new Vector2i(position.x(), position.y() - 1);
-        if (ChunkStorage.hasChunk(neighborFront)) {
-            generateFullChunkMesh(neighborFront.x(), neighborFront.y());
-        }
-    }
-    private static void updateNeighborBack(Vector2ic position) {
-        // Back
-        Vector2ic neighborBack = new Vector2i(position.x(), position.y() + 1);
-        if (ChunkStorage.hasChunk(neighborBack)) {
-            generateFullChunkMesh(neighborBack.x(), neighborBack.y());
+    private static void checkAndUpdateNeighbors(final Chunk arriving, final Chunk previous) {
+        if (opaque == null) {
+            opaque = BlockDefinitionContainer.getMainInstance().getOpaqueTable();
         }
+        final Vector2ic position = arriving.getPosition();
+        updateNeighbor(position.x(), position.y() - 1, GreedyMesher.FRONT, arriving, previous);
+        updateNeighbor(position.x(), position.y() + 1, GreedyMesher.BACK, arriving, previous);
+        updateNeighbor(position.x() - 1, position.y(), GreedyMesher.LEFT, arriving, previous);
+        updateNeighbor(position.x() + 1, position.y(), GreedyMesher.RIGHT, arriving, previous);
     }
-    private static void updateNeighborLeft(Vector2ic position) {
-        // Left
-        Vector2ic neighborLeft = new Vector2i(position.x() - 1, position.y());
-        if (ChunkStorage.hasChunk(neighborLeft)) {
-            generateFullChunkMesh(neighborLeft.x(), neighborLeft.y());
+
+    private static void updateNeighbor(final int x, final int z, final int side, final Chunk arriving, final Chunk previous) {
+        if (!ChunkStorage.hasChunk(x, z)) {
+            return;
         }
-    }
-    private static void updateNeighborRight(Vector2ic position) {
-        // Right
-        Vector2ic neighborRight = new Vector2i(position.x() + 1, position.y());
-        if (ChunkStorage.hasChunk(neighborRight)) {
-            generateFullChunkMesh(neighborRight.x(), neighborRight.y());
+        final int stacks = NeighborMeshUpdates.getChangedStacks(ChunkStorage.getChunk(x, z), previous, arriving, side, opaque);
+        neighborStacksChecked += Chunk.getStacks();
+        neighborStacksRemeshed += Integer.bitCount(stacks);
+        for (int stack = 0; stack < Chunk.getStacks(); stack++) {
+            if ((stacks & (1 << stack)) != 0) {
+                ChunkMeshGenerator.pushRequest(x, stack, z);
+            }
         }
     }
 
     private static void parseChunkMeshGenerator() {
 
+        // Taking them off the generator is cheap, the upload is what costs
         while (ChunkMeshGenerator.hasUpdate()) {
-            ChunkMeshRecord generatedMesh = ChunkMeshGenerator.getUpdate();
+            uploadQueue.add(ChunkMeshGenerator.getUpdate());
+        }
+        if (uploadQueue.isEmpty()) {
+            return;
+        }
 
-            // Fixme: This is a debug for one simple chunk, make sure this is removed so it doesn't cause a random red herring
-            // TODO: Make sure this is done within the main thread!
+        // What the player can see, nearest first. Last frame's camera is close enough
+        final Vector3fc cameraPosition = Camera.getPosition();
+        uploadQueue.prioritize(cameraPosition.x(), cameraPosition.y(), cameraPosition.z(), mesh -> chunkStackWithinFrustum(
+                mesh.destinationChunkPosition().x() * Chunk.getWidth(),
+                mesh.stack() * Chunk.getStackHeight(),
+                mesh.destinationChunkPosition().y() * Chunk.getDepth()
+        ));
+
+        boolean first = true;
+        ChunkMeshRecord generatedMesh;
+        while ((first || integrationBudget.hasTimeLeft()) && (generatedMesh = uploadQueue.poll()) != null) {
+
+            // The stack was requested again while this was being meshed or waiting, the newer one is on its way
+            if (!ChunkMeshGenerator.isLatest(generatedMesh)) {
+                staleMeshes++;
+                continue;
+            }
+            first = false;
 
             final Vector2ic destinationPosition = generatedMesh.destinationChunkPosition();
 
             if (ChunkStorage.hasChunk(destinationPosition)) {
                 ChunkStorage.getChunk(destinationPosition).setMesh(generatedMesh.stack(), generatedMesh);
+                ChunkMeshGenerator.meshLanded(generatedMesh);
+                checkFirstVisible(generatedMesh);
             } // Else nothing happens to it and the raw ChunkMeshRecord is garbage collected.
         }
     }
 
+    private static void checkAllVisible() {
+        if (allVisibleTime != -1 || ChunkStorage.getChunkCount() == 0 || !ChunkGenerator.isIdle() || !ChunkMeshGenerator.isIdle() || !uploadQueue.isEmpty()) {
+            return;
+        }
+        allVisibleTime = System.nanoTime() - ChunkGenerator.getStartTime();
+        final long stacksMeshed = ChunkMeshGenerator.getStacksMeshed();
+        System.out.println("ChunkThreadDirector: All terrain visible after (" + (allVisibleTime / 1_000_000) + ") ms! (" + ChunkStorage.getChunkCount() + ") chunks | (" + stacksMeshed + ") stacks meshed | (" + (int) (stacksMeshed / (allVisibleTime / 1_000_000_000.0)) + ") stacks per second | (" + staleMeshes + ") stale meshes thrown away | (" + neighborStacksRemeshed + "/" + neighborStacksChecked + ") neighbor stacks remeshed");
+        System.out.println(loadFrameTimes.report("ChunkThreadDirector: Frame time during world load (" + integrationBudget.getBudget() + " ms integration budget)"));
+        System.out.println(loadIntegrationTimes.report("ChunkThreadDirector: Chunk & mesh integration time per frame during world load"));
+        System.out.println(ChunkGeometryArena.report());
+    }
+
+    private static void checkFirstVisible(final ChunkMeshRecord generatedMesh) {
+        if (firstVisibleTime != -1 || !PlayerStorage.clientPlayerExists() || generatedMesh.quadCount() == 0) {
+            return;
+        }
+        final Vector3fc position = PlayerStorage.getClientPlayer().getPosition();
+        final Vector2ic destinationPosition = generatedMesh.destinationChunkPosition();
+        if (destinationPosition.x() != (int) Math.floor(position.x() / Chunk.getWidth()) || destinationPosition.y() != (int) Math.floor(position.z() / Chunk.getDepth())) {
+            return;
+        }
+        firstVisibleTime = System.nanoTime() - ChunkGenerator.getStartTime();
+        System.out.println("ChunkThreadDirector: First visible terrain at spawn after (" + (firstVisibleTime / 1_000_000) + ") ms!");
+    }
+
     /**
      * Generates chunk mesh stacks (0-7)
      * @param x world position on X axis (literal)
@@ -0,0 +1,113 @@
+/*
+ Crafter - A blocky game (engine) written in Java with LWJGL.
+ Copyright (C) 2023  jordan4ibanez
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.crafter.engine.world_generation;
+
+import org.crafter.engine.world.chunk.Chunk;
+import org.crafter.engine.world_generation.chunk_mesh_generation.ChunkMeshRecord;
+
+import java.util.Arrays;
+import java.util.function.Predicate;
+
+/**
+ * Finished chunk meshes waiting for their turn to go into the GPU.
+ * The ChunkThreadDirector only uploads so many a frame, so the ones the player can see, nearest first, go in first.
+ * Main thread only.
+ */
+public class MeshUploadQueue {
+
+    private ChunkMeshRecord[] pending = new ChunkMeshRecord[256];
+    // Priority in the high bits, index into pending in the low bits. See prioritize()
+    private long[] order = new long[256];
+    private int count = 0;
+    // How many sorted entries there are, and how far poll() got through them
+    private int sortedCount = 0;
+    private int next = 0;
+
+    /**
+     * @param mesh A mesh that came back from the ChunkMeshGenerator.
+     */
+    public void add(final ChunkMeshRecord mesh) {
+        if (count == pending.length) {
+            pending = Arrays.copyOf(pending, count * 2);
+            order = Arrays.copyOf(order, count * 2);
+        }
+        pending[count++] = mesh;
+    }
+
+    /**
+     * Sort everything waiting. Visible stacks first, then by distance from the camera to the middle of the stack.
+     * @param x Camera X.
+     * @param y Camera Y.
+     * @param z Camera Z.
+     * @param visible True if the stack of a mesh is in view.
+     */
+    public void prioritize(final float x, final float y, final float z, final Predicate<ChunkMeshRecord> visible) {
+        compact();
+        for (int i = 0; i < count; i++) {
+            final ChunkMeshRecord mesh = pending[i];
+            final float distanceX = (mesh.destinationChunkPosition().x() + 0.5f) * Chunk.getWidth() - x;
+            final float distanceY = (mesh.stack() + 0.5f) * Chunk.getStackHeight() - y;
+            final float distanceZ = (mesh.destinationChunkPosition().y() + 0.5f) * Chunk.getDepth() - z;
+            // Capped to 30 bits, the bit above says not visible
+            final long distance = (long) Math.min(distanceX * distanceX + distanceY * distanceY + distanceZ * distanceZ, (1 << 30) - 1);
+            final long hidden = visible.test(mesh) ? 0 : 1L << 30;
+            order[i] = ((hidden | distance) << 32) | i;
+        }
+        Arrays.sort(order, 0, count);
+        sortedCount = count;
+        next = 0;
+    }
+
+    /**
+     * @return The next mesh in priority order, or null if every sorted mesh was taken. Anything added since prioritize() waits for the next one.
+     */
+    public ChunkMeshRecord poll() {
+        if (next == sortedCount) {
+            return null;
+        }
+        final int index = (int) order[next++];
+        final ChunkMeshRecord mesh = pending[index];
+        pending[index] = null;
+        return mesh;
+    }
+
+    /**
+     * @return How many meshes are waiting.
+     */
+    public int size() {
+        return count - next;
+    }
+
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    // Close up the holes poll() left, keeping the order things came in
+    private void compact() {
+        int kept = 0;
+        for (int i = 0; i < count; i++) {
+            if (pending[i] != null) {
+                pending[kept++] = pending[i];
+            }
+        }
+        Arrays.fill(pending, kept, count, null);
+        count = kept;
+        sortedCount = 0;
+        next = 0;
+    }
+}
@@ -17,205 +17,266 @@
  */
 package org.crafter.engine.world_generation.chunk_generation;
 
-import org.crafter.engine.delta.DeltaObject;
-import org.crafter.engine.utility.FastNoise;
-import org.crafter.engine.world.biome.BiomeDefinition;
 import org.crafter.engine.world.biome.BiomeDefinitionContainer;
 import org.crafter.engine.world.block.BlockDefinitionContainer;
 import org.crafter.engine.world.chunk.Chunk;
-import org.joml.Vector2i;
+import org.crafter.engine.world.chunk.ChunkMap;
+import org.crafter.engine.world.region.RegionStorage;
 import org.joml.Vector2ic;
+import org.joml.Vector3fc;
 
 import java.util.Arrays;
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.LinkedBlockingQueue;
-import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
 
 /**
  * The Chunk Generator is basically a thread facade.
  * You talk into it through this class, but you can't talk directly to the instance.
+ * It runs a pool of threads, each with its own ChunkGeneratorWorker. They all take from the same priority queue.
+ * Every request taken gets a number, and finished chunks are handed out in that order no matter which thread
+ * finished first. So the output order only depends on the requests, never on the thread count or timing.
  */
-public class ChunkGenerator implements Runnable {
+public class ChunkGenerator {
 
     // Class local
     private static ChunkGenerator instance;
-    private static Thread thread;
+    private static Thread[] threads;
+    private static long startTime = 0;
 
     // Instance local
-    private final DeltaObject delta;
-    private final FastNoise noise;
+    private final ChunkGeneratorWorker[] workers;
 
-    private final BlockDefinitionContainer blockDefinitionContainer;
+    private final ChunkRequestQueue chunkRequestQueue;
+    // Finished chunks by the order their requests were taken. A chunk waits in here until everything taken before it is out
+    private final HashMap<Integer, Chunk> chunkOutputBuffer;
 
-    private final BiomeDefinitionContainer biomeDefinitionContainer;
+    // Locked by chunkRequestQueue
+    private int nextRequestNumber = 0;
+    // Locked by chunkOutputBuffer
+    private int nextOutputNumber = 0;
 
-    private final BlockingQueue<Vector2ic> chunkRequestQueue;
-    private final BlockingQueue<Chunk> chunkOutputQueue;
-    private final AtomicBoolean shouldRun;
-
-    private ChunkGenerator() {
-        delta = new DeltaObject();
-        noise = new FastNoise();
-        blockDefinitionContainer = BlockDefinitionContainer.getThreadSafeDuplicate();
-        biomeDefinitionContainer = BiomeDefinitionContainer.getThreadSafeDuplicate();
-        chunkRequestQueue = new LinkedBlockingQueue<>();
-        chunkOutputQueue = new LinkedBlockingQueue<>();
-        shouldRun = new AtomicBoolean(true);
-    }
-
-    @Override
-    public void run() {
-        System.out.println("ChunkGenerator: Started!");
-        System.out.println("ChunkGenerator: Gotten blocks (" + Arrays.toString(blockDefinitionContainer.getAllBlockNames()) + ")!");
-        System.out.println("ChunkGenerator: Gotten biomes (" + Arrays.toString(biomeDefinitionContainer.getAllBiomeNames()) + ")!");
-        while (shouldRun.get()) {
-            sleepCheck();
-            processInputQueue();
-        }
-        System.out.println("ChunkGenerator: Stopped!");
-    }
-
-    private void processInputQueue() {
-        while (!chunkRequestQueue.isEmpty()) {
-            generateChunk(chunkRequestQueue.remove());
-        }
-    }
-    private void generateChunk(Vector2ic position) {
-        //TODO: biome registration
-        //TODO: noise generation
-        Chunk chunk = processBiomesAndBlocks(new Chunk(position));
-
-        chunkOutputQueue.add(chunk);
+    private ChunkGenerator(final ChunkGeneratorWorker[] workers) {
+        this.workers = workers;
+        chunkRequestQueue = new ChunkRequestQueue();
+        chunkOutputBuffer = new HashMap<>();
     }
 
-    /**
-     * Actual side effects happen here!
-     * This is where biomes & blocks are applied into the data container (Chunk)
-     */
-    private Chunk processBiomesAndBlocks(Chunk chunk) {
-
-        // Classic has a hardcoded biome for now
-        final BiomeDefinition biomeDefinition = biomeDefinitionContainer.getBiome("classic");
-
-        final int grass = blockDefinitionContainer.getDefinition(biomeDefinition.getGrassLayer()).getID();
-        final int dirt = blockDefinitionContainer.getDefinition(biomeDefinition.getDirtLayer()).getID();
-        final int stone = blockDefinitionContainer.getDefinition(biomeDefinition.getStoneLayer()).getID();
-
-        final int xOffset = chunk.getX() * Chunk.getWidth();
-        // Y is Z in 2d!
-        final int zOffset = chunk.getZ() * Chunk.getDepth();
-
-        // Base height is fixed in classic, maybe forever? No idea
-        final int baseHeight = BiomeDefinition.getBaseHeight();
-
-        final float scale = biomeDefinition.getScale();
-
-        noise.SetFrequency(biomeDefinition.getFrequency());
-//        noise.SetFractalOctaves(biomeDefinition.getOctaves());
-//        noise.SetFractalLacunarity(biomeDefinition.getLacunarity());
-
-        for (int x = 0; x < Chunk.getWidth(); x++) {
-            for (int z = 0; z < Chunk.getDepth(); z++) {
-
-                // +0.5f because the output is -0.5f to 0.5f
-                final float calculatedNoise = noise.GetSimplex(x + xOffset,z + zOffset) + 0.5f;
-
-                final int height = (int)(calculatedNoise * scale) + baseHeight;
-
-                for (int y = 0; y < Chunk.getHeight(); y++) {
-
-                    int id = 0; // Start off as air
+    private void run(final ChunkGeneratorWorker worker) {
+        System.out.println("ChunkGenerator: Worker (" + Thread.currentThread().getName() + ") Started!");
+        // Nearest first, and re-sorted every time in case the players moved. Out of range requests are dropped in here
+        while (true) {
+            final long request;
+            final int requestNumber;
+            // Taking & numbering has to be one step, or two threads could swap numbers. Waiting releases the lock
+            synchronized (chunkRequestQueue) {
+                request = chunkRequestQueue.take();
+                if (request == ChunkRequestQueue.NO_REQUEST) {
+                    break;
+                }
+                requestNumber = nextRequestNumber;
+                nextRequestNumber++;
+            }
 
-                    if (y < height - 6) {
-                        id = stone;
-                    }  else if (y < height - 1) {
-                        id = dirt;
-                    } else if (y < height) {
-                        id = grass;
-                    }
-                    int index = Chunk.positionToIndex(x,y,z);
-                    int blockData = chunk.getBlockData(index);
+            final Chunk chunk = worker.generate(ChunkMap.unpackX(request), ChunkMap.unpackZ(request));
 
-                    blockData = Chunk.setBlockID(blockData, id);
-                    chunk.setBlockData(index, blockData);
-                }
+            synchronized (chunkOutputBuffer) {
+                chunkOutputBuffer.put(requestNumber, chunk);
             }
         }
-//        for (int i = 0; i < chunk.getArraySize(); i++) {
-//            int blockData = chunk.getBlockData(i);
-//
-//
-////            int randomlyChosen = random.nextInt(5);
-//            int randomlyChosen = 0;
-//
-//            if (chunk.indexToPosition(i).y() < 30) {
-//                randomlyChosen = 1;
-//            }
-//
-//
-//
-//            BlockDefinition definition = blockDefinitionContainer.getDefinition(randomlyChosen); //"crafter:grass"
-//            blockData = chunk.setBlockID(blockData, definition.getID());
-//            chunk.setBlockData(i, blockData);
-//        }
-//        System.out.println("ChunkGenerator: Generated Chunk(" + chunk.getX() + ", " + chunk.getY() + ")");
-
-        return chunk;
+        System.out.println("ChunkGenerator: Worker (" + Thread.currentThread().getName() + ") Stopped!");
     }
 
     public boolean checkUpdate() {
-        return !chunkOutputQueue.isEmpty();
+        synchronized (chunkOutputBuffer) {
+            return chunkOutputBuffer.containsKey(nextOutputNumber);
+        }
     }
     public Chunk grabUpdate() {
-        return chunkOutputQueue.remove();
+        synchronized (chunkOutputBuffer) {
+            final Chunk chunk = chunkOutputBuffer.remove(nextOutputNumber);
+            nextOutputNumber++;
+            return chunk;
+        }
     }
 
-    private void sleepCheck() {
-        if (chunkRequestQueue.size() == 0) {
-            try {
-                Thread.sleep(200);
-            } catch (Exception e) {
-                throw new RuntimeException("ChunkGenerator: Thread failed to sleep! " + e);
+    private boolean checkIdle() {
+        final int requested;
+        synchronized (chunkRequestQueue) {
+            if (!chunkRequestQueue.isEmpty()) {
+                return false;
             }
+            requested = nextRequestNumber;
+        }
+        // Everything taken has been handed out
+        synchronized (chunkOutputBuffer) {
+            return nextOutputNumber == requested;
         }
     }
 
     private void addRequest(Vector2ic requestedChunk) {
-        this.chunkRequestQueue.add(requestedChunk);
+        this.chunkRequestQueue.add(requestedChunk.x(), requestedChunk.y());
+    }
+
+    private void addRequests(Collection<? extends Vector2ic> requestedChunks) {
+        // All at once, so no worker takes one before the rest are in
+        synchronized (chunkRequestQueue) {
+            for (Vector2ic requestedChunk : requestedChunks) {
+                addRequest(requestedChunk);
+            }
+        }
     }
 
     private void stopThread() {
-        shouldRun.set(false);
+        // Wakes up any worker waiting for a request
+        chunkRequestQueue.close();
     }
 
     /**
      * This function is helpful in case something ever gets completely mangled.
      */
     private void debugQueueSizes() {
-        System.out.println("ChunkGenerator: (INPUT: " + chunkRequestQueue.size() + ") | (OUTPUT: " + chunkOutputQueue.size() + ")");
+        final int output;
+        synchronized (chunkOutputBuffer) {
+            output = chunkOutputBuffer.size();
+        }
+        System.out.println("ChunkGenerator: (INPUT: " + chunkRequestQueue.size() + ") | (OUTPUT: " + output + ")");
     }
 
     // External statics from here below
 
+    /**
+     * Start with half of the cores the main thread doesn't need, the mesher gets the other half.
+     */
     public static void start() {
-        if (thread != null) {
+        start(getDefaultWorkerCount());
+    }
+
+    /**
+     * @param workerCount How many generator threads to run.
+     */
+    public static void start(final int workerCount) {
+        if (workerCount < 1) {
+            throw new RuntimeException("ChunkGenerator: Needs at least one worker! Got (" + workerCount + ")!");
+        }
+        final BlockDefinitionContainer blockDefinitionContainer = BlockDefinitionContainer.getThreadSafeDuplicate();
+        final BiomeDefinitionContainer biomeDefinitionContainer = BiomeDefinitionContainer.getThreadSafeDuplicate();
+        System.out.println("ChunkGenerator: Gotten blocks (" + Arrays.toString(blockDefinitionContainer.getAllBlockNames()) + ")!");
+        System.out.println("ChunkGenerator: Gotten biomes (" + Arrays.toString(biomeDefinitionContainer.getAllBiomeNames()) + ")!");
+
+        final ChunkGeneratorWorker[] workers = new ChunkGeneratorWorker[workerCount];
+        // The first worker gets the first duplicates, nothing is shared between them
+        workers[0] = new ChunkGeneratorWorker(blockDefinitionContainer, biomeDefinitionContainer);
+        for (int i = 1; i < workerCount; i++) {
+            workers[i] = new ChunkGeneratorWorker(BlockDefinitionContainer.getThreadSafeDuplicate(), BiomeDefinitionContainer.getThreadSafeDuplicate());
+        }
+        start(workers);
+    }
+
+    /**
+     * Start with workers that were already made, one thread each.
+     * @param workers The workers. They must all generate the same terrain!
+     */
+    public static void start(final ChunkGeneratorWorker[] workers) {
+        if (threads != null) {
             throw new RuntimeException("ChunkGenerator: Cannot start thread! It's already running!");
         }
-        // Package the instance into the thread, so it can be talked to
-        instance = new ChunkGenerator();
-        thread = new Thread(instance);
-        thread.start();
+        if (workers.length == 0) {
+            throw new RuntimeException("ChunkGenerator: Needs at least one worker!");
+        }
+        for (ChunkGeneratorWorker worker : workers) {
+            if (worker.getFingerprint() != workers[0].getFingerprint()) {
+                throw new RuntimeException("ChunkGenerator: Workers don't generate the same terrain! Fingerprints differ!");
+            }
+        }
+        if (!RegionStorage.checkGenerationFingerprint(workers[0].getFingerprint())) {
+            System.out.println("ChunkGenerator: WARNING! The generation fingerprint changed! Untouched chunks will generate different terrain, edited chunks load as they were saved.");
+        }
+
+        // Package the instance into the threads, so it can be talked to
+        instance = new ChunkGenerator(workers);
+        threads = new Thread[workers.length];
+        for (int i = 0; i < workers.length; i++) {
+            final ChunkGeneratorWorker worker = workers[i];
+            threads[i] = new Thread(() -> instance.run(worker), "ChunkGenerator-" + i);
+        }
+        startTime = System.nanoTime();
+        for (Thread thread : threads) {
+            thread.start();
+        }
     }
 
+    /**
+     * Stop every worker and wait for them to finish the chunk they're on. Whatever is still queued is thrown away.
+     */
     public static void stop() {
         nullCheck("stop");
         instance.stopThread();
+        for (Thread thread : threads) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                throw new RuntimeException("ChunkGenerator: Interrupted while stopping! " + e);
+            }
+        }
+        threads = null;
+        instance = null;
     }
 
     public static void pushRequest(Vector2ic requestedChunk) {
         nullCheck("pushRequest");
-        // Separate out thread data internal pointers
-        instance.addRequest(new Vector2i(requestedChunk));
+        instance.addRequest(requestedChunk);
+    }
+
+    /**
+     * Push a batch of requests at once. The workers only see them once they're all in, so they come out nearest first.
+     * @param requestedChunks The chunk positions.
+     */
+    public static void pushRequests(Collection<? extends Vector2ic> requestedChunks) {
+        nullCheck("pushRequests");
+        instance.addRequests(requestedChunks);
+    }
+
+    /**
+     * Tell the generator where the players are, so it generates what's closest to them first.
+     * Cheap, call it every frame.
+     * @param positions In world positions of the players.
+     * @param directions Where each player is looking, same order as positions. Null, or a null element, if unknown.
+     * @param dropRadius Pending requests farther than this many chunks from every player are dropped. Negative never drops.
+     */
+    public static void setFocus(final List<? extends Vector3fc> positions, final List<? extends Vector3fc> directions, final int dropRadius) {
+        nullCheck("setFocus");
+        instance.chunkRequestQueue.setFocus(positions, directions, dropRadius);
+    }
+
+    /**
+     * Take every request the generator dropped for being out of range. They were never generated, request them again if needed.
+     * @return Packed chunk positions (see ChunkMap.packPosition), may be empty.
+     */
+    public static long[] getDropped() {
+        nullCheck("getDropped");
+        return instance.chunkRequestQueue.takeDropped();
+    }
+
+    /**
+     * @return When the generator threads were started, System.nanoTime() based.
+     */
+    public static long getStartTime() {
+        return startTime;
+    }
+
+    /**
+     * @return How many workers start() uses. At least one, the main thread keeps a core, the rest is split with the mesher.
+     */
+    public static int getDefaultWorkerCount() {
+        return Math.max(1, (Runtime.getRuntime().availableProcessors() - 1) / 2);
+    }
+
+    /**
+     * @return True if nothing is queued, being generated, or waiting to be picked up.
+     */
+    public static boolean isIdle() {
+        return instance.checkIdle();
     }
 
     public static boolean hasUpdate() {
@@ -230,13 +291,15 @@ public class ChunkGenerator implements Runnable {
     }
 
     private static void nullCheck(String methodName) {
-        if (thread == null) {
+        if (threads == null) {
             throw new RuntimeException("ChunkGenerator: Cannot utilize method (" + methodName + ")! The THREAD has not been instantiated!");
         } if (instance == null) {
             throw new RuntimeException("ChunkGenerator: Cannot utilize method (" + methodName + ")! The INSTANCE has not been instantiated!");
         }
-        if (!thread.isAlive()) {
-            throw new RuntimeException("ChunkGenerator: Thread has crashed! Cannot utilize (" + methodName + ")!");
+        for (Thread thread : threads) {
+            if (!thread.isAlive()) {
+                throw new RuntimeException("ChunkGenerator: Thread (" + thread.getName() + ") has crashed! Cannot utilize (" + methodName + ")!");
+            }
         }
     }
 }
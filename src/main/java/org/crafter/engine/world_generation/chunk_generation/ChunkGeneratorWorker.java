@@ -0,0 +1,191 @@
+/*
+ Crafter - A blocky game (engine) written in Java with LWJGL.
+ Copyright (C) 2023  jordan4ibanez
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.crafter.engine.world_generation.chunk_generation;
+
+import org.crafter.engine.utility.FastNoise;
+import org.crafter.engine.world.biome.BiomeDefinition;
+import org.crafter.engine.world.biome.BiomeDefinitionContainer;
+import org.crafter.engine.world.block.BlockDefinitionContainer;
+import org.crafter.engine.world.chunk.Chunk;
+import org.crafter.engine.world.region.RegionStorage;
+import org.crafter.engine.world.region.WorldSaver;
+
+/**
+ * Performance debugging note: This is an object held inside of ChunkGenerator, one per generator thread.
+ * Everything in here is owned by exactly one thread, the noise & the definitions, so nothing is shared while generating.
+ * Every worker gets the same seed, so any worker generates any chunk block for block the same.
+ */
+public class ChunkGeneratorWorker {
+
+    // Bump this whenever processBiomesAndBlocks would output different blocks for the same seed & biomes!
+    private static final int GENERATOR_VERSION = 1;
+
+    private final FastNoise noise;
+
+    // Classic has a hardcoded biome for now, so the layers are looked up once
+    private final BiomeDefinition biomeDefinition;
+    private final int grass;
+    private final int dirt;
+    private final int stone;
+
+    private final long fingerprint;
+
+    /**
+     * @param blockDefinitionContainer A thread safe duplicate, owned by this worker.
+     * @param biomeDefinitionContainer A thread safe duplicate, owned by this worker.
+     */
+    public ChunkGeneratorWorker(final BlockDefinitionContainer blockDefinitionContainer, final BiomeDefinitionContainer biomeDefinitionContainer) {
+        noise = new FastNoise();
+        biomeDefinition = biomeDefinitionContainer.getBiome("classic");
+        grass = blockDefinitionContainer.getDefinition(biomeDefinition.getGrassLayer()).getID();
+        dirt = blockDefinitionContainer.getDefinition(biomeDefinition.getDirtLayer()).getID();
+        stone = blockDefinitionContainer.getDefinition(biomeDefinition.getStoneLayer()).getID();
+        fingerprint = computeFingerprint();
+    }
+
+    /**
+     * Generate without the definition containers, the layers are given as raw block IDs.
+     * Registering blocks needs the texture atlas, so this is how the generator runs headless (benchmarks & tests).
+     * @param biomeDefinition The biome to generate.
+     * @param grass Grass layer block ID.
+     * @param dirt Dirt layer block ID.
+     * @param stone Stone layer block ID.
+     */
+    public ChunkGeneratorWorker(final BiomeDefinition biomeDefinition, final int grass, final int dirt, final int stone) {
+        noise = new FastNoise();
+        this.biomeDefinition = biomeDefinition;
+        this.grass = grass;
+        this.dirt = dirt;
+        this.stone = stone;
+        fingerprint = computeFingerprint();
+    }
+
+    /**
+     * Load the chunk if it was saved, generate it if not.
+     * @param x Chunk X.
+     * @param z Chunk Z.
+     * @return The chunk, clean (nothing to save) unless generated chunks are being saved.
+     */
+    public Chunk generate(final int x, final int z) {
+        // Unloaded with changes still on the way to disk. The disk copy is stale, carry on from the queued snapshot.
+        // Its save is queued ahead of anything this chunk saves, so this chunk's journal appends onto it
+        final Chunk pending = WorldSaver.getPendingSave(x, z);
+        if (pending != null) {
+            final Chunk chunk = pending.snapshot();
+            chunk.markSaved(chunk.getVersion());
+            return chunk;
+        }
+
+        // Chunks that were saved skip generation entirely, decoding is far cheaper than the noise & block pass
+        Chunk chunk = RegionStorage.loadChunk(x, z);
+
+        if (chunk == null) {
+            //TODO: biome registration
+            //TODO: noise generation
+            chunk = processBiomesAndBlocks(new Chunk(x, z));
+            if (RegionStorage.getSaveGeneratedChunks()) {
+                // Persist it right away on this thread, so the main thread never touches the disk for new chunks
+                RegionStorage.saveChunk(chunk);
+            } else {
+                // Pristine, the fingerprint regenerates it exactly. Only an edit makes it dirty, then the WorldSaver writes it
+                chunk.markSaved(chunk.getVersion());
+            }
+        }
+        return chunk;
+    }
+
+    /**
+     * Everything that decides what a freshly generated chunk looks like, hashed into one value.
+     * If this matches what the world was created with, an untouched chunk regenerates block for block.
+     */
+    public long getFingerprint() {
+        return fingerprint;
+    }
+
+    /**
+     * Actual side effects happen here!
+     * This is where biomes & blocks are applied into the data container (Chunk)
+     */
+    private Chunk processBiomesAndBlocks(Chunk chunk) {
+
+        final int xOffset = chunk.getX() * Chunk.getWidth();
+        // Y is Z in 2d!
+        final int zOffset = chunk.getZ() * Chunk.getDepth();
+
+        // Base height is fixed in classic, maybe forever? No idea
+        final int baseHeight = BiomeDefinition.getBaseHeight();
+
+        final float scale = biomeDefinition.getScale();
+
+        noise.SetFrequency(biomeDefinition.getFrequency());
+//        noise.SetFractalOctaves(biomeDefinition.getOctaves());
+//        noise.SetFractalLacunarity(biomeDefinition.getLacunarity());
+
+        for (int x = 0; x < Chunk.getWidth(); x++) {
+            for (int z = 0; z < Chunk.getDepth(); z++) {
+
+                // +0.5f because the output is -0.5f to 0.5f
+                final float calculatedNoise = noise.GetSimplex(x + xOffset,z + zOffset) + 0.5f;
+
+                final int height = (int)(calculatedNoise * scale) + baseHeight;
+
+                for (int y = 0; y < Chunk.getHeight(); y++) {
+
+                    int id = 0; // Start off as air
+
+                    if (y < height - 6) {
+                        id = stone;
+                    }  else if (y < height - 1) {
+                        id = dirt;
+                    } else if (y < height) {
+                        id = grass;
+                    }
+                    int index = Chunk.positionToIndex(x,y,z);
+                    int blockData = chunk.getBlockData(index);
+
+                    blockData = Chunk.setBlockID(blockData, id);
+                    chunk.setBlockData(index, blockData);
+                }
+            }
+        }
+//        System.out.println("ChunkGenerator: Generated Chunk(" + chunk.getX() + ", " + chunk.getY() + ")");
+
+        return chunk;
+    }
+
+    // Only what processBiomesAndBlocks reads, the same in both constructors. Other registered biomes don't change the output
+    private long computeFingerprint() {
+        long hash = 0xCBF29CE484222325L;
+        hash = mixFingerprint(hash, GENERATOR_VERSION);
+        hash = mixFingerprint(hash, noise.GetSeed());
+        hash = mixFingerprint(hash, BiomeDefinition.getBaseHeight());
+        hash = mixFingerprint(hash, biomeDefinition.getName().hashCode());
+        hash = mixFingerprint(hash, Float.floatToIntBits(biomeDefinition.getScale()));
+        hash = mixFingerprint(hash, Float.floatToIntBits(biomeDefinition.getFrequency()));
+        // IDs, not names. Registering blocks in a different order changes the output
+        hash = mixFingerprint(hash, grass);
+        hash = mixFingerprint(hash, dirt);
+        hash = mixFingerprint(hash, stone);
+        return hash;
+    }
+
+    private static long mixFingerprint(final long hash, final int value) {
+        // FNV-1a, one int at a time
+        return (hash ^ value) * 0x100000001B3L;
+    }
+}
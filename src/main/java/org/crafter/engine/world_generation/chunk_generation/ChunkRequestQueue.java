@@ -0,0 +1,263 @@
+/*
+ Crafter - A blocky game (engine) written in Java with LWJGL.
+ Copyright (C) 2023  jordan4ibanez
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.crafter.engine.world_generation.chunk_generation;
+
+import org.crafter.engine.world.chunk.Chunk;
+import org.crafter.engine.world.chunk.ChunkMap;
+import org.joml.Vector3fc;
+
+import java.util.HashSet;
+import java.util.List;
+
+/**
+ * Pending chunk requests, handed out nearest first instead of first in first out.
+ * The main thread sets the focus (where the players are, which way they look) as often as it likes,
+ * every poll scores what is pending against the latest focus, so moving re-prioritizes everything right away.
+ * Chunks in front of a player win over chunks the same distance behind them.
+ * Requests farther than the drop radius from every player are thrown out before any work is done on them.
+ *
+ * Workers block in take() until there's something to do, add() wakes one up. close() wakes them all to shut down.
+ *
+ * Polling is a linear scan. There's at most a few thousand pending, and re-scoring all of them is part of every poll anyway
+ * since the focus can change between any two polls, so a heap would have to be rebuilt every time.
+ * Thread safe.
+ */
+public final class ChunkRequestQueue {
+
+    private static final int INITIAL_CAPACITY = 64;
+    // Distance multiplier for a chunk straight behind a player, straight ahead is 1
+    private static final float BEHIND_WEIGHT = 2.0f;
+    // Chunks this close (squared, in chunks) all count as "under the player", direction doesn't matter
+    private static final float NEAR_SQUARED = 2.0f;
+
+    public static final long NO_REQUEST = Long.MIN_VALUE;
+
+    private long[] requests = new long[INITIAL_CAPACITY];
+    private int size = 0;
+    private final HashSet<Long> queued = new HashSet<>();
+
+    // Focus, chunk centers. Direction is horizontal & normalized, or zero for no direction
+    private float[] focusX = new float[0];
+    private float[] focusZ = new float[0];
+    private float[] directionX = new float[0];
+    private float[] directionZ = new float[0];
+    // Chebyshev distance in chunks, negative never drops
+    private int dropRadius = -1;
+
+    // Thrown out by the last polls, waiting to be collected
+    private long[] dropped = new long[INITIAL_CAPACITY];
+    private int droppedCount = 0;
+
+    private boolean closed = false;
+
+    /**
+     * Add a request. Duplicates of a pending request are ignored.
+     * @param x Chunk X.
+     * @param z Chunk Z.
+     */
+    public synchronized void add(final int x, final int z) {
+        final long key = ChunkMap.packPosition(x, z);
+        if (!queued.add(key)) {
+            return;
+        }
+        if (size == requests.length) {
+            final long[] grown = new long[size * 2];
+            System.arraycopy(requests, 0, grown, 0, size);
+            requests = grown;
+        }
+        requests[size] = key;
+        size++;
+        // One new request, one worker
+        notify();
+    }
+
+    /**
+     * Set where the players are and which way they look.
+     * @param positions In world positions.
+     * @param directions In world view directions, same order as positions. Null, a null element or a zero vector for no direction.
+     * @param dropRadius Requests farther than this (in chunks, on either axis) from every position are dropped. Negative never drops.
+     */
+    public synchronized void setFocus(final List<? extends Vector3fc> positions, final List<? extends Vector3fc> directions, final int dropRadius) {
+        final int count = positions.size();
+        if (focusX.length != count) {
+            focusX = new float[count];
+            focusZ = new float[count];
+            directionX = new float[count];
+            directionZ = new float[count];
+        }
+        for (int i = 0; i < count; i++) {
+            // Center of the chunk they're in. The chunk under their feet always wins, wherever in it they stand
+            focusX[i] = (float) Math.floor(positions.get(i).x() / Chunk.getWidth()) + 0.5f;
+            focusZ[i] = (float) Math.floor(positions.get(i).z() / Chunk.getDepth()) + 0.5f;
+            directionX[i] = 0;
+            directionZ[i] = 0;
+            if (directions != null && directions.get(i) != null) {
+                final float x = directions.get(i).x();
+                final float z = directions.get(i).z();
+                final float length = (float) Math.sqrt(x * x + z * z);
+                if (length > 0) {
+                    directionX[i] = x / length;
+                    directionZ[i] = z / length;
+                }
+            }
+        }
+        this.dropRadius = dropRadius;
+    }
+
+    /**
+     * Take the most important request. Anything out of range found along the way is dropped.
+     * @return The packed chunk position (see ChunkMap.packPosition), or NO_REQUEST if nothing is pending.
+     */
+    public synchronized long poll() {
+        int best = -1;
+        float bestScore = Float.MAX_VALUE;
+        int i = 0;
+        while (i < size) {
+            final long key = requests[i];
+            if (outOfRange(key)) {
+                drop(i);
+                // Swapped in from the end, look at this slot again
+                continue;
+            }
+            final float score = score(key);
+            if (score < bestScore) {
+                bestScore = score;
+                best = i;
+            }
+            i++;
+        }
+        if (best == -1) {
+            return NO_REQUEST;
+        }
+        final long key = requests[best];
+        remove(best);
+        return key;
+    }
+
+    /**
+     * Like poll(), but waits for a request if there are none.
+     * @return The packed chunk position (see ChunkMap.packPosition), or NO_REQUEST once the queue is closed.
+     */
+    public synchronized long take() {
+        while (!closed) {
+            final long request = poll();
+            if (request != NO_REQUEST) {
+                return request;
+            }
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                throw new RuntimeException("ChunkRequestQueue: Interrupted while waiting for a request! " + e);
+            }
+        }
+        return NO_REQUEST;
+    }
+
+    /**
+     * Wake up everything waiting in take() and make it return NO_REQUEST, now and forever. Whatever is pending is left alone.
+     */
+    public synchronized void close() {
+        closed = true;
+        notifyAll();
+    }
+
+    /**
+     * @return How many requests are pending. Some of them may be dropped on the next poll.
+     */
+    public synchronized int size() {
+        return size;
+    }
+
+    public synchronized boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Take every request dropped since the last call.
+     * @return Packed chunk positions, may be empty.
+     */
+    public synchronized long[] takeDropped() {
+        final long[] taken = new long[droppedCount];
+        System.arraycopy(dropped, 0, taken, 0, droppedCount);
+        droppedCount = 0;
+        return taken;
+    }
+
+    private boolean outOfRange(final long key) {
+        if (dropRadius < 0 || focusX.length == 0) {
+            return false;
+        }
+        final int x = ChunkMap.unpackX(key);
+        final int z = ChunkMap.unpackZ(key);
+        for (int i = 0; i < focusX.length; i++) {
+            final int chunkX = (int) Math.floor(focusX[i]);
+            final int chunkZ = (int) Math.floor(focusZ[i]);
+            if (Math.abs(x - chunkX) <= dropRadius && Math.abs(z - chunkZ) <= dropRadius) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Squared distance to the nearest player, stretched for chunks behind them. Lower goes first.
+     */
+    private float score(final long key) {
+        if (focusX.length == 0) {
+            // No players yet, they spawn in chunk (0, 0)
+            final float x = ChunkMap.unpackX(key);
+            final float z = ChunkMap.unpackZ(key);
+            return x * x + z * z;
+        }
+        // Center of the chunk
+        final float x = ChunkMap.unpackX(key) + 0.5f;
+        final float z = ChunkMap.unpackZ(key) + 0.5f;
+        float best = Float.MAX_VALUE;
+        for (int i = 0; i < focusX.length; i++) {
+            final float distanceX = x - focusX[i];
+            final float distanceZ = z - focusZ[i];
+            float score = distanceX * distanceX + distanceZ * distanceZ;
+            if (score > NEAR_SQUARED && (directionX[i] != 0 || directionZ[i] != 0)) {
+                // 1 straight ahead, 0 to the side, -1 straight behind
+                final float facing = (distanceX * directionX[i] + distanceZ * directionZ[i]) / (float) Math.sqrt(score);
+                final float weight = 1.0f + (BEHIND_WEIGHT - 1.0f) * (1.0f - facing) * 0.5f;
+                score *= weight * weight;
+            }
+            best = Math.min(best, score);
+        }
+        return best;
+    }
+
+    private void drop(final int i) {
+        if (droppedCount == dropped.length) {
+            final long[] grown = new long[droppedCount * 2];
+            System.arraycopy(dropped, 0, grown, 0, droppedCount);
+            dropped = grown;
+        }
+        dropped[droppedCount] = requests[i];
+        droppedCount++;
+        remove(i);
+    }
+
+    private void remove(final int i) {
+        queued.remove(requests[i]);
+        // Order doesn't matter, swap the last one in
+        size--;
+        requests[i] = requests[size];
+    }
+}
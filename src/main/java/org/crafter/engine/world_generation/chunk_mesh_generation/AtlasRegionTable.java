@@ -0,0 +1,122 @@
+/*
+ Crafter - A blocky game (engine) written in Java with LWJGL.
+ Copyright (C) 2023  jordan4ibanez
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.crafter.engine.world_generation.chunk_mesh_generation;
+
+import org.crafter.engine.utility.FloatArrayBuilder;
+import org.crafter.engine.world.block.BlockDefinition;
+import org.crafter.engine.world.block.BlockDefinitionContainer;
+import org.crafter.engine.world.block.DrawType;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Numbers every block face texture's spot in the world atlas, so packed chunk vertices can carry an index instead of UVs.
+ * Built the same way from any copy of the block definitions, so every mesh worker & the main thread (which
+ * uploads the regions to the chunk shader) agree on the numbers.
+ */
+public class AtlasRegionTable {
+
+    // Indexed by GreedyMesher face
+    private static final String[] faceNames = new String[]{"front", "back", "left", "right", "bottom", "top"};
+
+    // [ID * 6 + face], -1 for no texture
+    private final int[] indices;
+    // x, y, width, height per region
+    private final float[] regions;
+
+    public AtlasRegionTable(final BlockDefinitionContainer definitionContainer) {
+        final BlockDefinition[] definitions = Arrays.stream(definitionContainer.getAllBlockNames())
+                .map(definitionContainer::getDefinition)
+                .sorted(Comparator.comparingInt(BlockDefinition::getID))
+                .toArray(BlockDefinition[]::new);
+
+        final int highestID = definitions.length == 0 ? 0 : definitions[definitions.length - 1].getID();
+        indices = new int[(highestID + 1) * faceNames.length];
+        Arrays.fill(indices, -1);
+
+        final FloatArrayBuilder builder = new FloatArrayBuilder(64);
+        for (BlockDefinition definition : definitions) {
+            if (definition.getDrawType().equals(DrawType.AIR)) {
+                continue;
+            }
+            for (int face = 0; face < faceNames.length; face++) {
+                if (!definition.containsTextureCoordinate(faceNames[face])) {
+                    continue;
+                }
+                indices[definition.getID() * faceNames.length + face] = addRegion(builder, definition.getTextureCoordinate(faceNames[face]));
+            }
+        }
+        regions = builder.toArray();
+    }
+
+    /**
+     * @param ID Block ID.
+     * @param face GreedyMesher.FRONT to GreedyMesher.TOP.
+     * @return The region index of that face's texture.
+     */
+    public int getIndex(final int ID, final int face) {
+        final int index = ID * faceNames.length + face;
+        if (index < 0 || index >= indices.length || indices[index] == -1) {
+            throw new RuntimeException("AtlasRegionTable: Block (" + ID + ") has no texture on face (" + face + ")!");
+        }
+        return indices[index];
+    }
+
+    /**
+     * @return x, y, width, height of every region in index order. This is the atlasRegions uniform.
+     */
+    public float[] getRegions() {
+        return regions;
+    }
+
+    public int getRegionCount() {
+        return regions.length / 4;
+    }
+
+    /**
+     * Find the region a face's texture coordinates sit in, or add it.
+     * @return The region index.
+     */
+    private static int addRegion(final FloatArrayBuilder builder, final float[] textureCoordinates) {
+        float minU = Float.MAX_VALUE;
+        float minV = Float.MAX_VALUE;
+        float maxU = -Float.MAX_VALUE;
+        float maxV = -Float.MAX_VALUE;
+        for (int i = 0; i < textureCoordinates.length; i += 2) {
+            minU = Math.min(minU, textureCoordinates[i]);
+            maxU = Math.max(maxU, textureCoordinates[i]);
+            minV = Math.min(minV, textureCoordinates[i + 1]);
+            maxV = Math.max(maxV, textureCoordinates[i + 1]);
+        }
+        // Blocks share textures all the time (dirt is under grass), those share a region
+        for (int i = 0; i < builder.size(); i += 4) {
+            if (builder.get(i) == minU && builder.get(i + 1) == minV && builder.get(i + 2) == maxU - minU && builder.get(i + 3) == maxV - minV) {
+                return i / 4;
+            }
+        }
+        if (builder.size() / 4 >= PackedChunkVertex.MAX_ATLAS_REGIONS) {
+            throw new RuntimeException("AtlasRegionTable: More than (" + PackedChunkVertex.MAX_ATLAS_REGIONS + ") block textures! Raise MAX_ATLAS_REGIONS & the shader array with it");
+        }
+        builder.add(minU);
+        builder.add(minV);
+        builder.add(maxU - minU);
+        builder.add(maxV - minV);
+        return builder.size() / 4 - 1;
+    }
+}
@@ -17,10 +17,11 @@
  */
 package org.crafter.engine.world_generation.chunk_mesh_generation;
 
+import org.crafter.engine.utility.FloatArrayBuilder;
+import org.crafter.engine.utility.IntArrayBuilder;
 import org.crafter.engine.world.block.BlockDefinition;
 import org.crafter.engine.world.block.BlockDefinitionContainer;
 
-import java.util.ArrayList;
 import java.util.HashMap;
 
 /**
@@ -31,7 +32,8 @@ public class ChunkFaceGenerator {
 
     private final BlockDefinitionContainer definitionContainer;
     private final HashMap<String, float[]> faces;
-    private final int[] indicesOrder = new int[]{0,1,2,2,3,0};
+    // Indexed by GreedyMesher face
+    private final String[] faceNames = new String[]{"front", "back", "left", "right", "bottom", "top"};
 
     // light level 15
     private final float[] classicBrightTop = new float[]{1.0f, 1.0f, 1.0f, 1.0f};
@@ -43,6 +45,18 @@ public class ChunkFaceGenerator {
     // light level 6 or something
     private final float[] classicDarkSide = new float[]{0.75f, 0.75f, 0.75f, 1.0f};
 
+    // Packed vertices only
+    private final AtlasRegionTable atlasRegionTable;
+    // Tile coordinates (u, v) of the 4 corners of the last rectangle, see tileCoordinates()
+    private final int[] cornerTiles = new int[8];
+    // x, y, z of the corner being packed
+    private final int[] cornerPosition = new int[3];
+    // Atlas region of the last rectangle, see tileCoordinates()
+    private float regionMinU = 0;
+    private float regionMinV = 0;
+    private float regionMaxU = 0;
+    private float regionMaxV = 0;
+
     public ChunkFaceGenerator(BlockDefinitionContainer definitionContainer) {
 
 //        final boolean rewriteThis = true;
@@ -52,6 +66,7 @@ public class ChunkFaceGenerator {
 //        }
 
         this.definitionContainer = definitionContainer;
+        this.atlasRegionTable = new AtlasRegionTable(definitionContainer);
 
         faces = new HashMap<>();
 
@@ -154,24 +169,22 @@ public class ChunkFaceGenerator {
             final int x,
             final int y,
             final int z,
-            final ArrayList<Float> positions,
-            final ArrayList<Float> textureCoordinates,
-            final ArrayList<Integer> indices,
-            final ArrayList<Float> colors
+            final FloatArrayBuilder positions,
+            final FloatArrayBuilder textureCoordinates,
+            final FloatArrayBuilder colors
     ) {
-        dispatch("back", ID, x, y, z, positions, textureCoordinates, indices, colors);
+        dispatch("back", ID, x, y, z, positions, textureCoordinates, colors);
     }
     public void attachFront(
             final int ID,
             final int x,
             final int y,
             final int z,
-            final ArrayList<Float> positions,
-            final ArrayList<Float> textureCoordinates,
-            final ArrayList<Integer> indices,
-            final ArrayList<Float> colors
+            final FloatArrayBuilder positions,
+            final FloatArrayBuilder textureCoordinates,
+            final FloatArrayBuilder colors
     ) {
-        dispatch("front", ID, x, y, z, positions, textureCoordinates, indices, colors);
+        dispatch("front", ID, x, y, z, positions, textureCoordinates, colors);
     }
 
     public void attachLeft(
@@ -179,24 +192,22 @@ public class ChunkFaceGenerator {
             final int x,
             final int y,
             final int z,
-            final ArrayList<Float> positions,
-            final ArrayList<Float> textureCoordinates,
-            final ArrayList<Integer> indices,
-            final ArrayList<Float> colors
+            final FloatArrayBuilder positions,
+            final FloatArrayBuilder textureCoordinates,
+            final FloatArrayBuilder colors
     ) {
-        dispatch("left", ID, x, y, z, positions, textureCoordinates, indices, colors);
+        dispatch("left", ID, x, y, z, positions, textureCoordinates, colors);
     }
     public void attachRight(
             final int ID,
             final int x,
             final int y,
             final int z,
-            final ArrayList<Float> positions,
-            final ArrayList<Float> textureCoordinates,
-            final ArrayList<Integer> indices,
-            final ArrayList<Float> colors
+            final FloatArrayBuilder positions,
+            final FloatArrayBuilder textureCoordinates,
+            final FloatArrayBuilder colors
     ) {
-        dispatch("right", ID, x, y, z, positions, textureCoordinates, indices, colors);
+        dispatch("right", ID, x, y, z, positions, textureCoordinates, colors);
     }
 
     public void attachBottom(
@@ -204,24 +215,22 @@ public class ChunkFaceGenerator {
             final int x,
             final int y,
             final int z,
-            final ArrayList<Float> positions,
-            final ArrayList<Float> textureCoordinates,
-            final ArrayList<Integer> indices,
-            final ArrayList<Float> colors
+            final FloatArrayBuilder positions,
+            final FloatArrayBuilder textureCoordinates,
+            final FloatArrayBuilder colors
     ) {
-        dispatch("bottom", ID, x, y, z, positions, textureCoordinates, indices, colors);
+        dispatch("bottom", ID, x, y, z, positions, textureCoordinates, colors);
     }
     public void attachTop(
             final int ID,
             final int x,
             final int y,
             final int z,
-            final ArrayList<Float> positions,
-            final ArrayList<Float> textureCoordinates,
-            final ArrayList<Integer> indices,
-            final ArrayList<Float> colors
+            final FloatArrayBuilder positions,
+            final FloatArrayBuilder textureCoordinates,
+            final FloatArrayBuilder colors
     ) {
-        dispatch("top", ID, x, y, z, positions, textureCoordinates, indices, colors);
+        dispatch("top", ID, x, y, z, positions, textureCoordinates, colors);
     }
 
     private void dispatch(
@@ -230,10 +239,9 @@ public class ChunkFaceGenerator {
             final int x,
             final int y,
             final int z,
-            final ArrayList<Float> positions,
-            final ArrayList<Float> textureCoordinates,
-            final ArrayList<Integer> indices,
-            final ArrayList<Float> colors
+            final FloatArrayBuilder positions,
+            final FloatArrayBuilder textureCoordinates,
+            final FloatArrayBuilder colors
     ) {
         // Texture coordinates
         BlockDefinition thisBlockDef = definitionContainer.getDefinition(ID);
@@ -245,15 +253,10 @@ public class ChunkFaceGenerator {
         }
         // Vertex positions
         final float[] hardCodedPos = faces.get(face);
-        for (int i = 0; i < hardCodedPos.length; i++) {
-            final int xyz = i % 3;
-            final float floatingPos = hardCodedPos[i];
-            switch (xyz) {
-                case 0 -> positions.add(floatingPos + x);
-                case 1 -> positions.add(floatingPos + y);
-                case 2 -> positions.add(floatingPos + z);
-                default -> throw new RuntimeException("ChunkFaceGenerator: Got error in modulo calculation! Expected: (0-2) | Got: " + xyz + "!");
-            }
+        for (int i = 0; i < hardCodedPos.length; i += 3) {
+            positions.add(hardCodedPos[i] + x);
+            positions.add(hardCodedPos[i + 1] + y);
+            positions.add(hardCodedPos[i + 2] + z);
         }
         switch(face) {
             case "back","front" -> classicDispatchColors(colors, classicBrightSideZ);
@@ -267,24 +270,178 @@ public class ChunkFaceGenerator {
         for (float defTextureCoordinate : defTextureCoordinates) {
             textureCoordinates.add(defTextureCoordinate);
         }
-        // Indices
-        seedIndices(indices);
     }
 
+    /**
+     * Attach a merged rectangle from the GreedyMesher.
+     * Texture coordinates count tiles (0 to width, 0 to height) and every vertex carries its block's atlas region,
+     * the shader wraps the coordinates back into the region so the texture repeats once per block.
+     * @param face GreedyMesher.FRONT to GreedyMesher.TOP.
+     * @param ID Block ID.
+     * @param x Lowest X of the rectangle.
+     * @param y Lowest Y of the rectangle.
+     * @param z Lowest Z of the rectangle.
+     * @param width In blocks, along the first axis of the face (see GreedyMesher).
+     * @param height In blocks, along the second axis of the face.
+     * @param atlasRegions Mutable reference builder of atlas regions (x, y, width, height).
+     */
+    public void attachRectangle(
+            final int face,
+            final int ID,
+            final int x,
+            final int y,
+            final int z,
+            final int width,
+            final int height,
+            final FloatArrayBuilder positions,
+            final FloatArrayBuilder textureCoordinates,
+            final FloatArrayBuilder colors,
+            final FloatArrayBuilder atlasRegions
+    ) {
+        final String faceName = faceNames[face];
+        final BlockDefinition thisBlockDef = definitionContainer.getDefinition(ID);
 
-    private void classicDispatchColors(final ArrayList<Float> colors, final float[] classicColorLevel) {
-        for (int i = 0; i < 4; i++) {
-            for (float colorValue : classicColorLevel) {
-                colors.add(colorValue);
+        // It's a blank face, ignore it - Note: This SHOULD NOT be reached, EVER!
+        if (!thisBlockDef.containsTextureCoordinate(faceName)) {
+            throwSevereWarning(faceName);
+            return;
+        }
+
+        // Which axes (0 x, 1 y, 2 z) the rectangle spans
+        final int axisA = face == GreedyMesher.LEFT || face == GreedyMesher.RIGHT ? 2 : 0;
+        final int axisB = face == GreedyMesher.BOTTOM || face == GreedyMesher.TOP ? 2 : 1;
+        final float[] hardCodedPos = faces.get(faceName);
+
+        // Vertex positions, the far corners are stretched out. Over-provisioning stays as is
+        for (int i = 0; i < hardCodedPos.length; i += 3) {
+            for (int axis = 0; axis < 3; axis++) {
+                float position = hardCodedPos[i + axis];
+                if (axis == axisA && position > 0.5f) {
+                    position += width - 1;
+                } else if (axis == axisB && position > 0.5f) {
+                    position += height - 1;
+                }
+                positions.add(position + (axis == 0 ? x : axis == 1 ? y : z));
             }
         }
+
+        switch (face) {
+            case GreedyMesher.FRONT, GreedyMesher.BACK -> classicDispatchColors(colors, classicBrightSideZ);
+            case GreedyMesher.LEFT, GreedyMesher.RIGHT -> classicDispatchColors(colors, classicBrightSideX);
+            case GreedyMesher.BOTTOM -> classicDispatchColors(colors, classicDarkTop);
+            default -> classicDispatchColors(colors, classicBrightTop);
+        }
+
+        tileCoordinates(thisBlockDef.getTextureCoordinate(faceName), hardCodedPos, axisA, width, height);
+        for (int i = 0; i < cornerTiles.length; i += 2) {
+            textureCoordinates.add(cornerTiles[i]);
+            textureCoordinates.add(cornerTiles[i + 1]);
+            atlasRegions.add(regionMinU);
+            atlasRegions.add(regionMinV);
+            atlasRegions.add(regionMaxU - regionMinU);
+            atlasRegions.add(regionMaxV - regionMinV);
+        }
     }
 
+    /**
+     * Attach a rectangle as packed vertices (see PackedChunkVertex). Same corners & texture layout as attachRectangle(),
+     * a single block face is a 1x1 rectangle.
+     * @param face GreedyMesher.FRONT to GreedyMesher.TOP.
+     * @param ID Block ID.
+     * @param x Lowest X of the rectangle.
+     * @param y Lowest Y of the rectangle.
+     * @param z Lowest Z of the rectangle.
+     * @param width In blocks, along the first axis of the face (see GreedyMesher).
+     * @param height In blocks, along the second axis of the face.
+     * @param vertices Mutable reference builder of packed vertices, PackedChunkVertex.SIZE ints each.
+     */
+    public void attachPackedRectangle(
+            final int face,
+            final int ID,
+            final int x,
+            final int y,
+            final int z,
+            final int width,
+            final int height,
+            final IntArrayBuilder vertices
+    ) {
+        final String faceName = faceNames[face];
+        final BlockDefinition thisBlockDef = definitionContainer.getDefinition(ID);
+
+        // It's a blank face, ignore it - Note: This SHOULD NOT be reached, EVER!
+        if (!thisBlockDef.containsTextureCoordinate(faceName)) {
+            throwSevereWarning(faceName);
+            return;
+        }
 
-    private void seedIndices(final ArrayList<Integer> indices) {
-        final int length = (indices.size() / 6) * 4;
-        for (int i : indicesOrder) {
-            indices.add(i + length);
+        final int axisA = face == GreedyMesher.LEFT || face == GreedyMesher.RIGHT ? 2 : 0;
+        final int axisB = face == GreedyMesher.BOTTOM || face == GreedyMesher.TOP ? 2 : 1;
+        final float[] hardCodedPos = faces.get(faceName);
+
+        final int shade = switch (face) {
+            case GreedyMesher.FRONT, GreedyMesher.BACK -> PackedChunkVertex.SHADE_BRIGHT_SIDE_Z;
+            case GreedyMesher.LEFT, GreedyMesher.RIGHT -> PackedChunkVertex.SHADE_BRIGHT_SIDE_X;
+            case GreedyMesher.BOTTOM -> PackedChunkVertex.SHADE_DARK_TOP;
+            default -> PackedChunkVertex.SHADE_BRIGHT_TOP;
+        };
+        final int region = atlasRegionTable.getIndex(ID, face);
+
+        tileCoordinates(thisBlockDef.getTextureCoordinate(faceName), hardCodedPos, axisA, width, height);
+
+        for (int corner = 0; corner < 4; corner++) {
+            // Whole block corners, the shader puts the over-provisioning back on the high bits
+            int high = 0;
+            cornerPosition[0] = x;
+            cornerPosition[1] = y;
+            cornerPosition[2] = z;
+            for (int axis = 0; axis < 3; axis++) {
+                if (hardCodedPos[corner * 3 + axis] > 0.5f) {
+                    high |= 1 << axis;
+                    cornerPosition[axis] += axis == axisA ? width : axis == axisB ? height : 1;
+                }
+            }
+            vertices.add(PackedChunkVertex.packPosition(cornerPosition[0], cornerPosition[1], cornerPosition[2], face, shade, high));
+            vertices.add(PackedChunkVertex.packTexture(cornerTiles[corner * 2], cornerTiles[corner * 2 + 1], region));
+        }
+    }
+
+    /**
+     * Work out the tile coordinates of a rectangle's corners into cornerTiles, and its atlas region into regionMin/Max.
+     * Tile coordinates count tiles (0 to width, 0 to height), the shader wraps them back into the region.
+     */
+    private void tileCoordinates(final float[] defTextureCoordinates, final float[] hardCodedPos, final int axisA, final int width, final int height) {
+        regionMinU = Float.MAX_VALUE;
+        regionMinV = Float.MAX_VALUE;
+        regionMaxU = -Float.MAX_VALUE;
+        regionMaxV = -Float.MAX_VALUE;
+        for (int i = 0; i < defTextureCoordinates.length; i += 2) {
+            regionMinU = Math.min(regionMinU, defTextureCoordinates[i]);
+            regionMaxU = Math.max(regionMaxU, defTextureCoordinates[i]);
+            regionMinV = Math.min(regionMinV, defTextureCoordinates[i + 1]);
+            regionMaxV = Math.max(regionMaxV, defTextureCoordinates[i + 1]);
+        }
+        final float middleU = (regionMinU + regionMaxU) * 0.5f;
+        final float middleV = (regionMinV + regionMaxV) * 0.5f;
+
+        // The texture can be turned on the face. If U goes along with the first axis it repeats width times, otherwise height times
+        final boolean uFollowsA = (defTextureCoordinates[0] > middleU) == (hardCodedPos[axisA] > 0.5f)
+                && (defTextureCoordinates[2] > middleU) == (hardCodedPos[3 + axisA] > 0.5f)
+                || (defTextureCoordinates[0] > middleU) != (hardCodedPos[axisA] > 0.5f)
+                && (defTextureCoordinates[2] > middleU) != (hardCodedPos[3 + axisA] > 0.5f);
+        final int repeatU = uFollowsA ? width : height;
+        final int repeatV = uFollowsA ? height : width;
+
+        for (int i = 0; i < defTextureCoordinates.length; i += 2) {
+            cornerTiles[i] = defTextureCoordinates[i] > middleU ? repeatU : 0;
+            cornerTiles[i + 1] = defTextureCoordinates[i + 1] > middleV ? repeatV : 0;
+        }
+    }
+
+    private void classicDispatchColors(final FloatArrayBuilder colors, final float[] classicColorLevel) {
+        for (int i = 0; i < 4; i++) {
+            for (float colorValue : classicColorLevel) {
+                colors.add(colorValue);
+            }
         }
     }
 
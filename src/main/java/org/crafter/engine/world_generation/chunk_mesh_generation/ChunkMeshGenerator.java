@@ -17,163 +17,102 @@
  */
 package org.crafter.engine.world_generation.chunk_mesh_generation;
 
-import org.crafter.engine.delta.DeltaObject;
+import org.crafter.engine.utility.LatencyHistogram;
 import org.crafter.engine.world.block.BlockDefinitionContainer;
-import org.crafter.engine.world.chunk.Chunk;
-import org.crafter.engine.world.chunk.ChunkStorage;
-import org.joml.Vector2i;
 import org.joml.Vector3i;
-import org.joml.Vector3ic;
 
-import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.UUID;
+import java.util.HashMap;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.LinkedBlockingQueue;
-import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
- * Performance debugging note: This is the actual thread of the chunk mesh generator
+ * Performance debugging note: This is the pool of threads of the chunk mesh generator.
+ * Every thread has its own ChunkMeshWorker, they all take stack requests from the same StackRequestQueue.
+ * A stack that is pushed again while it's still queued is merged into the queued request, it's only meshed once.
+ * Every request gets a number. If a stack is requested again while an older request for it is being meshed,
+ * the older mesh is stale when it comes out and the main thread throws it away (see isLatest()).
+ * Workers block on the queue until there's a request, stop() closes it to wake them up.
  */
-public class ChunkMeshGenerator implements Runnable {
+public class ChunkMeshGenerator {
     // Class local
     private static ChunkMeshGenerator instance;
-    private static Thread thread;
+    private static Thread[] threads;
+    // Read by the workers for every stack, so switching it only changes stacks meshed after
+    private static volatile boolean greedyMeshing = true;
+    // Also read for every stack. Packed meshes need the 3d_chunk shader, so pick this before anything is meshed
+    private static volatile boolean packedVertices = true;
 
     // Instance local
-    private final DeltaObject delta;
-
-    // This and meshWorker share the instance of this BlockDefinitionContainer!
-    private final BlockDefinitionContainer blockDefinitionContainer;
-
-    private final BlockingQueue<Vector3ic> meshRequestQueue;
+    private final StackRequestQueue meshRequestQueue;
     private final BlockingQueue<ChunkMeshRecord> meshOutputQueue;
-    private final AtomicBoolean shouldRun;
-    private final ChunkMeshWorker meshWorker;
-    private final ArrayList<Float> positionsBuilder = new ArrayList<>();
-    private final ArrayList<Float> textureCoordinatesBuilder = new ArrayList<>();
-    private final ArrayList<Integer> indicesBuilder = new ArrayList<>();
-    private final ArrayList<Float> colorsBuilder = new ArrayList<>();
 
+    // Packed stack position -> number of the newest request for it. Entries leave when that request's mesh is applied
+    private final ConcurrentHashMap<Long, Long> latestRequests;
+    // Main thread only, requests are numbered when they're pushed
+    private long nextRequestNumber = 1;
 
-    //Todo: Remove this portion
-    private long beginTime = System.nanoTime();
-    private void startTimer() {
-        beginTime = System.nanoTime();
-    }
-    private void endTimer() {
-        final long endTime = System.nanoTime();
-//        final long durationInMilliseconds = (endTime - beginTime) / 1_000_000;
-//        System.out.println("ChunkMeshGenerator: timer recorded " + durationInMilliseconds + " milliseconds.");
-        final long durationInNanoseconds = (endTime - beginTime);
-        System.out.println("ChunkMeshGenerator: timer recorded " + durationInNanoseconds + " nanoseconds.");
-    }
-    //Todo: End removal portion
+    // Queued or being meshed, not in the output yet
+    private final AtomicInteger pending;
+    private final AtomicLong stacksMeshed;
+
+    // Main thread only. Packed stack position -> when a single block edit first asked for it to be remeshed
+    private final HashMap<Long, Long> editTimes;
+    private final LatencyHistogram editLatency;
 
     private ChunkMeshGenerator() {
-        delta = new DeltaObject();
-        blockDefinitionContainer = BlockDefinitionContainer.getThreadSafeDuplicate();
-        meshRequestQueue = new LinkedBlockingQueue<>();
+        meshRequestQueue = new StackRequestQueue();
         meshOutputQueue = new LinkedBlockingQueue<>();
-        shouldRun = new AtomicBoolean(true);
-        // This and the meshWorker share the BlockDefinitionContainer
-        meshWorker = new ChunkMeshWorker(blockDefinitionContainer);
-    }
-
-    @Override
-    public void run() {
-        System.out.println("ChunkMeshGenerator: Started!");
-        System.out.println("ChunkMeshGenerator: gotten blocks (" + Arrays.toString(blockDefinitionContainer.getAllBlockNames()) + ")!");
-        while (shouldRun.get()) {
-            sleepCheck();
-            processInputQueue();
-        }
-
-        System.out.println("ChunkMeshGenerator: Stopped!");
+        latestRequests = new ConcurrentHashMap<>();
+        pending = new AtomicInteger();
+        stacksMeshed = new AtomicLong();
+        editTimes = new HashMap<>();
+        editLatency = new LatencyHistogram();
     }
 
-    private void processInputQueue() {
-        if (!meshRequestQueue.isEmpty()) {
+    private void run(final ChunkMeshWorker meshWorker) {
+        System.out.println("ChunkMeshGenerator: Worker (" + Thread.currentThread().getName() + ") Started!");
+        while (true) {
+            final long key = meshRequestQueue.take();
+            if (key == StackRequestQueue.NO_REQUEST) {
+                break;
+            }
+            createMesh(meshWorker, key);
+            // After the output, so the generator never looks idle while this is meshing
+            pending.decrementAndGet();
+        }
 
-            // There is a performance bottleneck in this method :(
-            createMesh(meshRequestQueue.remove());
+        System.out.println("ChunkMeshGenerator: Worker (" + Thread.currentThread().getName() + ") Stopped!");
+    }
 
-            // 33-ish milliseconds is very bad :(
+    private void createMesh(final ChunkMeshWorker meshWorker, final long key) {
 
+        // Read before snapshotting. If it's pushed again after this, the new request snapshots newer data
+        final Long requestNumber = latestRequests.get(key);
+        if (requestNumber == null) {
+            return;
         }
-    }
-    private void createMesh(Vector3ic position) {
 
-        ChunkMeshRecord chunk = blockProcessingProcedure(position);
+        ChunkMeshRecord chunk = meshWorker.createMesh(new Vector3i(unpackStackX(key), unpackStack(key), unpackStackZ(key)), requestNumber);
 
-        // If preemptive check in blockProcessingProcedure fails, just bail out.
+        // If preemptive check in createMesh fails, just bail out.
         // This can occur:
         // 1.) If the main thread shuts down while this thread is till processing.
         // 2.) If the queue somehow gets uber backed up and chunk unloads.
         if (chunk == null) {
             // I just made this dramatic because I wanted to :P
 //            System.out.println("ChunkMeshGenerator: THAT CHUNK DOESN'T EXIST! (" + position.x() + ", " + position.y() +")! ABANDON SHIP!");
+            latestRequests.remove(key, requestNumber);
             return;
         }
 
+        stacksMeshed.incrementAndGet();
         meshOutputQueue.add(chunk);
     }
 
-    /**
-     * Actual side effects happen here!
-     * This is where biomes & blocks are applied into the data container (Chunk)
-     */
-    private ChunkMeshRecord blockProcessingProcedure(Vector3ic position) {
-
-        final String uuid = UUID.randomUUID().toString();
-
-        // Preemptive check
-        if (!ChunkStorage.hasChunk(new Vector2i(position.x(), position.z()))) {
-            return null;
-        }
-
-        final Chunk threadSafeClone = ChunkStorage.getThreadSafeChunkClone(new Vector2i(position.x(), position.z()));
-
-        // Mutably pass the references to the arraylists into the ChunkMeshWorker so this doesn't become thousands of lines long.
-        meshWorker.process(position.y(), threadSafeClone, positionsBuilder, textureCoordinatesBuilder, indicesBuilder, colorsBuilder);
-
-        // NOTE: This is a new piece of memory, it must be a new array
-        final float[] positions = new float[positionsBuilder.size()];
-        for (int i = 0; i < positions.length; i++) {
-            positions[i] = positionsBuilder.get(i);
-        }
-        final float[] textureCoordinates = new float[textureCoordinatesBuilder.size()];
-        for (int i = 0; i < textureCoordinates.length; i++) {
-            textureCoordinates[i] = textureCoordinatesBuilder.get(i);
-        }
-        final int[] indices = new int[indicesBuilder.size()];
-        for (int i = 0; i < indices.length; i++) {
-            indices[i] = indicesBuilder.get(i);
-        }
-        final float[] colors = new float[colorsBuilder.size()];
-        for (int i = 0; i < colors.length; i++) {
-            colors[i] = colorsBuilder.get(i);
-        }
-
-        positionsBuilder.clear();
-        textureCoordinatesBuilder.clear();
-        indicesBuilder.clear();
-        colorsBuilder.clear();
-
-//        System.out.println("ChunkMeshGenerator: Generated Chunk(" + outputMesh.destinationChunkPosition().x() + ", " + outputMesh.destinationChunkPosition().y() + ")");
-
-        return new ChunkMeshRecord(
-                uuid,
-                position.y(),
-                // Separates the pointer internally
-                new Vector2i(position.x(), position.z()),
-                positions,
-                textureCoordinates,
-                indices,
-                colors
-        );
-    }
-
     public boolean checkUpdate() {
         return !meshOutputQueue.isEmpty();
     }
@@ -181,51 +120,107 @@ public class ChunkMeshGenerator implements Runnable {
         return meshOutputQueue.remove();
     }
 
-    private void sleepCheck() {
-        if (meshRequestQueue.size() == 0) {
-            try {
-//                System.out.println("ChunkMeshGenerator: Sleeping");
-                Thread.sleep(200);
-            } catch (Exception e) {
-                throw new RuntimeException("ChunkMeshGenerator: Thread failed to sleep! " + e);
-            }
+    private void addRequest(final long key, final boolean isUrgent) {
+        // Anything for this stack already being meshed is stale from here on.
+        // Numbered before it's queued, a worker can take it right away. If it merges, the queued one picks this number up
+        latestRequests.put(key, nextRequestNumber);
+        nextRequestNumber++;
+        // Counted before it's queued too, so it can't be finished before it's counted
+        pending.incrementAndGet();
+        if (!meshRequestQueue.add(key, isUrgent)) {
+            pending.decrementAndGet();
         }
     }
 
-    private void addRequest(Vector3ic position) {
-        //Fixme: test if traversing the list causes severe performance penalty
-        if (meshRequestQueue.contains(position)) {
+    private void markEdited(final int x, final int stack, final int z) {
+        // The first edit counts, a later one before the mesh lands waits less than it
+        editTimes.putIfAbsent(packStack(x, stack, z), System.nanoTime());
+    }
+
+    private void checkLanded(final ChunkMeshRecord mesh) {
+        if (editTimes.isEmpty()) {
             return;
         }
-        this.meshRequestQueue.add(position);
+        final Long editTime = editTimes.remove(packStack(mesh.destinationChunkPosition().x(), mesh.stack(), mesh.destinationChunkPosition().y()));
+        if (editTime != null) {
+            editLatency.record(System.nanoTime() - editTime);
+        }
+    }
+
+    private boolean checkLatest(final ChunkMeshRecord mesh) {
+        final long key = packStack(mesh.destinationChunkPosition().x(), mesh.stack(), mesh.destinationChunkPosition().y());
+        return latestRequests.remove(key, mesh.requestNumber());
+    }
+
+    private boolean checkIdle() {
+        return pending.get() == 0 && meshOutputQueue.isEmpty();
     }
 
     private void stopThread() {
-        shouldRun.set(false);
+        meshRequestQueue.close();
     }
 
     /**
      * This function is helpful in case something ever gets completely mangled.
      */
     private void debugQueueSizes() {
-        System.out.println("ChunkMeshGenerator: (INPUT: " + meshRequestQueue.size() + ") | (OUTPUT: " + meshOutputQueue.size() + ")");
+        System.out.println("ChunkMeshGenerator: (INPUT: " + meshRequestQueue.size() + ") | (MERGED: " + meshRequestQueue.getMerged() + ") | (PENDING: " + pending.get() + ") | (OUTPUT: " + meshOutputQueue.size() + ")");
     }
 
     // External statics from here below
 
+    /**
+     * Start with half of the cores the main thread doesn't need, the chunk generator gets the other half.
+     */
     public static void start() {
-        if (thread != null) {
+        start(getDefaultWorkerCount());
+    }
+
+    /**
+     * @param workerCount How many mesher threads to run.
+     */
+    public static void start(final int workerCount) {
+        if (threads != null) {
             throw new RuntimeException("ChunkMeshGenerator: Cannot start thread! It's already running!");
         }
-        // Package the instance into the thread, so it can be talked to
+        if (workerCount < 1) {
+            throw new RuntimeException("ChunkMeshGenerator: Needs at least one worker! Got (" + workerCount + ")!");
+        }
+        // Package the instance into the threads, so it can be talked to
         instance = new ChunkMeshGenerator();
-        thread = new Thread(instance);
-        thread.start();
+        threads = new Thread[workerCount];
+        for (int i = 0; i < workerCount; i++) {
+            // The worker and its face generator share this BlockDefinitionContainer, no other worker sees it
+            final BlockDefinitionContainer blockDefinitionContainer = BlockDefinitionContainer.getThreadSafeDuplicate();
+            if (i == 0) {
+                System.out.println("ChunkMeshGenerator: gotten blocks (" + Arrays.toString(blockDefinitionContainer.getAllBlockNames()) + ")!");
+            }
+            final ChunkMeshWorker meshWorker = new ChunkMeshWorker(blockDefinitionContainer);
+            threads[i] = new Thread(() -> instance.run(meshWorker), "ChunkMeshGenerator-" + i);
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
     }
 
+    /**
+     * Stop every worker and wait for them to finish the stack they're on. Whatever is still queued is thrown away.
+     */
     public static void stop() {
         nullCheck("stop");
+        if (instance.editLatency.getCount() > 0) {
+            System.out.println(instance.editLatency.report("ChunkMeshGenerator: Block edit to mesh latency"));
+        }
         instance.stopThread();
+        for (Thread thread : threads) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                throw new RuntimeException("ChunkMeshGenerator: Interrupted while stopping! " + e);
+            }
+        }
+        threads = null;
+        instance = null;
     }
 
     public static void pushRequest(int x, int stack, int z) {
@@ -233,8 +228,38 @@ public class ChunkMeshGenerator implements Runnable {
         if (stack < 0 || stack > 7) {
             throw new RuntimeException("ChunkMeshGenerator: Stack is out of bounds! Got: (" + stack + ") | Min: 0 | Max: 7");
         }
-        // Separate out thread data internal pointers
-        instance.addRequest(new Vector3i(x, stack, z));
+        instance.addRequest(packStack(x, stack, z), false);
+    }
+
+    /**
+     * Push a request for a stack a single block edit just changed. It's meshed ahead of every plain request,
+     * and the time from now until the mesh lands (meshLanded()) goes into the edit latency histogram.
+     * @param x Chunk X.
+     * @param stack The stack.
+     * @param z Chunk Z.
+     */
+    public static void pushEditRequest(int x, int stack, int z) {
+        nullCheck("pushEditRequest");
+        if (stack < 0 || stack > 7) {
+            throw new RuntimeException("ChunkMeshGenerator: Stack is out of bounds! Got: (" + stack + ") | Min: 0 | Max: 7");
+        }
+        instance.addRequest(packStack(x, stack, z), true);
+        instance.markEdited(x, stack, z);
+    }
+
+    /**
+     * Tell the generator a mesh was applied to its chunk. Main thread only!
+     * @param mesh The mesh, right after Chunk.setMesh().
+     */
+    public static void meshLanded(final ChunkMeshRecord mesh) {
+        instance.checkLanded(mesh);
+    }
+
+    /**
+     * @return Time from single block edits to their new mesh being applied.
+     */
+    public static LatencyHistogram getEditLatency() {
+        return instance.editLatency;
     }
 
     public static boolean hasUpdate() {
@@ -248,13 +273,92 @@ public class ChunkMeshGenerator implements Runnable {
         return instance.grabUpdate();
     }
 
+    /**
+     * Check a mesh out of getUpdate() before applying it. Main thread only!
+     * @param mesh The mesh.
+     * @return False if the stack was requested again after this mesh's request. Throw it away, a newer one is coming.
+     */
+    public static boolean isLatest(final ChunkMeshRecord mesh) {
+        return instance.checkLatest(mesh);
+    }
+
+    /**
+     * @return True if nothing is queued, being meshed, or waiting to be picked up.
+     */
+    public static boolean isIdle() {
+        return instance.checkIdle();
+    }
+
+    /**
+     * @return How many stacks were meshed since starting, stale ones included.
+     */
+    public static long getStacksMeshed() {
+        return instance.stacksMeshed.get();
+    }
+
+    /**
+     * @param enabled True merges faces of the same block into bigger quads (fewer vertices), false gives every face its own quad.
+     */
+    public static void setGreedyMeshing(final boolean enabled) {
+        greedyMeshing = enabled;
+    }
+
+    public static boolean isGreedyMeshing() {
+        return greedyMeshing;
+    }
+
+    /**
+     * @param enabled True outputs PackedChunkVertex meshes (8 bytes a vertex, drawn with the 3d_chunk shader),
+     *                false outputs float meshes (drawn with the 3d shader). Set it before start().
+     */
+    public static void setPackedVertices(final boolean enabled) {
+        packedVertices = enabled;
+    }
+
+    public static boolean isPackedVertices() {
+        return packedVertices;
+    }
+
+    /**
+     * @return How many workers start() uses. At least one, the main thread keeps a core, the rest is split with the chunk generator.
+     */
+    public static int getDefaultWorkerCount() {
+        return Math.max(1, (Runtime.getRuntime().availableProcessors() - 1) / 2);
+    }
+
+    /**
+     * Pack a stack position into one key.
+     * @param x Chunk X. Only the low 29 bits are kept, that's over a hundred million chunks in either direction.
+     * @param stack The stack (0-7).
+     * @param z Chunk Z.
+     * @return The packed key.
+     */
+    public static long packStack(final int x, final int stack, final int z) {
+        return ((long) x << 35) | ((z & 0xFFFF_FFFFL) << 3) | stack;
+    }
+
+    public static int unpackStackX(final long key) {
+        return (int) (key >> 35);
+    }
+
+    public static int unpackStack(final long key) {
+        return (int) (key & 7);
+    }
+
+    public static int unpackStackZ(final long key) {
+        return (int) (key >>> 3);
+    }
+
     private static void nullCheck(String methodName) {
-        if (thread == null) {
+        if (threads == null) {
             throw new RuntimeException("ChunkMeshGenerator: Cannot utilize method (" + methodName + ")! The THREAD has not been instantiated!");
-        } else if (!thread.isAlive()) {
-            throw new RuntimeException("ChunkMeshGenerator: Thread has crashed! Cannot utilize (" + methodName + ")!");
         } else if (instance == null) {
             throw new RuntimeException("ChunkMeshGenerator: Cannot utilize method (" + methodName + ")! The INSTANCE has not been instantiated!");
         }
+        for (Thread thread : threads) {
+            if (!thread.isAlive()) {
+                throw new RuntimeException("ChunkMeshGenerator: Thread (" + thread.getName() + ") has crashed! Cannot utilize (" + methodName + ")!");
+            }
+        }
     }
 }
@@ -23,11 +23,18 @@ import org.joml.Vector2ic;
  * Raw immutable data that the Chunk Mesh Generator will output into it's return queue after it's finished with it.
  */
 public record ChunkMeshRecord(
-        String uuid,
         int stack,
         Vector2ic destinationChunkPosition,
+        // Float meshes only, null when packed
         float[] positions,
         float[] textureCoordinates,
-        int[] indices,
-        float[] colors
+        // Every face is a quad. There are no indices, the mesh draws out of the shared QuadIndexBuffer
+        int quadCount,
+        float[] colors,
+        // Greedy float meshes only, null otherwise. Atlas region (x, y, width, height) of every vertex, the texture repeats inside it
+        float[] atlasRegions,
+        // Packed meshes only, null otherwise. PackedChunkVertex.SIZE ints a vertex, replaces positions, texture coordinates, colors & atlas regions
+        int[] packedVertices,
+        // Which request this answers. Only the latest request for a stack gets applied, see ChunkMeshGenerator.isLatest()
+        long requestNumber
 ) {}
@@ -17,16 +17,19 @@
  */
 package org.crafter.engine.world_generation.chunk_mesh_generation;
 
+import org.crafter.engine.utility.FloatArrayBuilder;
+import org.crafter.engine.utility.IntArrayBuilder;
 import org.crafter.engine.world.block.BlockDefinitionContainer;
 import org.crafter.engine.world.block.DrawType;
 import org.crafter.engine.world.chunk.Chunk;
 import org.crafter.engine.world.chunk.ChunkStorage;
 import org.joml.Vector2i;
 import org.joml.Vector2ic;
+import org.joml.Vector3ic;
 
-import java.util.ArrayList;
 /**
- * Performance debugging note: This is an object held inside of ChunkMeshGenerator
+ * Performance debugging note: This is an object held inside of ChunkMeshGenerator, one per mesher thread.
+ * Nothing in here is shared, each worker has its own definitions, face generator & builders.
  */
 public class ChunkMeshWorker {
 
@@ -34,14 +37,24 @@ public class ChunkMeshWorker {
 
     private final ChunkFaceGenerator faceGenerator;
 
-    private int[] currentChunkData = null;
-
-    // These chunk neighbors are reused over & over so that the methods do not have huge amounts of parameters
-    // Note: These are chunk deep clones
-    private int[] neighborFrontData = null;
-    private int[] neighborBackData = null;
-    private int[] neighborLeftData = null;
-    private int[] neighborRightData = null;
+    private Chunk currentChunk = null;
+
+    // Only the wall of each neighbor touching this stack is needed, so that's all that gets copied out
+    // Snapshotting the whole neighbor would freeze all 8 of its sections, and the next write there would copy one
+    private final int[] planeFront = new int[16 * 16];
+    private final int[] planeBack = new int[16 * 16];
+    private final int[] planeLeft = new int[16 * 16];
+    private final int[] planeRight = new int[16 * 16];
+
+    // These point at the planes above, or null if the neighbor isn't loaded. Reused so the methods don't have huge amounts of parameters
+    private int[] neighborFront = null;
+    private int[] neighborBack = null;
+    private int[] neighborLeft = null;
+    private int[] neighborRight = null;
+    // Lowest Y of the stack being meshed, the planes start here
+    private int currentBottom = 0;
+    // Visible faces of every block in the stack being meshed, see Chunk.getFaceMasks()
+    private byte[] currentFaceMasks = null;
 
     // Same reason for chunk neighbors!
     private boolean blockNeighborFrontIsBlock = false;
@@ -64,25 +77,91 @@ public class ChunkMeshWorker {
     //Todo: End removal portion
 
 
+    // Reused for every mesh this worker makes, one set per worker thread. They grow to the biggest stack meshed & stay there
+    private final FloatArrayBuilder positionsBuilder = new FloatArrayBuilder(4096);
+    private final FloatArrayBuilder textureCoordinatesBuilder = new FloatArrayBuilder(4096);
+    private final FloatArrayBuilder colorsBuilder = new FloatArrayBuilder(4096);
+    // Greedy meshing only
+    private final FloatArrayBuilder atlasRegionsBuilder = new FloatArrayBuilder(4096);
+    private final IntArrayBuilder quadsBuilder = new IntArrayBuilder(1024);
+    // Packed vertices only, replaces positions, texture coordinates, colors & atlas regions
+    private final IntArrayBuilder packedBuilder = new IntArrayBuilder(4096);
+
+    private final GreedyMesher greedyMesher = new GreedyMesher();
+    // Indexed by block ID, true for BLOCK draw type
+    private final boolean[] opaque;
+    // Picked up from the ChunkMeshGenerator for every stack
+    private boolean greedy = false;
+    private boolean packed = false;
+
     public ChunkMeshWorker(BlockDefinitionContainer definitionContainer) {
         this.definitionContainer = definitionContainer;
         this.faceGenerator = new ChunkFaceGenerator(definitionContainer);
+        this.opaque = definitionContainer.getOpaqueTable();
+    }
+
+    /**
+     * Actual side effects happen here!
+     * Snapshot the chunk and mesh one stack of it into a brand-new record.
+     * @param position Chunk X, stack, chunk Z.
+     * @param requestNumber The number of the request this answers.
+     * @return The mesh, or null if the chunk is not loaded anymore.
+     */
+    public ChunkMeshRecord createMesh(final Vector3ic position, final long requestNumber) {
+
+        // The chunk may have been unloaded since this was requested
+        final Chunk threadSafeClone = ChunkStorage.getThreadSafeChunkCloneIfLoaded(position.x(), position.z());
+        if (threadSafeClone == null) {
+            return null;
+        }
+
+        greedy = ChunkMeshGenerator.isGreedyMeshing();
+        packed = ChunkMeshGenerator.isPackedVertices();
+
+        // Mutably pass the references to the builders into process so this doesn't become thousands of lines long.
+        process(position.y(), threadSafeClone, positionsBuilder, textureCoordinatesBuilder, colorsBuilder);
+
+        // NOTE: This is a new piece of memory, it must be a new array. The builders are reused for the next stack
+        final float[] positions = packed ? null : positionsBuilder.toArray();
+        final float[] textureCoordinates = packed ? null : textureCoordinatesBuilder.toArray();
+        // Every face is a quad, they all draw out of the one shared QuadIndexBuffer so no indices are built
+        final int quadCount = packed ? packedBuilder.size() / (PackedChunkVertex.SIZE * 4) : positionsBuilder.size() / (3 * 4);
+        final float[] colors = packed ? null : colorsBuilder.toArray();
+        final float[] atlasRegions = greedy && !packed ? atlasRegionsBuilder.toArray() : null;
+        final int[] packedVertices = packed ? packedBuilder.toArray() : null;
+
+        positionsBuilder.clear();
+        textureCoordinatesBuilder.clear();
+        colorsBuilder.clear();
+        atlasRegionsBuilder.clear();
+        packedBuilder.clear();
+
+        return new ChunkMeshRecord(
+                position.y(),
+                // Separates the pointer internally
+                new Vector2i(position.x(), position.z()),
+                positions,
+                textureCoordinates,
+                quadCount,
+                colors,
+                atlasRegions,
+                packedVertices,
+                requestNumber
+        );
     }
 
     /**
      * @param chunk A Thread-safe clone passed in from the ChunkMeshGenerator.
-     * @param positions Mutable reference ArrayList of vertices.
-     * @param textureCoordinates Mutable reference ArrayList of texture coordinates.
-     * @param indices Mutable reference ArrayList of indices.
-     * @param colors Mutable reference ArrayList of indices.
+     * @param positions Mutable reference builder of vertices.
+     * @param textureCoordinates Mutable reference builder of texture coordinates.
+     * @param colors Mutable reference builder of colors.
      */
     public void process(
             final int stackPosition,
             final Chunk chunk,
-            final ArrayList<Float> positions,
-            final ArrayList<Float> textureCoordinates,
-            final ArrayList<Integer> indices,
-            final ArrayList<Float> colors
+            final FloatArrayBuilder positions,
+            final FloatArrayBuilder textureCoordinates,
+            final FloatArrayBuilder colors
     ) {
 
         final int STACK_HEIGHT = Chunk.getStackHeight();
@@ -91,71 +170,109 @@ public class ChunkMeshWorker {
 
         final Vector2ic chunkPosition = chunk.getPosition();
 
+        final boolean uniform = chunk.isSectionUniform(stackPosition);
+        final int uniformID = uniform ? Chunk.getBlockID(chunk.getSectionUniformBlockData(stackPosition)) : 0;
+
+        // A stack of nothing but air has nothing to mesh, don't even bother grabbing the neighbors
+        if (uniform && (uniformID == 0 || definitionContainer.getDefinition(uniformID).getDrawType().equals(DrawType.AIR))) {
+            return;
+        }
+
+        // A stack of nothing but one solid block is buried on the inside, only its outer shell can have faces
+        final boolean shellOnly = uniform && definitionContainer.getDefinition(uniformID).getDrawType().equals(DrawType.BLOCK);
+        final int bottom = STACK_HEIGHT * stackPosition;
+        final int top = bottom + STACK_HEIGHT - 1;
 
         // Right-handed coordinate system - Scoped for clarification & so not reused on accident
         {
-            currentChunkData = chunk.getDataDIRECT();
+            currentChunk = chunk;
 
             // Note, this is so fuckin sick that I set this up like this for myself
-            final Vector2ic front = new Vector2i(chunkPosition.x(), chunkPosition.y() - 1);
-            final Vector2ic back = new Vector2i(chunkPosition.x(), chunkPosition.y() + 1);
-            final Vector2ic left = new Vector2i(chunkPosition.x() - 1, chunkPosition.y());
-            final Vector2ic right = new Vector2i(chunkPosition.x() + 1, chunkPosition.y());
-            neighborFrontData = ChunkStorage.hasChunk(front) ? ChunkStorage.getThreadSafeChunkClone(front).getDataDIRECT() : null;
-            neighborBackData = ChunkStorage.hasChunk(back) ? ChunkStorage.getThreadSafeChunkClone(back).getDataDIRECT() : null;
-            neighborLeftData = ChunkStorage.hasChunk(left) ? ChunkStorage.getThreadSafeChunkClone(left).getDataDIRECT() : null;
-            neighborRightData = ChunkStorage.hasChunk(right) ? ChunkStorage.getThreadSafeChunkClone(right).getDataDIRECT() : null;
+            // Neighbors can be unloaded at any time, so no hasChunk() check then get
+            // Front's back wall, back's front wall, left's right wall, right's left wall
+            neighborFront = ChunkStorage.copyBorderPlaneZ(chunkPosition.x(), chunkPosition.y() - 1, DEPTH - 1, stackPosition, planeFront) ? planeFront : null;
+            neighborBack = ChunkStorage.copyBorderPlaneZ(chunkPosition.x(), chunkPosition.y() + 1, 0, stackPosition, planeBack) ? planeBack : null;
+            neighborLeft = ChunkStorage.copyBorderPlaneX(chunkPosition.x() - 1, chunkPosition.y(), WIDTH - 1, stackPosition, planeLeft) ? planeLeft : null;
+            neighborRight = ChunkStorage.copyBorderPlaneX(chunkPosition.x() + 1, chunkPosition.y(), 0, stackPosition, planeRight) ? planeRight : null;
+            currentBottom = bottom;
+        }
+
+        if (greedy) {
+            greedyMesher.mesh(stackPosition, chunk, neighborFront, neighborBack, neighborLeft, neighborRight, opaque, quadsBuilder);
+            for (int i = 0; i < quadsBuilder.size(); i += GreedyMesher.QUAD_SIZE) {
+                if (packed) {
+                    faceGenerator.attachPackedRectangle(
+                            quadsBuilder.get(i),
+                            quadsBuilder.get(i + 6),
+                            quadsBuilder.get(i + 1),
+                            quadsBuilder.get(i + 2),
+                            quadsBuilder.get(i + 3),
+                            quadsBuilder.get(i + 4),
+                            quadsBuilder.get(i + 5),
+                            packedBuilder
+                    );
+                    continue;
+                }
+                faceGenerator.attachRectangle(
+                        quadsBuilder.get(i),
+                        quadsBuilder.get(i + 6),
+                        quadsBuilder.get(i + 1),
+                        quadsBuilder.get(i + 2),
+                        quadsBuilder.get(i + 3),
+                        quadsBuilder.get(i + 4),
+                        quadsBuilder.get(i + 5),
+                        positions, textureCoordinates, colors, atlasRegionsBuilder
+                );
+            }
+            quadsBuilder.clear();
+            return;
         }
 
+        // The greedy mesher reads these on its own
+        currentFaceMasks = chunk.getFaceMasks(stackPosition, opaque);
+
         /*
         It works its way:
         Left to right (0-15 x)
         -> Front to back (0-15 z)
         --> Bottom to top (0-15 [differs depending on stack] y)
          */
-        for (int y = STACK_HEIGHT * stackPosition; y < STACK_HEIGHT * (stackPosition + 1); y++) {
+        for (int y = bottom; y <= top; y++) {
+            final boolean capLayer = y == bottom || y == top;
             for (int z = 0; z < DEPTH; z++) {
-                for (int x = 0; x < WIDTH; x++) {
+                // Inside the shell, jump straight from the left wall to the right wall
+                final int xStep = shellOnly && !capLayer && z != 0 && z != DEPTH - 1 ? WIDTH - 1 : 1;
+                for (int x = 0; x < WIDTH; x += xStep) {
                     // FIXME THIS NEEDS TO PASS IN THE LIGHT LEVEL AHHHHHHHHH
-                    branchPathOfGeneration(x, y, z, positions, textureCoordinates, indices, colors);
+                    branchPathOfGeneration(x, y, z, positions, textureCoordinates, colors);
                 }
             }
         }
+        currentFaceMasks = null;
     }
 
     private void branchPathOfGeneration(
             final int x,
             final int y,
             final int z,
-            final ArrayList<Float> positions,
-            final ArrayList<Float> textureCoordinates,
-            final ArrayList<Integer> indices,
-            final ArrayList<Float> colors
+            final FloatArrayBuilder positions,
+            final FloatArrayBuilder textureCoordinates,
+            final FloatArrayBuilder colors
     ) {
 
-        final int ID = Chunk.getBlockID(currentChunkData[Chunk.positionToIndex(x,y,z)]);
+        final int ID = Chunk.getBlockID(currentChunk.getBlockData(x,y,z));
 
         // 0 is reserved for air! Also don't process air drawtype blocks!
         if (ID == 0 || definitionContainer.getDefinition(ID).getDrawType().equals(DrawType.AIR)) {
             return;
         }
 
-
-        // Note: -Z is facing forwards +X is facing right
-        blockNeighborFrontIsBlock = neighborIsBlockDrawType(getNeighbor(x, y, z - 1));
-        blockNeighborBackIsBlock = neighborIsBlockDrawType(getNeighbor(x, y, z + 1));
-        blockNeighborLeftIsBlock = neighborIsBlockDrawType(getNeighbor(x - 1, y, z));
-        blockNeighborRightIsBlock = neighborIsBlockDrawType(getNeighbor(x + 1, y, z));
-        blockNeighborBottomIsBlock = neighborIsBlockDrawType(getNeighbor(x, y - 1, z));
-        blockNeighborTopIsBlock = neighborIsBlockDrawType(getNeighbor(x, y + 1, z));
-
-
-
         //fixme: for now, just render out each normal block brute force
 
         switch (definitionContainer.getDefinition(ID).getDrawType()) {
             case BLOCK -> {
-                blockDrawType(ID, x, y, z, positions, textureCoordinates, indices, colors);
+                readFaceMask(x, y, z);
+                blockDrawType(ID, x, y, z, positions, textureCoordinates, colors);
             }
             case GLASS, PLANT, TORCH, LEAVES, BLOCK_BOX, LIQUID_FLOW, LIQUID_SOURCE -> {
                 //todo;
@@ -175,54 +292,95 @@ public class ChunkMeshWorker {
             final int x,
             final int y,
             final int z,
-            final ArrayList<Float> positions,
-            final ArrayList<Float> textureCoordinates,
-            final ArrayList<Integer> indices,
-            final ArrayList<Float> colors
+            final FloatArrayBuilder positions,
+            final FloatArrayBuilder textureCoordinates,
+            final FloatArrayBuilder colors
     ) {
         //Fixme: This will check neighbors etc when completed
 
+        // Packed, every face is a 1x1 rectangle
+        if (packed) {
+            blockDrawTypePacked(ID, x, y, z);
+            return;
+        }
+
         // Note: Right handed coordinate system - to + all axes
         if (!blockNeighborFrontIsBlock) {
-            faceGenerator.attachFront(ID, x, y, z, positions, textureCoordinates, indices, colors);
+            faceGenerator.attachFront(ID, x, y, z, positions, textureCoordinates, colors);
         }
         if (!blockNeighborBackIsBlock) {
-            faceGenerator.attachBack(ID, x, y, z, positions, textureCoordinates, indices, colors);
+            faceGenerator.attachBack(ID, x, y, z, positions, textureCoordinates, colors);
         }
         if (!blockNeighborLeftIsBlock) {
-            faceGenerator.attachLeft(ID, x, y, z, positions, textureCoordinates, indices, colors);
+            faceGenerator.attachLeft(ID, x, y, z, positions, textureCoordinates, colors);
         }
         if (!blockNeighborRightIsBlock) {
-            faceGenerator.attachRight(ID, x, y, z, positions, textureCoordinates, indices, colors);
+            faceGenerator.attachRight(ID, x, y, z, positions, textureCoordinates, colors);
         }
         if (!blockNeighborBottomIsBlock) {
-            faceGenerator.attachBottom(ID, x, y, z, positions, textureCoordinates, indices, colors);
+            faceGenerator.attachBottom(ID, x, y, z, positions, textureCoordinates, colors);
         }
         if (!blockNeighborTopIsBlock) {
-            faceGenerator.attachTop(ID, x, y, z, positions, textureCoordinates, indices, colors);
+            faceGenerator.attachTop(ID, x, y, z, positions, textureCoordinates, colors);
         }
     }
 
 
+    private void blockDrawTypePacked(final int ID, final int x, final int y, final int z) {
+        if (!blockNeighborFrontIsBlock) {
+            faceGenerator.attachPackedRectangle(GreedyMesher.FRONT, ID, x, y, z, 1, 1, packedBuilder);
+        }
+        if (!blockNeighborBackIsBlock) {
+            faceGenerator.attachPackedRectangle(GreedyMesher.BACK, ID, x, y, z, 1, 1, packedBuilder);
+        }
+        if (!blockNeighborLeftIsBlock) {
+            faceGenerator.attachPackedRectangle(GreedyMesher.LEFT, ID, x, y, z, 1, 1, packedBuilder);
+        }
+        if (!blockNeighborRightIsBlock) {
+            faceGenerator.attachPackedRectangle(GreedyMesher.RIGHT, ID, x, y, z, 1, 1, packedBuilder);
+        }
+        if (!blockNeighborBottomIsBlock) {
+            faceGenerator.attachPackedRectangle(GreedyMesher.BOTTOM, ID, x, y, z, 1, 1, packedBuilder);
+        }
+        if (!blockNeighborTopIsBlock) {
+            faceGenerator.attachPackedRectangle(GreedyMesher.TOP, ID, x, y, z, 1, 1, packedBuilder);
+        }
+    }
+
+    /**
+     * Fill in the neighbor booleans of a BLOCK draw type block out of its face mask.
+     * Inside the stack the mask already knows, only the faces looking out of the stack go and check the neighbor.
+     */
+    private void readFaceMask(final int x, final int y, final int z) {
+        final int localY = y - currentBottom;
+        final int faces = currentFaceMasks[x + z * 16 + localY * 256];
+
+        // Note: -Z is facing forwards +X is facing right
+        blockNeighborFrontIsBlock = (faces & (1 << GreedyMesher.FRONT)) == 0 || (z == 0 && neighborIsBlockDrawType(getNeighbor(x, y, z - 1)));
+        blockNeighborBackIsBlock = (faces & (1 << GreedyMesher.BACK)) == 0 || (z == Chunk.getDepth() - 1 && neighborIsBlockDrawType(getNeighbor(x, y, z + 1)));
+        blockNeighborLeftIsBlock = (faces & (1 << GreedyMesher.LEFT)) == 0 || (x == 0 && neighborIsBlockDrawType(getNeighbor(x - 1, y, z)));
+        blockNeighborRightIsBlock = (faces & (1 << GreedyMesher.RIGHT)) == 0 || (x == Chunk.getWidth() - 1 && neighborIsBlockDrawType(getNeighbor(x + 1, y, z)));
+        blockNeighborBottomIsBlock = (faces & (1 << GreedyMesher.BOTTOM)) == 0 || (localY == 0 && neighborIsBlockDrawType(getNeighbor(x, y - 1, z)));
+        blockNeighborTopIsBlock = (faces & (1 << GreedyMesher.TOP)) == 0 || (localY == Chunk.getStackHeight() - 1 && neighborIsBlockDrawType(getNeighbor(x, y + 1, z)));
+    }
+
     private boolean neighborIsBlockDrawType(int inputID) {
         return definitionContainer.getDefinition(inputID).getDrawType().equals(DrawType.BLOCK);
     }
 
     private int getNeighbor(final int x, final int y, final int z) {
 
-        // todo: Implement neighbor chunk getter
-
-
         if (xyzIsOutOfBoundsCheck(x, y, z)) {
 
+            // Sideways steps never leave the stack, so the planes always cover y
             if (x == Chunk.getWidth() && rightNeighborExists()) {
-                return Chunk.getBlockID(neighborRightData[Chunk.positionToIndex(x - Chunk.getWidth(),y,z)]);
+                return Chunk.getBlockID(neighborRight[z + (y - currentBottom) * 16]);
             } else if (x == -1 && leftNeighborExists()) {
-                return Chunk.getBlockID(neighborLeftData[Chunk.positionToIndex(x + Chunk.getWidth(),y,z)]);
+                return Chunk.getBlockID(neighborLeft[z + (y - currentBottom) * 16]);
             } else if (z == Chunk.getDepth() && backNeighborExists()) {
-                return Chunk.getBlockID(neighborBackData[Chunk.positionToIndex(x,y,z - Chunk.getDepth())]);
+                return Chunk.getBlockID(neighborBack[x + (y - currentBottom) * 16]);
             } else if (z == -1 && frontNeighborExists()) {
-                return Chunk.getBlockID(neighborFrontData[Chunk.positionToIndex(x,y,z + Chunk.getDepth())]);
+                return Chunk.getBlockID(neighborFront[x + (y - currentBottom) * 16]);
             }
             // Out of bounds within the chunk.
             // No neighbor exists.
@@ -230,7 +388,7 @@ public class ChunkMeshWorker {
             return 0;
 
         } else {
-            return Chunk.getBlockID(currentChunkData[Chunk.positionToIndex(x,y,z)]);
+            return Chunk.getBlockID(currentChunk.getBlockData(x,y,z));
         }
     }
 
@@ -241,15 +399,15 @@ public class ChunkMeshWorker {
     }
 
     private boolean frontNeighborExists() {
-        return neighborFrontData != null;
+        return neighborFront != null;
     }
     private boolean backNeighborExists() {
-        return neighborBackData != null;
+        return neighborBack != null;
     }
     private boolean leftNeighborExists() {
-        return neighborLeftData != null;
+        return neighborLeft != null;
     }
     private boolean rightNeighborExists() {
-        return neighborRightData != null;
+        return neighborRight != null;
     }
 }
@@ -0,0 +1,296 @@
+/*
+ Crafter - A blocky game (engine) written in Java with LWJGL.
+ Copyright (C) 2023  jordan4ibanez
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.crafter.engine.world_generation.chunk_mesh_generation;
+
+import org.crafter.engine.utility.IntArrayBuilder;
+import org.crafter.engine.world.chunk.Chunk;
+
+import java.util.Arrays;
+
+/**
+ * Performance debugging note: This is an object held inside of ChunkMeshWorker, one per mesher thread.
+ * Finds the exposed faces of BLOCK draw type blocks in a stack & merges coplanar neighbors of the same block into
+ * rectangles, one slice at a time. Flat ground turns into a handful of quads instead of 256 per layer.
+ * Same block means same texture & same color, the color only depends on which way the face points.
+ * It only outputs rectangles, ChunkFaceGenerator turns them into vertices.
+ */
+public class GreedyMesher {
+
+    // Same order as the block textures: front, back, left, right, bottom, top
+    public static final int FRONT = 0;
+    public static final int BACK = 1;
+    public static final int LEFT = 2;
+    public static final int RIGHT = 3;
+    public static final int BOTTOM = 4;
+    public static final int TOP = 5;
+
+    // Ints per rectangle: face, x, y, z, width, height, block ID
+    public static final int QUAD_SIZE = 7;
+
+    private static final int WIDTH = Chunk.getWidth();
+    private static final int DEPTH = Chunk.getDepth();
+    private static final int STACK_HEIGHT = Chunk.getStackHeight();
+
+    // False makes every face its own 1x1 rectangle, to compare against
+    private final boolean merge;
+
+    // One slice of faces, block ID or 0 for no face. Reused over & over
+    private final int[] mask = new int[16 * 16];
+
+    // Set for the duration of mesh(). The chunk is a copy-on-write snapshot, the neighbors are only their border walls
+    private Chunk current = null;
+    private int[] neighborFront = null;
+    private int[] neighborBack = null;
+    private int[] neighborLeft = null;
+    private int[] neighborRight = null;
+    private boolean[] opaque = null;
+    // Visible faces of every block in the stack, see Chunk.getFaceMasks()
+    private byte[] faceMasks = null;
+    // Block ID of every block in the stack with a visible face, read once no matter how many faces show. Others are stale
+    private final int[] stackIDs = new int[16 * 16 * 16];
+    // Every face mask in a slice OR'd together. A slice without the face's bit has nothing to merge
+    private final int[] sliceFacesX = new int[16];
+    private final int[] sliceFacesY = new int[16];
+    private final int[] sliceFacesZ = new int[16];
+    // Lowest Y of the stack being meshed
+    private int currentBottom = 0;
+
+    private IntArrayBuilder output = null;
+
+    public GreedyMesher() {
+        this(true);
+    }
+
+    /**
+     * @param merge False to output every face as its own 1x1 rectangle.
+     */
+    public GreedyMesher(final boolean merge) {
+        if (WIDTH > 16 || DEPTH > 16 || STACK_HEIGHT > 16) {
+            throw new RuntimeException("GreedyMesher: Slices are at most 16x16! Chunk is (" + WIDTH + ", " + STACK_HEIGHT + ", " + DEPTH + ")");
+        }
+        this.merge = merge;
+    }
+
+    /**
+     * Find & merge every exposed face in a stack.
+     * A face is exposed if its block is opaque and the block it faces is not. A missing neighbor chunk counts as air.
+     * Inside the stack this comes straight out of the chunk's face masks, only the faces on its outside get checked here.
+     * @param stack The stack (0-7).
+     * @param chunk The chunk.
+     * @param front Wall of the neighbor at -Z touching this stack, indexed [x + localY * 16], or null.
+     * @param back Wall of the neighbor at +Z touching this stack, indexed [x + localY * 16], or null.
+     * @param left Wall of the neighbor at -X touching this stack, indexed [z + localY * 16], or null.
+     * @param right Wall of the neighbor at +X touching this stack, indexed [z + localY * 16], or null.
+     * @param opaque Indexed by block ID, true for BLOCK draw type. IDs past the end count as not opaque.
+     * @param quads Where the rectangles go, QUAD_SIZE ints each. Appended to, not cleared.
+     */
+    public void mesh(
+            final int stack,
+            final Chunk chunk,
+            final int[] front,
+            final int[] back,
+            final int[] left,
+            final int[] right,
+            final boolean[] opaque,
+            final IntArrayBuilder quads
+    ) {
+        current = chunk;
+        neighborFront = front;
+        neighborBack = back;
+        neighborLeft = left;
+        neighborRight = right;
+        this.opaque = opaque;
+        faceMasks = chunk.getFaceMasks(stack, opaque);
+        output = quads;
+
+        final int bottom = STACK_HEIGHT * stack;
+        final int top = bottom + STACK_HEIGHT - 1;
+        currentBottom = bottom;
+
+        Arrays.fill(sliceFacesX, 0);
+        Arrays.fill(sliceFacesY, 0);
+        Arrays.fill(sliceFacesZ, 0);
+        for (int i = 0; i < faceMasks.length; i++) {
+            final int faces = faceMasks[i];
+            if (faces == 0) {
+                continue;
+            }
+            final int x = i & 15;
+            final int z = (i >>> 4) & 15;
+            final int y = i >>> 8;
+            stackIDs[i] = Chunk.getBlockID(chunk.getBlockData(x, y + bottom, z));
+            sliceFacesX[x] |= faces;
+            sliceFacesY[y] |= faces;
+            sliceFacesZ[z] |= faces;
+        }
+
+        // Horizontal slices, rectangles are x wide & z high
+        for (int y = bottom; y <= top; y++) {
+            for (int face = BOTTOM; face <= TOP; face++) {
+                if ((sliceFacesY[y - bottom] & (1 << face)) == 0) {
+                    continue;
+                }
+                final int dy = face == TOP ? 1 : -1;
+                for (int z = 0; z < DEPTH; z++) {
+                    for (int x = 0; x < WIDTH; x++) {
+                        mask[x + z * 16] = exposedID(x, y, z, face, 0, dy, 0);
+                    }
+                }
+                mergeSlice(face, y, WIDTH, DEPTH);
+            }
+        }
+        // Slices along Z, rectangles are x wide & y high
+        for (int z = 0; z < DEPTH; z++) {
+            for (int face = FRONT; face <= BACK; face++) {
+                if ((sliceFacesZ[z] & (1 << face)) == 0) {
+                    continue;
+                }
+                final int dz = face == BACK ? 1 : -1;
+                for (int y = 0; y < STACK_HEIGHT; y++) {
+                    for (int x = 0; x < WIDTH; x++) {
+                        mask[x + y * 16] = exposedID(x, y + bottom, z, face, 0, 0, dz);
+                    }
+                }
+                mergeSlice(face, z, WIDTH, STACK_HEIGHT);
+            }
+        }
+        // Slices along X, rectangles are z wide & y high
+        for (int x = 0; x < WIDTH; x++) {
+            for (int face = LEFT; face <= RIGHT; face++) {
+                if ((sliceFacesX[x] & (1 << face)) == 0) {
+                    continue;
+                }
+                final int dx = face == RIGHT ? 1 : -1;
+                for (int y = 0; y < STACK_HEIGHT; y++) {
+                    for (int z = 0; z < DEPTH; z++) {
+                        mask[z + y * 16] = exposedID(x, y + bottom, z, face, dx, 0, 0);
+                    }
+                }
+                mergeSlice(face, x, DEPTH, STACK_HEIGHT);
+            }
+        }
+
+        // Don't hold onto the snapshot or the caller's walls
+        current = null;
+        faceMasks = null;
+        neighborFront = null;
+        neighborBack = null;
+        neighborLeft = null;
+        neighborRight = null;
+        output = null;
+    }
+
+    /**
+     * Turn the mask into rectangles. Grow right as far as the same ID goes, then grow up while the whole row matches.
+     */
+    private void mergeSlice(final int face, final int slice, final int widthA, final int widthB) {
+        for (int b = 0; b < widthB; b++) {
+            int a = 0;
+            while (a < widthA) {
+                final int ID = mask[a + b * 16];
+                if (ID == 0) {
+                    a++;
+                    continue;
+                }
+                int width = 1;
+                int height = 1;
+                if (merge) {
+                    while (a + width < widthA && mask[a + width + b * 16] == ID) {
+                        width++;
+                    }
+                    growing:
+                    while (b + height < widthB) {
+                        for (int k = 0; k < width; k++) {
+                            if (mask[a + k + (b + height) * 16] != ID) {
+                                break growing;
+                            }
+                        }
+                        height++;
+                    }
+                }
+                for (int h = 0; h < height; h++) {
+                    for (int k = 0; k < width; k++) {
+                        mask[a + k + (b + h) * 16] = 0;
+                    }
+                }
+                emit(face, slice, a, b, width, height, ID);
+                a += width;
+            }
+        }
+    }
+
+    private void emit(final int face, final int slice, final int a, final int b, final int width, final int height, final int ID) {
+        output.add(face);
+        switch (face) {
+            case BOTTOM, TOP -> {
+                output.add(a);
+                output.add(slice);
+                output.add(b);
+            }
+            case FRONT, BACK -> {
+                output.add(a);
+                output.add(b + currentBottom);
+                output.add(slice);
+            }
+            default -> {
+                output.add(slice);
+                output.add(b + currentBottom);
+                output.add(a);
+            }
+        }
+        output.add(width);
+        output.add(height);
+        output.add(ID);
+    }
+
+    private int exposedID(final int x, final int y, final int z, final int face, final int dx, final int dy, final int dz) {
+        final int localY = y - currentBottom;
+        final int index = x + z * 16 + localY * 256;
+        if ((faceMasks[index] & (1 << face)) == 0) {
+            return 0;
+        }
+        // Looking out of the stack, the mask can't know what's over there
+        final int outX = x + dx;
+        final int outY = localY + dy;
+        final int outZ = z + dz;
+        if ((outX < 0 || outX >= WIDTH || outY < 0 || outY >= STACK_HEIGHT || outZ < 0 || outZ >= DEPTH) && isOpaque(getBlockID(outX, y + dy, outZ))) {
+            return 0;
+        }
+        return stackIDs[index];
+    }
+
+    private boolean isOpaque(final int ID) {
+        return ID > 0 && ID < opaque.length && opaque[ID];
+    }
+
+    private int getBlockID(final int x, final int y, final int z) {
+        if (y < 0 || y >= Chunk.getHeight()) {
+            return 0;
+        }
+        if (x < 0) {
+            return neighborLeft == null ? 0 : Chunk.getBlockID(neighborLeft[z + (y - currentBottom) * 16]);
+        } else if (x >= WIDTH) {
+            return neighborRight == null ? 0 : Chunk.getBlockID(neighborRight[z + (y - currentBottom) * 16]);
+        } else if (z < 0) {
+            return neighborFront == null ? 0 : Chunk.getBlockID(neighborFront[x + (y - currentBottom) * 16]);
+        } else if (z >= DEPTH) {
+            return neighborBack == null ? 0 : Chunk.getBlockID(neighborBack[x + (y - currentBottom) * 16]);
+        }
+        return Chunk.getBlockID(current.getBlockData(x, y, z));
+    }
+}
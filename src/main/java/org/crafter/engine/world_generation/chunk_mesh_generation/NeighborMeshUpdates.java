@@ -0,0 +1,219 @@
+/*
+ Crafter - A blocky game (engine) written in Java with LWJGL.
+ Copyright (C) 2023  jordan4ibanez
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.crafter.engine.world_generation.chunk_mesh_generation;
+
+import org.crafter.engine.world.chunk.Chunk;
+import org.crafter.engine.world.chunk.ChunkJournal;
+import org.crafter.engine.world.chunk.ChunkStorage;
+
+import java.util.Arrays;
+
+/**
+ * Utility class.
+ * Works out which stacks actually need a new mesh when blocks change, instead of remeshing whole chunks.
+ * A stack only looks one block past its own blocks, so only the stacks touching a change can be affected.
+ * Main thread only! The walls & reach are reused.
+ */
+public final class NeighborMeshUpdates {
+
+    private static final int WIDTH = Chunk.getWidth();
+    private static final int DEPTH = Chunk.getDepth();
+    private static final int STACK_HEIGHT = Chunk.getStackHeight();
+
+    /**
+     * Reach slot for the chunk itself, after GreedyMesher's four horizontal sides.
+     */
+    public static final int SELF = 4;
+    public static final int REACH_SLOTS = 5;
+
+    private static final int[] reach = new int[REACH_SLOTS];
+
+    private static final int[] neighborWall = new int[16 * 16];
+    private static final int[] previousWall = new int[16 * 16];
+    private static final int[] arrivingWall = new int[16 * 16];
+
+    private NeighborMeshUpdates(){}
+
+    /**
+     * Push edit requests for a single changed block: its own stack, the stack above or below if it sits on
+     * the edge of one, and the neighbor chunk's stack if it sits on a chunk wall. Unloaded neighbors are skipped.
+     * @param chunkX Chunk X.
+     * @param chunkZ Chunk Z.
+     * @param x Internal X.
+     * @param y Internal Y.
+     * @param z Internal Z.
+     */
+    public static void pushEditUpdates(final int chunkX, final int chunkZ, final int x, final int y, final int z) {
+        Arrays.fill(reach, 0);
+        addBlockReach(x, y, z, reach);
+        pushReach(chunkX, chunkZ, reach, true);
+    }
+
+    /**
+     * Push bulk requests for every block a chunk journal changed, with the same reach as pushEditUpdates.
+     * Used by Block Manipulator writes and undo/redo, so bulk edits remesh the neighbors they uncover too.
+     * @param chunkX Chunk X.
+     * @param chunkZ Chunk Z.
+     * @param journal What changed in that chunk.
+     */
+    public static void pushJournalUpdates(final int chunkX, final int chunkZ, final ChunkJournal journal) {
+        getJournalReach(journal, reach);
+        pushReach(chunkX, chunkZ, reach, false);
+    }
+
+    /**
+     * Which stacks the blocks a journal changed make stale, in the chunk itself and across each wall.
+     * @param journal What changed in the chunk.
+     * @param reach Filled with bit masks of stacks, bit 0 is stack 0. Indexed by GreedyMesher.FRONT, BACK, LEFT
+     *              & RIGHT for the neighbor on that side, and SELF for the chunk itself.
+     */
+    public static void getJournalReach(final ChunkJournal journal, final int[] reach) {
+        // Unknown changes, anything could be stale
+        if (journal.isOverflowed()) {
+            Arrays.fill(reach, (1 << Chunk.getStacks()) - 1);
+            return;
+        }
+        Arrays.fill(reach, 0);
+        for (int i = 0; i < journal.size(); i++) {
+            final int index = journal.getIndex(i);
+            addBlockReach(index % WIDTH, index / (WIDTH * DEPTH), (index / WIDTH) % DEPTH, reach);
+        }
+    }
+
+    private static void addBlockReach(final int x, final int y, final int z, final int[] reach) {
+        final int stack = y / STACK_HEIGHT;
+        final int stackBit = 1 << stack;
+        reach[SELF] |= stackBit;
+
+        final int localY = y % STACK_HEIGHT;
+        if (localY == 0 && stack > 0) {
+            reach[SELF] |= stackBit >> 1;
+        } else if (localY == STACK_HEIGHT - 1 && stack < Chunk.getStacks() - 1) {
+            reach[SELF] |= stackBit << 1;
+        }
+
+        // Right-handed coordinate system, -Z is front
+        if (x == 0) {
+            reach[GreedyMesher.LEFT] |= stackBit;
+        } else if (x == WIDTH - 1) {
+            reach[GreedyMesher.RIGHT] |= stackBit;
+        }
+        if (z == 0) {
+            reach[GreedyMesher.FRONT] |= stackBit;
+        } else if (z == DEPTH - 1) {
+            reach[GreedyMesher.BACK] |= stackBit;
+        }
+    }
+
+    private static void pushReach(final int chunkX, final int chunkZ, final int[] reach, final boolean edit) {
+        pushStacks(chunkX, chunkZ, reach[SELF], edit);
+        pushNeighborStacks(chunkX, chunkZ - 1, reach[GreedyMesher.FRONT], edit);
+        pushNeighborStacks(chunkX, chunkZ + 1, reach[GreedyMesher.BACK], edit);
+        pushNeighborStacks(chunkX - 1, chunkZ, reach[GreedyMesher.LEFT], edit);
+        pushNeighborStacks(chunkX + 1, chunkZ, reach[GreedyMesher.RIGHT], edit);
+    }
+
+    private static void pushNeighborStacks(final int chunkX, final int chunkZ, final int stacks, final boolean edit) {
+        if (stacks != 0 && ChunkStorage.hasChunk(chunkX, chunkZ)) {
+            pushStacks(chunkX, chunkZ, stacks, edit);
+        }
+    }
+
+    private static void pushStacks(final int chunkX, final int chunkZ, final int stacks, final boolean edit) {
+        for (int stack = 0; stack < Chunk.getStacks(); stack++) {
+            if ((stacks & (1 << stack)) == 0) {
+                continue;
+            }
+            // Edits are timed, these are what a player sees lag behind when placing or digging
+            if (edit) {
+                ChunkMeshGenerator.pushEditRequest(chunkX, stack, chunkZ);
+            } else {
+                ChunkMeshGenerator.pushRequest(chunkX, stack, chunkZ);
+            }
+        }
+    }
+
+    /**
+     * Which stacks of a neighbor have faces on its wall that a chunk arriving next to it covers or uncovers.
+     * A neighbor face on that wall only exists if the neighbor's block is opaque & the block across is not,
+     * so a stack only changes where the neighbor is opaque and the arriving block's opacity differs from what was there.
+     * @param neighbor The chunk that was already loaded.
+     * @param previous What was loaded where the arriving chunk goes, or null if nothing was. Nothing counts as air.
+     * @param arriving The chunk that was just loaded.
+     * @param side Which side of the arriving chunk the neighbor is on, GreedyMesher.FRONT, BACK, LEFT or RIGHT.
+     * @param opaque Indexed by block ID, true for BLOCK draw type. See BlockDefinitionContainer.getOpaqueTable().
+     * @return Bit mask of the neighbor stacks to remesh, bit 0 is stack 0.
+     */
+    public static int getChangedStacks(final Chunk neighbor, final Chunk previous, final Chunk arriving, final int side, final boolean[] opaque) {
+        int mask = 0;
+        for (int stack = 0; stack < Chunk.getStacks(); stack++) {
+            // The neighbor's wall facing the arriving chunk, and the arriving chunk's wall facing it
+            switch (side) {
+                case GreedyMesher.FRONT -> {
+                    neighbor.copyBorderPlaneZ(DEPTH - 1, stack, neighborWall);
+                    copyWallZ(previous, 0, stack);
+                    arriving.copyBorderPlaneZ(0, stack, arrivingWall);
+                }
+                case GreedyMesher.BACK -> {
+                    neighbor.copyBorderPlaneZ(0, stack, neighborWall);
+                    copyWallZ(previous, DEPTH - 1, stack);
+                    arriving.copyBorderPlaneZ(DEPTH - 1, stack, arrivingWall);
+                }
+                case GreedyMesher.LEFT -> {
+                    neighbor.copyBorderPlaneX(WIDTH - 1, stack, neighborWall);
+                    copyWallX(previous, 0, stack);
+                    arriving.copyBorderPlaneX(0, stack, arrivingWall);
+                }
+                case GreedyMesher.RIGHT -> {
+                    neighbor.copyBorderPlaneX(0, stack, neighborWall);
+                    copyWallX(previous, WIDTH - 1, stack);
+                    arriving.copyBorderPlaneX(WIDTH - 1, stack, arrivingWall);
+                }
+                default -> throw new RuntimeException("NeighborMeshUpdates: Side (" + side + ") is not a horizontal side!");
+            }
+            for (int i = 0; i < 16 * STACK_HEIGHT; i++) {
+                if (isOpaque(neighborWall[i], opaque) && isOpaque(previousWall[i], opaque) != isOpaque(arrivingWall[i], opaque)) {
+                    mask |= 1 << stack;
+                    break;
+                }
+            }
+        }
+        return mask;
+    }
+
+    private static void copyWallZ(final Chunk chunk, final int wall, final int stack) {
+        if (chunk == null) {
+            Arrays.fill(previousWall, 0);
+        } else {
+            chunk.copyBorderPlaneZ(wall, stack, previousWall);
+        }
+    }
+
+    private static void copyWallX(final Chunk chunk, final int wall, final int stack) {
+        if (chunk == null) {
+            Arrays.fill(previousWall, 0);
+        } else {
+            chunk.copyBorderPlaneX(wall, stack, previousWall);
+        }
+    }
+
+    private static boolean isOpaque(final int blockData, final boolean[] opaque) {
+        final int ID = Chunk.getBlockID(blockData);
+        return ID > 0 && ID < opaque.length && opaque[ID];
+    }
+}
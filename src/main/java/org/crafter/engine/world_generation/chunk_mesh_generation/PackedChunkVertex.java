@@ -0,0 +1,179 @@
+/*
+ Crafter - A blocky game (engine) written in Java with LWJGL.
+ Copyright (C) 2023  jordan4ibanez
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.crafter.engine.world_generation.chunk_mesh_generation;
+
+import org.joml.Vector3f;
+
+/**
+ * Utility class.
+ * The packed chunk vertex format, 2 ints (8 bytes) a vertex instead of 9 floats (36 bytes) or 13 with atlas regions (52 bytes).
+ * Decoded by shaders/3d_chunk_vertex.vert, keep the two in sync!
+ *
+ * Position int: x (5 bits) | y (8 bits) | z (5 bits) | face (3 bits) | shade (3 bits) | high x, y, z (1 bit each).
+ * Texture int: u tiles (5 bits) | v tiles (5 bits) | atlas region index (16 bits).
+ *
+ * Positions are whole numbers in the chunk. The high bits say which side of the block the corner is on,
+ * the shader pushes the corner out by OVER_PROVISION on the two axes the face spans, like the float meshes do.
+ * Texture coordinates count tiles, the shader wraps them into the atlas region, same as greedy float meshes.
+ */
+public final class PackedChunkVertex {
+
+    // Ints per vertex
+    public static final int SIZE = 2;
+    public static final int BYTES = SIZE * Integer.BYTES;
+
+    // Same as ChunkFaceGenerator
+    public static final float OVER_PROVISION = 0.00001f;
+
+    // Index into the shade table in the shader, same light levels as ChunkFaceGenerator
+    public static final int SHADE_BRIGHT_TOP = 0;
+    public static final int SHADE_BRIGHT_SIDE_X = 1;
+    public static final int SHADE_BRIGHT_SIDE_Z = 2;
+    public static final int SHADE_DARK_TOP = 3;
+    public static final int SHADE_DARK_SIDE = 4;
+    private static final float[] shades = new float[]{1.0f, 0.925f, 0.905f, 0.8f, 0.75f};
+
+    public static final int HIGH_X = 1;
+    public static final int HIGH_Y = 2;
+    public static final int HIGH_Z = 4;
+
+    // Has to match the atlasRegions uniform array length in the shader
+    public static final int MAX_ATLAS_REGIONS = 128;
+
+    private static final int X_SHIFT = 0;
+    private static final int Y_SHIFT = 5;
+    private static final int Z_SHIFT = 13;
+    private static final int FACE_SHIFT = 18;
+    private static final int SHADE_SHIFT = 21;
+    private static final int HIGH_SHIFT = 24;
+
+    private static final int U_SHIFT = 0;
+    private static final int V_SHIFT = 5;
+    private static final int REGION_SHIFT = 10;
+
+    private static final int MAX_XZ = 31;
+    private static final int MAX_Y = 255;
+    private static final int MAX_TILES = 31;
+
+    private PackedChunkVertex(){}
+
+    /**
+     * @param x 0 to 16.
+     * @param y 0 to 128.
+     * @param z 0 to 16.
+     * @param face GreedyMesher.FRONT to GreedyMesher.TOP.
+     * @param shade SHADE_BRIGHT_TOP to SHADE_DARK_SIDE.
+     * @param high HIGH_X, HIGH_Y & HIGH_Z or'd together.
+     * @return The position int.
+     */
+    public static int packPosition(final int x, final int y, final int z, final int face, final int shade, final int high) {
+        check(x, MAX_XZ, "x");
+        check(y, MAX_Y, "y");
+        check(z, MAX_XZ, "z");
+        check(face, GreedyMesher.TOP, "face");
+        check(shade, shades.length - 1, "shade");
+        check(high, 7, "high");
+        return x << X_SHIFT | y << Y_SHIFT | z << Z_SHIFT | face << FACE_SHIFT | shade << SHADE_SHIFT | high << HIGH_SHIFT;
+    }
+
+    /**
+     * @param u Tiles along U, 0 to 16.
+     * @param v Tiles along V, 0 to 16.
+     * @param region Atlas region index, see AtlasRegionTable.
+     * @return The texture int.
+     */
+    public static int packTexture(final int u, final int v, final int region) {
+        check(u, MAX_TILES, "u");
+        check(v, MAX_TILES, "v");
+        check(region, MAX_ATLAS_REGIONS - 1, "region");
+        return u << U_SHIFT | v << V_SHIFT | region << REGION_SHIFT;
+    }
+
+    public static int getX(final int position) {
+        return (position >>> X_SHIFT) & MAX_XZ;
+    }
+
+    public static int getY(final int position) {
+        return (position >>> Y_SHIFT) & MAX_Y;
+    }
+
+    public static int getZ(final int position) {
+        return (position >>> Z_SHIFT) & MAX_XZ;
+    }
+
+    public static int getFace(final int position) {
+        return (position >>> FACE_SHIFT) & 7;
+    }
+
+    public static int getShade(final int position) {
+        return (position >>> SHADE_SHIFT) & 7;
+    }
+
+    public static int getHigh(final int position) {
+        return (position >>> HIGH_SHIFT) & 7;
+    }
+
+    public static int getU(final int texture) {
+        return (texture >>> U_SHIFT) & MAX_TILES;
+    }
+
+    public static int getV(final int texture) {
+        return (texture >>> V_SHIFT) & MAX_TILES;
+    }
+
+    public static int getRegion(final int texture) {
+        return (texture >>> REGION_SHIFT) & 0xFFFF;
+    }
+
+    /**
+     * @param shade SHADE_BRIGHT_TOP to SHADE_DARK_SIDE.
+     * @return The brightness the shader colors the face with.
+     */
+    public static float getShadeValue(final int shade) {
+        return shades[shade];
+    }
+
+    /**
+     * Decode a position int into the same float position the shader ends up with.
+     * @param position The position int.
+     * @param output Where the position goes.
+     * @return The output.
+     */
+    public static Vector3f decodePosition(final int position, final Vector3f output) {
+        final int face = getFace(position);
+        final int high = getHigh(position);
+        output.set(getX(position), getY(position), getZ(position));
+        // The face's own axis stays flat
+        if (face != GreedyMesher.LEFT && face != GreedyMesher.RIGHT) {
+            output.x += (high & HIGH_X) != 0 ? OVER_PROVISION : -OVER_PROVISION;
+        }
+        if (face != GreedyMesher.BOTTOM && face != GreedyMesher.TOP) {
+            output.y += (high & HIGH_Y) != 0 ? OVER_PROVISION : -OVER_PROVISION;
+        }
+        if (face != GreedyMesher.FRONT && face != GreedyMesher.BACK) {
+            output.z += (high & HIGH_Z) != 0 ? OVER_PROVISION : -OVER_PROVISION;
+        }
+        return output;
+    }
+
+    private static void check(final int value, final int max, final String name) {
+        if (value < 0 || value > max) {
+            throw new RuntimeException("PackedChunkVertex: (" + name + ") is out of range! Got: (" + value + ") | Min: 0 | Max: " + max);
+        }
+    }
+}
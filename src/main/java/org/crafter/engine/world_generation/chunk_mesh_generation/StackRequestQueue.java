@@ -0,0 +1,143 @@
+/*
+ Crafter - A blocky game (engine) written in Java with LWJGL.
+ Copyright (C) 2023  jordan4ibanez
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.crafter.engine.world_generation.chunk_mesh_generation;
+
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+
+/**
+ * Pending stack mesh requests, keyed by ChunkMeshGenerator.packStack().
+ * A stack is in here at most once. Pushing it again while it's pending merges into the pending entry, it keeps its place.
+ * Urgent requests (a player's block edits) go out before everything else, each kind in the order it came in.
+ * Pushing a pending stack again as urgent moves it to the urgent ones.
+ *
+ * Add, contains and take are all O(1), unlike contains() on a LinkedBlockingQueue, which walks the whole queue.
+ * Workers block in take() until there's something to do, add() wakes one up. close() wakes them all to shut down.
+ * Thread safe.
+ */
+public final class StackRequestQueue {
+
+    // Only packStack() of chunk X -2^28 gives this, billions of blocks past where floats fall apart
+    public static final long NO_REQUEST = Long.MIN_VALUE;
+
+    private final LinkedHashSet<Long> urgent = new LinkedHashSet<>();
+    private final LinkedHashSet<Long> queued = new LinkedHashSet<>();
+
+    private long merged = 0;
+    private boolean closed = false;
+
+    /**
+     * Add a request.
+     * @param key The packed stack position.
+     * @param isUrgent If true, it goes ahead of everything that isn't.
+     * @return False if the stack was already pending, it was merged into that request.
+     */
+    public synchronized boolean add(final long key, final boolean isUrgent) {
+        if (urgent.contains(key)) {
+            merged++;
+            return false;
+        }
+        if (queued.contains(key)) {
+            merged++;
+            if (isUrgent) {
+                queued.remove(key);
+                urgent.add(key);
+            }
+            return false;
+        }
+        if (isUrgent) {
+            urgent.add(key);
+        } else {
+            queued.add(key);
+        }
+        // One new request, one worker
+        notify();
+        return true;
+    }
+
+    /**
+     * Take the oldest urgent request, or the oldest request if there are none.
+     * @return The packed stack position, or NO_REQUEST if nothing is pending.
+     */
+    public synchronized long poll() {
+        if (!urgent.isEmpty()) {
+            return removeFirst(urgent);
+        }
+        if (!queued.isEmpty()) {
+            return removeFirst(queued);
+        }
+        return NO_REQUEST;
+    }
+
+    /**
+     * Like poll(), but waits for a request if there are none.
+     * @return The packed stack position, or NO_REQUEST once the queue is closed.
+     */
+    public synchronized long take() {
+        while (!closed) {
+            final long request = poll();
+            if (request != NO_REQUEST) {
+                return request;
+            }
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                throw new RuntimeException("StackRequestQueue: Interrupted while waiting for a request! " + e);
+            }
+        }
+        return NO_REQUEST;
+    }
+
+    /**
+     * Wake up everything waiting in take() and make it return NO_REQUEST, now and forever. Whatever is pending is left alone.
+     */
+    public synchronized void close() {
+        closed = true;
+        notifyAll();
+    }
+
+    /**
+     * @param key The packed stack position.
+     * @return True if the stack is waiting to be taken.
+     */
+    public synchronized boolean contains(final long key) {
+        return urgent.contains(key) || queued.contains(key);
+    }
+
+    public synchronized int size() {
+        return urgent.size() + queued.size();
+    }
+
+    public synchronized boolean isEmpty() {
+        return urgent.isEmpty() && queued.isEmpty();
+    }
+
+    /**
+     * @return How many adds were merged into a pending request since creation.
+     */
+    public synchronized long getMerged() {
+        return merged;
+    }
+
+    private static long removeFirst(final LinkedHashSet<Long> set) {
+        final Iterator<Long> iterator = set.iterator();
+        final long key = iterator.next();
+        iterator.remove();
+        return key;
+    }
+}
@@ -0,0 +1,316 @@
+/*
+ Crafter - A blocky game (engine) written in Java with LWJGL.
+ Copyright (C) 2023  jordan4ibanez
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.crafter_unit_tests;
+
+import org.crafter.engine.mesh.ArenaAllocator;
+import org.crafter.engine.world.chunk.Chunk;
+import org.crafter.engine.world_generation.chunk_mesh_generation.GreedyMesher;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ArenaAllocatorTest {
+
+    @Test
+    public void testAllocateAndFree() {
+        assertThrows(RuntimeException.class, () -> new ArenaAllocator(0));
+        final ArenaAllocator allocator = new ArenaAllocator(100);
+        assertThrows(RuntimeException.class, () -> allocator.allocate(0));
+
+        final int a = allocator.allocate(10);
+        final int b = allocator.allocate(20);
+        final int c = allocator.allocate(30);
+        assertEquals(0, a);
+        assertEquals(10, b);
+        assertEquals(30, c);
+        assertEquals(60, allocator.getUsed());
+        assertEquals(ArenaAllocator.NONE, allocator.allocate(41));
+
+        // Holes of 10 & 40, the 10 fits best
+        allocator.free(a, 10);
+        assertEquals(2, allocator.getFreeRangeCount());
+        assertEquals(0, allocator.allocate(8));
+        // Runs into the 2 left free after it
+        assertThrows(RuntimeException.class, () -> allocator.free(5, 5));
+        allocator.free(0, 8);
+
+        // Freeing b joins the hole before it, freeing c joins all of it
+        allocator.free(b, 20);
+        assertEquals(2, allocator.getFreeRangeCount());
+        assertEquals(40, allocator.getLargestFree());
+        allocator.free(c, 30);
+        assertEquals(1, allocator.getFreeRangeCount());
+        assertEquals(100, allocator.getLargestFree());
+        assertEquals(0, allocator.getUsed());
+        assertEquals(0.0, allocator.getFragmentation());
+
+        // Already free
+        assertThrows(RuntimeException.class, () -> allocator.free(c, 30));
+        assertThrows(RuntimeException.class, () -> allocator.free(90, 20));
+    }
+
+    @Test
+    public void testResize() {
+        final ArenaAllocator allocator = new ArenaAllocator(100);
+        final int a = allocator.allocate(10);
+        final int b = allocator.allocate(10);
+
+        // Blocked by b
+        assertFalse(allocator.resize(a, 10, 11));
+        // Grows into the free space after it
+        assertTrue(allocator.resize(b, 10, 50));
+        assertEquals(60, allocator.getUsed());
+        assertTrue(allocator.resize(b, 50, 80));
+        assertEquals(90, allocator.getUsed());
+        assertEquals(1, allocator.getFreeRangeCount());
+        assertFalse(allocator.resize(b, 80, 91));
+        assertTrue(allocator.resize(b, 80, 90));
+        assertEquals(0, allocator.getFreeRangeCount());
+
+        // Shrinking always works, the end goes back
+        assertTrue(allocator.resize(b, 90, 5));
+        assertEquals(15, allocator.getUsed());
+        assertEquals(b + 5, allocator.allocate(85));
+        assertTrue(allocator.resize(a, 10, 10));
+    }
+
+    @Test
+    public void testCompact() {
+        final ArenaAllocator allocator = new ArenaAllocator(100);
+        final int[] starts = new int[10];
+        for (int i = 0; i < starts.length; i++) {
+            starts[i] = allocator.allocate(10);
+        }
+        // Every other one goes, 5 holes of 10
+        for (int i = 0; i < starts.length; i += 2) {
+            allocator.free(starts[i], 10);
+        }
+        assertEquals(50, allocator.getFree());
+        assertEquals(10, allocator.getLargestFree());
+        assertEquals(0.8, allocator.getFragmentation(), 0.0001);
+        assertEquals(ArenaAllocator.NONE, allocator.allocate(11));
+
+        final int moves = allocator.compact();
+        assertEquals(5, moves);
+        for (int move = 0; move < moves; move++) {
+            assertEquals(starts[move * 2 + 1], allocator.getMoveFrom(move));
+            assertEquals(move * 10, allocator.getMoveTo(move));
+            assertEquals(10, allocator.getMoveLength(move));
+        }
+        for (int i = 1; i < starts.length; i += 2) {
+            assertEquals((i / 2) * 10, allocator.relocate(starts[i]));
+        }
+        assertThrows(RuntimeException.class, () -> allocator.relocate(starts[0]));
+        assertEquals(1, allocator.getFreeRangeCount());
+        assertEquals(50, allocator.getLargestFree());
+        assertEquals(0.0, allocator.getFragmentation());
+        assertEquals(50, allocator.allocate(50));
+
+        // Touching allocations move as one run, the one at the start doesn't move at all
+        final ArenaAllocator touching = new ArenaAllocator(100);
+        final int first = touching.allocate(10);
+        final int gap = touching.allocate(10);
+        final int second = touching.allocate(10);
+        final int third = touching.allocate(10);
+        touching.free(gap, 10);
+        assertEquals(2, touching.compact());
+        assertEquals(0, touching.relocate(first));
+        assertEquals(10, touching.relocate(second));
+        assertEquals(20, touching.relocate(third));
+
+        // Growing adds on to the free range at the end
+        touching.grow(200);
+        assertEquals(1, touching.getFreeRangeCount());
+        assertEquals(170, touching.getLargestFree());
+        assertThrows(RuntimeException.class, () -> touching.grow(200));
+    }
+
+    /**
+     * Random allocations, frees, resizes & compactions, checked against a plain array of which units are taken.
+     */
+    @Test
+    public void testRandomChurn() {
+        final Random random = new Random(2023);
+        final int capacity = 4096;
+        final ArenaAllocator allocator = new ArenaAllocator(capacity);
+        final int[] owner = new int[capacity];
+        final int[] starts = new int[200];
+        final int[] sizes = new int[200];
+
+        for (int round = 0; round < 20_000; round++) {
+            final int id = random.nextInt(starts.length);
+            if (sizes[id] == 0) {
+                final int size = 1 + random.nextInt(64);
+                final int start = allocator.allocate(size);
+                if (start == ArenaAllocator.NONE) {
+                    assertTrue(allocator.getLargestFree() < size);
+                    continue;
+                }
+                take(owner, start, size, id + 1);
+                starts[id] = start;
+                sizes[id] = size;
+            } else if (random.nextInt(3) == 0) {
+                final int newSize = 1 + random.nextInt(64);
+                if (allocator.resize(starts[id], sizes[id], newSize)) {
+                    give(owner, starts[id], sizes[id], id + 1);
+                    take(owner, starts[id], newSize, id + 1);
+                    sizes[id] = newSize;
+                }
+            } else {
+                allocator.free(starts[id], sizes[id]);
+                give(owner, starts[id], sizes[id], id + 1);
+                sizes[id] = 0;
+            }
+
+            if (round % 1000 == 999) {
+                final int moves = allocator.compact();
+                final int[] moved = new int[capacity];
+                for (int move = 0; move < moves; move++) {
+                    System.arraycopy(owner, allocator.getMoveFrom(move), moved, allocator.getMoveTo(move), allocator.getMoveLength(move));
+                }
+                for (int i = 0; i < starts.length; i++) {
+                    if (sizes[i] > 0) {
+                        starts[i] = allocator.relocate(starts[i]);
+                    }
+                }
+                System.arraycopy(moved, 0, owner, 0, capacity);
+                assertTrue(allocator.getFreeRangeCount() <= 1);
+            }
+
+            int used = 0;
+            for (int i = 0; i < starts.length; i++) {
+                if (sizes[i] > 0) {
+                    used += sizes[i];
+                    for (int unit = starts[i]; unit < starts[i] + sizes[i]; unit++) {
+                        assertEquals(i + 1, owner[unit]);
+                    }
+                }
+            }
+            assertEquals(used, allocator.getUsed());
+        }
+    }
+
+    /**
+     * Stock terrain stack meshes in an arena of quads, then remeshed over & over with a few quads more or less each time,
+     * like block edits do. Slots are reserved in steps of 32 quads, same as ChunkGeometryArena.
+     */
+    @Test
+    @Tag("benchmark")
+    public void benchmarkRemeshChurn() {
+        final int size = 8;
+        final Chunk[][] chunks = new Chunk[size][size];
+        for (int x = 0; x < size; x++) {
+            for (int z = 0; z < size; z++) {
+                chunks[x][z] = ChunkPaletteTest.generateStockTerrain(x, z);
+            }
+        }
+        final int[] quads = PackedChunkVertexTest.countStackQuads(new GreedyMesher(), chunks);
+
+        final int step = 32;
+        final int[] starts = new int[quads.length];
+        final int[] capacities = new int[quads.length];
+        int total = 0;
+        for (int quad : quads) {
+            total += quad;
+        }
+        final ArenaAllocator allocator = new ArenaAllocator(Math.max(total, 1));
+
+        final Random random = new Random(2023);
+        int inPlace = 0;
+        int moved = 0;
+        int compactions = 0;
+        long movedQuads = 0;
+        final int remeshes = 20_000;
+        final long startTime = System.nanoTime();
+        for (int i = -quads.length; i < remeshes; i++) {
+            // The first pass loads every stack, then random ones get edited
+            final int stack = i < 0 ? i + quads.length : random.nextInt(quads.length);
+            if (i >= 0 && quads[stack] > 0) {
+                quads[stack] = Math.max(1, quads[stack] + random.nextInt(11) - 5);
+            }
+            final int capacity = (quads[stack] + step - 1) / step * step;
+            if (capacity == 0) {
+                continue;
+            }
+            if (capacities[stack] > 0 && quads[stack] <= capacities[stack]) {
+                inPlace++;
+                continue;
+            }
+            if (capacities[stack] > 0 && allocator.resize(starts[stack], capacities[stack], capacity)) {
+                capacities[stack] = capacity;
+                inPlace++;
+                continue;
+            }
+            if (capacities[stack] > 0) {
+                allocator.free(starts[stack], capacities[stack]);
+                capacities[stack] = 0;
+                moved++;
+            }
+            int start = allocator.allocate(capacity);
+            if (start == ArenaAllocator.NONE) {
+                final long needed = (long) allocator.getUsed() + capacity;
+                final int moves = allocator.compact();
+                for (int move = 0; move < moves; move++) {
+                    movedQuads += allocator.getMoveLength(move);
+                }
+                if (needed * 4 > (long) allocator.getCapacity() * 3) {
+                    allocator.grow((int) Math.max(needed + (needed >> 1), allocator.getCapacity() + (allocator.getCapacity() >> 1)));
+                }
+                for (int other = 0; other < starts.length; other++) {
+                    if (capacities[other] > 0) {
+                        starts[other] = allocator.relocate(starts[other]);
+                    }
+                }
+                compactions++;
+                start = allocator.allocate(capacity);
+            }
+            assertNotEquals(ArenaAllocator.NONE, start);
+            starts[stack] = start;
+            capacities[stack] = capacity;
+        }
+        final long time = System.nanoTime() - startTime;
+        assertTrue(inPlace > moved);
+
+        int stacksDrawn = 0;
+        for (int quad : quads) {
+            stacksDrawn += quad > 0 ? 1 : 0;
+        }
+        System.out.println("ArenaAllocatorTest: 8x8 stock terrain, (" + remeshes + ") remeshes | in place (" + (inPlace * 100 / (inPlace + moved)) + "%) | moved (" + moved +
+                ") | compactions (" + compactions + ") copying (" + (movedQuads / 1024) + "K) quads | arena (" + allocator.getUsed() + "/" + allocator.getCapacity() +
+                ") quads used, fragmentation (" + (int) (allocator.getFragmentation() * 100) + "%) | (" + (time / (remeshes + quads.length)) + ") ns per allocator update");
+        System.out.println("ArenaAllocatorTest: GL objects per remesh: VAO & VBO created, old VAO & VBO deleted (4) -> arena (0) | draw calls for the whole map: (" + stacksDrawn +
+                ") stacks -> (" + (size * size) + ") chunks");
+    }
+
+    private static void take(final int[] owner, final int start, final int size, final int id) {
+        for (int unit = start; unit < start + size; unit++) {
+            assertEquals(0, owner[unit]);
+            owner[unit] = id;
+        }
+    }
+
+    private static void give(final int[] owner, final int start, final int size, final int id) {
+        for (int unit = start; unit < start + size; unit++) {
+            assertEquals(id, owner[unit]);
+            owner[unit] = 0;
+        }
+    }
+}
@@ -0,0 +1,233 @@
+/*
+ Crafter - A blocky game (engine) written in Java with LWJGL.
+ Copyright (C) 2023  jordan4ibanez
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.crafter_unit_tests;
+
+import com.sun.management.ThreadMXBean;
+import org.crafter.engine.utility.FloatArrayBuilder;
+import org.crafter.engine.utility.IntArrayBuilder;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ArrayBuilderTest {
+
+    // About what a grassy surface stack has: the whole top, plus the sides of a few hills
+    private static final int facesPerStack = 400;
+    private static final int stacks = 10_000;
+
+    @Test
+    public void testGrowAndReuse() {
+        final FloatArrayBuilder floats = new FloatArrayBuilder(2);
+        final IntArrayBuilder ints = new IntArrayBuilder(2);
+        for (int i = 0; i < 1000; i++) {
+            floats.add(i * 0.5f);
+            ints.add(-i);
+        }
+        assertEquals(1000, floats.size());
+        assertEquals(1000, ints.size());
+        assertEquals(499.5f, floats.get(999));
+        assertEquals(-999, ints.get(999));
+
+        final float[] floatArray = floats.toArray();
+        final int[] intArray = ints.toArray();
+        assertEquals(1000, floatArray.length);
+        assertEquals(1000, intArray.length);
+        assertEquals(250.0f, floatArray[500]);
+        assertEquals(-500, intArray[500]);
+
+        // Clearing keeps the memory, and what was handed out isn't touched by the next use
+        final int capacity = floats.getCapacity();
+        floats.clear();
+        ints.clear();
+        assertEquals(0, floats.size());
+        assertEquals(capacity, floats.getCapacity());
+        floats.add(7);
+        ints.add(7);
+        assertEquals(0.0f, floatArray[0]);
+        assertEquals(0, intArray[0]);
+        assertEquals(0, floats.toArray().length - 1);
+        assertThrows(RuntimeException.class, () -> floats.get(1));
+        assertThrows(RuntimeException.class, () -> ints.get(-1));
+    }
+
+    /**
+     * The reused primitive builders put out the same vertex data as the boxed lists did.
+     */
+    @Test
+    public void testSameOutputAsBoxed() {
+        assertEquals(buildBoxed(10), buildPrimitive(10));
+    }
+
+    /**
+     * Build the vertex data of many stacks the way the mesher did (boxed ArrayLists, unboxed into arrays one by one)
+     * and the way it does now (reused primitive builders, one copy out). Counts what this thread allocates & GC time.
+     */
+    @Test
+    @Tag("benchmark")
+    public void benchmarkStackAllocation() {
+        final ThreadMXBean threads = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+        final long threadID = Thread.currentThread().getId();
+
+        // Warm up both, so the JIT isn't in the numbers
+        buildBoxed(stacks / 10);
+        buildPrimitive(stacks / 10);
+
+        long gcTime = getGCTime();
+        long allocated = threads.getThreadAllocatedBytes(threadID);
+        long startTime = System.nanoTime();
+        final long boxedHash = buildBoxed(stacks);
+        final long boxedTime = System.nanoTime() - startTime;
+        final long boxedAllocated = threads.getThreadAllocatedBytes(threadID) - allocated;
+        final long boxedGC = getGCTime() - gcTime;
+
+        gcTime = getGCTime();
+        allocated = threads.getThreadAllocatedBytes(threadID);
+        startTime = System.nanoTime();
+        final long primitiveHash = buildPrimitive(stacks);
+        final long primitiveTime = System.nanoTime() - startTime;
+        final long primitiveAllocated = threads.getThreadAllocatedBytes(threadID) - allocated;
+        final long primitiveGC = getGCTime() - gcTime;
+
+        assertEquals(boxedHash, primitiveHash);
+
+        // The output arrays themselves: 12 positions, 8 texture coordinates, 16 colors & 6 indices a face
+        final long outputBytes = facesPerStack * (12 + 8 + 16 + 6) * 4L;
+        System.out.println("ArrayBuilderTest: (" + facesPerStack + ") faces per stack | output arrays (" + (outputBytes / 1024) + " KB) per stack");
+        System.out.println("ArrayBuilderTest: ArrayList<Float> | (" + (boxedAllocated / stacks / 1024) + " KB) allocated per stack | (" + (boxedTime / stacks / 1_000) + " us) per stack | GC (" + boxedGC + " ms) for (" + stacks + ") stacks");
+        System.out.println("ArrayBuilderTest: FloatArrayBuilder | (" + (primitiveAllocated / stacks / 1024) + " KB) allocated per stack | (" + (primitiveTime / stacks / 1_000) + " us) per stack | GC (" + primitiveGC + " ms) for (" + stacks + ") stacks");
+
+        // Only the output arrays are left, plus a little for their headers
+        assertTrue(primitiveAllocated / stacks < outputBytes + 1024);
+        assertTrue(primitiveAllocated < boxedAllocated);
+    }
+
+    private static long buildBoxed(final int stackCount) {
+        final ArrayList<Float> positions = new ArrayList<>();
+        final ArrayList<Float> textureCoordinates = new ArrayList<>();
+        final ArrayList<Integer> indices = new ArrayList<>();
+        final ArrayList<Float> colors = new ArrayList<>();
+        long hash = 0;
+        for (int stack = 0; stack < stackCount; stack++) {
+            for (int face = 0; face < facesPerStack; face++) {
+                final int x = face & 15;
+                final int z = (face >> 4) & 15;
+                for (int vertex = 0; vertex < 4; vertex++) {
+                    positions.add(x + (vertex & 1) * 1.00001f);
+                    positions.add((float) (stack & 127));
+                    positions.add(z + (vertex >> 1) * 1.00001f);
+                    textureCoordinates.add(0.25f * vertex);
+                    textureCoordinates.add(0.5f);
+                    colors.add(0.925f);
+                    colors.add(0.925f);
+                    colors.add(0.925f);
+                    colors.add(1.0f);
+                }
+                final int length = (indices.size() / 6) * 4;
+                indices.add(length);
+                indices.add(length + 1);
+                indices.add(length + 2);
+                indices.add(length + 2);
+                indices.add(length + 3);
+                indices.add(length);
+            }
+            final float[] positionArray = new float[positions.size()];
+            for (int i = 0; i < positionArray.length; i++) {
+                positionArray[i] = positions.get(i);
+            }
+            final float[] textureCoordinateArray = new float[textureCoordinates.size()];
+            for (int i = 0; i < textureCoordinateArray.length; i++) {
+                textureCoordinateArray[i] = textureCoordinates.get(i);
+            }
+            final int[] indexArray = new int[indices.size()];
+            for (int i = 0; i < indexArray.length; i++) {
+                indexArray[i] = indices.get(i);
+            }
+            final float[] colorArray = new float[colors.size()];
+            for (int i = 0; i < colorArray.length; i++) {
+                colorArray[i] = colors.get(i);
+            }
+            positions.clear();
+            textureCoordinates.clear();
+            indices.clear();
+            colors.clear();
+            hash = hash * 31 + hash(positionArray, textureCoordinateArray, indexArray, colorArray);
+        }
+        return hash;
+    }
+
+    private static long buildPrimitive(final int stackCount) {
+        final FloatArrayBuilder positions = new FloatArrayBuilder(4096);
+        final FloatArrayBuilder textureCoordinates = new FloatArrayBuilder(4096);
+        final IntArrayBuilder indices = new IntArrayBuilder(4096);
+        final FloatArrayBuilder colors = new FloatArrayBuilder(4096);
+        long hash = 0;
+        for (int stack = 0; stack < stackCount; stack++) {
+            for (int face = 0; face < facesPerStack; face++) {
+                final int x = face & 15;
+                final int z = (face >> 4) & 15;
+                for (int vertex = 0; vertex < 4; vertex++) {
+                    positions.add(x + (vertex & 1) * 1.00001f);
+                    positions.add((float) (stack & 127));
+                    positions.add(z + (vertex >> 1) * 1.00001f);
+                    textureCoordinates.add(0.25f * vertex);
+                    textureCoordinates.add(0.5f);
+                    colors.add(0.925f);
+                    colors.add(0.925f);
+                    colors.add(0.925f);
+                    colors.add(1.0f);
+                }
+                final int length = (indices.size() / 6) * 4;
+                indices.add(length);
+                indices.add(length + 1);
+                indices.add(length + 2);
+                indices.add(length + 2);
+                indices.add(length + 3);
+                indices.add(length);
+            }
+            final float[] positionArray = positions.toArray();
+            final float[] textureCoordinateArray = textureCoordinates.toArray();
+            final int[] indexArray = indices.toArray();
+            final float[] colorArray = colors.toArray();
+            positions.clear();
+            textureCoordinates.clear();
+            indices.clear();
+            colors.clear();
+            hash = hash * 31 + hash(positionArray, textureCoordinateArray, indexArray, colorArray);
+        }
+        return hash;
+    }
+
+    private static long hash(final float[] positions, final float[] textureCoordinates, final int[] indices, final float[] colors) {
+        // Cheap, just enough that both ways have to produce the same arrays & nothing gets optimized out
+        return Float.floatToIntBits(positions[positions.length - 1]) + Float.floatToIntBits(textureCoordinates[textureCoordinates.length - 2])
+                + indices[indices.length - 2] + Float.floatToIntBits(colors[colors.length - 1]) + positions.length;
+    }
+
+    private static long getGCTime() {
+        long time = 0;
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            time += Math.max(0, collector.getCollectionTime());
+        }
+        return time;
+    }
+}
@@ -0,0 +1,227 @@
+/*
+ Crafter - A blocky game (engine) written in Java with LWJGL.
+ Copyright (C) 2023  jordan4ibanez
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.crafter_unit_tests;
+
+import org.crafter.engine.utility.LatencyHistogram;
+import org.crafter.engine.world.biome.BiomeDefinition;
+import org.crafter.engine.world.chunk.Chunk;
+import org.crafter.engine.world.region.RegionStorage;
+import org.crafter.engine.world_generation.chunk_generation.ChunkGenerator;
+import org.crafter.engine.world_generation.chunk_generation.ChunkGeneratorWorker;
+import org.joml.Vector2i;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ChunkGeneratorPoolTest {
+
+    // The classic map, 32x32
+    private static final int mapSize = 16;
+
+    /**
+     * A small map with one and with three workers.
+     * Both have to hand the chunks out in the same order, with the same blocks, spawn first.
+     */
+    @Test
+    public void testWorkerPoolOrder() throws IOException, InterruptedException {
+        final Path folder = Files.createTempDirectory("crafter_generator_test");
+        RegionStorage.setWorldFolder(folder.toString());
+
+        final List<Vector2i> payload = new ArrayList<>();
+        for (int x = -3; x < 3; x++) {
+            for (int z = -3; z < 3; z++) {
+                payload.add(new Vector2i(x, z));
+            }
+        }
+
+        try {
+            final List<Chunk> single = generateMap(1, payload);
+            final List<Chunk> pool = generateMap(3, payload);
+
+            assertEquals(payload.size(), single.size());
+            assertEquals(payload.size(), pool.size());
+            assertEquals(0, single.get(0).getX());
+            assertEquals(0, single.get(0).getZ());
+            // Same blocks as the stock terrain pass
+            assertArrayEquals(ChunkPaletteTest.generateStockTerrain(0, 0).getData(), single.get(0).getData());
+
+            for (int i = 0; i < payload.size(); i++) {
+                assertEquals(single.get(i).getX(), pool.get(i).getX());
+                assertEquals(single.get(i).getZ(), pool.get(i).getZ());
+                assertArrayEquals(single.get(i).getData(), pool.get(i).getData());
+                assertFalse(pool.get(i).isDirty());
+            }
+        } finally {
+            RegionStorage.closeAll();
+            try (Stream<Path> paths = Files.walk(folder)) {
+                paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+            }
+        }
+    }
+
+    /**
+     * Generate the whole classic map headless with 1 to N workers.
+     * Every worker count has to hand the chunks out in the same order, with the same blocks.
+     */
+    @Test
+    @Tag("benchmark")
+    public void benchmarkWorkerPool() throws IOException, InterruptedException {
+        final Path folder = Files.createTempDirectory("crafter_generator_test");
+        RegionStorage.setWorldFolder(folder.toString());
+
+        final List<Vector2i> payload = new ArrayList<>();
+        for (int x = -mapSize; x < mapSize; x++) {
+            for (int z = -mapSize; z < mapSize; z++) {
+                payload.add(new Vector2i(x, z));
+            }
+        }
+
+        final int cores = Runtime.getRuntime().availableProcessors();
+        final int maxWorkers = Math.max(4, cores);
+
+        try {
+            // Warm up, so the first count measured isn't paying for the JIT
+            generateMap(2, payload.subList(0, 64));
+
+            long[] expectedOrder = null;
+            long expectedHash = 0;
+            double singleWorker = 0;
+
+            for (int workers = 1; workers <= maxWorkers; workers++) {
+                final long startTime = System.nanoTime();
+                final List<Chunk> chunks = generateMap(workers, payload);
+                final long time = System.nanoTime() - startTime;
+
+                assertEquals(payload.size(), chunks.size());
+
+                final long[] order = new long[chunks.size()];
+                long hash = 0;
+                for (int i = 0; i < chunks.size(); i++) {
+                    final Chunk chunk = chunks.get(i);
+                    order[i] = ((long) chunk.getX() << 32) | (chunk.getZ() & 0xFFFF_FFFFL);
+                    hash = hash * 31 + Arrays.hashCode(chunk.getData());
+                    assertFalse(chunk.isDirty());
+                }
+
+                if (expectedOrder == null) {
+                    expectedOrder = order;
+                    expectedHash = hash;
+                    // Spawn first
+                    assertEquals(0, chunks.get(0).getX());
+                    assertEquals(0, chunks.get(0).getZ());
+                    // Same blocks as the stock terrain pass
+                    assertArrayEquals(ChunkPaletteTest.generateStockTerrain(0, 0).getData(), chunks.get(0).getData());
+                } else {
+                    assertArrayEquals(expectedOrder, order);
+                    assertEquals(expectedHash, hash);
+                }
+
+                final double chunksPerSecond = chunks.size() / (time / 1_000_000_000.0);
+                if (workers == 1) {
+                    singleWorker = chunksPerSecond;
+                }
+                System.out.println("ChunkGeneratorPoolTest: (" + workers + ") workers | (" + (int) chunksPerSecond + ") chunks per second | (" + String.format("%.2f", chunksPerSecond / singleWorker) + "x) | (" + cores + ") cores");
+            }
+        } finally {
+            RegionStorage.closeAll();
+            try (Stream<Path> paths = Files.walk(folder)) {
+                paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+            }
+        }
+    }
+
+    /**
+     * Push one request at a time into an idle pool and time how long until the chunk comes out.
+     * Workers sleeping on a timer would put the idle wake up alone near 100 ms on average.
+     * Report only, the timings depend on the machine.
+     */
+    @Test
+    @Tag("benchmark")
+    public void benchmarkRequestLatency() throws IOException {
+        final Path folder = Files.createTempDirectory("crafter_latency_test");
+        RegionStorage.setWorldFolder(folder.toString());
+
+        final ChunkGeneratorWorker[] workers = new ChunkGeneratorWorker[2];
+        for (int i = 0; i < workers.length; i++) {
+            workers[i] = new ChunkGeneratorWorker(new BiomeDefinition("classic"), 1, 2, 3);
+        }
+        final LatencyHistogram latency = new LatencyHistogram();
+
+        ChunkGenerator.start(workers);
+        try {
+            for (int i = 0; i < 200; i++) {
+                // Far apart, so the chunks don't get warm from each other
+                final long startTime = System.nanoTime();
+                ChunkGenerator.pushRequest(new Vector2i(i * 3, -i * 3));
+                while (!ChunkGenerator.hasUpdate()) {
+                    // Gives the core back to the workers, a 1 ms sleep would blur what is measured
+                    Thread.yield();
+                }
+                final long time = System.nanoTime() - startTime;
+                ChunkGenerator.getUpdate();
+                // The first few pay for the JIT
+                if (i >= 20) {
+                    latency.record(time);
+                }
+            }
+        } finally {
+            ChunkGenerator.stop();
+            RegionStorage.closeAll();
+            try (Stream<Path> paths = Files.walk(folder)) {
+                paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+            }
+        }
+
+        System.out.println(latency.report("ChunkGeneratorPoolTest: Request to chunk latency"));
+        assertEquals(180, latency.getCount());
+    }
+
+    private static List<Chunk> generateMap(final int workerCount, final List<Vector2i> payload) throws InterruptedException {
+        final ChunkGeneratorWorker[] workers = new ChunkGeneratorWorker[workerCount];
+        for (int i = 0; i < workerCount; i++) {
+            // Same IDs the stock terrain uses: grass 1, dirt 2, stone 3
+            workers[i] = new ChunkGeneratorWorker(new BiomeDefinition("classic"), 1, 2, 3);
+        }
+        ChunkGenerator.start(workers);
+        final List<Chunk> chunks = new ArrayList<>();
+        try {
+            ChunkGenerator.pushRequests(payload);
+            while (chunks.size() < payload.size()) {
+                if (ChunkGenerator.hasUpdate()) {
+                    chunks.add(ChunkGenerator.getUpdate());
+                } else {
+                    // Like the main thread, only checks in once a frame-ish. Spinning would take a core from the workers
+                    Thread.sleep(1);
+                }
+            }
+        } finally {
+            ChunkGenerator.stop();
+        }
+        return chunks;
+    }
+}
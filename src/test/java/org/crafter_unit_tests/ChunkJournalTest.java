@@ -0,0 +1,258 @@
+/*
+ Crafter - A blocky game (engine) written in Java with LWJGL.
+ Copyright (C) 2023  jordan4ibanez
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.crafter_unit_tests;
+
+import org.crafter.engine.world.chunk.*;
+import org.crafter.engine.world.region.ChunkCodec;
+import org.crafter.engine.world.region.RegionStorage;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ChunkJournalTest {
+
+    // Far away from anything other tests put into ChunkStorage
+    private static final int offset = 30_000;
+
+    @Test
+    public void testJournalRecording() {
+        Chunk chunk = ChunkPaletteTest.generateStockTerrain(0, 0);
+        // Generating writes every block, way past the limit
+        assertTrue(chunk.getJournal().isOverflowed());
+
+        chunk.markSaved(chunk.getVersion());
+        assertFalse(chunk.getJournal().isOverflowed());
+        assertTrue(chunk.getJournal().isEmpty());
+
+        final int original = chunk.getBlockData(100);
+        chunk.setBlockData(100, 7);
+        chunk.setBlockData(100, 8);
+        chunk.setBlockData(200, chunk.getBlockData(200));
+        // No-op writes are not changes
+        assertEquals(2, chunk.getJournal().size());
+        assertEquals(original, chunk.getJournal().getOldValue(0));
+        assertEquals(8, chunk.getJournal().getNewValue(1));
+
+        // The snapshot takes the journal, the live chunk starts over
+        Chunk snapshot = chunk.snapshotIfDirty();
+        assertEquals(2, snapshot.getJournal().size());
+        assertTrue(chunk.getJournal().isEmpty());
+
+        // Recording compacts down to one entry per block, first old & last new
+        chunk.startRecording();
+        for (int i = 0; i < 10; i++) {
+            chunk.setBlockData(300, 50 + i);
+            chunk.setBlockData(301, 50 + i);
+        }
+        chunk.setBlockData(301, chunk.getJournal().getOldValue(1));
+        ChunkJournal recording = chunk.stopRecording();
+        assertEquals(1, recording.size());
+        assertEquals(300, recording.getIndex(0));
+        assertEquals(59, recording.getNewValue(0));
+
+        // A full chunk edit records fine, nothing is lost to overflow
+        chunk.startRecording();
+        for (int i = 0; i < Chunk.getArraySize(); i++) {
+            chunk.setBlockData(i, chunk.getBlockData(i) + 1);
+        }
+        assertEquals(Chunk.getArraySize(), chunk.stopRecording().size());
+        // The save journal gave up on it though
+        assertTrue(chunk.getJournal().isOverflowed());
+    }
+
+    @Test
+    public void testIncrementalSave() throws IOException {
+        final Path folder = Files.createTempDirectory("crafter_journal_test");
+        RegionStorage.setWorldFolder(folder.toString());
+
+        try {
+            RegionStorage.saveChunk(ChunkPaletteTest.generateStockTerrain(3, 4));
+            // Loaded chunks are saved, the journal is empty
+            Chunk live = RegionStorage.loadChunk(3, 4);
+            assertFalse(live.isDirty());
+            final long fullBytes = RegionStorage.getUsedBytes();
+
+            Random random = new Random(5);
+            long appendedBytes = 0;
+            int appends = 0;
+            for (int round = 0; round < 200; round++) {
+                for (int i = 0; i < 20; i++) {
+                    live.setBlockData(random.nextInt(Chunk.getArraySize()), Chunk.setBlockID(0, random.nextInt(4)));
+                }
+                Chunk snapshot = live.snapshotIfDirty();
+                if (!snapshot.getJournal().isOverflowed()) {
+                    appendedBytes += ChunkCodec.encodeChanges(snapshot.getJournal()).length;
+                    appends++;
+                }
+                RegionStorage.saveChanges(snapshot);
+                assertArrayEquals(live.getData(), RegionStorage.loadChunk(3, 4).getData());
+            }
+            // Changes went in place, then the chunk got rewritten when they outgrew its sectors
+            assertTrue(RegionStorage.getUsedBytes() >= fullBytes);
+            assertEquals(200, appends);
+
+            RegionStorage.closeAll();
+            assertArrayEquals(live.getData(), RegionStorage.loadChunk(3, 4).getData());
+
+            System.out.println("ChunkJournalTest: 20 block edits | full chunk write: " + ChunkCodec.encode(live).length +
+                    " bytes | incremental write: " + (appendedBytes / appends) + " bytes");
+        } finally {
+            RegionStorage.closeAll();
+            try (Stream<Path> paths = Files.walk(folder)) {
+                paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+            }
+        }
+    }
+
+    @Test
+    public void testUndoRedo() {
+        BlockEditHistory.clear();
+        final int size = 3;
+        for (int x = 0; x < size; x++) {
+            for (int z = 0; z < size; z++) {
+                if (!ChunkStorage.hasChunk(x + offset, z + offset)) {
+                    ChunkStorage.addOrUpdate(ChunkPaletteTest.generateStockTerrain(x + offset, z + offset));
+                }
+            }
+        }
+        final int[][] before = snapshotArea(size);
+
+        // A big manipulator style edit, a 40x60x40 box of block 9 spread over 9 chunks
+        final BlockEdit edit = fillBox(size, 9);
+        assertTrue(edit.getEntries() > 0);
+        BlockEditHistory.push(edit);
+        final int[][] after = snapshotArea(size);
+
+        assertEquals(BlockEditResult.APPLIED, BlockEditHistory.undo());
+        assertAreaEquals(before, size);
+        assertEquals(BlockEditResult.NOTHING, BlockEditHistory.undo());
+
+        assertEquals(BlockEditResult.APPLIED, BlockEditHistory.redo());
+        assertAreaEquals(after, size);
+        assertEquals(BlockEditResult.NOTHING, BlockEditHistory.redo());
+
+        // Only the touched stacks need a new mesh
+        assertNotEquals(0, edit.getStacksTouched(0));
+        assertEquals(0, edit.getStacksTouched(0) & 1);
+
+        // Bounded, the oldest edits fall off
+        for (int i = 0; i < 40; i++) {
+            BlockEditHistory.push(fillBox(size, 10 + i));
+        }
+        assertTrue(BlockEditHistory.getUndoCount() < 40);
+        int undone = 0;
+        while (BlockEditHistory.undo() == BlockEditResult.APPLIED) {
+            undone++;
+        }
+        assertEquals(BlockEditHistory.getRedoCount(), undone);
+        BlockEditHistory.clear();
+        assertEquals(0, BlockEditHistory.getStoredEntries());
+    }
+
+    @Test
+    public void testUndoRefused() {
+        BlockEditHistory.clear();
+        final int size = 3;
+        for (int x = 0; x < size; x++) {
+            for (int z = 0; z < size; z++) {
+                if (!ChunkStorage.hasChunk(x + offset, z + offset)) {
+                    ChunkStorage.addOrUpdate(ChunkPaletteTest.generateStockTerrain(x + offset, z + offset));
+                }
+            }
+        }
+
+        // A chunk of the edit is unloaded, nothing is written and the edit waits for it
+        BlockEditHistory.push(fillBox(size, 11));
+        final int[][] after = snapshotArea(size);
+        final Chunk unloaded = ChunkStorage.getChunk(offset + 2, offset + 2);
+        ChunkStorage.removeChunk(offset + 2, offset + 2);
+        assertEquals(BlockEditResult.CHUNK_NOT_LOADED, BlockEditHistory.undo());
+        ChunkStorage.addOrUpdate(unloaded);
+        assertAreaEquals(after, size);
+        assertEquals(1, BlockEditHistory.getUndoCount());
+        assertEquals(BlockEditResult.APPLIED, BlockEditHistory.undo());
+        assertEquals(BlockEditResult.APPLIED, BlockEditHistory.redo());
+
+        // A script or player changed a block of the edit since, undoing would overwrite it
+        final Chunk changed = ChunkStorage.getChunk(offset + 1, offset + 1);
+        changed.setBlockData(5, 50, 5, Chunk.setBlockID(0, 3));
+        final int[][] changedArea = snapshotArea(size);
+        assertEquals(BlockEditResult.CHANGED_SINCE, BlockEditHistory.undo());
+        assertAreaEquals(changedArea, size);
+        assertEquals(0, BlockEditHistory.getUndoCount());
+        assertEquals(0, BlockEditHistory.getStoredEntries());
+
+        // Same for redo, the block it would write over was changed after the undo
+        BlockEditHistory.push(fillBox(size, 12));
+        assertEquals(BlockEditResult.APPLIED, BlockEditHistory.undo());
+        changed.setBlockData(6, 50, 6, Chunk.setBlockID(0, 3));
+        final int[][] undoneArea = snapshotArea(size);
+        assertEquals(BlockEditResult.CHANGED_SINCE, BlockEditHistory.redo());
+        assertAreaEquals(undoneArea, size);
+        assertEquals(0, BlockEditHistory.getRedoCount());
+        BlockEditHistory.clear();
+    }
+
+    private BlockEdit fillBox(final int size, final int id) {
+        final long[] positions = new long[size * size];
+        final ChunkJournal[] journals = new ChunkJournal[size * size];
+        int i = 0;
+        for (int chunkX = 0; chunkX < size; chunkX++) {
+            for (int chunkZ = 0; chunkZ < size; chunkZ++) {
+                final Chunk chunk = ChunkStorage.getChunk(chunkX + offset, chunkZ + offset);
+                chunk.startRecording();
+                for (int y = 40; y < 100; y++) {
+                    for (int x = 4; x < Chunk.getWidth(); x++) {
+                        for (int z = 4; z < Chunk.getDepth(); z++) {
+                            chunk.setBlockData(x, y, z, Chunk.setBlockID(0, id));
+                        }
+                    }
+                }
+                positions[i] = ChunkMap.packPosition(chunkX + offset, chunkZ + offset);
+                journals[i] = chunk.stopRecording();
+                i++;
+            }
+        }
+        return new BlockEdit(positions, journals);
+    }
+
+    private int[][] snapshotArea(final int size) {
+        final int[][] data = new int[size * size][];
+        for (int x = 0; x < size; x++) {
+            for (int z = 0; z < size; z++) {
+                data[x * size + z] = ChunkStorage.getChunk(x + offset, z + offset).getData();
+            }
+        }
+        return data;
+    }
+
+    private void assertAreaEquals(final int[][] expected, final int size) {
+        for (int x = 0; x < size; x++) {
+            for (int z = 0; z < size; z++) {
+                assertArrayEquals(expected[x * size + z], ChunkStorage.getChunk(x + offset, z + offset).getData());
+            }
+        }
+    }
+}
@@ -0,0 +1,247 @@
+/*
+ Crafter - A blocky game (engine) written in Java with LWJGL.
+ Copyright (C) 2023  jordan4ibanez
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.crafter_unit_tests;
+
+import org.crafter.engine.world.biome.BiomeDefinition;
+import org.crafter.engine.world.chunk.Chunk;
+import org.crafter.engine.world.chunk.ChunkLifecycle;
+import org.crafter.engine.world.chunk.ChunkStorage;
+import org.crafter.engine.world.region.RegionStorage;
+import org.crafter.engine.world.region.WorldSaver;
+import org.crafter.engine.world_generation.chunk_generation.ChunkGeneratorWorker;
+import org.joml.Vector3f;
+import org.joml.Vector3i;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ChunkLifecycleTest {
+
+    // Far away from anything other tests put into ChunkStorage
+    private static final int size = 16;
+    private static final int offset = 40_000;
+
+    @Test
+    public void testBudgetEviction() throws IOException {
+        final Path folder = Files.createTempDirectory("crafter_lifecycle_test");
+        RegionStorage.setWorldFolder(folder.toString());
+
+        final long oldHeapBudget = ChunkLifecycle.getHeapBudget();
+        final int oldKeepRadius = ChunkLifecycle.getKeepRadius();
+        // No mesher running
+        ChunkLifecycle.setRemeshHandler(stack -> {});
+
+        try {
+            // Chunks other tests left behind are anchored in place, so only ours can go
+            final List<Vector3f> anchors = new ArrayList<>();
+            ChunkStorage.forEachChunk(chunk -> anchors.add(new Vector3f(chunk.getX() * Chunk.getWidth(), 0, chunk.getZ() * Chunk.getDepth())));
+
+            for (int x = 0; x < size; x++) {
+                for (int z = 0; z < size; z++) {
+                    Chunk chunk = ChunkPaletteTest.generateStockTerrain(x + offset, z + offset);
+                    // Pristine, like the generator hands them over
+                    chunk.markSaved(chunk.getVersion());
+                    ChunkStorage.addOrUpdate(chunk);
+                }
+            }
+            // One edited chunk far away from the player, it has to be saved on the way out
+            final Chunk edited = ChunkStorage.getChunk(offset + size - 1, offset + size - 1);
+            edited.setBlockData(1, 100, 1, Chunk.setBlockID(0, 6));
+            final int[] editedData = edited.getData();
+
+            // The "player" stands in chunk (offset, offset)
+            anchors.add(new Vector3f(offset * Chunk.getWidth() + 3, 70, offset * Chunk.getDepth() + 3));
+
+            long heap = 0;
+            for (int x = 0; x < size; x++) {
+                for (int z = 0; z < size; z++) {
+                    heap += ChunkStorage.getChunk(x + offset, z + offset).getMemoryUsage();
+                }
+            }
+
+            // Under budget, nothing happens
+            ChunkLifecycle.setHeapBudget(Long.MAX_VALUE);
+            assertEquals(0, ChunkLifecycle.enforceBudgets(anchors));
+
+            // Everything else loaded stays, so a budget of that plus half of ours needs about half of ours gone
+            ChunkLifecycle.setHeapBudget(Long.MAX_VALUE);
+            ChunkLifecycle.enforceBudgets(anchors);
+            final long others = ChunkLifecycle.getHeapUsage() - heap;
+            ChunkLifecycle.setHeapBudget(others + heap / 2);
+            ChunkLifecycle.setKeepRadius(2);
+
+            WorldSaver.start();
+            final int unloaded = ChunkLifecycle.enforceBudgets(anchors);
+            WorldSaver.flush();
+
+            assertTrue(unloaded >= size * size / 2);
+            assertTrue(ChunkLifecycle.getHeapUsage() <= ChunkLifecycle.getHeapBudget());
+
+            // The keep radius stays, and nothing kept is farther away than something unloaded
+            int farthestKept = 0;
+            int nearestUnloaded = Integer.MAX_VALUE;
+            for (int x = 0; x < size; x++) {
+                for (int z = 0; z < size; z++) {
+                    if (x <= 2 && z <= 2) {
+                        assertTrue(ChunkStorage.hasChunk(x + offset, z + offset));
+                    }
+                    if (ChunkStorage.hasChunk(x + offset, z + offset)) {
+                        farthestKept = Math.max(farthestKept, x * x + z * z);
+                    } else {
+                        nearestUnloaded = Math.min(nearestUnloaded, x * x + z * z);
+                    }
+                }
+            }
+            assertTrue(farthestKept <= nearestUnloaded);
+            assertFalse(ChunkStorage.hasChunk(offset + size - 1, offset + size - 1));
+            assertFalse(ChunkStorage.hasChunk(offset + size - 1, offset));
+
+            // Only the edited one was written, the pristine ones are regenerated
+            assertArrayEquals(editedData, RegionStorage.loadChunk(offset + size - 1, offset + size - 1).getData());
+            assertFalse(RegionStorage.hasChunk(offset + size - 2, offset + size - 1));
+        } finally {
+            ChunkLifecycle.resetRemeshHandler();
+            ChunkLifecycle.setHeapBudget(oldHeapBudget);
+            ChunkLifecycle.setKeepRadius(oldKeepRadius);
+            for (int x = 0; x < size; x++) {
+                for (int z = 0; z < size; z++) {
+                    ChunkStorage.removeChunk(x + offset, z + offset);
+                }
+            }
+            RegionStorage.closeAll();
+            try (Stream<Path> paths = Files.walk(folder)) {
+                paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+            }
+        }
+    }
+
+    @Test
+    public void testUnloadRemeshesNeighbors() {
+        final int x = offset + size * 2;
+        final int z = offset + size * 2;
+        final boolean oldSaveOnUnload = ChunkLifecycle.getSaveOnUnload();
+        final List<Vector3i> remeshed = new ArrayList<>();
+        ChunkLifecycle.setRemeshHandler(stack -> remeshed.add(new Vector3i(stack)));
+        // ID 1 is opaque, ID 2 is not
+        ChunkLifecycle.setOpaqueTable(new boolean[]{false, true, false});
+        ChunkLifecycle.setSaveOnUnload(false);
+
+        try {
+            final int stackHeight = Chunk.getStackHeight();
+            final Chunk removed = new Chunk(x, z);
+            // Covers its right neighbor's wall in stacks 0 & 2, and its back neighbor's wall in stack 1
+            removed.setBlockData(Chunk.getWidth() - 1, 3, 4, Chunk.setBlockID(0, 1));
+            removed.setBlockData(Chunk.getWidth() - 1, stackHeight * 2 + 3, 4, Chunk.setBlockID(0, 1));
+            removed.setBlockData(7, stackHeight + 3, Chunk.getDepth() - 1, Chunk.setBlockID(0, 1));
+            ChunkStorage.addOrUpdate(removed);
+
+            final Chunk right = new Chunk(x + 1, z);
+            right.setBlockData(0, 3, 4, Chunk.setBlockID(0, 1));
+            // Was facing air already
+            right.setBlockData(0, stackHeight * 3 + 3, 4, Chunk.setBlockID(0, 1));
+            // Not opaque, has no face to uncover
+            right.setBlockData(0, stackHeight * 2 + 3, 4, Chunk.setBlockID(0, 2));
+            ChunkStorage.addOrUpdate(right);
+
+            final Chunk back = new Chunk(x, z + 1);
+            back.setBlockData(7, stackHeight + 3, 0, Chunk.setBlockID(0, 1));
+            ChunkStorage.addOrUpdate(back);
+
+            // Left neighbor is not loaded, front neighbor has nothing on its wall
+            ChunkStorage.addOrUpdate(new Chunk(x, z - 1));
+
+            assertTrue(ChunkLifecycle.unload(removed));
+            assertFalse(ChunkStorage.hasChunk(x, z));
+
+            assertEquals(2, remeshed.size());
+            assertTrue(remeshed.contains(new Vector3i(x + 1, 0, z)));
+            assertTrue(remeshed.contains(new Vector3i(x, 1, z + 1)));
+        } finally {
+            ChunkLifecycle.resetRemeshHandler();
+            ChunkLifecycle.setOpaqueTable(null);
+            ChunkLifecycle.setSaveOnUnload(oldSaveOnUnload);
+            ChunkStorage.removeChunk(x, z);
+            ChunkStorage.removeChunk(x + 1, z);
+            ChunkStorage.removeChunk(x, z + 1);
+            ChunkStorage.removeChunk(x, z - 1);
+        }
+    }
+
+    /**
+     * Unload an edited chunk and load it again before the WorldSaver wrote it, twice over.
+     * Every reload has to come back with the edits, and the disk has to end up with all of them.
+     */
+    @Test
+    public void testReloadBeforeSaveLanded() throws IOException {
+        final Path folder = Files.createTempDirectory("crafter_lifecycle_test");
+        RegionStorage.setWorldFolder(folder.toString());
+        final int x = offset - size;
+        final int z = offset - size;
+        final boolean oldSaveOnUnload = ChunkLifecycle.getSaveOnUnload();
+        ChunkLifecycle.setRemeshHandler(stack -> {});
+        ChunkLifecycle.setSaveOnUnload(true);
+        final ChunkGeneratorWorker generator = new ChunkGeneratorWorker(new BiomeDefinition("classic"), 1, 2, 3);
+
+        try {
+            WorldSaver.start();
+            final int[] expected;
+            // The writer needs this lock to get at a region file, holding it keeps both saves queued
+            synchronized (RegionStorage.class) {
+                final Chunk first = generator.generate(x, z);
+                ChunkStorage.addOrUpdate(first);
+                first.setBlockData(1, 100, 1, Chunk.setBlockID(0, 6));
+                assertTrue(ChunkLifecycle.unload(first));
+                assertNotNull(WorldSaver.getPendingSave(x, z));
+
+                final Chunk second = generator.generate(x, z);
+                assertArrayEquals(first.getData(), second.getData());
+                assertFalse(second.isDirty());
+                ChunkStorage.addOrUpdate(second);
+                second.setBlockData(2, 101, 2, Chunk.setBlockID(0, 7));
+                assertTrue(ChunkLifecycle.unload(second));
+
+                final Chunk third = generator.generate(x, z);
+                assertArrayEquals(second.getData(), third.getData());
+                assertEquals(6, Chunk.getBlockID(third.getBlockData(1, 100, 1)));
+                assertEquals(7, Chunk.getBlockID(third.getBlockData(2, 101, 2)));
+                expected = third.getData();
+            }
+            WorldSaver.flush();
+
+            assertNull(WorldSaver.getPendingSave(x, z));
+            assertArrayEquals(expected, RegionStorage.loadChunk(x, z).getData());
+            assertArrayEquals(expected, generator.generate(x, z).getData());
+        } finally {
+            ChunkLifecycle.resetRemeshHandler();
+            ChunkLifecycle.setSaveOnUnload(oldSaveOnUnload);
+            ChunkStorage.removeChunk(x, z);
+            RegionStorage.closeAll();
+            try (Stream<Path> paths = Files.walk(folder)) {
+                paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+            }
+        }
+    }
+}
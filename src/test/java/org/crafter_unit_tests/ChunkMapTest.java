@@ -0,0 +1,215 @@
+/*
+ Crafter - A blocky game (engine) written in Java with LWJGL.
+ Copyright (C) 2023  jordan4ibanez
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.crafter_unit_tests;
+
+import org.crafter.engine.world.chunk.Chunk;
+import org.crafter.engine.world.chunk.ChunkMap;
+import org.joml.Vector2i;
+import org.joml.Vector2ic;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.IntConsumer;
+import java.util.function.LongPredicate;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ChunkMapTest {
+
+    // Chunks are big, keep the working set small
+    private static final int radius = 8;
+    private static final long benchmarkMilliseconds = 250;
+
+    @Test
+    public void testPacking() {
+        final int[] values = new int[]{0, 1, -1, 15, -16, Integer.MAX_VALUE, Integer.MIN_VALUE};
+        for (int x : values) {
+            for (int z : values) {
+                final long key = ChunkMap.packPosition(x, z);
+                assertEquals(x, ChunkMap.unpackX(key));
+                assertEquals(z, ChunkMap.unpackZ(key));
+            }
+        }
+        // Negative Z must not bleed into X
+        assertNotEquals(ChunkMap.packPosition(0, -1), ChunkMap.packPosition(-1, -1));
+    }
+
+    @Test
+    public void testPutGetRemove() {
+        ChunkMap map = new ChunkMap();
+
+        for (int x = -radius; x < radius; x++) {
+            for (int z = -radius; z < radius; z++) {
+                assertNull(map.put(new Chunk(x, z)));
+            }
+        }
+        // This is well past every segment's initial capacity
+        assertEquals(radius * radius * 4, map.size());
+
+        for (int x = -radius; x < radius; x++) {
+            for (int z = -radius; z < radius; z++) {
+                Chunk chunk = map.get(x, z);
+                assertNotNull(chunk);
+                assertEquals(x, chunk.getX());
+                assertEquals(z, chunk.getZ());
+            }
+        }
+
+        assertFalse(map.contains(radius, radius));
+
+        // putIfAbsent keeps the original
+        Chunk original = map.get(0, 0);
+        assertSame(original, map.putIfAbsent(new Chunk(0, 0)));
+        assertSame(original, map.get(0, 0));
+
+        // put replaces it
+        Chunk replacement = new Chunk(0, 0);
+        assertSame(original, map.put(replacement));
+        assertSame(replacement, map.get(0, 0));
+
+        // Removing leaves a tombstone, the slot must be reusable and lookups must probe past it
+        for (int i = 0; i < 10; i++) {
+            assertNotNull(map.remove(0, 0));
+            assertFalse(map.contains(0, 0));
+            assertNull(map.remove(0, 0));
+            assertNull(map.putIfAbsent(new Chunk(0, 0)));
+            assertTrue(map.contains(0, 0));
+        }
+        assertEquals(radius * radius * 4, map.size());
+
+        final int[] counter = new int[]{0};
+        map.forEach(chunk -> counter[0]++);
+        assertEquals(map.size(), counter[0]);
+    }
+
+    /**
+     * Not a pass/fail test. Prints reader throughput for the ChunkMap against the old synchronized HashMap
+     * with 1, 4 and 8 readers while 1 writer keeps unloading and reloading chunks.
+     */
+    @Test
+    @Tag("benchmark")
+    public void benchmarkContention() throws InterruptedException {
+        final Chunk[] chunks = new Chunk[radius * radius * 4];
+        int index = 0;
+        for (int x = -radius; x < radius; x++) {
+            for (int z = -radius; z < radius; z++) {
+                chunks[index++] = new Chunk(x, z);
+            }
+        }
+
+        for (int readers : new int[]{1, 4, 8}) {
+            final long chunkMapReads = runChunkMap(chunks, readers);
+            final long hashMapReads = runHashMap(chunks, readers);
+            System.out.println("ChunkMapTest: " + readers + " reader(s) + 1 writer | ChunkMap: " +
+                    (chunkMapReads / benchmarkMilliseconds) + " reads/ms | synchronized HashMap: " +
+                    (hashMapReads / benchmarkMilliseconds) + " reads/ms");
+            assertTrue(chunkMapReads > 0);
+        }
+    }
+
+    private long runChunkMap(final Chunk[] chunks, final int readers) throws InterruptedException {
+        final ChunkMap map = new ChunkMap();
+        for (Chunk chunk : chunks) {
+            map.put(chunk);
+        }
+        return runBenchmark(readers,
+                key -> map.get(key) != null,
+                i -> {
+                    Chunk chunk = chunks[i];
+                    map.remove(chunk.getX(), chunk.getZ());
+                    map.put(chunk);
+                });
+    }
+
+    private long runHashMap(final Chunk[] chunks, final int readers) throws InterruptedException {
+        final HashMap<Vector2ic, Chunk> map = new HashMap<>();
+        for (Chunk chunk : chunks) {
+            map.put(chunk.getPosition(), chunk);
+        }
+        return runBenchmark(readers,
+                key -> {
+                    synchronized (map) {
+                        return map.get(new Vector2i(ChunkMap.unpackX(key), ChunkMap.unpackZ(key))) != null;
+                    }
+                },
+                i -> {
+                    Chunk chunk = chunks[i];
+                    synchronized (map) {
+                        map.remove(chunk.getPosition());
+                        map.put(chunk.getPosition(), chunk);
+                    }
+                });
+    }
+
+    private long runBenchmark(final int readers, final LongPredicate read, final IntConsumer write) throws InterruptedException {
+        final AtomicBoolean running = new AtomicBoolean(true);
+        final AtomicLong totalReads = new AtomicLong();
+        final CountDownLatch start = new CountDownLatch(1);
+        final Thread[] threads = new Thread[readers + 1];
+
+        for (int i = 0; i < readers; i++) {
+            final int seed = i;
+            threads[i] = new Thread(() -> {
+                awaitStart(start);
+                long reads = 0;
+                int x = seed;
+                int z = seed * 3;
+                while (running.get()) {
+                    read.test(ChunkMap.packPosition((x & (radius * 2 - 1)) - radius, (z & (radius * 2 - 1)) - radius));
+                    x += 1;
+                    z += 7;
+                    reads++;
+                }
+                totalReads.addAndGet(reads);
+            });
+        }
+
+        threads[readers] = new Thread(() -> {
+            awaitStart(start);
+            int i = 0;
+            final int count = radius * radius * 4;
+            while (running.get()) {
+                write.accept(i);
+                i = (i + 1) % count;
+            }
+        });
+
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        start.countDown();
+        Thread.sleep(benchmarkMilliseconds);
+        running.set(false);
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        return totalReads.get();
+    }
+
+    private static void awaitStart(CountDownLatch start) {
+        try {
+            start.await();
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
@@ -0,0 +1,247 @@
+/*
+ Crafter - A blocky game (engine) written in Java with LWJGL.
+ Copyright (C) 2023  jordan4ibanez
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.crafter_unit_tests;
+
+import org.crafter.engine.texture.WorldAtlas;
+import org.crafter.engine.texture.texture_packer.TexturePacker;
+import org.crafter.engine.utility.LatencyHistogram;
+import org.crafter.engine.world.block.BlockDefinition;
+import org.crafter.engine.world.block.BlockDefinitionContainer;
+import org.crafter.engine.world.block.DrawType;
+import org.crafter.engine.world.chunk.Chunk;
+import org.crafter.engine.world.chunk.ChunkStorage;
+import org.crafter.engine.world_generation.chunk_mesh_generation.ChunkMeshGenerator;
+import org.crafter.engine.world_generation.chunk_mesh_generation.ChunkMeshRecord;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Runs the real mesher pool headless. The world atlas is packed but never uploaded, so no window or GL context is needed.
+ */
+public class ChunkMeshGeneratorTest {
+
+    private static final int size = 12;
+    private static final int offset = 50_000;
+
+    private static boolean blocksRegistered = false;
+
+    /**
+     * Mesh a 12x12 chunk map with 1 up to N workers and time how long until every stack came out, median of 5 runs.
+     * N is the core count, at least 4. Report only, the timings depend on the machine.
+     */
+    @Test
+    @Tag("benchmark")
+    public void benchmarkWorkerScaling() throws InterruptedException {
+        registerStockBlocks();
+        loadMap();
+        try {
+            final int maxWorkers = Math.max(4, Runtime.getRuntime().availableProcessors());
+            final StringBuilder report = new StringBuilder("ChunkMeshGeneratorTest: " + (size * size * Chunk.getStacks()) +
+                    " stacks, (" + Runtime.getRuntime().availableProcessors() + ") cores");
+
+            // The first passes pay for the JIT
+            for (int i = 0; i < 10; i++) {
+                meshMap(1);
+            }
+            for (int workers = 1; workers <= maxWorkers; workers++) {
+                final long[] times = new long[5];
+                for (int i = 0; i < times.length; i++) {
+                    times[i] = meshMap(workers);
+                }
+                Arrays.sort(times);
+                final long time = times[times.length / 2];
+                final long stacksPerSecond = (long) size * size * Chunk.getStacks() * 1_000_000_000L / time;
+                report.append("\n  (").append(workers).append(") workers: whole map visible in (").append(time / 1_000_000)
+                        .append(" ms) | (").append(stacksPerSecond).append(") stacks per second");
+            }
+            System.out.println(report);
+        } finally {
+            removeMap();
+        }
+    }
+
+    /**
+     * Single block edits through ChunkStorage.setBlockID, timed until meshLanded() like the main loop applies them
+     * once a 60 fps frame. Once with the pool idle, once with the whole map pushed again before every edit.
+     * Report only, the timings depend on the machine.
+     */
+    @Test
+    @Tag("benchmark")
+    public void benchmarkEditLatency() throws InterruptedException {
+        registerStockBlocks();
+        loadMap();
+        ChunkMeshGenerator.start();
+        try {
+            pushMap();
+            landAll();
+            final LatencyHistogram latency = ChunkMeshGenerator.getEditLatency();
+            final Random random = new Random(14);
+
+            // The first edits pay for the JIT
+            runEdits(random, 20, false);
+            latency.clear();
+            runEdits(random, 100, false);
+            final String idle = latency.report("ChunkMeshGeneratorTest: Edit to meshLanded, idle pool");
+            assertTrue(latency.getCount() >= 100);
+
+            latency.clear();
+            runEdits(random, 100, true);
+            final String busy = latency.report("ChunkMeshGeneratorTest: Edit to meshLanded, whole map remeshing");
+            assertTrue(latency.getCount() >= 100);
+
+            System.out.println(idle + "\n" + busy);
+        } finally {
+            ChunkMeshGenerator.stop();
+            removeMap();
+        }
+    }
+
+    /**
+     * Edit a random block every 4 frames, then wait until everything landed.
+     * @param busy Push every stack of the map before each edit, so the edits have to jump a full queue.
+     */
+    private static void runEdits(final Random random, final int edits, final boolean busy) throws InterruptedException {
+        for (int edit = 0; edit < edits; edit++) {
+            if (busy) {
+                pushMap();
+            }
+            final float x = offset * Chunk.getWidth() + random.nextInt(size * Chunk.getWidth());
+            final float y = random.nextInt(Chunk.getHeight());
+            final float z = offset * Chunk.getDepth() + random.nextInt(size * Chunk.getDepth());
+            ChunkStorage.setBlockID(x, y, z, ChunkStorage.getBlockID(x, y, z) == 0 ? 3 : 0);
+            for (int frame = 0; frame < 4; frame++) {
+                Thread.sleep(16);
+                landMeshes();
+            }
+        }
+        landAll();
+    }
+
+    private static void landAll() throws InterruptedException {
+        while (!ChunkMeshGenerator.isIdle()) {
+            Thread.sleep(16);
+            landMeshes();
+        }
+    }
+
+    /**
+     * Push every stack of the map into a fresh pool and apply what comes out like the main thread does, once a frame-ish.
+     * @return Nanoseconds from the first request until the last mesh was taken out.
+     */
+    private static long meshMap(final int workers) throws InterruptedException {
+        ChunkMeshGenerator.start(workers);
+        int landed = 0;
+        final long startTime = System.nanoTime();
+        try {
+            pushMap();
+            while (!ChunkMeshGenerator.isIdle()) {
+                landed += landMeshes();
+                // Spinning would take a core from the workers
+                Thread.sleep(1);
+            }
+        } finally {
+            ChunkMeshGenerator.stop();
+        }
+        final long time = System.nanoTime() - startTime;
+        assertEquals(size * size * Chunk.getStacks(), landed);
+        return time;
+    }
+
+    private static void pushMap() {
+        for (int x = 0; x < size; x++) {
+            for (int z = 0; z < size; z++) {
+                for (int stack = 0; stack < Chunk.getStacks(); stack++) {
+                    ChunkMeshGenerator.pushRequest(x + offset, stack, z + offset);
+                }
+            }
+        }
+    }
+
+    /**
+     * Take out every finished mesh, the stale ones are thrown away.
+     * @return How many were the latest for their stack.
+     */
+    private static int landMeshes() {
+        int landed = 0;
+        while (ChunkMeshGenerator.hasUpdate()) {
+            final ChunkMeshRecord mesh = ChunkMeshGenerator.getUpdate();
+            if (ChunkMeshGenerator.isLatest(mesh)) {
+                ChunkMeshGenerator.meshLanded(mesh);
+                landed++;
+            }
+        }
+        return landed;
+    }
+
+    private static void loadMap() {
+        for (int x = 0; x < size; x++) {
+            for (int z = 0; z < size; z++) {
+                if (!ChunkStorage.hasChunk(x + offset, z + offset)) {
+                    ChunkStorage.addOrUpdate(ChunkPaletteTest.generateStockTerrain(x + offset, z + offset));
+                }
+            }
+        }
+    }
+
+    private static void removeMap() {
+        for (int x = 0; x < size; x++) {
+            for (int z = 0; z < size; z++) {
+                ChunkStorage.removeChunk(x + offset, z + offset);
+            }
+        }
+    }
+
+    /**
+     * Register the blocks the stock terrain uses (IDs 1 to 3) like the crafter mod does, once per JVM.
+     * The IDs come from the block cache, so a cache from a modded game can move them.
+     */
+    static synchronized void registerStockBlocks() {
+        if (blocksRegistered) {
+            return;
+        }
+        final String texturesDirectory = "mods/crafter/textures/blocks/";
+        final TexturePacker atlas = WorldAtlas.getInstance();
+        for (String texture : new String[]{"grass.png", "dirt.png", "stone.png"}) {
+            atlas.add(texture, texturesDirectory + texture);
+        }
+        // Packs the atlas, WorldAtlas.lock() would upload it too and that needs GL
+        atlas.flush();
+
+        final BlockDefinitionContainer container = BlockDefinitionContainer.getMainInstance();
+        container.registerBlock(new BlockDefinition("air").setDrawType(DrawType.AIR).setWalkable(false).setReadableName("Air"));
+        container.registerBlock(new BlockDefinition("crafter:grass").setReadableName("Grass")
+                .setTextures(new String[]{"grass.png", "grass.png", "grass.png", "grass.png", "dirt.png", "grass.png"}));
+        container.registerBlock(new BlockDefinition("crafter:dirt").setReadableName("Dirt")
+                .setTextures(new String[]{"dirt.png", "dirt.png", "dirt.png", "dirt.png", "dirt.png", "dirt.png"}));
+        container.registerBlock(new BlockDefinition("crafter:stone").setReadableName("Stone")
+                .setTextures(new String[]{"stone.png", "stone.png", "stone.png", "stone.png", "stone.png", "stone.png"}));
+
+        final boolean[] opaque = container.getOpaqueTable();
+        for (int ID = 1; ID <= 3; ID++) {
+            if (ID >= opaque.length || !opaque[ID]) {
+                throw new RuntimeException("ChunkMeshGeneratorTest: Block ID (" + ID + ") is not a stock block! Is the block cache from a modded game?");
+            }
+        }
+        blocksRegistered = true;
+    }
+}
@@ -0,0 +1,232 @@
+/*
+ Crafter - A blocky game (engine) written in Java with LWJGL.
+ Copyright (C) 2023  jordan4ibanez
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.crafter_unit_tests;
+
+import org.crafter.engine.utility.FastNoise;
+import org.crafter.engine.world.biome.BiomeDefinition;
+import org.crafter.engine.world.chunk.Chunk;
+import org.joml.Random;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ChunkPaletteTest {
+
+    private static final int flatChunkBytes = Chunk.getArraySize() * Integer.BYTES;
+
+    @Test
+    public void testPaletteGrowth() {
+        Chunk testChunk = new Chunk(0, 0);
+        final int[] reference = new int[Chunk.getArraySize()];
+
+        // Starts out as all air
+        for (int i = 0; i < Chunk.getArraySize(); i++) {
+            assertEquals(0, testChunk.getBlockData(i));
+        }
+
+        // Walk the palette up through every index width into direct mode, checking everything on the way
+        Random random = new Random(12345);
+        for (int distinct : new int[]{2, 3, 5, 17, 257, 5000}) {
+            for (int i = 0; i < 20_000; i++) {
+                final int index = random.nextInt(Chunk.getArraySize());
+                final int blockData = Chunk.setBlockID(0, random.nextInt(distinct)) | (random.nextInt(16) << 16);
+                testChunk.setBlockData(index, blockData);
+                reference[index] = blockData;
+            }
+            for (int i = 0; i < Chunk.getArraySize(); i++) {
+                assertEquals(reference[i], testChunk.getBlockData(i));
+            }
+        }
+
+        assertArrayEquals(reference, testChunk.getData());
+
+        // Rebuilding from the array packs the palette tightly again
+        testChunk.setData(reference);
+        assertArrayEquals(reference, testChunk.getData());
+
+        Chunk copy = testChunk.deepCopy();
+        assertArrayEquals(reference, copy.getData());
+        copy.setBlockData(0, 1, 0, 7);
+        assertEquals(reference[Chunk.positionToIndex(0, 1, 0)], testChunk.getBlockData(0, 1, 0));
+    }
+
+    @Test
+    public void testUniformSections() {
+        Chunk testChunk = new Chunk(0, 0);
+
+        // A fresh chunk is all uniform air, which costs next to nothing
+        for (int section = 0; section < Chunk.getStacks(); section++) {
+            assertTrue(testChunk.isSectionUniform(section));
+            assertEquals(0, testChunk.getSectionUniformBlockData(section));
+        }
+        final int emptyUsage = testChunk.getMemoryUsage();
+        assertTrue(emptyUsage < 512);
+
+        // Writing the same value does not inflate
+        testChunk.setBlockData(3, 20, 3, 0);
+        assertTrue(testChunk.isSectionUniform(1));
+        assertEquals(emptyUsage, testChunk.getMemoryUsage());
+
+        // The first heterogeneous write inflates only the section it lands in
+        final int stone = Chunk.setBlockID(0, 3);
+        testChunk.setBlockData(3, 20, 3, stone);
+        assertFalse(testChunk.isSectionUniform(1));
+        assertTrue(testChunk.isSectionUniform(0));
+        assertTrue(testChunk.isSectionUniform(2));
+        assertEquals(stone, testChunk.getBlockData(3, 20, 3));
+        assertEquals(0, testChunk.getBlockData(3, 21, 3));
+        assertThrows(RuntimeException.class, () -> testChunk.getSectionUniformBlockData(1));
+
+        // Bulk data that is one value per section comes back uniform
+        final int[] data = new int[Chunk.getArraySize()];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = Chunk.indexToPosition(i).y() < 48 ? stone : 0;
+        }
+        testChunk.setData(data);
+        for (int section = 0; section < Chunk.getStacks(); section++) {
+            assertTrue(testChunk.isSectionUniform(section));
+            assertEquals(section < 3 ? stone : 0, testChunk.getSectionUniformBlockData(section));
+        }
+        assertArrayEquals(data, testChunk.getData());
+        assertArrayEquals(data, testChunk.deepCopy().getData());
+    }
+
+    @Test
+    public void testNegativeAndHighBitData() {
+        Chunk testChunk = new Chunk(0, 0);
+        final int[] values = new int[]{-1, Integer.MIN_VALUE, Integer.MAX_VALUE, 0xFFFF_0000, 1};
+        for (int i = 0; i < Chunk.getArraySize(); i++) {
+            testChunk.setBlockData(i, values[i % values.length]);
+        }
+        for (int i = 0; i < Chunk.getArraySize(); i++) {
+            assertEquals(values[i % values.length], testChunk.getBlockData(i));
+        }
+    }
+
+    /**
+     * Prints how much memory the palette saves on terrain shaped exactly like the stock ChunkGenerator output.
+     */
+    @Test
+    public void reportTerrainMemory() {
+        final int radius = 16;
+        long paletteBytes = 0;
+        int chunks = 0;
+
+        for (int chunkX = -radius; chunkX < radius; chunkX++) {
+            for (int chunkZ = -radius; chunkZ < radius; chunkZ++) {
+                Chunk chunk = generateStockTerrain(chunkX, chunkZ);
+                paletteBytes += chunk.getMemoryUsage();
+                chunks++;
+            }
+        }
+
+        final long flatBytes = (long) chunks * flatChunkBytes;
+        System.out.println("ChunkPaletteTest: " + chunks + " classic chunks | flat: " + (flatBytes / 1024) + " KB | palette: " +
+                (paletteBytes / 1024) + " KB | saved " + (100 - (paletteBytes * 100 / flatBytes)) + "%");
+
+        assertTrue(paletteBytes < flatBytes);
+    }
+
+    /**
+     * Prints the per block read & write cost against a flat array. Not a pass/fail test.
+     */
+    @Test
+    @Tag("benchmark")
+    public void benchmarkReadWrite() {
+        Chunk chunk = generateStockTerrain(0, 0);
+        final int[] flat = chunk.getData();
+        final int size = Chunk.getArraySize();
+        final int rounds = 500;
+        long sink = 0;
+
+        // Warm up
+        for (int round = 0; round < rounds; round++) {
+            for (int i = 0; i < size; i++) {
+                sink += chunk.getBlockData(i) + flat[i];
+            }
+        }
+
+        long start = System.nanoTime();
+        for (int round = 0; round < rounds; round++) {
+            for (int i = 0; i < size; i++) {
+                sink += flat[i];
+            }
+        }
+        final long flatRead = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        for (int round = 0; round < rounds; round++) {
+            for (int i = 0; i < size; i++) {
+                sink += chunk.getBlockData(i);
+            }
+        }
+        final long paletteRead = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        for (int round = 0; round < rounds; round++) {
+            for (int i = 0; i < size; i++) {
+                flat[i] = flat[(i + 1) & (size - 1)];
+            }
+        }
+        final long flatWrite = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        for (int round = 0; round < rounds; round++) {
+            for (int i = 0; i < size; i++) {
+                chunk.setBlockData(i, chunk.getBlockData((i + 1) & (size - 1)));
+            }
+        }
+        final long paletteWrite = System.nanoTime() - start;
+
+        final double operations = (double) rounds * size;
+        System.out.printf("ChunkPaletteTest: read flat %.2f ns | read palette %.2f ns | write flat %.2f ns | write palette %.2f ns (%d)%n",
+                flatRead / operations, paletteRead / operations, flatWrite / operations, paletteWrite / operations, sink & 1);
+    }
+
+    /**
+     * Mirrors ChunkGeneratorWorker.processBiomesAndBlocks() with the default BiomeDefinition values.
+     * Grass = 1, dirt = 2, stone = 3.
+     */
+    static Chunk generateStockTerrain(final int chunkX, final int chunkZ) {
+        Chunk chunk = new Chunk(chunkX, chunkZ);
+        FastNoise noise = new FastNoise();
+        BiomeDefinition biome = new BiomeDefinition("classic");
+        noise.SetFrequency(biome.getFrequency());
+
+        for (int x = 0; x < Chunk.getWidth(); x++) {
+            for (int z = 0; z < Chunk.getDepth(); z++) {
+                final float calculatedNoise = noise.GetSimplex(x + chunkX * Chunk.getWidth(), z + chunkZ * Chunk.getDepth()) + 0.5f;
+                final int height = (int) (calculatedNoise * biome.getScale()) + BiomeDefinition.getBaseHeight();
+                for (int y = 0; y < Chunk.getHeight(); y++) {
+                    int id = 0;
+                    if (y < height - 6) {
+                        id = 3;
+                    } else if (y < height - 1) {
+                        id = 2;
+                    } else if (y < height) {
+                        id = 1;
+                    }
+                    final int index = Chunk.positionToIndex(x, y, z);
+                    chunk.setBlockData(index, Chunk.setBlockID(chunk.getBlockData(index), id));
+                }
+            }
+        }
+        return chunk;
+    }
+}
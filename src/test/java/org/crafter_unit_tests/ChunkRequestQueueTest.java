@@ -0,0 +1,173 @@
+/*
+ Crafter - A blocky game (engine) written in Java with LWJGL.
+ Copyright (C) 2023  jordan4ibanez
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.crafter_unit_tests;
+
+import org.crafter.engine.world.chunk.ChunkMap;
+import org.crafter.engine.world_generation.chunk_generation.ChunkRequestQueue;
+import org.joml.Vector2i;
+import org.joml.Vector3f;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ChunkRequestQueueTest {
+
+    @Test
+    public void testNearestFirst() {
+        final ChunkRequestQueue queue = new ChunkRequestQueue();
+        classicPayload(queue);
+        // Duplicates are ignored
+        queue.add(0, 0);
+        assertEquals(1024, queue.size());
+
+        queue.setFocus(List.of(new Vector3f(8, 70, 8)), null, -1);
+        assertEquals(ChunkMap.packPosition(0, 0), queue.poll());
+
+        // Every chunk that comes out is at least as far away as the last one
+        float lastDistance = 0;
+        long request;
+        int count = 1;
+        while ((request = queue.poll()) != ChunkRequestQueue.NO_REQUEST) {
+            final float distance = distanceSquared(request, 0.5f, 0.5f);
+            assertTrue(distance >= lastDistance);
+            lastDistance = distance;
+            count++;
+        }
+        assertEquals(1024, count);
+        assertTrue(queue.isEmpty());
+    }
+
+    @Test
+    public void testViewDirection() {
+        final ChunkRequestQueue queue = new ChunkRequestQueue();
+        queue.add(0, -5);
+        queue.add(0, 5);
+        // Looking down +Z, the chunk the same distance in front comes out first
+        queue.setFocus(List.of(new Vector3f(8, 70, 8)), List.of(new Vector3f(0, 0, 1)), -1);
+        assertEquals(ChunkMap.packPosition(0, 5), queue.poll());
+        assertEquals(ChunkMap.packPosition(0, -5), queue.poll());
+
+        queue.add(0, -5);
+        queue.add(0, 5);
+        queue.setFocus(List.of(new Vector3f(8, 70, 8)), List.of(new Vector3f(0, 0, -1)), -1);
+        assertEquals(ChunkMap.packPosition(0, -5), queue.poll());
+    }
+
+    @Test
+    public void testMixedDirections() {
+        final ChunkRequestQueue queue = new ChunkRequestQueue();
+        queue.add(0, -5);
+        queue.add(0, 5);
+        queue.add(100, 100);
+        // The second player has no view direction, like every player but the client's
+        queue.setFocus(List.of(new Vector3f(8, 70, 8), new Vector3f(100 * 16 + 8, 70, 100 * 16 + 8)), Arrays.asList(new Vector3f(0, 0, 1), null), -1);
+        assertEquals(ChunkMap.packPosition(100, 100), queue.poll());
+        assertEquals(ChunkMap.packPosition(0, 5), queue.poll());
+        assertEquals(ChunkMap.packPosition(0, -5), queue.poll());
+    }
+
+    @Test
+    public void testRePrioritizeAndDrop() {
+        final ChunkRequestQueue queue = new ChunkRequestQueue();
+        classicPayload(queue);
+        queue.setFocus(List.of(new Vector3f(8, 70, 8)), null, -1);
+        assertEquals(ChunkMap.packPosition(0, 0), queue.poll());
+
+        // Moved to the other corner, what is near there goes first now and the far side gets dropped
+        queue.setFocus(List.of(new Vector3f(-15 * 16 + 8, 70, -15 * 16 + 8)), null, 4);
+        assertEquals(ChunkMap.packPosition(-15, -15), queue.poll());
+
+        // Only what is within 4 chunks of (-15, -15) and on the map is left, (-16 to -11) squared minus the one taken
+        final long[] dropped = queue.takeDropped();
+        assertEquals(1023 - 6 * 6, dropped.length);
+        for (long key : dropped) {
+            assertTrue(ChunkMap.unpackX(key) > -11 || ChunkMap.unpackZ(key) > -11);
+        }
+        assertEquals(0, queue.takeDropped().length);
+        assertEquals(6 * 6 - 1, queue.size());
+    }
+
+    /**
+     * Time until the spawn chunk is generated, the classic map requested in scan order.
+     * Generation is the stock terrain pass, same as the generator. Meshing comes after this in both cases.
+     */
+    @Test
+    @Tag("benchmark")
+    public void benchmarkTimeToSpawnChunk() {
+        // Warm up
+        for (int i = 0; i < 32; i++) {
+            ChunkPaletteTest.generateStockTerrain(i, 0);
+        }
+
+        final ArrayDeque<Vector2i> fifo = new ArrayDeque<>();
+        for (int x = -16; x < 16; x++) {
+            for (int z = -16; z < 16; z++) {
+                fifo.add(new Vector2i(x, z));
+            }
+        }
+        long startTime = System.nanoTime();
+        int fifoCount = 0;
+        while (true) {
+            final Vector2i position = fifo.remove();
+            ChunkPaletteTest.generateStockTerrain(position.x(), position.y());
+            fifoCount++;
+            if (position.x() == 0 && position.y() == 0) {
+                break;
+            }
+        }
+        final long fifoTime = System.nanoTime() - startTime;
+
+        final ChunkRequestQueue queue = new ChunkRequestQueue();
+        classicPayload(queue);
+        queue.setFocus(List.of(new Vector3f(0, 74, 0)), List.of(new Vector3f(0, 0, -1)), -1);
+        startTime = System.nanoTime();
+        int priorityCount = 0;
+        while (true) {
+            final long request = queue.poll();
+            ChunkPaletteTest.generateStockTerrain(ChunkMap.unpackX(request), ChunkMap.unpackZ(request));
+            priorityCount++;
+            if (request == ChunkMap.packPosition(0, 0)) {
+                break;
+            }
+        }
+        final long priorityTime = System.nanoTime() - startTime;
+
+        assertEquals(1, priorityCount);
+        assertTrue(priorityCount < fifoCount);
+        System.out.println("ChunkRequestQueueTest: Spawn chunk generated | FIFO: (" + fifoCount + ") chunks in (" + (fifoTime / 1_000_000) + ") ms | Priority: (" + priorityCount + ") chunks in (" + (priorityTime / 1_000) + ") microseconds");
+    }
+
+    private static void classicPayload(final ChunkRequestQueue queue) {
+        for (int x = -16; x < 16; x++) {
+            for (int z = -16; z < 16; z++) {
+                queue.add(x, z);
+            }
+        }
+    }
+
+    private static float distanceSquared(final long key, final float x, final float z) {
+        final float distanceX = ChunkMap.unpackX(key) + 0.5f - x;
+        final float distanceZ = ChunkMap.unpackZ(key) + 0.5f - z;
+        return distanceX * distanceX + distanceZ * distanceZ;
+    }
+}
@@ -0,0 +1,295 @@
+/*
+ Crafter - A blocky game (engine) written in Java with LWJGL.
+ Copyright (C) 2023  jordan4ibanez
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.crafter_unit_tests;
+
+import com.sun.management.ThreadMXBean;
+import org.crafter.engine.world.chunk.Chunk;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ChunkSnapshotTest {
+
+    // 32x32, the classic map
+    private static final int radius = 16;
+
+    @Test
+    public void testSnapshotIsolation() {
+        Chunk live = ChunkPaletteTest.generateStockTerrain(0, 0);
+        final int[] original = live.getData();
+        final long originalVersion = live.getVersion();
+
+        Chunk snapshot = live.snapshot();
+        assertEquals(originalVersion, snapshot.getVersion());
+        assertEquals(live.getX(), snapshot.getX());
+        assertEquals(live.getZ(), snapshot.getZ());
+
+        // Writing into the live chunk must not leak into the snapshot, in every section
+        for (int y = 0; y < Chunk.getHeight(); y += 7) {
+            live.setBlockData(5, y, 5, Chunk.setBlockID(0, 9));
+        }
+        assertTrue(live.getVersion() > originalVersion);
+        assertEquals(originalVersion, snapshot.getVersion());
+        assertArrayEquals(original, snapshot.getData());
+
+        // And the other way around
+        final int[] modified = live.getData();
+        snapshot.setBlockData(1, 1, 1, Chunk.setBlockID(0, 4));
+        assertArrayEquals(modified, live.getData());
+        assertEquals(Chunk.setBlockID(0, 4), snapshot.getBlockData(1, 1, 1));
+
+        // Snapshots of snapshots, and copies of copies, stay isolated too
+        Chunk second = live.snapshot();
+        Chunk copy = second.deepCopy();
+        live.setBlockData(0, 0, 0, 123);
+        copy.setBlockData(0, 0, 0, 456);
+        assertArrayEquals(modified, second.getData());
+        assertEquals(123, live.getBlockData(0, 0, 0));
+        assertEquals(456, copy.getBlockData(0, 0, 0));
+    }
+
+    @Test
+    public void testConcurrentSnapshots() throws InterruptedException {
+        Chunk live = new Chunk(0, 0);
+        final int writes = 50_000;
+
+        Thread writer = new Thread(() -> {
+            for (int i = 1; i <= writes; i++) {
+                live.setBlockData(i % Chunk.getArraySize(), i);
+            }
+        });
+        writer.start();
+
+        int snapshots = 0;
+        while (writer.isAlive()) {
+            Chunk snapshot = live.snapshot();
+            final int[] data = snapshot.getData();
+            // Never changes after it was taken, no matter what the writer does
+            assertArrayEquals(data, snapshot.getData());
+            snapshots++;
+        }
+        writer.join();
+        assertTrue(snapshots > 0);
+        assertEquals(writes, live.getBlockData(writes % Chunk.getArraySize()));
+    }
+
+    @Test
+    public void testBorderPlanes() {
+        final Chunk chunk = ChunkPaletteTest.generateStockTerrain(3, -2);
+        chunk.setBlockData(15, 20, 7, Chunk.setBlockID(0, 9));
+        chunk.setBlockData(4, 33, 0, Chunk.setBlockID(0, 8));
+        final int[] plane = new int[16 * 16];
+        for (int stack = 0; stack < Chunk.getStacks(); stack++) {
+            final int bottom = stack * Chunk.getStackHeight();
+            for (int wall : new int[]{0, Chunk.getWidth() - 1}) {
+                chunk.copyBorderPlaneX(wall, stack, plane);
+                for (int y = 0; y < Chunk.getStackHeight(); y++) {
+                    for (int z = 0; z < Chunk.getDepth(); z++) {
+                        assertEquals(chunk.getBlockData(wall, bottom + y, z), plane[z + y * 16]);
+                    }
+                }
+                chunk.copyBorderPlaneZ(wall, stack, plane);
+                for (int y = 0; y < Chunk.getStackHeight(); y++) {
+                    for (int x = 0; x < Chunk.getWidth(); x++) {
+                        assertEquals(chunk.getBlockData(x, bottom + y, wall), plane[x + y * 16]);
+                    }
+                }
+            }
+        }
+        assertThrows(RuntimeException.class, () -> chunk.copyBorderPlaneX(16, 0, plane));
+        assertThrows(RuntimeException.class, () -> chunk.copyBorderPlaneZ(0, 8, plane));
+        assertThrows(RuntimeException.class, () -> chunk.copyBorderPlaneZ(0, 0, new int[16]));
+    }
+
+    /**
+     * Meshing a stack only needs the one wall of each neighbor touching it.
+     * Snapshotting the whole neighbor freezes all 8 of its sections, so the next edit anywhere in it pays for a section copy.
+     * Every stack gathers its 4 neighbors, then the player edits each of those neighbors once, like digging along a border.
+     */
+    @Test
+    @Tag("benchmark")
+    public void benchmarkNeighborPlanes() {
+        final int size = 8;
+        final ThreadMXBean threads = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+        final long threadID = Thread.currentThread().getId();
+
+        long sink = 0;
+        // Warm up
+        sink += gatherAndEdit(stockMap(size), true);
+        sink += gatherAndEdit(stockMap(size), false);
+
+        Chunk[][] chunks = stockMap(size);
+        long allocated = threads.getThreadAllocatedBytes(threadID);
+        long start = System.nanoTime();
+        sink += gatherAndEdit(chunks, true);
+        final long snapshotTime = System.nanoTime() - start;
+        final long snapshotAllocated = threads.getThreadAllocatedBytes(threadID) - allocated;
+
+        chunks = stockMap(size);
+        allocated = threads.getThreadAllocatedBytes(threadID);
+        start = System.nanoTime();
+        sink += gatherAndEdit(chunks, false);
+        final long planeTime = System.nanoTime() - start;
+        final long planeAllocated = threads.getThreadAllocatedBytes(threadID) - allocated;
+
+        final int stacks = size * size * Chunk.getStacks();
+        assertTrue(planeAllocated < snapshotAllocated);
+        System.out.println("ChunkSnapshotTest: gather 4 neighbors + edit them, per stack | snapshots: (" + (snapshotAllocated / stacks) +
+                " bytes) (" + (snapshotTime / stacks / 1_000) + " us) | border planes: (" + (planeAllocated / stacks) +
+                " bytes) (" + (planeTime / stacks / 1_000) + " us) (" + (sink & 1) + ")");
+    }
+
+    private static Chunk[][] stockMap(final int size) {
+        final Chunk[][] chunks = new Chunk[size][size];
+        for (int x = 0; x < size; x++) {
+            for (int z = 0; z < size; z++) {
+                chunks[x][z] = ChunkPaletteTest.generateStockTerrain(x, z);
+            }
+        }
+        return chunks;
+    }
+
+    private static long gatherAndEdit(final Chunk[][] chunks, final boolean snapshots) {
+        final int size = chunks.length;
+        final int[] plane = new int[16 * 16];
+        long sink = 0;
+        for (int x = 1; x < size - 1; x++) {
+            for (int z = 1; z < size - 1; z++) {
+                final Chunk[] neighbors = {chunks[x][z - 1], chunks[x][z + 1], chunks[x - 1][z], chunks[x + 1][z]};
+                for (int stack = 0; stack < Chunk.getStacks(); stack++) {
+                    final int y = stack * Chunk.getStackHeight() + 5;
+                    for (int i = 0; i < neighbors.length; i++) {
+                        if (snapshots) {
+                            final Chunk snapshot = neighbors[i].snapshot();
+                            sink += i < 2 ? snapshot.getBlockData(7, y, i == 0 ? 15 : 0) : snapshot.getBlockData(i == 2 ? 15 : 0, y, 7);
+                        } else if (i < 2) {
+                            neighbors[i].copyBorderPlaneZ(i == 0 ? Chunk.getDepth() - 1 : 0, stack, plane);
+                            sink += plane[7 + 5 * 16];
+                        } else {
+                            neighbors[i].copyBorderPlaneX(i == 2 ? Chunk.getWidth() - 1 : 0, stack, plane);
+                            sink += plane[7 + 5 * 16];
+                        }
+                    }
+                    // The edits, one block in a different section than the one gathered
+                    for (Chunk neighbor : neighbors) {
+                        neighbor.setBlockData(3, (y + 64) % Chunk.getHeight(), 3, Chunk.setBlockID(0, (stack & 1) + 1));
+                    }
+                }
+            }
+        }
+        return sink;
+    }
+
+    /**
+     * Remeshing the classic map is 1024 chunks * 8 stacks. Every stack needs its chunk & 4 neighbors.
+     * Before: every one of those 5 was a full 128 KB array copy.
+     * After: every one of those 5 is a snapshot, the mesher reads the shared sections in place.
+     * This measures the data side of the mesher only (gathering + reading every block in the stack & its borders).
+     */
+    @Test
+    @Tag("benchmark")
+    public void benchmarkRemeshClassicMap() {
+        final int size = radius * 2;
+        final Chunk[][] chunks = new Chunk[size][size];
+        final int[][][] flatChunks = new int[size][size][];
+        for (int x = 0; x < size; x++) {
+            for (int z = 0; z < size; z++) {
+                chunks[x][z] = ChunkPaletteTest.generateStockTerrain(x - radius, z - radius);
+                flatChunks[x][z] = chunks[x][z].getData();
+            }
+        }
+
+        long sink = 0;
+        // Warm up
+        sink += remeshFlat(flatChunks);
+        sink += remeshSnapshots(chunks);
+
+        long start = System.nanoTime();
+        sink += remeshFlat(flatChunks);
+        final long flatTime = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        sink += remeshSnapshots(chunks);
+        final long snapshotTime = System.nanoTime() - start;
+
+        System.out.println("ChunkSnapshotTest: remesh 32x32 map | deepCopy: " + (flatTime / 1_000_000) +
+                " ms | snapshot: " + (snapshotTime / 1_000_000) + " ms (" + (sink & 1) + ")");
+    }
+
+    private long remeshFlat(final int[][][] flatChunks) {
+        final int size = flatChunks.length;
+        long sink = 0;
+        for (int x = 0; x < size; x++) {
+            for (int z = 0; z < size; z++) {
+                for (int stack = 0; stack < Chunk.getStacks(); stack++) {
+                    final int[] current = Arrays.copyOf(flatChunks[x][z], Chunk.getArraySize());
+                    final int[] left = x > 0 ? Arrays.copyOf(flatChunks[x - 1][z], Chunk.getArraySize()) : null;
+                    final int[] right = x < size - 1 ? Arrays.copyOf(flatChunks[x + 1][z], Chunk.getArraySize()) : null;
+                    final int[] front = z > 0 ? Arrays.copyOf(flatChunks[x][z - 1], Chunk.getArraySize()) : null;
+                    final int[] back = z < size - 1 ? Arrays.copyOf(flatChunks[x][z + 1], Chunk.getArraySize()) : null;
+
+                    for (int y = stack * Chunk.getStackHeight(); y < (stack + 1) * Chunk.getStackHeight(); y++) {
+                        for (int i = 0; i < Chunk.getWidth(); i++) {
+                            for (int j = 0; j < Chunk.getDepth(); j++) {
+                                sink += current[Chunk.positionToIndex(i, y, j)];
+                            }
+                            sink += left == null ? 0 : left[Chunk.positionToIndex(Chunk.getWidth() - 1, y, i)];
+                            sink += right == null ? 0 : right[Chunk.positionToIndex(0, y, i)];
+                            sink += front == null ? 0 : front[Chunk.positionToIndex(i, y, Chunk.getDepth() - 1)];
+                            sink += back == null ? 0 : back[Chunk.positionToIndex(i, y, 0)];
+                        }
+                    }
+                }
+            }
+        }
+        return sink;
+    }
+
+    private long remeshSnapshots(final Chunk[][] chunks) {
+        final int size = chunks.length;
+        long sink = 0;
+        for (int x = 0; x < size; x++) {
+            for (int z = 0; z < size; z++) {
+                for (int stack = 0; stack < Chunk.getStacks(); stack++) {
+                    final Chunk current = chunks[x][z].snapshot();
+                    final Chunk left = x > 0 ? chunks[x - 1][z].snapshot() : null;
+                    final Chunk right = x < size - 1 ? chunks[x + 1][z].snapshot() : null;
+                    final Chunk front = z > 0 ? chunks[x][z - 1].snapshot() : null;
+                    final Chunk back = z < size - 1 ? chunks[x][z + 1].snapshot() : null;
+
+                    for (int y = stack * Chunk.getStackHeight(); y < (stack + 1) * Chunk.getStackHeight(); y++) {
+                        for (int i = 0; i < Chunk.getWidth(); i++) {
+                            for (int j = 0; j < Chunk.getDepth(); j++) {
+                                sink += current.getBlockData(i, y, j);
+                            }
+                            sink += left == null ? 0 : left.getBlockData(Chunk.getWidth() - 1, y, i);
+                            sink += right == null ? 0 : right.getBlockData(0, y, i);
+                            sink += front == null ? 0 : front.getBlockData(i, y, Chunk.getDepth() - 1);
+                            sink += back == null ? 0 : back.getBlockData(i, y, 0);
+                        }
+                    }
+                }
+            }
+        }
+        return sink;
+    }
+}
@@ -0,0 +1,183 @@
+/*
+ Crafter - A blocky game (engine) written in Java with LWJGL.
+ Copyright (C) 2023  jordan4ibanez
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.crafter_unit_tests;
+
+import org.crafter.engine.world.chunk.Chunk;
+import org.crafter.engine.world.chunk.ChunkLifecycle;
+import org.crafter.engine.world.chunk.ChunkStorage;
+import org.crafter.engine.world_generation.ChunkStreamer;
+import org.joml.Vector2i;
+import org.joml.Vector3f;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ChunkStreamerTest {
+
+    private static final int viewDistance = 4;
+    // Loaded area is the view distance plus the unload margin (2)
+    private static final int maxLoaded = (2 * (viewDistance + 2) + 1) * (2 * (viewDistance + 2) + 1);
+    // 60 FPS at 5 blocks a second
+    private static final float speed = 5.0f / 60.0f;
+
+    // Chunks other tests left in storage, put aside so they aren't streamed out
+    private final List<Chunk> others = new ArrayList<>();
+    private final List<Vector2i> requests = new ArrayList<>();
+    private boolean oldSaveOnUnload;
+
+    @BeforeEach
+    public void setUp() {
+        ChunkStorage.forEachChunk(others::add);
+        for (Chunk chunk : others) {
+            ChunkStorage.removeChunk(chunk.getX(), chunk.getZ());
+        }
+
+        oldSaveOnUnload = ChunkLifecycle.getSaveOnUnload();
+        // Everything generated here is pristine, nothing to save
+        ChunkLifecycle.setSaveOnUnload(false);
+        // No mesher running
+        ChunkLifecycle.setRemeshHandler(stack -> {});
+        ChunkStreamer.setRequestHandler(position -> requests.add(new Vector2i(position)));
+        ChunkStreamer.setViewDistance(viewDistance);
+        ChunkStreamer.setEnabled(true);
+    }
+
+    @AfterEach
+    public void tearDown() {
+        ChunkStreamer.setEnabled(false);
+        ChunkStreamer.resetRequestHandler();
+        ChunkLifecycle.resetRemeshHandler();
+        ChunkLifecycle.setSaveOnUnload(oldSaveOnUnload);
+        final List<Chunk> streamed = new ArrayList<>();
+        ChunkStorage.forEachChunk(streamed::add);
+        for (Chunk chunk : streamed) {
+            ChunkStorage.removeChunk(chunk.getX(), chunk.getZ());
+        }
+        for (Chunk chunk : others) {
+            ChunkStorage.addOrUpdate(chunk);
+        }
+        others.clear();
+    }
+
+    /**
+     * Fly in a straight line for a minute of game time.
+     * Loaded chunks & pending requests stay bounded, the square around the player fills and the start is streamed out.
+     */
+    @Test
+    public void testStraightLineFlight() {
+        final Vector3f player = new Vector3f(8, 70, 8);
+        final List<Vector3f> anchors = List.of(player);
+
+        for (int frame = 0; frame < 60 * 60; frame++) {
+            player.x += speed;
+            ChunkStreamer.update(anchors);
+            generateRequests();
+        }
+
+        assertSquareLoaded(player);
+        assertFalse(ChunkStorage.hasChunk(0, 0));
+    }
+
+    /**
+     * Fly in a straight line for 10 minutes of game time.
+     * Generation happens right away outside the timing, so this measures the streamer alone.
+     * Loaded chunks, pending requests & chunk heap must stay flat the whole way.
+     */
+    @Test
+    @Tag("benchmark")
+    public void benchmarkStraightLineFlight() {
+        final Vector3f player = new Vector3f(8, 70, 8);
+        final List<Vector3f> anchors = List.of(player);
+
+        final int frames = 60 * 60 * 10;
+
+        long totalTime = 0;
+        long maxTime = 0;
+        int updates = 0;
+        int peakLoaded = 0;
+        long peakHeap = 0;
+        long firstMinuteHeap = 0;
+
+        for (int frame = 0; frame < frames; frame++) {
+            player.x += speed;
+
+            final long startTime = System.nanoTime();
+            if (ChunkStreamer.update(anchors)) {
+                updates++;
+            }
+            final long time = System.nanoTime() - startTime;
+            totalTime += time;
+            maxTime = Math.max(maxTime, time);
+
+            final int loaded = generateRequests();
+            peakLoaded = Math.max(peakLoaded, loaded);
+
+            if (frame % 3600 == 3599) {
+                final long[] heap = new long[1];
+                ChunkStorage.forEachChunk(chunk -> heap[0] += chunk.getMemoryUsage());
+                peakHeap = Math.max(peakHeap, heap[0]);
+                if (frame == 3599) {
+                    firstMinuteHeap = heap[0];
+                }
+                System.out.println("ChunkStreamerTest: Minute (" + ((frame + 1) / 3600) + ") | x (" + (int) player.x + ") | loaded (" + loaded + ") | chunk heap (" + (heap[0] / 1024) + " KB)");
+            }
+        }
+
+        assertSquareLoaded(player);
+        assertFalse(ChunkStorage.hasChunk(0, 0));
+        // Flat, the last minutes hold no more than the first one, give or take terrain compressing differently
+        assertTrue(peakHeap <= firstMinuteHeap + firstMinuteHeap / 4);
+
+        System.out.println("ChunkStreamerTest: Flew (" + (int) player.x + ") blocks | requested (" + ChunkStreamer.getRequestedTotal() + ") | unloaded (" + ChunkStreamer.getUnloadedTotal() + ") | peak loaded (" + peakLoaded + ")");
+        System.out.println("ChunkStreamerTest: (" + frames + ") frames | (" + updates + ") did work | average (" + (totalTime / frames) + ") ns per frame | worst (" + (maxTime / 1_000) + ") microseconds");
+    }
+
+    /**
+     * The "generator", done within the same frame. Checks the loaded & pending counts stay bounded.
+     * @return How many chunks are loaded.
+     */
+    private int generateRequests() {
+        for (Vector2i request : requests) {
+            Chunk chunk = ChunkPaletteTest.generateStockTerrain(request.x(), request.y());
+            chunk.markSaved(chunk.getVersion());
+            ChunkStorage.addOrUpdate(chunk);
+            ChunkStreamer.chunkReceived(request.x(), request.y());
+        }
+        requests.clear();
+
+        final int loaded = ChunkStorage.getChunkCount();
+        assertTrue(loaded <= maxLoaded, "loaded (" + loaded + ") over " + maxLoaded);
+        assertTrue(ChunkStreamer.getPendingCount() <= maxLoaded);
+        return loaded;
+    }
+
+    private static void assertSquareLoaded(final Vector3f player) {
+        final int playerChunkX = (int) Math.floor(player.x / Chunk.getWidth());
+        for (int x = playerChunkX - viewDistance; x <= playerChunkX + viewDistance; x++) {
+            for (int z = -viewDistance; z <= viewDistance; z++) {
+                assertTrue(ChunkStorage.hasChunk(x, z));
+            }
+        }
+    }
+}
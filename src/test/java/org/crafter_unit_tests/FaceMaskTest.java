@@ -0,0 +1,196 @@
+/*
+ Crafter - A blocky game (engine) written in Java with LWJGL.
+ Copyright (C) 2023  jordan4ibanez
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.crafter_unit_tests;
+
+import org.crafter.engine.utility.IntArrayBuilder;
+import org.crafter.engine.world.chunk.Chunk;
+import org.crafter.engine.world_generation.chunk_mesh_generation.GreedyMesher;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class FaceMaskTest {
+
+    // Grass, dirt & stone are all BLOCK draw type. 4 is past the end, so not opaque
+    private static final boolean[] opaque = new boolean[]{false, true, true, true};
+
+    /**
+     * Masks kept up to date edit by edit have to match what the blocks actually say, and a fresh build.
+     */
+    @Test
+    public void testMasksFollowEdits() {
+        final Chunk chunk = ChunkPaletteTest.generateStockTerrain(0, 0);
+        final Random random = new Random(22);
+
+        // Some edits before the masks exist, then build them all
+        randomEdits(chunk, random, 500);
+        for (int section = 0; section < Chunk.getStacks(); section++) {
+            chunk.getFaceMasks(section, opaque);
+        }
+        // The rest only get to update them
+        randomEdits(chunk, random, 5000);
+
+        final Chunk fresh = new Chunk(0, 0);
+        fresh.setData(chunk.getData());
+
+        for (int section = 0; section < Chunk.getStacks(); section++) {
+            final byte[] masks = chunk.getFaceMasks(section, opaque);
+            assertArrayEquals(fresh.getFaceMasks(section, opaque), masks);
+            for (int i = 0; i < masks.length; i++) {
+                final int x = i & 15;
+                final int z = (i >>> 4) & 15;
+                final int y = (i >>> 8) + section * Chunk.getStackHeight();
+                assertEquals(bruteForce(chunk, x, y, z, true), masks[i]);
+                assertEquals(bruteForce(chunk, x, y, z, false), chunk.getExposedFaces(x, y, z, opaque));
+            }
+        }
+    }
+
+    /**
+     * A snapshot's masks never move, the live chunk's keep following its edits.
+     */
+    @Test
+    public void testSnapshotMasks() {
+        final Chunk chunk = ChunkPaletteTest.generateStockTerrain(0, 0);
+        final int section = 2;
+        chunk.getFaceMasks(section, opaque);
+
+        final Chunk snapshot = chunk.snapshot();
+        final byte[] snapshotMasks = snapshot.getFaceMasks(section, opaque);
+        final byte[] before = Arrays.copyOf(snapshotMasks, snapshotMasks.length);
+
+        // Dig a hole in the middle of a solid section
+        final int y = section * Chunk.getStackHeight() + 8;
+        chunk.setBlockData(8, y, 8, Chunk.setBlockID(0, 0));
+
+        assertArrayEquals(before, snapshot.getFaceMasks(section, opaque));
+        assertEquals(0, chunk.getExposedFaces(8, y, 8, opaque));
+        // The six blocks around the hole now show a face into it
+        assertEquals(1 << GreedyMesher.BACK, chunk.getExposedFaces(8, y, 7, opaque));
+        assertEquals(1 << GreedyMesher.FRONT, chunk.getExposedFaces(8, y, 9, opaque));
+        assertEquals(1 << GreedyMesher.RIGHT, chunk.getExposedFaces(7, y, 8, opaque));
+        assertEquals(1 << GreedyMesher.LEFT, chunk.getExposedFaces(9, y, 8, opaque));
+        assertEquals(1 << GreedyMesher.TOP, chunk.getExposedFaces(8, y - 1, 8, opaque));
+        assertEquals(1 << GreedyMesher.BOTTOM, chunk.getExposedFaces(8, y + 1, 8, opaque));
+
+        // Fill it back in, everything is buried again
+        chunk.setBlockData(8, y, 8, Chunk.setBlockID(0, 3));
+        assertArrayEquals(before, chunk.getFaceMasks(section, opaque));
+    }
+
+    /**
+     * Remeshing a stack after one block edit: the masks kept up to date against working them all out again (what every remesh used to do).
+     */
+    @Test
+    @Tag("benchmark")
+    public void benchmarkSingleEdit() {
+        final Chunk chunk = ChunkPaletteTest.generateStockTerrain(0, 0);
+        final GreedyMesher mesher = new GreedyMesher();
+        final IntArrayBuilder quads = new IntArrayBuilder();
+        final int[] data = chunk.getData();
+        final int rounds = 2000;
+
+        // The surface stack, the busiest one
+        int stack = 0;
+        int mostQuads = 0;
+        for (int i = 0; i < Chunk.getStacks(); i++) {
+            quads.clear();
+            mesher.mesh(i, chunk, null, null, null, null, opaque, quads);
+            if (quads.size() > mostQuads) {
+                mostQuads = quads.size();
+                stack = i;
+            }
+        }
+        final int y = stack * Chunk.getStackHeight() + 8;
+
+        long keptTime = 0;
+        long rebuiltTime = 0;
+        long editTime = 0;
+        for (int round = 0; round < rounds * 2; round++) {
+            final int blockData = Chunk.setBlockID(0, round % 2 == 0 ? 0 : 3);
+
+            // Masks kept: edit, snapshot, mesh
+            final long editStart = System.nanoTime();
+            chunk.setBlockData(8, y, 8, blockData);
+            final long edited = System.nanoTime();
+            quads.clear();
+            mesher.mesh(stack, chunk.snapshot(), null, null, null, null, opaque, quads);
+            final long kept = System.nanoTime();
+
+            // Masks worked out from scratch on a chunk that has never had any
+            data[Chunk.positionToIndex(8, y, 8)] = blockData;
+            final Chunk fresh = new Chunk(0, 0);
+            fresh.setData(data);
+            final long freshStart = System.nanoTime();
+            quads.clear();
+            mesher.mesh(stack, fresh, null, null, null, null, opaque, quads);
+            final long rebuilt = System.nanoTime();
+
+            // First half warms up
+            if (round >= rounds) {
+                editTime += edited - editStart;
+                keptTime += kept - editStart;
+                rebuiltTime += rebuilt - freshStart;
+            }
+        }
+
+        System.out.println("FaceMaskTest: remesh of stack (" + stack + ") after one edit | masks kept: (" + (keptTime / rounds / 1_000) + " us) of which the edit (" +
+                (editTime / rounds) + " ns) | masks rebuilt: (" + (rebuiltTime / rounds / 1_000) + " us) | (" + (mostQuads / GreedyMesher.QUAD_SIZE) + ") quads");
+    }
+
+    private static void randomEdits(final Chunk chunk, final Random random, final int edits) {
+        for (int i = 0; i < edits; i++) {
+            final int x = random.nextInt(Chunk.getWidth());
+            final int y = random.nextInt(Chunk.getHeight());
+            final int z = random.nextInt(Chunk.getDepth());
+            chunk.setBlockData(x, y, z, Chunk.setBlockID(0, random.nextInt(5)));
+        }
+    }
+
+    /**
+     * Work a face mask out block by block.
+     * @param sectionOnly True for getFaceMasks() (faces out of the section are always set), false for getExposedFaces() (only out of the chunk).
+     */
+    private static int bruteForce(final Chunk chunk, final int x, final int y, final int z, final boolean sectionOnly) {
+        if (!isOpaque(chunk, x, y, z)) {
+            return 0;
+        }
+        final int[][] steps = new int[][]{{0, 0, -1}, {0, 0, 1}, {-1, 0, 0}, {1, 0, 0}, {0, -1, 0}, {0, 1, 0}};
+        int mask = 0;
+        for (int face = 0; face < 6; face++) {
+            final int nx = x + steps[face][0];
+            final int ny = y + steps[face][1];
+            final int nz = z + steps[face][2];
+            final boolean outside = nx < 0 || nx >= Chunk.getWidth() || nz < 0 || nz >= Chunk.getDepth() || ny < 0 || ny >= Chunk.getHeight() ||
+                    (sectionOnly && ny / Chunk.getStackHeight() != y / Chunk.getStackHeight());
+            if (outside || !isOpaque(chunk, nx, ny, nz)) {
+                mask |= 1 << face;
+            }
+        }
+        return mask;
+    }
+
+    private static boolean isOpaque(final Chunk chunk, final int x, final int y, final int z) {
+        final int ID = Chunk.getBlockID(chunk.getBlockData(x, y, z));
+        return ID > 0 && ID < opaque.length && opaque[ID];
+    }
+}
@@ -0,0 +1,233 @@
+/*
+ Crafter - A blocky game (engine) written in Java with LWJGL.
+ Copyright (C) 2023  jordan4ibanez
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.crafter_unit_tests;
+
+import org.crafter.engine.utility.IntArrayBuilder;
+import org.crafter.engine.world.chunk.Chunk;
+import org.crafter.engine.world_generation.chunk_mesh_generation.GreedyMesher;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class GreedyMesherTest {
+
+    // Grass, dirt & stone are all BLOCK draw type
+    private static final boolean[] opaque = new boolean[]{false, true, true, true};
+
+    // What a quad takes in VRAM. Positions 3, texture coordinates 2, colors 4 floats a vertex, plus 6 int indices
+    private static final int perFaceQuadBytes = 4 * (3 + 2 + 4) * Float.BYTES + 6 * Integer.BYTES;
+    // Greedy quads carry an atlas region (4 floats) on every vertex too
+    private static final int greedyQuadBytes = 4 * (3 + 2 + 4 + 4) * Float.BYTES + 6 * Integer.BYTES;
+
+    @Test
+    public void testSingleBlock() {
+        final Chunk chunk = new Chunk(0, 0);
+        chunk.setBlockData(3, 20, 5, Chunk.setBlockID(0, 2));
+
+        final IntArrayBuilder quads = new IntArrayBuilder();
+        new GreedyMesher().mesh(1, chunk, null, null, null, null, opaque, quads);
+
+        assertEquals(6 * GreedyMesher.QUAD_SIZE, quads.size());
+        boolean[] seen = new boolean[6];
+        for (int i = 0; i < quads.size(); i += GreedyMesher.QUAD_SIZE) {
+            seen[quads.get(i)] = true;
+            assertEquals(3, quads.get(i + 1));
+            assertEquals(20, quads.get(i + 2));
+            assertEquals(5, quads.get(i + 3));
+            assertEquals(1, quads.get(i + 4));
+            assertEquals(1, quads.get(i + 5));
+            assertEquals(2, quads.get(i + 6));
+        }
+        for (boolean face : seen) {
+            assertTrue(face);
+        }
+
+        // Nothing in the other stacks
+        quads.clear();
+        new GreedyMesher().mesh(0, chunk, null, null, null, null, opaque, quads);
+        assertEquals(0, quads.size());
+    }
+
+    @Test
+    public void testFlatSlab() {
+        // 4 layers of stone with a 2x3 patch of grass on top in the corner
+        final Chunk chunk = new Chunk(0, 0);
+        for (int x = 0; x < Chunk.getWidth(); x++) {
+            for (int z = 0; z < Chunk.getDepth(); z++) {
+                for (int y = 0; y < 4; y++) {
+                    final boolean grass = y == 3 && x < 2 && z < 3;
+                    chunk.setBlockData(x, y, z, Chunk.setBlockID(0, grass ? 1 : 3));
+                }
+            }
+        }
+
+        final IntArrayBuilder quads = new IntArrayBuilder();
+        new GreedyMesher().mesh(0, chunk, null, null, null, null, opaque, quads);
+
+        int topQuads = 0;
+        int topArea = 0;
+        int area = 0;
+        for (int i = 0; i < quads.size(); i += GreedyMesher.QUAD_SIZE) {
+            final int face = quads.get(i);
+            final int faceArea = quads.get(i + 4) * quads.get(i + 5);
+            area += faceArea;
+            if (face == GreedyMesher.TOP) {
+                topQuads++;
+                topArea += faceArea;
+                if (quads.get(i + 6) == 1) {
+                    // The grass patch is its own rectangle
+                    assertEquals(0, quads.get(i + 1));
+                    assertEquals(0, quads.get(i + 3));
+                    assertEquals(2, quads.get(i + 4));
+                    assertEquals(3, quads.get(i + 5));
+                }
+            } else if (face == GreedyMesher.BOTTOM) {
+                // One 16x16 underneath
+                assertEquals(16 * 16, faceArea);
+            }
+        }
+        // Grass can't merge with stone. The stone around it takes 2 rectangles
+        assertEquals(3, topQuads);
+        assertEquals(16 * 16, topArea);
+        // Every face is covered exactly once: top, bottom & 4 walls of 16x4
+        assertEquals(16 * 16 * 2 + 4 * 16 * 4, area);
+
+        // A neighbor covering the right wall hides it
+        final Chunk right = new Chunk(1, 0);
+        for (int z = 0; z < Chunk.getDepth(); z++) {
+            for (int y = 0; y < 4; y++) {
+                right.setBlockData(0, y, z, Chunk.setBlockID(0, 3));
+            }
+        }
+        final int[] rightWall = new int[16 * 16];
+        right.copyBorderPlaneX(0, 0, rightWall);
+        quads.clear();
+        new GreedyMesher().mesh(0, chunk, null, null, null, rightWall, opaque, quads);
+        for (int i = 0; i < quads.size(); i += GreedyMesher.QUAD_SIZE) {
+            assertNotEquals(GreedyMesher.RIGHT, quads.get(i));
+        }
+    }
+
+    /**
+     * Greedy meshing covers exactly the faces the per face mesher does, with fewer quads.
+     */
+    @Test
+    public void testStockTerrainSameFaces() {
+        final int size = 3;
+        final Chunk[][] chunks = new Chunk[size][size];
+        for (int x = 0; x < size; x++) {
+            for (int z = 0; z < size; z++) {
+                chunks[x][z] = ChunkPaletteTest.generateStockTerrain(x, z);
+            }
+        }
+        final IntArrayBuilder quads = new IntArrayBuilder();
+
+        final long[] perFaceResult = meshAll(new GreedyMesher(false), chunks, quads);
+        final long[] greedyResult = meshAll(new GreedyMesher(), chunks, quads);
+
+        // Per face quads are 1x1
+        assertEquals(perFaceResult[0], perFaceResult[1]);
+        assertEquals(perFaceResult[1], greedyResult[1]);
+        assertTrue(greedyResult[0] < perFaceResult[0]);
+    }
+
+    /**
+     * Mesh stock terrain face by face & greedy. Both have to cover exactly the same faces.
+     */
+    @Test
+    @Tag("benchmark")
+    public void benchmarkStockTerrain() {
+        final int size = 8;
+        final Chunk[][] chunks = new Chunk[size][size];
+        for (int x = 0; x < size; x++) {
+            for (int z = 0; z < size; z++) {
+                chunks[x][z] = ChunkPaletteTest.generateStockTerrain(x, z);
+            }
+        }
+
+        final GreedyMesher perFace = new GreedyMesher(false);
+        final GreedyMesher greedy = new GreedyMesher();
+        final IntArrayBuilder quads = new IntArrayBuilder();
+
+        // Warm up both
+        for (int round = 0; round < 3; round++) {
+            meshAll(perFace, chunks, quads);
+            meshAll(greedy, chunks, quads);
+        }
+
+        long startTime = System.nanoTime();
+        final long[] perFaceResult = meshAll(perFace, chunks, quads);
+        final long perFaceTime = System.nanoTime() - startTime;
+
+        startTime = System.nanoTime();
+        final long[] greedyResult = meshAll(greedy, chunks, quads);
+        final long greedyTime = System.nanoTime() - startTime;
+
+        // Same faces covered
+        assertEquals(perFaceResult[0], perFaceResult[1]);
+        assertEquals(perFaceResult[1], greedyResult[1]);
+        assertTrue(greedyResult[0] < perFaceResult[0]);
+
+        final int stacks = size * size * Chunk.getStacks();
+        System.out.println("GreedyMesherTest: " + size + "x" + size + " stock terrain chunks | per face: (" + perFaceResult[0] + ") quads (" + (perFaceResult[0] * 4) +
+                ") vertices (" + (perFaceResult[0] * perFaceQuadBytes / 1024) + " KB) | greedy: (" + greedyResult[0] + ") quads (" + (greedyResult[0] * 4) +
+                ") vertices (" + (greedyResult[0] * greedyQuadBytes / 1024) + " KB)");
+        System.out.println("GreedyMesherTest: face finding per stack | per face: (" + (perFaceTime / stacks / 1_000) + " us) | greedy: (" + (greedyTime / stacks / 1_000) + " us)");
+    }
+
+    /**
+     * @return Quads, faces covered.
+     */
+    private static long[] meshAll(final GreedyMesher mesher, final Chunk[][] chunks, final IntArrayBuilder quads) {
+        final int size = chunks.length;
+        final int[] frontWall = new int[16 * 16];
+        final int[] backWall = new int[16 * 16];
+        final int[] leftWall = new int[16 * 16];
+        final int[] rightWall = new int[16 * 16];
+        long quadCount = 0;
+        long area = 0;
+        for (int x = 0; x < size; x++) {
+            for (int z = 0; z < size; z++) {
+                for (int stack = 0; stack < Chunk.getStacks(); stack++) {
+                    // Same walls the worker copies out of its neighbors
+                    final int[] front = z > 0 ? wall(chunks[x][z - 1], false, Chunk.getDepth() - 1, stack, frontWall) : null;
+                    final int[] back = z < size - 1 ? wall(chunks[x][z + 1], false, 0, stack, backWall) : null;
+                    final int[] left = x > 0 ? wall(chunks[x - 1][z], true, Chunk.getWidth() - 1, stack, leftWall) : null;
+                    final int[] right = x < size - 1 ? wall(chunks[x + 1][z], true, 0, stack, rightWall) : null;
+                    quads.clear();
+                    mesher.mesh(stack, chunks[x][z], front, back, left, right, opaque, quads);
+                    quadCount += quads.size() / GreedyMesher.QUAD_SIZE;
+                    for (int i = 0; i < quads.size(); i += GreedyMesher.QUAD_SIZE) {
+                        area += (long) quads.get(i + 4) * quads.get(i + 5);
+                    }
+                }
+            }
+        }
+        return new long[]{quadCount, area};
+    }
+
+    private static int[] wall(final Chunk chunk, final boolean alongX, final int wall, final int stack, final int[] output) {
+        if (alongX) {
+            chunk.copyBorderPlaneX(wall, stack, output);
+        } else {
+            chunk.copyBorderPlaneZ(wall, stack, output);
+        }
+        return output;
+    }
+}
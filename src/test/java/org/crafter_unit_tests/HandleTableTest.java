@@ -0,0 +1,134 @@
+/*
+ Crafter - A blocky game (engine) written in Java with LWJGL.
+ Copyright (C) 2023  jordan4ibanez
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.crafter_unit_tests;
+
+import org.crafter.engine.utility.HandleTable;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class HandleTableTest {
+
+    @Test
+    public void testHandles() {
+        final HandleTable<String> table = new HandleTable<>("test");
+        assertFalse(table.isValid(0));
+        assertFalse(table.isValid(-1));
+        assertThrows(RuntimeException.class, () -> table.add(null));
+
+        final int first = table.add("first");
+        final int second = table.add("second");
+        assertTrue(first > 0);
+        assertTrue(second > 0);
+        assertNotEquals(first, second);
+        assertEquals("first", table.get(first));
+        assertEquals("second", table.get(second));
+        assertEquals(2, table.size());
+
+        assertEquals("first", table.remove(first));
+        assertFalse(table.isValid(first));
+        assertThrows(RuntimeException.class, () -> table.get(first));
+        assertThrows(RuntimeException.class, () -> table.remove(first));
+
+        // The slot gets taken again, the old handle still doesn't reach it
+        final int third = table.add("third");
+        assertNotEquals(first, third);
+        assertFalse(table.isValid(first));
+        assertEquals("third", table.get(third));
+        assertEquals(2, table.getSlotCount());
+
+        // Grows past the first array
+        final int[] many = new int[1000];
+        for (int i = 0; i < many.length; i++) {
+            many[i] = table.add("many " + i);
+        }
+        for (int i = 0; i < many.length; i++) {
+            assertEquals("many " + i, table.get(many[i]));
+        }
+        assertEquals(1002, table.size());
+
+        table.clear();
+        assertEquals(0, table.size());
+        assertFalse(table.isValid(second));
+        assertFalse(table.isValid(many[500]));
+
+        // One slot reused until the generation wraps, every handle stays above 0
+        int handle = table.add("wrap");
+        for (int i = 0; i < 5000; i++) {
+            assertTrue(handle > 0);
+            table.remove(handle);
+            final int next = table.add("wrap");
+            assertNotEquals(handle, next);
+            handle = next;
+        }
+    }
+
+    /**
+     * What a frame of chunk drawing spent finding its meshes. UUID names in a HashMap against handles, for a 32x32 map.
+     */
+    @Test
+    @Tag("benchmark")
+    public void benchmarkLookups() {
+        final int stacks = 32 * 32 * 8;
+        final HashMap<String, Object> named = new HashMap<>();
+        final HandleTable<Object> handled = new HandleTable<>("test");
+        final String[] names = new String[stacks];
+        final int[] handles = new int[stacks];
+
+        long namingTime = System.nanoTime();
+        for (int i = 0; i < stacks; i++) {
+            names[i] = UUID.randomUUID().toString();
+        }
+        namingTime = System.nanoTime() - namingTime;
+        for (int i = 0; i < stacks; i++) {
+            final Object mesh = new Object();
+            named.put(names[i], mesh);
+            handles[i] = handled.add(mesh);
+        }
+
+        final int frames = 200;
+        long checksum = 0;
+        long namedTime = 0;
+        long handleTime = 0;
+        for (int frame = 0; frame < frames; frame++) {
+            long startTime = System.nanoTime();
+            for (String name : names) {
+                // What MeshStorage.render(String) does
+                if (!named.containsKey(name)) {
+                    throw new RuntimeException("HandleTableTest: Missing mesh!");
+                }
+                checksum += named.get(name).hashCode();
+            }
+            namedTime += System.nanoTime() - startTime;
+
+            startTime = System.nanoTime();
+            for (int handle : handles) {
+                checksum -= handled.get(handle).hashCode();
+            }
+            handleTime += System.nanoTime() - startTime;
+        }
+        assertEquals(0, checksum);
+
+        System.out.println("HandleTableTest: (" + stacks + ") stack meshes | naming: UUID (" + (namingTime / stacks) + ") ns each -> handle 0 | lookups per frame: names (" +
+                (namedTime / frames / 1_000) + " us) -> handles (" + (handleTime / frames / 1_000) + " us)");
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ Crafter - A blocky game (engine) written in Java with LWJGL.
+ Copyright (C) 2023  jordan4ibanez
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.crafter_unit_tests;
+
+import org.crafter.engine.utility.LatencyHistogram;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void testBuckets() {
+        final LatencyHistogram histogram = new LatencyHistogram();
+
+        // Under a microsecond
+        histogram.record(500);
+        // 1 microsecond
+        histogram.record(1_000);
+        // 2-3 microseconds
+        histogram.record(3_999);
+        // 4-7 microseconds
+        histogram.record(4_000);
+        // Way past the last bucket
+        histogram.record(Long.MAX_VALUE / 2);
+
+        assertEquals(5, histogram.getCount());
+        assertEquals(1, histogram.getBucketCount(0));
+        assertEquals(1, histogram.getBucketCount(1));
+        assertEquals(1, histogram.getBucketCount(2));
+        assertEquals(1, histogram.getBucketCount(3));
+        assertEquals(1, histogram.getBucketCount(LatencyHistogram.getBucketAmount() - 1));
+        assertEquals(Long.MAX_VALUE / 2, histogram.getMaxNanos());
+
+        histogram.clear();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getMeanNanos());
+        assertEquals(0, histogram.getPercentileMicros(50));
+    }
+
+    @Test
+    public void testPercentiles() {
+        final LatencyHistogram histogram = new LatencyHistogram();
+
+        // 90 fast ones around 10 microseconds, 10 slow ones around 5 milliseconds
+        for (int i = 0; i < 90; i++) {
+            histogram.record(10_000);
+        }
+        for (int i = 0; i < 10; i++) {
+            histogram.record(5_000_000);
+        }
+
+        assertEquals(100, histogram.getCount());
+        assertEquals((90 * 10_000L + 10 * 5_000_000L) / 100, histogram.getMeanNanos());
+        assertEquals(5_000_000, histogram.getMaxNanos());
+
+        // 10 is in [8, 16), 5000 is in [4096, 8192)
+        assertEquals(16, histogram.getPercentileMicros(50));
+        assertEquals(16, histogram.getPercentileMicros(90));
+        assertEquals(8192, histogram.getPercentileMicros(91));
+        assertEquals(8192, histogram.getPercentileMicros(99));
+        assertEquals(8192, histogram.getPercentileMicros(100));
+
+        assertTrue(histogram.report("LatencyHistogramTest").contains("< 8192 us: 10"));
+    }
+}
@@ -0,0 +1,181 @@
+/*
+ Crafter - A blocky game (engine) written in Java with LWJGL.
+ Copyright (C) 2023  jordan4ibanez
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.crafter_unit_tests;
+
+import org.crafter.engine.utility.FrameBudget;
+import org.crafter.engine.utility.LatencyHistogram;
+import org.crafter.engine.world.chunk.Chunk;
+import org.crafter.engine.world_generation.MeshUploadQueue;
+import org.crafter.engine.world_generation.chunk_mesh_generation.ChunkMeshRecord;
+import org.joml.Vector2i;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MeshUploadQueueTest {
+
+    /**
+     * Visible stacks come out first, nearest first, then the hidden ones, nearest first.
+     */
+    @Test
+    public void testPriority() {
+        final MeshUploadQueue queue = new MeshUploadQueue();
+        assertTrue(queue.isEmpty());
+        assertNull(queue.poll());
+
+        // Everything in chunk row z = 0, camera in the middle of chunk 0 stack 0. Visible is x >= 0
+        final int[] chunkX = new int[]{5, -1, 0, 3, -4, 1, 2};
+        for (int x : chunkX) {
+            queue.add(mesh(x, 0, 0));
+        }
+        assertEquals(chunkX.length, queue.size());
+
+        final float half = Chunk.getWidth() / 2.0f;
+        queue.prioritize(half, Chunk.getStackHeight() / 2.0f, half, mesh -> mesh.destinationChunkPosition().x() >= 0);
+        final int[] expected = new int[]{0, 1, 2, 3, 5, -1, -4};
+        for (int x : expected) {
+            assertEquals(x, queue.poll().destinationChunkPosition().x());
+        }
+        assertNull(queue.poll());
+        assertTrue(queue.isEmpty());
+
+        // Half taken, the rest get sorted again with the new ones once the camera moved
+        for (int x = 0; x < 6; x++) {
+            queue.add(mesh(x, 0, 0));
+        }
+        queue.prioritize(half, 0, half, mesh -> true);
+        assertEquals(0, queue.poll().destinationChunkPosition().x());
+        assertEquals(1, queue.poll().destinationChunkPosition().x());
+        queue.add(mesh(9, 0, 0));
+        // Added after prioritize(), waits for the next one
+        assertEquals(5, queue.size());
+        queue.prioritize(9 * Chunk.getWidth() + half, 0, half, mesh -> true);
+        final int[] moved = new int[]{9, 5, 4, 3, 2};
+        for (int x : moved) {
+            assertEquals(x, queue.poll().destinationChunkPosition().x());
+        }
+        assertTrue(queue.isEmpty());
+
+        // Higher stacks are further away from a camera on the ground
+        queue.add(mesh(0, 7, 0));
+        queue.add(mesh(0, 0, 0));
+        queue.add(mesh(0, 3, 0));
+        queue.prioritize(half, 0, half, mesh -> true);
+        assertEquals(0, queue.poll().stack());
+        assertEquals(3, queue.poll().stack());
+        assertEquals(7, queue.poll().stack());
+    }
+
+    @Test
+    public void testBudget() {
+        assertThrows(RuntimeException.class, () -> new FrameBudget(0));
+        final long[] now = new long[]{1_000};
+        final FrameBudget budget = new FrameBudget(2, () -> now[0]);
+        assertEquals(2.0, budget.getBudget());
+        budget.begin();
+        assertTrue(budget.hasTimeLeft());
+        now[0] += 1_200_000;
+        assertEquals(1_200_000, budget.getElapsed());
+        assertTrue(budget.hasTimeLeft());
+        assertFalse(budget.hasTimeLeft(0.5));
+        now[0] += 800_000;
+        assertFalse(budget.hasTimeLeft());
+        budget.begin();
+        assertTrue(budget.hasTimeLeft(0.5));
+        budget.setBudget(0.5);
+        now[0] += 499_999;
+        assertTrue(budget.hasTimeLeft());
+        assertThrows(RuntimeException.class, () -> budget.setBudget(-1));
+    }
+
+    /**
+     * A world load burst with stand in costs: 2 ms of other frame work, 150 us per upload.
+     * Everything at once against a 4 ms budget, p99 frame time & how long until every visible stack is in.
+     * Report only, the timings are whatever the machine gives.
+     */
+    @Test
+    @Tag("benchmark")
+    public void benchmarkLoadBurst() {
+        // Warm up
+        simulateLoad(-1);
+        final LatencyHistogram unbudgeted = simulateLoad(-1);
+        final LatencyHistogram budgeted = simulateLoad(4);
+        System.out.println(unbudgeted.report("MeshUploadQueueTest: Load burst frame time, everything at once"));
+        System.out.println(budgeted.report("MeshUploadQueueTest: Load burst frame time, 4 ms budget"));
+    }
+
+    // Returns frame times. milliseconds -1 is no budget
+    private static LatencyHistogram simulateLoad(final double milliseconds) {
+        final int size = 16;
+        final int burst = 8;
+        final long frameWork = 2_000_000;
+        final long uploadCost = 150_000;
+        final FrameBudget budget = new FrameBudget(milliseconds > 0 ? milliseconds : 1);
+        final MeshUploadQueue queue = new MeshUploadQueue();
+        final LatencyHistogram frameTimes = new LatencyHistogram();
+
+        int arrivingX = 0;
+        int uploaded = 0;
+        int visibleLeft = size * (size / 2) * Chunk.getStacks();
+        int frames = 0;
+        long visibleTime = -1;
+        final long startTime = System.nanoTime();
+        while (uploaded < size * size * Chunk.getStacks()) {
+            final long frameStart = System.nanoTime();
+            // The mesh generator hands over whole rows of chunks at a time, visible is z >= 0
+            for (int i = 0; i < burst && arrivingX < size; i++, arrivingX++) {
+                for (int z = -size / 2; z < size / 2; z++) {
+                    for (int stack = 0; stack < Chunk.getStacks(); stack++) {
+                        queue.add(mesh(arrivingX, stack, z));
+                    }
+                }
+            }
+            budget.begin();
+            queue.prioritize(0, 0, 0, mesh -> mesh.destinationChunkPosition().y() >= 0);
+            boolean first = true;
+            ChunkMeshRecord mesh;
+            while ((first || milliseconds < 0 || budget.hasTimeLeft()) && (mesh = queue.poll()) != null) {
+                first = false;
+                spin(uploadCost);
+                uploaded++;
+                if (mesh.destinationChunkPosition().y() >= 0 && --visibleLeft == 0) {
+                    visibleTime = System.nanoTime() - startTime;
+                }
+            }
+            spin(frameWork);
+            frameTimes.record(System.nanoTime() - frameStart);
+            frames++;
+        }
+        assertTrue(queue.isEmpty());
+        System.out.println("MeshUploadQueueTest: " + (milliseconds < 0 ? "No budget" : milliseconds + " ms budget") + " | (" + uploaded + ") uploads over (" + frames +
+                ") frames | all visible stacks in after (" + (visibleTime / 1_000_000) + ") ms | everything in after (" + ((System.nanoTime() - startTime) / 1_000_000) + ") ms");
+        return frameTimes;
+    }
+
+    private static ChunkMeshRecord mesh(final int x, final int stack, final int z) {
+        return new ChunkMeshRecord(stack, new Vector2i(x, z), null, null, 0, null, null, null, 0);
+    }
+
+    private static void spin(final long nanoseconds) {
+        final long start = System.nanoTime();
+        while (System.nanoTime() - start < nanoseconds) {
+            Thread.onSpinWait();
+        }
+    }
+}
@@ -0,0 +1,167 @@
+/*
+ Crafter - A blocky game (engine) written in Java with LWJGL.
+ Copyright (C) 2023  jordan4ibanez
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.crafter_unit_tests;
+
+import org.crafter.engine.world.chunk.Chunk;
+import org.crafter.engine.world_generation.chunk_mesh_generation.GreedyMesher;
+import org.crafter.engine.world_generation.chunk_mesh_generation.NeighborMeshUpdates;
+import org.joml.Vector2i;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class NeighborMeshUpdatesTest {
+
+    // Grass, dirt & stone are all BLOCK draw type
+    private static final boolean[] opaque = new boolean[]{false, true, true, true};
+
+    /**
+     * A chunk arriving next to a loaded one only dirties the stacks where both walls are solid.
+     */
+    @Test
+    public void testNewNeighbor() {
+        final Chunk neighbor = ChunkPaletteTest.generateStockTerrain(0, 0);
+        final Chunk arriving = ChunkPaletteTest.generateStockTerrain(1, 0);
+
+        // Arriving at +X, so the neighbor is on its left
+        final int mask = NeighborMeshUpdates.getChangedStacks(neighbor, null, arriving, GreedyMesher.LEFT, opaque);
+        int expected = 0;
+        for (int y = 0; y < Chunk.getHeight(); y++) {
+            for (int z = 0; z < Chunk.getDepth(); z++) {
+                if (isOpaque(neighbor.getBlockData(Chunk.getWidth() - 1, y, z)) && isOpaque(arriving.getBlockData(0, y, z))) {
+                    expected |= 1 << (y / Chunk.getStackHeight());
+                }
+            }
+        }
+        assertEquals(expected, mask);
+        // Ground level has something, the sky doesn't
+        assertNotEquals(0, mask);
+        assertEquals(0, mask & (1 << (Chunk.getStacks() - 1)));
+
+        // Nothing solid arriving covers nothing
+        assertEquals(0, NeighborMeshUpdates.getChangedStacks(neighbor, null, new Chunk(1, 0), GreedyMesher.LEFT, opaque));
+    }
+
+    @Test
+    public void testReplacedNeighbor() {
+        final Chunk neighbor = ChunkPaletteTest.generateStockTerrain(0, 0);
+        final Chunk previous = ChunkPaletteTest.generateStockTerrain(0, 1);
+        final Chunk arriving = ChunkPaletteTest.generateStockTerrain(0, 1);
+
+        // Same blocks as before, nothing to remesh
+        assertEquals(0, NeighborMeshUpdates.getChangedStacks(neighbor, previous, arriving, GreedyMesher.FRONT, opaque));
+
+        // Dig out one block on the wall touching the neighbor, behind a solid one
+        int y = 0;
+        while (!isOpaque(neighbor.getBlockData(4, y + 1, Chunk.getDepth() - 1)) || !isOpaque(arriving.getBlockData(4, y + 1, 0))) {
+            y++;
+        }
+        y++;
+        arriving.setBlockData(4, y, 0, 0);
+        assertEquals(1 << (y / Chunk.getStackHeight()), NeighborMeshUpdates.getChangedStacks(neighbor, previous, arriving, GreedyMesher.FRONT, opaque));
+
+        // Digging on the far wall doesn't matter to this neighbor
+        final Chunk farDig = ChunkPaletteTest.generateStockTerrain(0, 1);
+        farDig.setBlockData(4, y, Chunk.getDepth() - 1, 0);
+        assertEquals(0, NeighborMeshUpdates.getChangedStacks(neighbor, previous, farDig, GreedyMesher.FRONT, opaque));
+
+        assertThrows(RuntimeException.class, () -> NeighborMeshUpdates.getChangedStacks(neighbor, null, arriving, GreedyMesher.TOP, opaque));
+    }
+
+    /**
+     * Bulk edits reach across stack edges & chunk walls the same way a single block edit does.
+     */
+    @Test
+    public void testJournalReach() {
+        final Chunk chunk = new Chunk(0, 0);
+        final int[] reach = new int[NeighborMeshUpdates.REACH_SLOTS];
+
+        chunk.startRecording();
+        // Bottom of stack 1 on the left wall, middle of stack 2 on the back wall
+        chunk.setBlockData(0, 16, 5, 1);
+        chunk.setBlockData(7, 40, Chunk.getDepth() - 1, 1);
+        NeighborMeshUpdates.getJournalReach(chunk.stopRecording(), reach);
+
+        assertEquals(0b111, reach[NeighborMeshUpdates.SELF]);
+        assertEquals(0b010, reach[GreedyMesher.LEFT]);
+        assertEquals(0b100, reach[GreedyMesher.BACK]);
+        assertEquals(0, reach[GreedyMesher.RIGHT]);
+        assertEquals(0, reach[GreedyMesher.FRONT]);
+
+        // Inside the chunk, only its own stack
+        chunk.startRecording();
+        chunk.setBlockData(8, 70, 8, 2);
+        NeighborMeshUpdates.getJournalReach(chunk.stopRecording(), reach);
+        assertArrayEquals(new int[]{0, 0, 0, 0, 1 << 4}, reach);
+    }
+
+    /**
+     * Load the classic map spawn first like the generator does, and count the neighbor stacks pushed to the mesher.
+     * Before: every loaded neighbor got all 8 stacks remeshed.
+     */
+    @Test
+    @Tag("benchmark")
+    public void benchmarkClassicMapLoad() {
+        final int radius = 16;
+        final List<Vector2i> order = new ArrayList<>();
+        for (int x = -radius; x < radius; x++) {
+            for (int z = -radius; z < radius; z++) {
+                order.add(new Vector2i(x, z));
+            }
+        }
+        order.sort(Comparator.comparingLong(position -> (long) position.x() * position.x() + (long) position.y() * position.y()));
+
+        final Map<Vector2i, Chunk> loaded = new HashMap<>();
+        final int[][] sides = {{0, -1, GreedyMesher.FRONT}, {0, 1, GreedyMesher.BACK}, {-1, 0, GreedyMesher.LEFT}, {1, 0, GreedyMesher.RIGHT}};
+        long fullChunkStacks = 0;
+        long changedStacks = 0;
+
+        final long startTime = System.nanoTime();
+        for (Vector2i position : order) {
+            final Chunk arriving = ChunkPaletteTest.generateStockTerrain(position.x(), position.y());
+            loaded.put(position, arriving);
+            for (int[] side : sides) {
+                final Chunk neighbor = loaded.get(new Vector2i(position.x() + side[0], position.y() + side[1]));
+                if (neighbor == null) {
+                    continue;
+                }
+                fullChunkStacks += Chunk.getStacks();
+                changedStacks += Integer.bitCount(NeighborMeshUpdates.getChangedStacks(neighbor, null, arriving, side[2], opaque));
+            }
+        }
+        final long time = System.nanoTime() - startTime;
+
+        final long ownStacks = (long) order.size() * Chunk.getStacks();
+        assertTrue(changedStacks < fullChunkStacks);
+        System.out.println("NeighborMeshUpdatesTest: classic map load | neighbor stacks before: (" + fullChunkStacks + ") after: (" + changedStacks +
+                ") | total stacks meshed before: (" + (ownStacks + fullChunkStacks) + ") after: (" + (ownStacks + changedStacks) +
+                ") | (" + (time / order.size() / 1_000) + " us) per chunk, generation included");
+    }
+
+    private static boolean isOpaque(final int blockData) {
+        final int ID = Chunk.getBlockID(blockData);
+        return ID > 0 && ID < opaque.length && opaque[ID];
+    }
+}
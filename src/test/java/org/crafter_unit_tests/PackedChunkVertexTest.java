@@ -0,0 +1,185 @@
+/*
+ Crafter - A blocky game (engine) written in Java with LWJGL.
+ Copyright (C) 2023  jordan4ibanez
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.crafter_unit_tests;
+
+import org.crafter.engine.utility.IntArrayBuilder;
+import org.crafter.engine.world.chunk.Chunk;
+import org.crafter.engine.world_generation.chunk_mesh_generation.GreedyMesher;
+import org.crafter.engine.world_generation.chunk_mesh_generation.PackedChunkVertex;
+import org.joml.Vector3f;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PackedChunkVertexTest {
+
+    // Grass, dirt & stone are all BLOCK draw type
+    private static final boolean[] opaque = new boolean[]{false, true, true, true};
+
+    // Positions 3, texture coordinates 2, colors 4 floats
+    private static final int floatVertexBytes = (3 + 2 + 4) * Float.BYTES;
+    // Greedy float meshes carry an atlas region (4 floats) on every vertex too
+    private static final int greedyFloatVertexBytes = (3 + 2 + 4 + 4) * Float.BYTES;
+
+    /**
+     * Every value of every field has to come back out exactly, no matter what the other fields hold.
+     */
+    @Test
+    public void testRoundTrip() {
+        for (int y = 0; y <= Chunk.getHeight(); y++) {
+            for (int x = 0; x <= Chunk.getWidth(); x++) {
+                for (int z = 0; z <= Chunk.getDepth(); z++) {
+                    final int face = (x + y + z) % 6;
+                    final int shade = (x * 3 + z) % 5;
+                    final int high = (x + y * 7 + z * 3) & 7;
+                    final int position = PackedChunkVertex.packPosition(x, y, z, face, shade, high);
+                    assertEquals(x, PackedChunkVertex.getX(position));
+                    assertEquals(y, PackedChunkVertex.getY(position));
+                    assertEquals(z, PackedChunkVertex.getZ(position));
+                    assertEquals(face, PackedChunkVertex.getFace(position));
+                    assertEquals(shade, PackedChunkVertex.getShade(position));
+                    assertEquals(high, PackedChunkVertex.getHigh(position));
+                }
+            }
+        }
+        for (int region = 0; region < PackedChunkVertex.MAX_ATLAS_REGIONS; region++) {
+            for (int u = 0; u <= 16; u++) {
+                for (int v = 0; v <= 16; v++) {
+                    final int texture = PackedChunkVertex.packTexture(u, v, region);
+                    assertEquals(u, PackedChunkVertex.getU(texture));
+                    assertEquals(v, PackedChunkVertex.getV(texture));
+                    assertEquals(region, PackedChunkVertex.getRegion(texture));
+                }
+            }
+        }
+
+        assertThrows(RuntimeException.class, () -> PackedChunkVertex.packPosition(32, 0, 0, 0, 0, 0));
+        assertThrows(RuntimeException.class, () -> PackedChunkVertex.packPosition(0, 256, 0, 0, 0, 0));
+        assertThrows(RuntimeException.class, () -> PackedChunkVertex.packPosition(0, 0, -1, 0, 0, 0));
+        assertThrows(RuntimeException.class, () -> PackedChunkVertex.packPosition(0, 0, 0, 6, 0, 0));
+        assertThrows(RuntimeException.class, () -> PackedChunkVertex.packPosition(0, 0, 0, 0, 5, 0));
+        assertThrows(RuntimeException.class, () -> PackedChunkVertex.packTexture(0, 0, PackedChunkVertex.MAX_ATLAS_REGIONS));
+    }
+
+    /**
+     * The decoded position is the float mesh position: whole corners, pushed out a hair on the axes the face spans.
+     */
+    @Test
+    public void testDecodePosition() {
+        final float over = PackedChunkVertex.OVER_PROVISION;
+        final Vector3f output = new Vector3f();
+
+        // Front face top right corner of block 3, 20, 5. Faces -Z, so Z stays flat
+        PackedChunkVertex.decodePosition(PackedChunkVertex.packPosition(4, 21, 5, GreedyMesher.FRONT, 0, PackedChunkVertex.HIGH_X | PackedChunkVertex.HIGH_Y), output);
+        assertPosition(4 + over, 21 + over, 5, output);
+
+        // Top face low corner, Y stays flat
+        PackedChunkVertex.decodePosition(PackedChunkVertex.packPosition(0, 64, 0, GreedyMesher.TOP, 0, PackedChunkVertex.HIGH_Y), output);
+        assertPosition(-over, 64, -over, output);
+
+        // Right face, X stays flat
+        PackedChunkVertex.decodePosition(PackedChunkVertex.packPosition(16, 0, 16, GreedyMesher.RIGHT, 0, PackedChunkVertex.HIGH_X | PackedChunkVertex.HIGH_Z), output);
+        assertPosition(16, -over, 16 + over, output);
+
+        assertEquals(0.905f, PackedChunkVertex.getShadeValue(PackedChunkVertex.SHADE_BRIGHT_SIDE_Z));
+    }
+
+    private static void assertPosition(final float x, final float y, final float z, final Vector3f position) {
+        assertEquals(x, position.x);
+        assertEquals(y, position.y);
+        assertEquals(z, position.z);
+    }
+
+    /**
+     * VRAM & upload size of stock terrain meshes, float against packed. Neither has indices of its own, see QuadIndexBuffer.
+     */
+    @Test
+    @Tag("benchmark")
+    public void benchmarkVram() {
+        final int size = 8;
+        final Chunk[][] chunks = new Chunk[size][size];
+        for (int x = 0; x < size; x++) {
+            for (int z = 0; z < size; z++) {
+                chunks[x][z] = ChunkPaletteTest.generateStockTerrain(x, z);
+            }
+        }
+
+        final long perFaceQuads = countQuads(new GreedyMesher(false), chunks);
+        final long greedyQuads = countQuads(new GreedyMesher(), chunks);
+        final int stacks = size * size * Chunk.getStacks();
+
+        report("per face", perFaceQuads, floatVertexBytes, stacks);
+        report("greedy", greedyQuads, greedyFloatVertexBytes, stacks);
+
+        assertTrue(PackedChunkVertex.BYTES * 4 < floatVertexBytes);
+    }
+
+    private static void report(final String name, final long quads, final int floatBytes, final int stacks) {
+        final long floatTotal = quads * 4 * floatBytes;
+        final long packedTotal = quads * 4 * PackedChunkVertex.BYTES;
+        System.out.println("PackedChunkVertexTest: 8x8 stock terrain " + name + " | (" + quads * 4 + ") vertices | float: (" + floatBytes +
+                " bytes) a vertex (" + (floatTotal / 1024) + " KB) | packed: (" + PackedChunkVertex.BYTES + " bytes) a vertex (" + (packedTotal / 1024) +
+                " KB) | upload per stack: (" + (floatTotal / stacks) + ") -> (" + (packedTotal / stacks) + ") bytes");
+    }
+
+    private static long countQuads(final GreedyMesher mesher, final Chunk[][] chunks) {
+        long count = 0;
+        for (int quads : countStackQuads(mesher, chunks)) {
+            count += quads;
+        }
+        return count;
+    }
+
+    /**
+     * Mesh every stack of the map against its loaded neighbors.
+     * @return Quads in each stack.
+     */
+    static int[] countStackQuads(final GreedyMesher mesher, final Chunk[][] chunks) {
+        final int size = chunks.length;
+        final IntArrayBuilder quads = new IntArrayBuilder();
+        final int[][] walls = new int[4][16 * 16];
+        final int[] counts = new int[size * size * Chunk.getStacks()];
+        int index = 0;
+        for (int x = 0; x < size; x++) {
+            for (int z = 0; z < size; z++) {
+                for (int stack = 0; stack < Chunk.getStacks(); stack++) {
+                    // Front, back, left, right
+                    final int[] front = z > 0 ? copyZ(chunks[x][z - 1], Chunk.getDepth() - 1, stack, walls[0]) : null;
+                    final int[] back = z < size - 1 ? copyZ(chunks[x][z + 1], 0, stack, walls[1]) : null;
+                    final int[] left = x > 0 ? copyX(chunks[x - 1][z], Chunk.getWidth() - 1, stack, walls[2]) : null;
+                    final int[] right = x < size - 1 ? copyX(chunks[x + 1][z], 0, stack, walls[3]) : null;
+                    quads.clear();
+                    mesher.mesh(stack, chunks[x][z], front, back, left, right, opaque, quads);
+                    counts[index++] = quads.size() / GreedyMesher.QUAD_SIZE;
+                }
+            }
+        }
+        return counts;
+    }
+
+    private static int[] copyX(final Chunk chunk, final int wall, final int stack, final int[] output) {
+        chunk.copyBorderPlaneX(wall, stack, output);
+        return output;
+    }
+
+    private static int[] copyZ(final Chunk chunk, final int wall, final int stack, final int[] output) {
+        chunk.copyBorderPlaneZ(wall, stack, output);
+        return output;
+    }
+}
@@ -0,0 +1,208 @@
+/*
+ Crafter - A blocky game (engine) written in Java with LWJGL.
+ Copyright (C) 2023  jordan4ibanez
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.crafter_unit_tests;
+
+import org.crafter.engine.world.biome.BiomeDefinition;
+import org.crafter.engine.world.chunk.Chunk;
+import org.crafter.engine.world.chunk.ChunkStorage;
+import org.crafter.engine.world.region.RegionStorage;
+import org.crafter.engine.world.region.WorldSaver;
+import org.crafter.engine.world_generation.chunk_generation.ChunkGeneratorWorker;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PristineChunkTest {
+
+    // 32x32, the classic map. Far away from anything other tests put into ChunkStorage
+    private static final int size = 32;
+    private static final int offset = 20_000;
+
+    @Test
+    public void testGenerationFingerprint() throws IOException {
+        final Path folder = Files.createTempDirectory("crafter_pristine_test");
+        try {
+            RegionStorage.setWorldFolder(folder.resolve("a").toString());
+            // Brand-new world takes whatever it is given
+            assertTrue(RegionStorage.checkGenerationFingerprint(42));
+            assertTrue(RegionStorage.checkGenerationFingerprint(42));
+            assertFalse(RegionStorage.checkGenerationFingerprint(43));
+
+            RegionStorage.setWorldFolder(folder.resolve("b").toString());
+            assertTrue(RegionStorage.checkGenerationFingerprint(43));
+        } finally {
+            RegionStorage.closeAll();
+            deleteFolder(folder);
+        }
+    }
+
+    /**
+     * Only the biome & layers a worker generates with go into its fingerprint.
+     */
+    @Test
+    public void testWorkerFingerprint() {
+        final long classic = new ChunkGeneratorWorker(new BiomeDefinition("classic"), 1, 2, 3).getFingerprint();
+        assertEquals(classic, new ChunkGeneratorWorker(new BiomeDefinition("classic"), 1, 2, 3).getFingerprint());
+        assertNotEquals(classic, new ChunkGeneratorWorker(new BiomeDefinition("classic"), 1, 2, 4).getFingerprint());
+        assertNotEquals(classic, new ChunkGeneratorWorker(new BiomeDefinition("desert"), 1, 2, 3).getFingerprint());
+    }
+
+    @Test
+    public void testPristineChunksStayClean() {
+        Chunk pristine = ChunkPaletteTest.generateStockTerrain(0, 0);
+        pristine.markSaved(pristine.getVersion());
+        assertFalse(pristine.isDirty());
+        assertNull(pristine.snapshotIfDirty());
+
+        // Snapshots don't change that
+        pristine.snapshot();
+        assertFalse(pristine.isDirty());
+
+        pristine.setBlockData(1, 1, 1, 5);
+        assertTrue(pristine.isDirty());
+        assertNotNull(pristine.snapshotIfDirty());
+        assertFalse(pristine.isDirty());
+    }
+
+    /**
+     * The WorldSaver writes the edited chunks and skips the pristine ones, they are regenerated instead.
+     */
+    @Test
+    public void testOnlyEditedChunksSaved() throws IOException {
+        final Path folder = Files.createTempDirectory("crafter_pristine_test");
+        RegionStorage.setWorldFolder(folder.toString());
+        // Next to the map the benchmark uses
+        final int start = offset - 4;
+
+        try {
+            for (int x = 0; x < 4; x++) {
+                for (int z = 0; z < 4; z++) {
+                    final Chunk chunk = ChunkPaletteTest.generateStockTerrain(x + start, z + start);
+                    chunk.markSaved(chunk.getVersion());
+                    ChunkStorage.addOrUpdate(chunk);
+                }
+            }
+            final Chunk edited = ChunkStorage.getChunk(start + 1, start + 2);
+            edited.setBlockData(8, 90, 8, Chunk.setBlockID(0, 3));
+
+            WorldSaver.start();
+            WorldSaver.save();
+            WorldSaver.flush();
+
+            for (int x = 0; x < 4; x++) {
+                for (int z = 0; z < 4; z++) {
+                    assertEquals(x == 1 && z == 2, RegionStorage.hasChunk(x + start, z + start));
+                }
+            }
+            assertArrayEquals(edited.getData(), RegionStorage.loadChunk(start + 1, start + 2).getData());
+        } finally {
+            for (int x = 0; x < 4; x++) {
+                for (int z = 0; z < 4; z++) {
+                    ChunkStorage.removeChunk(x + start, z + start);
+                }
+            }
+            RegionStorage.closeAll();
+            deleteFolder(folder);
+        }
+    }
+
+    /**
+     * A lightly edited classic map, 1 in 100 chunks has a block changed.
+     * Before: every generated chunk was written. After: only the edited ones.
+     */
+    @Test
+    @Tag("benchmark")
+    public void benchmarkLightlyEditedWorld() throws IOException {
+        final Path folder = Files.createTempDirectory("crafter_pristine_test");
+
+        try {
+            final Chunk[][] chunks = new Chunk[size][size];
+            for (int x = 0; x < size; x++) {
+                for (int z = 0; z < size; z++) {
+                    if (!ChunkStorage.hasChunk(x + offset, z + offset)) {
+                        ChunkStorage.addOrUpdate(ChunkPaletteTest.generateStockTerrain(x + offset, z + offset));
+                    }
+                    chunks[x][z] = ChunkStorage.getChunk(x + offset, z + offset);
+                    // Pristine, this is how the ChunkGenerator hands them over
+                    chunks[x][z].markSaved(chunks[x][z].getVersion());
+                }
+            }
+
+            // Store everything, what the generator did before
+            RegionStorage.setWorldFolder(folder.resolve("everything").toString());
+            long startTime = System.nanoTime();
+            for (int x = 0; x < size; x++) {
+                for (int z = 0; z < size; z++) {
+                    RegionStorage.saveChunk(chunks[x][z].snapshot());
+                }
+            }
+            final long everythingTime = System.nanoTime() - startTime;
+            final long everythingBytes = RegionStorage.getUsedBytes();
+
+            // Only edits, everything is pristine (saved) until touched
+            RegionStorage.setWorldFolder(folder.resolve("edited").toString());
+            int edited = 0;
+            for (int x = 0; x < size; x++) {
+                for (int z = 0; z < size; z++) {
+                    if ((x * size + z) % 100 == 0) {
+                        chunks[x][z].setBlockData(8, 90, 8, Chunk.setBlockID(0, 3));
+                        edited++;
+                    }
+                }
+            }
+
+            WorldSaver.start();
+            startTime = System.nanoTime();
+            WorldSaver.save();
+            WorldSaver.flush();
+            final long editedTime = System.nanoTime() - startTime;
+            final long editedBytes = RegionStorage.getUsedBytes();
+
+            for (int x = 0; x < size; x++) {
+                for (int z = 0; z < size; z++) {
+                    final boolean wasEdited = (x * size + z) % 100 == 0;
+                    assertEquals(wasEdited, RegionStorage.hasChunk(x + offset, z + offset));
+                    if (wasEdited) {
+                        assertArrayEquals(chunks[x][z].getData(), RegionStorage.loadChunk(x + offset, z + offset).getData());
+                    }
+                }
+            }
+            assertTrue(editedBytes * 10 < everythingBytes);
+
+            System.out.println("PristineChunkTest: 32x32 map, " + edited + " chunks edited | store everything: " +
+                    (everythingBytes / 1024) + " KB in " + (everythingTime / 1_000_000) + " ms | store edits: " +
+                    (editedBytes / 1024) + " KB in " + (editedTime / 1_000_000) + " ms");
+        } finally {
+            RegionStorage.closeAll();
+            deleteFolder(folder);
+        }
+    }
+
+    private void deleteFolder(final Path folder) throws IOException {
+        try (Stream<Path> paths = Files.walk(folder)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+}
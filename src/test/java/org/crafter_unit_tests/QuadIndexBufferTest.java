@@ -0,0 +1,137 @@
+/*
+ Crafter - A blocky game (engine) written in Java with LWJGL.
+ Copyright (C) 2023  jordan4ibanez
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.crafter_unit_tests;
+
+import org.crafter.engine.mesh.QuadIndexBuffer;
+import org.crafter.engine.utility.IntArrayBuilder;
+import org.crafter.engine.world.chunk.Chunk;
+import org.crafter.engine.world_generation.chunk_mesh_generation.GreedyMesher;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class QuadIndexBufferTest {
+
+    private static final int[] quadOrder = new int[]{0, 1, 2, 2, 3, 0};
+
+    /**
+     * The shared buffer has to match what every stack used to seed for itself, all the way through the unsigned short range.
+     */
+    @Test
+    public void testIndices() {
+        final IntArrayBuilder seeded = new IntArrayBuilder();
+        seedIndices(seeded, QuadIndexBuffer.MAX_SHORT_VERTICES / 4);
+        assertEquals(QuadIndexBuffer.getIndexCount(QuadIndexBuffer.MAX_SHORT_VERTICES), seeded.size());
+        for (int i = 0; i < seeded.size(); i++) {
+            assertEquals(seeded.get(i), QuadIndexBuffer.getIndex(i));
+            // What the GPU reads back out of the short buffer
+            assertEquals(seeded.get(i), ((short) QuadIndexBuffer.getIndex(i)) & 0xFFFF);
+        }
+
+        assertEquals(0, QuadIndexBuffer.getIndexCount(0));
+        assertEquals(6, QuadIndexBuffer.getIndexCount(4));
+        assertThrows(RuntimeException.class, () -> QuadIndexBuffer.getIndexCount(6));
+
+        assertTrue(QuadIndexBuffer.isShort(QuadIndexBuffer.MAX_SHORT_VERTICES));
+        assertFalse(QuadIndexBuffer.isShort(QuadIndexBuffer.MAX_SHORT_VERTICES + 4));
+
+        // The short buffer never grows past what shorts can reach
+        assertEquals(QuadIndexBuffer.MAX_SHORT_VERTICES / 4, QuadIndexBuffer.getGrownQuads(QuadIndexBuffer.MAX_SHORT_VERTICES / 4, true));
+        assertTrue(QuadIndexBuffer.getGrownQuads(QuadIndexBuffer.MAX_SHORT_VERTICES / 4 + 1, false) > QuadIndexBuffer.MAX_SHORT_VERTICES / 4);
+        assertTrue(QuadIndexBuffer.getGrownQuads(100, true) >= 100);
+    }
+
+    /**
+     * Index memory & the CPU time spent building and copying indices on stock terrain, per stack against shared.
+     */
+    @Test
+    @Tag("benchmark")
+    public void benchmarkIndices() {
+        final int size = 8;
+        final Chunk[][] chunks = new Chunk[size][size];
+        for (int x = 0; x < size; x++) {
+            for (int z = 0; z < size; z++) {
+                chunks[x][z] = ChunkPaletteTest.generateStockTerrain(x, z);
+            }
+        }
+
+        report("per face", PackedChunkVertexTest.countStackQuads(new GreedyMesher(false), chunks));
+        report("greedy", PackedChunkVertexTest.countStackQuads(new GreedyMesher(), chunks));
+    }
+
+    private static void report(final String name, final int[] stackQuads) {
+        long quads = 0;
+        int mostVertices = 0;
+        for (int stackQuad : stackQuads) {
+            quads += stackQuad;
+            mostVertices = Math.max(mostVertices, stackQuad * 4);
+        }
+        // Every stack of stock terrain has to fit the short buffer
+        assertTrue(QuadIndexBuffer.isShort(mostVertices));
+
+        final long perStackBytes = quads * 6 * Integer.BYTES;
+        // The short buffer only grows as big as the biggest stack
+        final long sharedBytes = (long) QuadIndexBuffer.getGrownQuads(mostVertices / 4, true) * 6 * Short.BYTES;
+
+        // What the worker & Mesh used to do for every stack: seed, copy out to a new array, copy into the upload buffer
+        final IntArrayBuilder indices = new IntArrayBuilder(4096);
+        ByteBuffer upload = ByteBuffer.allocateDirect(4096).order(ByteOrder.nativeOrder());
+        long checksum = 0;
+        long time = 0;
+        final int rounds = 5;
+        for (int round = 0; round <= rounds; round++) {
+            final long startTime = System.nanoTime();
+            for (int stackQuad : stackQuads) {
+                seedIndices(indices, stackQuad);
+                final int[] output = indices.toArray();
+                indices.clear();
+                if (upload.capacity() < output.length * Integer.BYTES) {
+                    upload = ByteBuffer.allocateDirect(output.length * Integer.BYTES * 2).order(ByteOrder.nativeOrder());
+                }
+                upload.clear();
+                final IntBuffer buffer = upload.asIntBuffer();
+                buffer.put(output).flip();
+                checksum += buffer.limit();
+            }
+            // Round 0 warms up
+            if (round > 0) {
+                time += System.nanoTime() - startTime;
+            }
+        }
+        assertTrue(checksum > 0);
+
+        System.out.println("QuadIndexBufferTest: 8x8 stock terrain " + name + " | (" + quads + ") quads | most vertices in a stack (" + mostVertices +
+                ") | index memory: per stack (" + (perStackBytes / 1024) + " KB) -> shared (" + (sharedBytes / 1024) + " KB) | index building: (" +
+                (time / rounds / 1_000) + " us) per map, (" + (time / rounds / stackQuads.length) + " ns) per stack -> 0");
+    }
+
+    // The old ChunkFaceGenerator.seedIndices, one call per face
+    private static void seedIndices(final IntArrayBuilder indices, final int quads) {
+        for (int quad = 0; quad < quads; quad++) {
+            final int length = (indices.size() / 6) * 4;
+            for (int i : quadOrder) {
+                indices.add(i + length);
+            }
+        }
+    }
+}
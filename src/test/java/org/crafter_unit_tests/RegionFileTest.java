@@ -0,0 +1,208 @@
+/*
+ Crafter - A blocky game (engine) written in Java with LWJGL.
+ Copyright (C) 2023  jordan4ibanez
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.crafter_unit_tests;
+
+import org.crafter.engine.world.chunk.Chunk;
+import org.crafter.engine.world.region.ChunkCodec;
+import org.crafter.engine.world.region.RegionFile;
+import org.crafter.engine.world.region.RegionStorage;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class RegionFileTest {
+
+    private Path folder;
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        folder = Files.createTempDirectory("crafter_region_test");
+        RegionStorage.setWorldFolder(folder.toString());
+    }
+
+    @AfterEach
+    public void tearDown() throws IOException {
+        RegionStorage.closeAll();
+        try (Stream<Path> paths = Files.walk(folder)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @Test
+    public void testCodecRoundTrip() {
+        Chunk terrain = ChunkPaletteTest.generateStockTerrain(3, -7);
+        Chunk decoded = ChunkCodec.decode(3, -7, ByteBuffer.wrap(ChunkCodec.encode(terrain)));
+        assertArrayEquals(terrain.getData(), decoded.getData());
+        assertEquals(3, decoded.getX());
+        assertEquals(-7, decoded.getZ());
+
+        // Worst case, every block is different
+        Chunk noise = new Chunk(0, 0);
+        Random random = new Random(1234);
+        for (int i = 0; i < Chunk.getArraySize(); i++) {
+            noise.setBlockData(i, random.nextInt());
+        }
+        decoded = ChunkCodec.decode(0, 0, ByteBuffer.wrap(ChunkCodec.encode(noise)));
+        assertArrayEquals(noise.getData(), decoded.getData());
+
+        // Empty chunks are tiny
+        assertTrue(ChunkCodec.encode(new Chunk(0, 0)).length < 32);
+    }
+
+    @Test
+    public void testSaveLoadPersistence() {
+        assertNull(RegionStorage.loadChunk(0, 0));
+        assertFalse(RegionStorage.hasChunk(0, 0));
+
+        // Spans negative and positive regions
+        for (int x = -40; x < 40; x += 13) {
+            for (int z = -40; z < 40; z += 11) {
+                RegionStorage.saveChunk(ChunkPaletteTest.generateStockTerrain(x, z));
+            }
+        }
+
+        // Reopen everything from disk
+        RegionStorage.closeAll();
+
+        for (int x = -40; x < 40; x += 13) {
+            for (int z = -40; z < 40; z += 11) {
+                assertTrue(RegionStorage.hasChunk(x, z));
+                Chunk loaded = RegionStorage.loadChunk(x, z);
+                assertNotNull(loaded);
+                assertArrayEquals(ChunkPaletteTest.generateStockTerrain(x, z).getData(), loaded.getData());
+            }
+        }
+        assertFalse(RegionStorage.hasChunk(1, 1));
+    }
+
+    @Test
+    public void testOverwriteAndDelete() {
+        Chunk small = ChunkPaletteTest.generateStockTerrain(1, 1);
+        RegionStorage.saveChunk(small);
+        RegionStorage.saveChunk(ChunkPaletteTest.generateStockTerrain(2, 1));
+        final long smallBytes = RegionStorage.getUsedBytes();
+
+        // Grow chunk (1, 1) far past its sectors, it has to move
+        Chunk big = new Chunk(1, 1);
+        Random random = new Random(99);
+        for (int i = 0; i < Chunk.getArraySize(); i++) {
+            big.setBlockData(i, random.nextInt());
+        }
+        RegionStorage.saveChunk(big);
+        assertTrue(RegionStorage.getUsedBytes() > smallBytes);
+        assertArrayEquals(big.getData(), RegionStorage.loadChunk(1, 1).getData());
+        assertArrayEquals(ChunkPaletteTest.generateStockTerrain(2, 1).getData(), RegionStorage.loadChunk(2, 1).getData());
+
+        // Shrink it back, the sectors are handed back
+        RegionStorage.saveChunk(small);
+        assertEquals(smallBytes, RegionStorage.getUsedBytes());
+        assertArrayEquals(small.getData(), RegionStorage.loadChunk(1, 1).getData());
+
+        RegionStorage.deleteChunk(1, 1);
+        assertFalse(RegionStorage.hasChunk(1, 1));
+        assertNull(RegionStorage.loadChunk(1, 1));
+        assertTrue(RegionStorage.hasChunk(2, 1));
+
+        // Deleting survives a reopen
+        RegionStorage.closeAll();
+        assertFalse(RegionStorage.hasChunk(1, 1));
+        assertTrue(RegionStorage.hasChunk(2, 1));
+    }
+
+    /**
+     * A rewrite never lands on the copy the table points at, even when it would fit there. The old run is reused after.
+     */
+    @Test
+    public void testRewriteNeverOverwritesInPlace() {
+        final RegionFile region = new RegionFile(folder.resolve("rewrite.region").toFile());
+        final byte[] first = new byte[1000];
+        final byte[] second = new byte[1000];
+        final byte[] third = new byte[1000];
+        Arrays.fill(first, (byte) 1);
+        Arrays.fill(second, (byte) 2);
+        Arrays.fill(third, (byte) 3);
+
+        region.write(0, 0, first);
+        final long length = folder.resolve("rewrite.region").toFile().length();
+        final long usedBytes = region.getUsedBytes();
+        region.write(0, 0, second);
+        // Went to a new sector, the file grew by one
+        assertEquals(length + 4096, folder.resolve("rewrite.region").toFile().length());
+        assertEquals(usedBytes, region.getUsedBytes());
+        assertArrayEquals(second, readAll(region.read(0, 0)));
+
+        // Back into the first one's freed sector, the file doesn't grow
+        region.write(0, 0, third);
+        assertEquals(length + 4096, folder.resolve("rewrite.region").toFile().length());
+        assertEquals(usedBytes, region.getUsedBytes());
+        assertArrayEquals(third, readAll(region.read(0, 0)));
+        region.close();
+    }
+
+    private static byte[] readAll(final ByteBuffer buffer) {
+        final byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+        return bytes;
+    }
+
+    /**
+     * Loading a saved chunk vs building it again from scratch.
+     */
+    @Test
+    @Tag("benchmark")
+    public void benchmarkLoadVsGenerate() {
+        final int size = 16;
+        for (int x = 0; x < size; x++) {
+            for (int z = 0; z < size; z++) {
+                RegionStorage.saveChunk(ChunkPaletteTest.generateStockTerrain(x, z));
+            }
+        }
+
+        long sink = 0;
+        long start = System.nanoTime();
+        for (int x = 0; x < size; x++) {
+            for (int z = 0; z < size; z++) {
+                sink += ChunkPaletteTest.generateStockTerrain(x, z).getVersion();
+            }
+        }
+        final long generateTime = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        for (int x = 0; x < size; x++) {
+            for (int z = 0; z < size; z++) {
+                sink += RegionStorage.loadChunk(x, z).getVersion();
+            }
+        }
+        final long loadTime = System.nanoTime() - start;
+
+        System.out.println("RegionFileTest: 16x16 chunks | generate: " + (generateTime / 1_000_000) + " ms | load: " +
+                (loadTime / 1_000_000) + " ms | on disk: " + (RegionStorage.getUsedBytes() / 1024) + " KB (" + (sink & 1) + ")");
+    }
+}
@@ -0,0 +1,158 @@
+/*
+ Crafter - A blocky game (engine) written in Java with LWJGL.
+ Copyright (C) 2023  jordan4ibanez
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.crafter_unit_tests;
+
+import org.crafter.engine.world_generation.chunk_mesh_generation.StackRequestQueue;
+import org.joml.Vector3i;
+import org.joml.Vector3ic;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.crafter.engine.world_generation.chunk_mesh_generation.ChunkMeshGenerator.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class StackRequestQueueTest {
+
+    @Test
+    public void testOrderAndMerging() {
+        final StackRequestQueue queue = new StackRequestQueue();
+
+        assertTrue(queue.add(packStack(0, 0, 0), false));
+        assertTrue(queue.add(packStack(1, 2, -3), false));
+        assertTrue(queue.add(packStack(-5, 7, 9), false));
+        // Already pending, keeps its place
+        assertFalse(queue.add(packStack(0, 0, 0), false));
+        assertEquals(3, queue.size());
+        assertEquals(1, queue.getMerged());
+
+        // Urgent ones go first, a pending one pushed as urgent moves up
+        assertTrue(queue.add(packStack(4, 1, 4), true));
+        assertFalse(queue.add(packStack(-5, 7, 9), true));
+        assertFalse(queue.add(packStack(4, 1, 4), false));
+        assertEquals(4, queue.size());
+
+        assertEquals(packStack(4, 1, 4), queue.poll());
+        assertEquals(packStack(-5, 7, 9), queue.poll());
+        assertEquals(packStack(0, 0, 0), queue.poll());
+        assertTrue(queue.contains(packStack(1, 2, -3)));
+        assertEquals(packStack(1, 2, -3), queue.take());
+        assertFalse(queue.contains(packStack(1, 2, -3)));
+        assertEquals(StackRequestQueue.NO_REQUEST, queue.poll());
+        assertTrue(queue.isEmpty());
+
+        // Taken, so it's a new request again
+        assertTrue(queue.add(packStack(1, 2, -3), false));
+        assertEquals(packStack(1, 2, -3), queue.poll());
+
+        // Negative chunks survive the trip
+        final long key = packStack(-123_456, 5, -654_321);
+        assertEquals(-123_456, unpackStackX(key));
+        assertEquals(5, unpackStack(key));
+        assertEquals(-654_321, unpackStackZ(key));
+    }
+
+    @Test
+    public void testWorkersWakeUpAndShutDown() throws InterruptedException {
+        final StackRequestQueue queue = new StackRequestQueue();
+        final AtomicInteger taken = new AtomicInteger();
+        final Thread[] workers = new Thread[3];
+        for (int i = 0; i < workers.length; i++) {
+            workers[i] = new Thread(() -> {
+                while (queue.take() != StackRequestQueue.NO_REQUEST) {
+                    taken.incrementAndGet();
+                }
+            });
+            workers[i].start();
+        }
+
+        for (int i = 0; i < 1000; i++) {
+            queue.add(packStack(i, i & 7, -i), (i & 1) == 0);
+        }
+        while (!queue.isEmpty()) {
+            Thread.sleep(1);
+        }
+        queue.close();
+        for (Thread worker : workers) {
+            worker.join(5_000);
+            assertFalse(worker.isAlive());
+        }
+        assertEquals(1000, taken.get());
+    }
+
+    /**
+     * A burst of stack pushes like a big block manipulator write, every stack pushed a few times by its neighbours.
+     * Checking for duplicates on a LinkedBlockingQueue walks the whole queue each push.
+     */
+    @Test
+    @Tag("benchmark")
+    public void benchmarkBurstPush() {
+        final int chunks = 24;
+        final int repeats = 3;
+
+        // Warm up both
+        pushBurstLinkedQueue(8, repeats);
+        pushBurstStackQueue(8, repeats);
+
+        long startTime = System.nanoTime();
+        final int linkedQueued = pushBurstLinkedQueue(chunks, repeats);
+        final long linkedTime = System.nanoTime() - startTime;
+
+        startTime = System.nanoTime();
+        final int stackQueued = pushBurstStackQueue(chunks, repeats);
+        final long stackTime = System.nanoTime() - startTime;
+
+        assertEquals(chunks * chunks * 8, linkedQueued);
+        assertEquals(linkedQueued, stackQueued);
+
+        System.out.println("StackRequestQueueTest: (" + (chunks * chunks * 8 * repeats) + ") pushes of (" + stackQueued + ") stacks | LinkedBlockingQueue.contains (" + (linkedTime / 1_000_000) + " ms) | StackRequestQueue (" + (stackTime / 1_000_000) + " ms)");
+    }
+
+    private static int pushBurstLinkedQueue(final int chunks, final int repeats) {
+        final LinkedBlockingQueue<Vector3ic> queue = new LinkedBlockingQueue<>();
+        for (int repeat = 0; repeat < repeats; repeat++) {
+            for (int x = 0; x < chunks; x++) {
+                for (int z = 0; z < chunks; z++) {
+                    for (int stack = 0; stack < 8; stack++) {
+                        final Vector3ic position = new Vector3i(x, stack, z);
+                        if (!queue.contains(position)) {
+                            queue.add(position);
+                        }
+                    }
+                }
+            }
+        }
+        return queue.size();
+    }
+
+    private static int pushBurstStackQueue(final int chunks, final int repeats) {
+        final StackRequestQueue queue = new StackRequestQueue();
+        for (int repeat = 0; repeat < repeats; repeat++) {
+            for (int x = 0; x < chunks; x++) {
+                for (int z = 0; z < chunks; z++) {
+                    for (int stack = 0; stack < 8; stack++) {
+                        queue.add(packStack(x, stack, z), false);
+                    }
+                }
+            }
+        }
+        return queue.size();
+    }
+}
@@ -0,0 +1,181 @@
+/*
+ Crafter - A blocky game (engine) written in Java with LWJGL.
+ Copyright (C) 2023  jordan4ibanez
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.crafter_unit_tests;
+
+import org.crafter.engine.world.chunk.Chunk;
+import org.crafter.engine.world.chunk.ChunkStorage;
+import org.crafter.engine.world.region.RegionStorage;
+import org.crafter.engine.world.region.WorldSaver;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class WorldSaverTest {
+
+    // 32x32, the classic map. Far away from anything other tests put into ChunkStorage
+    private static final int size = 32;
+    private static final int offset = 10_000;
+
+    @Test
+    public void testAsyncSave() throws IOException {
+        final Path folder = Files.createTempDirectory("crafter_saver_test");
+        RegionStorage.setWorldFolder(folder.toString());
+
+        try {
+            for (int x = 0; x < size; x++) {
+                for (int z = 0; z < size; z++) {
+                    if (!ChunkStorage.hasChunk(x + offset, z + offset)) {
+                        ChunkStorage.addOrUpdate(ChunkPaletteTest.generateStockTerrain(x + offset, z + offset));
+                    }
+                    ChunkStorage.getChunk(x + offset, z + offset).setBlockData(0, 127, 0, 0);
+                }
+            }
+            assertTrue(anyDirty());
+
+            WorldSaver.start();
+            assertTrue(WorldSaver.save() >= size * size);
+            // Captured means handed off, they are not dirty anymore even if not on disk yet
+            assertFalse(anyDirty());
+            assertEquals(0, WorldSaver.save());
+            WorldSaver.flush();
+
+            for (int x = 0; x < size; x++) {
+                for (int z = 0; z < size; z++) {
+                    final Chunk live = ChunkStorage.getChunk(x + offset, z + offset);
+                    assertArrayEquals(live.getData(), RegionStorage.loadChunk(x + offset, z + offset).getData());
+                }
+            }
+
+            // Writes after the capture make it dirty again, the flush picks up the newer version
+            WorldSaver.start();
+            final Chunk edited = ChunkStorage.getChunk(offset + 5, offset + 5);
+            edited.setBlockData(3, 100, 3, Chunk.setBlockID(0, 7));
+            assertTrue(edited.isDirty());
+            assertEquals(1, WorldSaver.save());
+            edited.setBlockData(4, 100, 4, Chunk.setBlockID(0, 8));
+            assertTrue(edited.isDirty());
+            WorldSaver.flush();
+
+            assertFalse(edited.isDirty());
+            assertArrayEquals(edited.getData(), RegionStorage.loadChunk(offset + 5, offset + 5).getData());
+        } finally {
+            // Saved into a folder that's gone now, the other test has to start over with fresh chunks
+            removeChunks();
+            RegionStorage.closeAll();
+            deleteFolder(folder);
+        }
+    }
+
+    /**
+     * How long the main thread is held up by a save of the whole classic map, every chunk dirty.
+     * Thread CPU time is reported too, on a single core machine the wall time includes the writer thread taking the core.
+     */
+    @Test
+    @Tag("benchmark")
+    public void benchmarkMainThreadSave() throws IOException {
+        final Path folder = Files.createTempDirectory("crafter_saver_test");
+        RegionStorage.setWorldFolder(folder.toString());
+        final ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+
+        try {
+            for (int x = 0; x < size; x++) {
+                for (int z = 0; z < size; z++) {
+                    if (!ChunkStorage.hasChunk(x + offset, z + offset)) {
+                        ChunkStorage.addOrUpdate(ChunkPaletteTest.generateStockTerrain(x + offset, z + offset));
+                    }
+                }
+            }
+
+            // The first round is what the first autosave of a session costs, nothing is warmed up yet
+            final int rounds = 10;
+            final long[] wall = new long[rounds];
+            final long[] cpu = new long[rounds];
+            final long[] cleanWall = new long[rounds];
+            for (int round = 0; round < rounds; round++) {
+                for (int x = 0; x < size; x++) {
+                    for (int z = 0; z < size; z++) {
+                        ChunkStorage.getChunk(x + offset, z + offset).setBlockData(1, 70, 1, round);
+                    }
+                }
+
+                WorldSaver.start();
+                final long cpuStart = threadBean.getCurrentThreadCpuTime();
+                assertTrue(WorldSaver.save() >= size * size);
+                cpu[round] = threadBean.getCurrentThreadCpuTime() - cpuStart;
+                wall[round] = WorldSaver.getLastCaptureTime();
+
+                // An autosave where nothing changed
+                WorldSaver.save();
+                cleanWall[round] = WorldSaver.getLastCaptureTime();
+                WorldSaver.flush();
+            }
+
+            System.out.println("WorldSaverTest: main thread per save, 32x32 map all dirty, " + rounds + " rounds\n" +
+                    "  wall: " + describeRounds(wall) + "\n" +
+                    "  thread cpu: " + describeRounds(cpu) + "\n" +
+                    "  nothing dirty: " + describeRounds(cleanWall));
+        } finally {
+            // Saved into a folder that's gone now, the other test has to start over with fresh chunks
+            removeChunks();
+            RegionStorage.closeAll();
+            deleteFolder(folder);
+        }
+    }
+
+    private String describeRounds(final long[] times) {
+        final long[] sorted = times.clone();
+        Arrays.sort(sorted);
+        return "first: " + (times[0] / 1_000) + " us | median: " + (sorted[sorted.length / 2] / 1_000) +
+                " us | worst: " + (sorted[sorted.length - 1] / 1_000) + " us";
+    }
+
+    private void removeChunks() {
+        for (int x = 0; x < size; x++) {
+            for (int z = 0; z < size; z++) {
+                ChunkStorage.removeChunk(x + offset, z + offset);
+            }
+        }
+    }
+
+    private boolean anyDirty() {
+        for (int x = 0; x < size; x++) {
+            for (int z = 0; z < size; z++) {
+                if (ChunkStorage.getChunk(x + offset, z + offset).isDirty()) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private void deleteFolder(final Path folder) throws IOException {
+        try (Stream<Path> paths = Files.walk(folder)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+}